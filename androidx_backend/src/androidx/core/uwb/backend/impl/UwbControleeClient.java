@@ -16,6 +16,7 @@
 
 package androidx.core.uwb.backend.impl;
 
+import static androidx.core.uwb.backend.impl.internal.Utils.INVALID_API_CALL;
 import static androidx.core.uwb.backend.impl.internal.Utils.STATUS_OK;
 import static androidx.core.uwb.backend.impl.internal.Utils.TAG;
 
@@ -29,6 +30,7 @@ import androidx.core.uwb.backend.UwbComplexChannel;
 import androidx.core.uwb.backend.impl.internal.RangingControlee;
 import androidx.core.uwb.backend.impl.internal.UwbServiceImpl;
 
+import java.util.Arrays;
 import java.util.concurrent.Executors;
 
 /** This class implement the operations of a uwb controlee. */
@@ -70,6 +72,23 @@ public class UwbControleeClient extends UwbClient {
     public void removeControlee(UwbAddress address) throws RemoteException {
     }
 
+    @Override
+    public int[] addControlees(UwbAddress[] addresses) throws RemoteException {
+        return invalidApiCallStatuses(addresses);
+    }
+
+    @Override
+    public int[] removeControlees(UwbAddress[] addresses) throws RemoteException {
+        return invalidApiCallStatuses(addresses);
+    }
+
+    // A controlee has no controlees to update, every address fails like on a unicast controller.
+    private static int[] invalidApiCallStatuses(UwbAddress[] addresses) {
+        int[] statuses = new int[addresses == null ? 0 : addresses.length];
+        Arrays.fill(statuses, INVALID_API_CALL);
+        return statuses;
+    }
+
     @Override
     public int getInterfaceVersion() throws RemoteException {
         return 0;
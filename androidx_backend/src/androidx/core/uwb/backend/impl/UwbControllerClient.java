@@ -29,6 +29,8 @@ import androidx.core.uwb.backend.UwbComplexChannel;
 import androidx.core.uwb.backend.impl.internal.RangingController;
 import androidx.core.uwb.backend.impl.internal.UwbServiceImpl;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Executors;
 
 /** This class implement the operations of a uwb controller. */
@@ -88,6 +90,27 @@ public class UwbControllerClient extends UwbClient {
         }
     }
 
+    @Override
+    public int[] addControlees(UwbAddress[] addresses) throws RemoteException {
+        return ((RangingController) mDevice).addControlees(toUwbAddressList(addresses));
+    }
+
+    @Override
+    public int[] removeControlees(UwbAddress[] addresses) throws RemoteException {
+        return ((RangingController) mDevice).removeControlees(toUwbAddressList(addresses));
+    }
+
+    private static List<androidx.core.uwb.backend.impl.internal.UwbAddress> toUwbAddressList(
+            UwbAddress[] addresses) {
+        List<androidx.core.uwb.backend.impl.internal.UwbAddress> uwbAddresses =
+                new ArrayList<>(addresses.length);
+        for (UwbAddress address : addresses) {
+            uwbAddresses.add(
+                    androidx.core.uwb.backend.impl.internal.UwbAddress.fromBytes(address.address));
+        }
+        return uwbAddresses;
+    }
+
     @Override
     public int getInterfaceVersion() throws RemoteException {
         return 0;
@@ -25,6 +25,9 @@ import androidx.core.uwb.backend.IUwbClient;
 import androidx.core.uwb.backend.impl.internal.UwbFeatureFlags;
 import androidx.core.uwb.backend.impl.internal.UwbServiceImpl;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 /** Uwb service entry point of the backend. */
 public class UwbService extends Service {
 
@@ -42,6 +45,13 @@ public class UwbService extends Service {
         mUwbServiceImpl.shutdown();
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("---- Dump of UWB backend ----");
+        mUwbServiceImpl.dump(pw);
+        pw.println("---- Dump of UWB backend ----");
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         // Return the interface
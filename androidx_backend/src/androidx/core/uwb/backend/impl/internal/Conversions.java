@@ -33,6 +33,10 @@ import java.util.List;
 @RequiresApi(api = VERSION_CODES.S)
 final class Conversions {
 
+    /** No distance measurement for DL-TDoA, the measurement is immutable so it is shared. */
+    private static final RangingMeasurement DL_TDOA_DISTANCE =
+            new RangingMeasurement(RangingMeasurement.CONFIDENCE_LOW, 0.0f, false);
+
     private static RangingMeasurement createMeasurement(double value, double confidence,
             boolean valid) {
         @RangingMeasurement.Confidence int confidenceLevel;
@@ -83,8 +87,7 @@ final class Conversions {
                     dlTDoAMeasurement.getAnchorLocation(),
                     dlTDoAMeasurement.getActiveRangingRounds()
             );
-            // No distance measurement for DL-TDoa, make it invalid.
-            distance = createMeasurement(0.0, 0.0, false);
+            distance = DL_TDOA_DISTANCE;
         } else {
             DistanceMeasurement distanceMeasurement = measurement.getDistanceMeasurement();
             if (distanceMeasurement == null) {
@@ -18,18 +18,30 @@ package androidx.core.uwb.backend.impl.internal;
 
 import static androidx.core.uwb.backend.impl.internal.Utils.TAG;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.concurrent.futures.CallbackToFutureAdapter;
 import androidx.concurrent.futures.CallbackToFutureAdapter.Completer;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -38,6 +50,11 @@ import java.util.concurrent.TimeoutException;
  * <p>Typical usage: Execute an operation that should trigger an asynchronous callback. When the
  * callback is invoked, inside the callback the opCompleter is set and unblocks the execution.
  *
+ * <p>The operation can also be submitted without blocking, the returned future completes when the
+ * callback is invoked, fails when the operation times out, and can be cancelled. Only one
+ * operation is active at a time, an operation can be chained to the completion of the previous
+ * one.
+ *
  * @param <T> T is the type of the value that sets in operation's completion.
  */
 public class OpAsyncCallbackRunner<T> {
@@ -45,14 +62,84 @@ public class OpAsyncCallbackRunner<T> {
     /** Default timeout value of an operation */
     private static final int DEFAULT_OPERATION_TIMEOUT_MILLIS = 3000;
 
-    private int mOperationTimeoutMillis = DEFAULT_OPERATION_TIMEOUT_MILLIS;
+    /** Times out the operations of all the runners, it only completes the futures. */
+    private static final ScheduledExecutorService sTimeoutExecutor =
+            Executors.newSingleThreadScheduledExecutor(
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "UwbBackendOpTimeout");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
 
+    private volatile int mOperationTimeoutMillis = DEFAULT_OPERATION_TIMEOUT_MILLIS;
+
+    @GuardedBy("this")
     @Nullable private Completer<T> mOpCompleter;
 
+    @GuardedBy("this")
+    @Nullable private ListenableFuture<T> mOpFuture;
+
+    @GuardedBy("this")
     @Nullable private T mResult;
 
+    @GuardedBy("this")
     private boolean mActive = false;
 
+    @GuardedBy("this")
+    private final Map<String, OperationStats> mOperationStats = new HashMap<>();
+
+    /** Latency of an operation, from its execution to its completion. */
+    public static class OperationStats {
+        private int mCount;
+        private int mFailureCount;
+        private long mTotalLatencyMillis;
+        private long mMaxLatencyMillis;
+
+        OperationStats() {}
+
+        OperationStats(OperationStats stats) {
+            mCount = stats.mCount;
+            mFailureCount = stats.mFailureCount;
+            mTotalLatencyMillis = stats.mTotalLatencyMillis;
+            mMaxLatencyMillis = stats.mMaxLatencyMillis;
+        }
+
+        /** Number of completed operations, including failed ones. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Number of operations which failed, timed out or were cancelled. */
+        public int getFailureCount() {
+            return mFailureCount;
+        }
+
+        public long getAverageLatencyMillis() {
+            return mCount == 0 ? 0 : mTotalLatencyMillis / mCount;
+        }
+
+        public long getMaxLatencyMillis() {
+            return mMaxLatencyMillis;
+        }
+
+        private void add(long latencyMillis, boolean success) {
+            mCount++;
+            if (!success) {
+                mFailureCount++;
+            }
+            mTotalLatencyMillis += latencyMillis;
+            mMaxLatencyMillis = Math.max(mMaxLatencyMillis, latencyMillis);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(
+                    "count=%d failures=%d avg=%dms max=%dms",
+                    mCount, mFailureCount, getAverageLatencyMillis(), mMaxLatencyMillis);
+        }
+    }
+
     /** Set the timeout value in Millis */
     public void setOperationTimeoutMillis(int timeoutMillis) {
         mOperationTimeoutMillis = timeoutMillis;
@@ -60,18 +147,24 @@ public class OpAsyncCallbackRunner<T> {
 
     /** Completes the operation and set the result */
     public void complete(T result) {
-        if (!mActive) {
-            throw new IllegalStateException("Calling complete() without active operation.");
-        }
-        Completer<T> opCompleter = this.mOpCompleter;
-        if (opCompleter != null) {
-            opCompleter.set(result);
-            this.mResult = result;
+        Completer<T> opCompleter;
+        synchronized (this) {
+            if (!mActive) {
+                throw new IllegalStateException("Calling complete() without active operation.");
+            }
+            opCompleter = mOpCompleter;
+            if (opCompleter == null) {
+                return;
+            }
+            mResult = result;
+            // The next operation can be chained to the completion of this one.
+            clearOperation();
         }
+        opCompleter.set(result);
     }
 
     @Nullable
-    public T getResult() {
+    public synchronized T getResult() {
         return mResult;
     }
 
@@ -81,11 +174,31 @@ public class OpAsyncCallbackRunner<T> {
      */
     @WorkerThread
     public boolean execOperation(Runnable op, String opDescription) {
-        mResult = null;
+        ListenableFuture<T> opFuture = submitOperation(op, opDescription);
+        try {
+            return opFuture.get() != null;
+        } catch (InterruptedException e) {
+            opFuture.cancel(/* mayInterruptIfRunning= */ false);
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Execute op in current thread without waiting for its completion. The returned future
+     * completes with the result set by the completer, fails with a {@link TimeoutException} if the
+     * completer is not set in time, and cancels the operation if it is cancelled.
+     */
+    @NonNull
+    public synchronized ListenableFuture<T> submitOperation(Runnable op, String opDescription) {
         if (mActive) {
             throw new IllegalStateException("Calling execOperation() while operation is running.");
         }
+        mResult = null;
         mActive = true;
+        long startTimeMillis = SystemClock.elapsedRealtime();
         ListenableFuture<T> opFuture =
                 CallbackToFutureAdapter.getFuture(
                         completer -> {
@@ -93,25 +206,71 @@ public class OpAsyncCallbackRunner<T> {
                             op.run();
                             return "Async " + opDescription;
                         });
+        if (mActive && mOpCompleter != null) {
+            mOpFuture = opFuture;
+        }
+        opFuture.addListener(
+                () -> onOperationDone(opFuture, opDescription, startTimeMillis),
+                directExecutor());
+        return Futures.withTimeout(
+                opFuture, mOperationTimeoutMillis, MILLISECONDS, sTimeoutExecutor);
+    }
+
+    /** Cancels the active operation, if any. */
+    public void cancel() {
+        ListenableFuture<T> opFuture;
+        synchronized (this) {
+            opFuture = mOpFuture;
+        }
+        if (opFuture != null) {
+            opFuture.cancel(/* mayInterruptIfRunning= */ false);
+        }
+    }
+
+    public synchronized boolean isActive() {
+        return mActive;
+    }
+
+    /** Gets the latency stats of the operations with the given description. */
+    @Nullable
+    public synchronized OperationStats getOperationStats(String opDescription) {
+        OperationStats stats = mOperationStats.get(opDescription);
+        return stats == null ? null : new OperationStats(stats);
+    }
+
+    /** Dumps the latency stats of all the operations run so far. */
+    public synchronized void dump(@NonNull PrintWriter pw) {
+        for (Map.Entry<String, OperationStats> entry : mOperationStats.entrySet()) {
+            pw.println("  " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+
+    private void onOperationDone(
+            ListenableFuture<T> opFuture, String opDescription, long startTimeMillis) {
+        long latencyMillis = SystemClock.elapsedRealtime() - startTimeMillis;
+        boolean success = false;
         try {
-            mResult = opFuture.get(mOperationTimeoutMillis, MILLISECONDS);
-            return mResult != null;
-        } catch (TimeoutException e) {
-            Log.w(TAG, String.format("Callback timeout in Op %s", opDescription), e);
-            return false;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            return false;
+            success = Futures.getDone(opFuture) != null;
         } catch (ExecutionException e) {
             Log.w(TAG, String.format("ExecutionException in Op %s", opDescription), e);
-            return false;
-        } finally {
-            mOpCompleter = null;
-            mActive = false;
+        } catch (CancellationException e) {
+            // A timed out operation is cancelled by its timeout.
+            Log.w(TAG, String.format("Callback timeout or cancelled in Op %s", opDescription));
+        }
+        synchronized (this) {
+            // The operation failed, timed out or was cancelled before its completion.
+            if (mOpFuture == opFuture) {
+                clearOperation();
+            }
+            mOperationStats.computeIfAbsent(opDescription, k -> new OperationStats())
+                    .add(latencyMillis, success);
         }
     }
 
-    public boolean isActive() {
-        return mActive;
+    @GuardedBy("this")
+    private void clearOperation() {
+        mOpCompleter = null;
+        mOpFuture = null;
+        mActive = false;
     }
 }
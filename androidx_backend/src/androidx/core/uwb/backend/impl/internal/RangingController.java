@@ -41,8 +41,13 @@ import com.google.uwb.support.fira.FiraOpenSessionParams;
 import com.google.uwb.support.fira.FiraParams;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
@@ -50,7 +55,8 @@ import java.util.concurrent.ExecutorService;
 @RequiresApi(api = VERSION_CODES.S)
 public class RangingController extends RangingDevice {
 
-    private final List<UwbAddress> mDynamicallyAddedPeers = new ArrayList<>();
+    // Read by the backend callback thread to match the ranging reports to the peers.
+    private final List<UwbAddress> mDynamicallyAddedPeers = new CopyOnWriteArrayList<>();
 
     @Nullable private RangingSessionCallback mRangingSessionCallback;
 
@@ -157,56 +163,77 @@ public class RangingController extends RangingDevice {
      * configured.
      */
     public synchronized int addControlee(UwbAddress controleeAddress) {
-        Log.i(TAG, String.format("Add UWB peer: %s", controleeAddress));
-        if (!isAlive()) {
-            return INVALID_API_CALL;
+        int status = addControlees(List.of(controleeAddress))[0];
+        return status == INVALID_API_CALL ? INVALID_API_CALL : STATUS_OK;
+    }
+
+    /**
+     * Add new controlees to the controller with a single multicast list update. The callbacks of
+     * each controlee are the same as {@link #addControlee(UwbAddress)}.
+     *
+     * @return the status of each controlee, in the order of the given addresses. {@link
+     * Utils#STATUS_OK} if the controlee is added or already known, {@link
+     * Utils#UWB_SYSTEM_CALLBACK_FAILURE} if the system failed to add it, and {@link
+     * Utils#INVALID_API_CALL} for all controlees if the session is not active or is unicast.
+     */
+    public synchronized int[] addControlees(List<UwbAddress> controleeAddresses) {
+        Log.i(TAG, String.format("Add UWB peers: %s", controleeAddresses));
+        int[] statuses = new int[controleeAddresses.size()];
+        if (!isAlive() || ConfigurationManager.isUnicast(mRangingParameters.getUwbConfigId())) {
+            Arrays.fill(statuses, INVALID_API_CALL);
+            return statuses;
         }
-        if (ConfigurationManager.isUnicast(mRangingParameters.getUwbConfigId())) {
-            return INVALID_API_CALL;
+        List<UwbAddress> newControlees = new ArrayList<>();
+        for (UwbAddress controleeAddress : controleeAddresses) {
+            if (!isKnownPeer(controleeAddress) && !newControlees.contains(controleeAddress)) {
+                newControlees.add(controleeAddress);
+            }
         }
-        if (isKnownPeer(controleeAddress) || mDynamicallyAddedPeers.contains(controleeAddress)) {
-            return STATUS_OK;
+        if (newControlees.isEmpty()) {
+            Arrays.fill(statuses, STATUS_OK);
+            return statuses;
         }
+
         // Reconfigure the session.
-        int[] subSessionIdList = mRangingParameters.getUwbConfigId()
-                == CONFIG_PROVISIONED_INDIVIDUAL_MULTICAST_DS_TWR
-                        ? new int[] {mRangingParameters.getSubSessionId()}
-                        : null;
-        byte[] subSessionKeyInfo = mRangingParameters.getUwbConfigId()
-                == CONFIG_PROVISIONED_INDIVIDUAL_MULTICAST_DS_TWR
-                        ? mRangingParameters.getSubSessionKeyInfo()
-                        : null;
-        boolean success =
-                reconfigureRanging(
-                        ConfigurationManager.createReconfigureParams(
-                                        mRangingParameters.getUwbConfigId(),
-                                        FiraParams.MULTICAST_LIST_UPDATE_ACTION_ADD,
-                                        new UwbAddress[] {controleeAddress},
-                                        subSessionIdList,
-                                        subSessionKeyInfo,
-                                        mUwbFeatureFlags)
-                                .toBundle());
+        int[] subSessionIdList = null;
+        byte[] subSessionKeyInfo = null;
+        if (mRangingParameters.getUwbConfigId() == CONFIG_PROVISIONED_INDIVIDUAL_MULTICAST_DS_TWR) {
+            // All the controlees share the sub session of the ranging parameters.
+            subSessionIdList = new int[newControlees.size()];
+            Arrays.fill(subSessionIdList, mRangingParameters.getSubSessionId());
+            subSessionKeyInfo =
+                    repeat(mRangingParameters.getSubSessionKeyInfo(), newControlees.size());
+        }
+        Map<UwbAddress, Boolean> results = updateControlees(
+                FiraParams.MULTICAST_LIST_UPDATE_ACTION_ADD,
+                newControlees,
+                subSessionIdList,
+                subSessionKeyInfo);
 
         RangingSessionCallback callback = mRangingSessionCallback;
-        if (success) {
-            if (callback != null) {
-                runOnBackendCallbackThread(
-                        () ->
-                            callback.onRangingInitialized(
-                                    UwbDevice.createForAddress(controleeAddress.toBytes())));
-            }
-            mDynamicallyAddedPeers.add(controleeAddress);
-        } else {
-            if (callback != null) {
-                runOnBackendCallbackThread(
-                        () ->
-                            callback.onRangingSuspended(
-                                    UwbDevice.createForAddress(controleeAddress.toBytes()),
-                                    REASON_FAILED_TO_START));
+        Map<UwbAddress, Integer> newControleeStatuses = new HashMap<>();
+        for (Map.Entry<UwbAddress, Boolean> result : results.entrySet()) {
+            UwbDevice device = UwbDevice.createForAddress(result.getKey().toBytes());
+            if (result.getValue()) {
+                if (callback != null) {
+                    runOnBackendCallbackThread(() -> callback.onRangingInitialized(device));
+                }
+                mDynamicallyAddedPeers.add(result.getKey());
+                newControleeStatuses.put(result.getKey(), STATUS_OK);
+            } else {
+                if (callback != null) {
+                    runOnBackendCallbackThread(
+                            () -> callback.onRangingSuspended(device, REASON_FAILED_TO_START));
+                }
+                newControleeStatuses.put(result.getKey(), UWB_SYSTEM_CALLBACK_FAILURE);
             }
         }
-
-        return STATUS_OK;
+        onPeersChanged();
+        for (int i = 0; i < statuses.length; i++) {
+            // The controlees known before the update are added already.
+            statuses[i] = newControleeStatuses.getOrDefault(controleeAddresses.get(i), STATUS_OK);
+        }
+        return statuses;
     }
 
     /**
@@ -220,40 +247,105 @@ public class RangingController extends RangingDevice {
      * </ul>
      */
     public synchronized int removeControlee(UwbAddress controleeAddress) {
-        Log.i(TAG, String.format("Remove UWB peer: %s", controleeAddress));
+        return removeControlees(List.of(controleeAddress))[0];
+    }
+
+    /**
+     * Remove controlees from current session with a single multicast list update.
+     *
+     * @return the status of each controlee, in the order of the given addresses, as returned by
+     * {@link #removeControlee(UwbAddress)}, or {@link Utils#UWB_SYSTEM_CALLBACK_FAILURE} if the
+     * system failed to remove it.
+     */
+    public synchronized int[] removeControlees(List<UwbAddress> controleeAddresses) {
+        Log.i(TAG, String.format("Remove UWB peers: %s", controleeAddresses));
+        int[] statuses = new int[controleeAddresses.size()];
         if (!isAlive()) {
             Log.w(TAG, "Attempt to remove controlee while session is not active.");
-            return INVALID_API_CALL;
+            Arrays.fill(statuses, INVALID_API_CALL);
+            return statuses;
         }
-        if (!isKnownPeer(controleeAddress)) {
+        List<UwbAddress> knownControlees = new ArrayList<>();
+        for (UwbAddress controleeAddress : controleeAddresses) {
+            if (isKnownPeer(controleeAddress) && !knownControlees.contains(controleeAddress)) {
+                knownControlees.add(controleeAddress);
+            }
+        }
+        if (knownControlees.isEmpty()) {
             Log.w(TAG, "Attempt to remove non-existing controlee.");
-            return INVALID_API_CALL;
+            Arrays.fill(statuses, INVALID_API_CALL);
+            return statuses;
         }
 
         // Reconfigure the session.
-        boolean success =
-                reconfigureRanging(
-                        ConfigurationManager.createReconfigureParams(
-                                        mRangingParameters.getUwbConfigId(),
-                                        FiraParams.MULTICAST_LIST_UPDATE_ACTION_DELETE,
-                                        new UwbAddress[]{controleeAddress},
-                                        /* subSessionIdList= */ null,
-                                        /* subSessionKey= */ null,
-                                        mUwbFeatureFlags)
-                                .toBundle());
-        if (!success) {
-            return UWB_SYSTEM_CALLBACK_FAILURE;
-        }
+        Map<UwbAddress, Boolean> results = updateControlees(
+                FiraParams.MULTICAST_LIST_UPDATE_ACTION_DELETE,
+                knownControlees,
+                /* subSessionIdList= */ null,
+                /* subSessionKey= */ null);
 
         RangingSessionCallback callback = mRangingSessionCallback;
-        if (callback != null) {
-            runOnBackendCallbackThread(
-                    () ->
-                        callback.onRangingSuspended(
-                                UwbDevice.createForAddress(controleeAddress.toBytes()),
-                                REASON_STOP_RANGING_CALLED));
+        Map<UwbAddress, Integer> knownControleeStatuses = new HashMap<>();
+        for (Map.Entry<UwbAddress, Boolean> result : results.entrySet()) {
+            if (!result.getValue()) {
+                knownControleeStatuses.put(result.getKey(), UWB_SYSTEM_CALLBACK_FAILURE);
+                continue;
+            }
+            UwbDevice device = UwbDevice.createForAddress(result.getKey().toBytes());
+            if (callback != null) {
+                runOnBackendCallbackThread(
+                        () -> callback.onRangingSuspended(device, REASON_STOP_RANGING_CALLED));
+            }
+            mDynamicallyAddedPeers.remove(result.getKey());
+            knownControleeStatuses.put(result.getKey(), STATUS_OK);
+        }
+        onPeersChanged();
+        for (int i = 0; i < statuses.length; i++) {
+            statuses[i] = knownControleeStatuses.getOrDefault(
+                    controleeAddresses.get(i), INVALID_API_CALL);
+        }
+        return statuses;
+    }
+
+    /**
+     * Updates the multicast list with the controlees, and gets the result of each of them in the
+     * order of the controlees. The controlees the system did not report a result for, as an
+     * older system does not, get the result of the whole reconfiguration.
+     */
+    private Map<UwbAddress, Boolean> updateControlees(
+            @FiraParams.MulticastListUpdateAction int action,
+            List<UwbAddress> controleeAddresses,
+            @Nullable int[] subSessionIdList,
+            @Nullable byte[] subSessionKeyInfo) {
+        Map<android.uwb.UwbAddress, Boolean> reportedResults = new HashMap<>();
+        boolean success = updateMulticastList(
+                ConfigurationManager.createReconfigureParams(
+                                mRangingParameters.getUwbConfigId(),
+                                action,
+                                controleeAddresses.toArray(new UwbAddress[0]),
+                                subSessionIdList,
+                                subSessionKeyInfo,
+                                mUwbFeatureFlags)
+                        .toBundle(),
+                reportedResults);
+        Map<UwbAddress, Boolean> results = new LinkedHashMap<>();
+        for (UwbAddress controleeAddress : controleeAddresses) {
+            Boolean result = reportedResults.get(Conversions.convertUwbAddress(
+                    controleeAddress, mUwbFeatureFlags.isReversedMacAddress()));
+            results.put(controleeAddress, result != null ? result : success);
+        }
+        return results;
+    }
+
+    @Nullable
+    private static byte[] repeat(@Nullable byte[] bytes, int count) {
+        if (bytes == null) {
+            return null;
+        }
+        byte[] repeated = new byte[bytes.length * count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(bytes, 0, repeated, i * bytes.length, bytes.length);
         }
-        mDynamicallyAddedPeers.remove(controleeAddress);
-        return STATUS_OK;
+        return repeated;
     }
 }
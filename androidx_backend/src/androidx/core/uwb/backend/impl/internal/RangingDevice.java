@@ -25,11 +25,14 @@ import static androidx.core.uwb.backend.impl.internal.Utils.STATUS_OK;
 import static androidx.core.uwb.backend.impl.internal.Utils.TAG;
 import static androidx.core.uwb.backend.impl.internal.Utils.UWB_SYSTEM_CALLBACK_FAILURE;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
 import static java.util.Objects.requireNonNull;
 
 import android.annotation.WorkerThread;
 import android.os.PersistableBundle;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.uwb.RangingMeasurement;
 import android.uwb.RangingReport;
 import android.uwb.RangingSession;
@@ -41,10 +44,19 @@ import androidx.annotation.Nullable;
 import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.FluentFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.uwb.support.fira.FiraMulticastListUpdateStatusCode;
 import com.google.uwb.support.fira.FiraOpenSessionParams;
 
+import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 
@@ -67,18 +79,18 @@ public abstract class RangingDevice {
     protected UwbComplexChannel mComplexChannel;
 
     @Nullable
-    protected RangingParameters mRangingParameters;
+    protected volatile RangingParameters mRangingParameters;
 
     /** A serial thread used by System API to handle session callbacks. */
     private Executor mSystemCallbackExecutor;
 
     /** A serial thread used in system API callbacks to handle Backend callbacks */
     @Nullable
-    private ExecutorService mBackendCallbackExecutor;
+    private volatile ExecutorService mBackendCallbackExecutor;
 
     /** NotNull when session opening is successful. Set to Null when session is closed. */
     @Nullable
-    private RangingSession mRangingSession;
+    private volatile RangingSession mRangingSession;
 
     private boolean mIsRanging = false;
 
@@ -86,10 +98,16 @@ public abstract class RangingDevice {
     private Boolean mForTesting = false;
 
     @Nullable
-    private RangingRoundFailureCallback mRangingRoundFailureCallback = null;
+    private volatile RangingRoundFailureCallback mRangingRoundFailureCallback = null;
 
     private boolean mRangingReportedAllowed = false;
 
+    private final PeerTable mPeerTable = new PeerTable();
+
+    /** The result of each controlee reported during the current multicast list update. */
+    private final Map<android.uwb.UwbAddress, Boolean> mMulticastListUpdateResults =
+            new ConcurrentHashMap<>();
+
     @Nullable
     private String mChipId = null;
 
@@ -167,6 +185,7 @@ public abstract class RangingDevice {
         } else {
             mRangingParameters = rangingParameters;
         }
+        onPeersChanged();
     }
 
     /** Alive means the session is open. */
@@ -182,6 +201,18 @@ public abstract class RangingDevice {
         return mIsRanging;
     }
 
+    /**
+     * Called when the peers of the session are changed, so the peers matched to the ranging
+     * reports are looked up again.
+     */
+    protected void onPeersChanged() {
+        mPeerTable.clear();
+    }
+
+    /**
+     * Checks whether the address is a peer of the session. It is called from the backend callback
+     * thread without holding the lock of the device.
+     */
     protected boolean isKnownPeer(UwbAddress address) {
         requireNonNull(mRangingParameters);
         return mRangingParameters.getPeerAddresses().contains(address);
@@ -189,32 +220,47 @@ public abstract class RangingDevice {
 
     /**
      * Converts the {@link RangingReport} to {@link RangingPosition} and invokes the GMSCore
-     * callback.
+     * callback. The lock of the device is not held, the known peers are looked up in the peer
+     * table, which keeps the {@link UwbDevice} of each peer.
      */
-    // Null-guard prevents this from being null
-    private synchronized void onRangingDataReceived(
+    private void onRangingDataReceived(
             RangingReport rangingReport, RangingSessionCallback callback) {
         List<RangingMeasurement> measurements = rangingReport.getMeasurements();
-        for (RangingMeasurement measurement : measurements) {
-            byte[] remoteAddressBytes = measurement.getRemoteDeviceAddress().toBytes();
-
-            UwbAddress peerAddress = UwbAddress.fromBytes(remoteAddressBytes);
-            if (!isKnownPeer(peerAddress)) {
+        RangingRoundFailureCallback rangingRoundFailureCallback = mRangingRoundFailureCallback;
+        for (int i = 0; i < measurements.size(); i++) {
+            RangingMeasurement measurement = measurements.get(i);
+            UwbDevice peer = getKnownPeer(measurement.getRemoteDeviceAddress());
+            if (peer == null) {
                 continue;
             }
 
             if (measurement.getStatus() != RangingMeasurement.RANGING_STATUS_SUCCESS
-                    && mRangingRoundFailureCallback != null) {
-                mRangingRoundFailureCallback.onRangingRoundFailed(peerAddress);
+                    && rangingRoundFailureCallback != null) {
+                rangingRoundFailureCallback.onRangingRoundFailed(peer.getAddress());
             }
 
             RangingPosition currentPosition = Conversions.convertToPosition(measurement);
             if (currentPosition == null) {
                 continue;
             }
-            UwbDevice uwbDevice = UwbDevice.createForAddress(peerAddress.toBytes());
-            callback.onRangingResult(uwbDevice, currentPosition);
+            callback.onRangingResult(peer, currentPosition);
+        }
+    }
+
+    @Nullable
+    private UwbDevice getKnownPeer(android.uwb.UwbAddress remoteAddress) {
+        byte[] remoteAddressBytes = remoteAddress.toBytes();
+        UwbDevice peer = mPeerTable.get(remoteAddressBytes);
+        if (peer != null) {
+            return peer;
+        }
+        int generation = mPeerTable.getGeneration();
+        if (!isKnownPeer(UwbAddress.fromBytes(remoteAddressBytes))) {
+            return null;
         }
+        peer = UwbDevice.createForAddress(remoteAddressBytes);
+        mPeerTable.put(remoteAddressBytes, peer, generation);
+        return peer;
     }
 
     /**
@@ -293,6 +339,30 @@ public abstract class RangingDevice {
                 mOpAsyncCallbackRunner.complete(false);
             }
 
+            @WorkerThread
+            @Override
+            public void onControleeAdded(PersistableBundle params) {
+                onMulticastListUpdated(params, /* success= */ true);
+            }
+
+            @WorkerThread
+            @Override
+            public void onControleeAddFailed(int reason, PersistableBundle params) {
+                onMulticastListUpdated(params, /* success= */ false);
+            }
+
+            @WorkerThread
+            @Override
+            public void onControleeRemoved(PersistableBundle params) {
+                onMulticastListUpdated(params, /* success= */ true);
+            }
+
+            @WorkerThread
+            @Override
+            public void onControleeRemoveFailed(int reason, PersistableBundle params) {
+                onMulticastListUpdated(params, /* success= */ false);
+            }
+
             @WorkerThread
             @Override
             public void onStopped(int reason, PersistableBundle params) {
@@ -371,19 +441,32 @@ public abstract class RangingDevice {
     @Utils.UwbStatusCodes
     public synchronized int startRanging(
             RangingSessionCallback callback, ExecutorService backendCallbackExecutor) {
+        return waitFor(startRangingAsync(callback, backendCallbackExecutor), STATUS_OK);
+    }
+
+    /**
+     * Starts ranging without blocking the calling thread, the session is opened and then started
+     * once it is opened. The future completes with the status once ranging is started or failed
+     * to start, cancelling it cancels the pending operation.
+     *
+     * <p>The binder entry points still go through {@link #startRanging}, as IUwbClient is a
+     * synchronous interface and its clients rely on a stop being handled after the start.
+     */
+    public synchronized ListenableFuture<Integer> startRangingAsync(
+            RangingSessionCallback callback, ExecutorService backendCallbackExecutor) {
         if (isAlive()) {
-            return RANGING_ALREADY_STARTED;
+            return Futures.immediateFuture(RANGING_ALREADY_STARTED);
         }
 
         if (mLocalAddress == null) {
-            return INVALID_API_CALL;
+            return Futures.immediateFuture(INVALID_API_CALL);
         }
 
         PersistableBundle parameters = getOpenSessionParams().toBundle();
         printStartRangingParameters(parameters);
         mBackendCallbackExecutor = backendCallbackExecutor;
-        boolean success =
-                mOpAsyncCallbackRunner.execOperation(
+        ListenableFuture<Boolean> opened =
+                succeeded(mOpAsyncCallbackRunner.submitOperation(
                         () -> {
                             if (mChipId != null) {
                                 mUwbManager.openRangingSession(
@@ -398,30 +481,51 @@ public abstract class RangingDevice {
                                         convertCallback(callback));
                             }
                         },
-                        "Open session");
-
-        Boolean result = mOpAsyncCallbackRunner.getResult();
-        if (!success || result == null || !result) {
-            requireNonNull(mBackendCallbackExecutor);
-            mBackendCallbackExecutor.shutdown();
-            mBackendCallbackExecutor = null;
-            // onRangingSuspended should have been called in the callback.
-            return STATUS_OK;
-        }
-
-        success =
-                mOpAsyncCallbackRunner.execOperation(
-                        () -> mRangingSession.start(new PersistableBundle()), "Start ranging");
+                        "Open session"));
+
+        // The start is chained in the callback of the open, the lock must not be acquired.
+        ListenableFuture<Boolean> started =
+                Futures.transformAsync(
+                        opened,
+                        success -> {
+                            if (!success) {
+                                // onRangingSuspended should have been called in the callback.
+                                return Futures.immediateFuture(false);
+                            }
+                            return succeeded(mOpAsyncCallbackRunner.submitOperation(
+                                    () -> mRangingSession.start(new PersistableBundle()),
+                                    "Start ranging"));
+                        },
+                        directExecutor());
+        ListenableFuture<Integer> status =
+                Futures.transform(
+                        started,
+                        success -> {
+                            if (!success) {
+                                shutdownBackendCallbackExecutor();
+                            } else {
+                                mRangingReportedAllowed = true;
+                            }
+                            return STATUS_OK;
+                        },
+                        directExecutor());
+        status.addListener(
+                () -> {
+                    // An opened session keeps the executor until it is stopped.
+                    if (status.isCancelled() && !isAlive()) {
+                        shutdownBackendCallbackExecutor();
+                    }
+                },
+                directExecutor());
+        return status;
+    }
 
-        result = mOpAsyncCallbackRunner.getResult();
-        requireNonNull(mBackendCallbackExecutor);
-        if (!success || result == null || !result) {
-            mBackendCallbackExecutor.shutdown();
+    private void shutdownBackendCallbackExecutor() {
+        ExecutorService backendCallbackExecutor = mBackendCallbackExecutor;
+        if (backendCallbackExecutor != null) {
+            backendCallbackExecutor.shutdown();
             mBackendCallbackExecutor = null;
-        } else {
-            mRangingReportedAllowed = true;
         }
-        return STATUS_OK;
     }
 
     /** Stops ranging if the session is ranging. */
@@ -442,10 +546,7 @@ public abstract class RangingDevice {
                 mOpAsyncCallbackRunner.execOperation(
                         () -> requireNonNull(mRangingSession).close(), "Close Session");
 
-        if (mBackendCallbackExecutor != null) {
-            mBackendCallbackExecutor.shutdown();
-            mBackendCallbackExecutor = null;
-        }
+        shutdownBackendCallbackExecutor();
         mLocalAddress = null;
         mComplexChannel = null;
         Boolean result = mOpAsyncCallbackRunner.getResult();
@@ -462,11 +563,78 @@ public abstract class RangingDevice {
      * @return returns true if the session is not active or reconfiguration is successful.
      */
     protected synchronized boolean reconfigureRanging(PersistableBundle bundle) {
-        boolean success =
-                mOpAsyncCallbackRunner.execOperation(
-                        () -> mRangingSession.reconfigure(bundle), "Reconfigure Ranging");
-        Boolean result = mOpAsyncCallbackRunner.getResult();
-        return success && result != null && result;
+        return waitFor(reconfigureRangingAsync(bundle), false);
+    }
+
+    /**
+     * Supports ranging configuration change without blocking the calling thread. The controlee
+     * updates wait for it through {@link #reconfigureRanging}, as their results are returned
+     * synchronously to the client.
+     *
+     * @return a future of {@link #reconfigureRanging(PersistableBundle)}, which can be cancelled.
+     */
+    protected synchronized ListenableFuture<Boolean> reconfigureRangingAsync(
+            PersistableBundle bundle) {
+        return succeeded(mOpAsyncCallbackRunner.submitOperation(
+                () -> mRangingSession.reconfigure(bundle), "Reconfigure Ranging"));
+    }
+
+    /** Gets the latency stats of the operations of this device, for debugging. */
+    @Nullable
+    public OpAsyncCallbackRunner.OperationStats getOperationStats(String opDescription) {
+        return mOpAsyncCallbackRunner.getOperationStats(opDescription);
+    }
+
+    /** Dumps the state of the session and the latency stats of its operations. */
+    public void dump(@NonNull PrintWriter pw) {
+        pw.println(getClass().getSimpleName() + ": alive=" + isAlive() + " ranging="
+                + isRanging());
+        mOpAsyncCallbackRunner.dump(pw);
+    }
+
+    /** Maps the future of an operation to whether it succeeded, it fails on a timeout. */
+    private static ListenableFuture<Boolean> succeeded(ListenableFuture<Boolean> opFuture) {
+        return FluentFuture.from(opFuture)
+                .transform(result -> result != null && result, directExecutor())
+                .catching(Exception.class, e -> false, directExecutor());
+    }
+
+    private static <V> V waitFor(ListenableFuture<V> future, V defaultValue) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(/* mayInterruptIfRunning= */ false);
+            Thread.currentThread().interrupt();
+            return defaultValue;
+        } catch (ExecutionException | CancellationException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Updates the multicast list of the session with a single reconfiguration. The result of each
+     * controlee reported by the system is put in the results, keyed by the address sent to the
+     * system.
+     *
+     * @return returns true if the reconfiguration of the whole list is successful.
+     */
+    protected synchronized boolean updateMulticastList(
+            PersistableBundle bundle, Map<android.uwb.UwbAddress, Boolean> results) {
+        mMulticastListUpdateResults.clear();
+        boolean success = reconfigureRanging(bundle);
+        results.putAll(mMulticastListUpdateResults);
+        return success;
+    }
+
+    private void onMulticastListUpdated(PersistableBundle params, boolean success) {
+        if (!FiraMulticastListUpdateStatusCode.isBundleValid(params)) {
+            return;
+        }
+        android.uwb.UwbAddress address =
+                FiraMulticastListUpdateStatusCode.fromBundle(params).getAddress();
+        if (address != null) {
+            mMulticastListUpdateResults.put(address, success);
+        }
     }
 
     /** Notifies that a ranging round failed. We collect this info for Analytics only. */
@@ -485,4 +653,58 @@ public abstract class RangingDevice {
     public void setSystemCallbackExecutor(Executor executor) {
         this.mSystemCallbackExecutor = executor;
     }
+
+    /**
+     * The known peers of the session which reported a measurement, keyed by the address packed in
+     * a long so the peer of a measurement is found without allocation.
+     */
+    private static final class PeerTable {
+        private final LongSparseArray<UwbDevice> mShortAddressPeers = new LongSparseArray<>();
+        private final LongSparseArray<UwbDevice> mExtendedAddressPeers = new LongSparseArray<>();
+        private int mGeneration = 0;
+
+        @Nullable
+        synchronized UwbDevice get(byte[] address) {
+            LongSparseArray<UwbDevice> peers = getPeers(address);
+            return peers == null ? null : peers.get(pack(address));
+        }
+
+        synchronized int getGeneration() {
+            return mGeneration;
+        }
+
+        /** Adds the peer, unless the table is cleared since the given generation. */
+        synchronized void put(byte[] address, UwbDevice peer, int generation) {
+            LongSparseArray<UwbDevice> peers = getPeers(address);
+            if (peers != null && generation == mGeneration) {
+                peers.put(pack(address), peer);
+            }
+        }
+
+        synchronized void clear() {
+            mShortAddressPeers.clear();
+            mExtendedAddressPeers.clear();
+            mGeneration++;
+        }
+
+        @Nullable
+        private LongSparseArray<UwbDevice> getPeers(byte[] address) {
+            switch (address.length) {
+                case UwbAddress.SHORT_ADDRESS_LENGTH:
+                    return mShortAddressPeers;
+                case UwbAddress.EXTENDED_ADDRESS_LENGTH:
+                    return mExtendedAddressPeers;
+                default:
+                    return null;
+            }
+        }
+
+        private static long pack(byte[] address) {
+            long packed = 0;
+            for (byte b : address) {
+                packed = (packed << 8) | (b & 0xFF);
+            }
+            return packed;
+        }
+    }
 }
@@ -38,15 +38,20 @@ import android.uwb.UwbManager;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.uwb.support.fira.FiraParams;
 import com.google.uwb.support.fira.FiraSpecificationParams;
 import com.google.uwb.support.multichip.ChipInfoParams;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -66,9 +71,19 @@ public class UwbServiceImpl {
     private final UwbManager.AdapterStateCallback mAdapterStateCallback =
             (state, reason) -> mAdapterState = state;
 
-    /** A serial thread used to handle session callback */
+    /** A serial thread used to handle adapter state callback */
     private final ExecutorService mSerialExecutor = Executors.newSingleThreadExecutor();
 
+    /**
+     * Threads used to handle session callbacks. Each ranging device gets its own serial executor
+     * on top of them, so a device blocked in a callback does not delay the other devices.
+     */
+    private final ExecutorService mSessionCallbackThreads = Executors.newCachedThreadPool();
+
+    /** The devices handed out to the clients, for dump. Released clients drop out on their own. */
+    private final Set<RangingDevice> mRangingDevices =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
     public UwbServiceImpl(Context context, @NonNull UwbFeatureFlags uwbFeatureFlags) {
         mHasUwbFeature = context.getPackageManager().hasSystemFeature(FEATURE_UWB);
         mUwbFeatureFlags = uwbFeatureFlags;
@@ -85,17 +100,25 @@ public class UwbServiceImpl {
     /** Gets a Ranging Controller session with given context. */
     public RangingController getController(Context context) {
         UwbManager uwbManagerWithContext = context.getSystemService(UwbManager.class);
-        return new RangingController(
-                uwbManagerWithContext, mSerialExecutor, new OpAsyncCallbackRunner<>(),
+        RangingController controller = new RangingController(
+                uwbManagerWithContext, newSessionCallbackExecutor(), new OpAsyncCallbackRunner<>(),
                         mUwbFeatureFlags);
+        mRangingDevices.add(controller);
+        return controller;
     }
 
     /** Gets a Ranging Controlee session with given context. */
     public RangingControlee getControlee(Context context) {
         UwbManager uwbManagerWithContext = context.getSystemService(UwbManager.class);
-        return new RangingControlee(
-                uwbManagerWithContext, mSerialExecutor, new OpAsyncCallbackRunner<>(),
+        RangingControlee controlee = new RangingControlee(
+                uwbManagerWithContext, newSessionCallbackExecutor(), new OpAsyncCallbackRunner<>(),
                         mUwbFeatureFlags);
+        mRangingDevices.add(controlee);
+        return controlee;
+    }
+
+    private Executor newSessionCallbackExecutor() {
+        return MoreExecutors.newSequentialExecutor(mSessionCallbackThreads);
     }
 
     /** Returns multi-chip information. */
@@ -119,11 +142,24 @@ public class UwbServiceImpl {
      */
     public void shutdown() {
         mSerialExecutor.shutdown();
+        mSessionCallbackThreads.shutdown();
         if (mUwbManager != null) {
             mUwbManager.unregisterAdapterStateCallback(mAdapterStateCallback);
         }
     }
 
+    /** Dumps the ranging devices in use and the latency stats of their operations. */
+    public void dump(@NonNull PrintWriter pw) {
+        pw.println("UWB adapter state: " + mAdapterState);
+        List<RangingDevice> rangingDevices;
+        synchronized (mRangingDevices) {
+            rangingDevices = new ArrayList<>(mRangingDevices);
+        }
+        for (RangingDevice device : rangingDevices) {
+            device.dump(pw);
+        }
+    }
+
     /** True if UWB is available. */
     public boolean isAvailable() {
         return mHasUwbFeature && mAdapterState != STATE_DISABLED;
@@ -205,6 +241,6 @@ public class UwbServiceImpl {
      * <p>If previous service is shut down, the ranging device may hold a stale serial executor.
      */
     public void updateRangingDevice(RangingDevice device) {
-        device.setSystemCallbackExecutor(mSerialExecutor);
+        device.setSystemCallbackExecutor(newSessionCallbackExecutor());
     }
 }
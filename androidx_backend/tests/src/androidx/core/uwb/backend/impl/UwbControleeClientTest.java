@@ -16,6 +16,9 @@
 
 package androidx.core.uwb.backend.impl;
 
+import static androidx.core.uwb.backend.impl.internal.Utils.INVALID_API_CALL;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.verify;
 
@@ -25,6 +28,7 @@ import android.test.suitebuilder.annotation.SmallTest;
 
 import androidx.core.uwb.backend.IRangingSessionCallback;
 import androidx.core.uwb.backend.RangingParameters;
+import androidx.core.uwb.backend.UwbAddress;
 import androidx.core.uwb.backend.UwbComplexChannel;
 import androidx.core.uwb.backend.impl.internal.RangingControlee;
 import androidx.core.uwb.backend.impl.internal.RangingSessionCallback;
@@ -74,4 +78,18 @@ public class UwbControleeClientTest {
         mUwbControleeClient.stopRanging(mRangingSessionCallback);
         verify(mRangingControlee).stopRanging();
     }
+
+    @Test
+    public void testAddRemoveControlees_invalidApiCall() throws RemoteException {
+        UwbAddress address1 = new UwbAddress();
+        address1.address = new byte[] {0x1, 0x2};
+        UwbAddress address2 = new UwbAddress();
+        address2.address = new byte[] {0x3, 0x4};
+        UwbAddress[] addresses = new UwbAddress[] {address1, address2};
+
+        assertArrayEquals(new int[] {INVALID_API_CALL, INVALID_API_CALL},
+                mUwbControleeClient.addControlees(addresses));
+        assertArrayEquals(new int[] {INVALID_API_CALL, INVALID_API_CALL},
+                mUwbControleeClient.removeControlees(addresses));
+    }
 }
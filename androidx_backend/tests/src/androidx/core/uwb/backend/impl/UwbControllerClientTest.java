@@ -16,6 +16,8 @@
 
 package androidx.core.uwb.backend.impl;
 
+import static androidx.core.uwb.backend.impl.internal.Utils.STATUS_OK;
+
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
@@ -44,6 +46,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 
 @RunWith(AndroidJUnit4.class)
@@ -56,6 +59,8 @@ public class UwbControllerClientTest {
     @Mock private IRangingSessionCallback mRangingSessionCallback;
     @Captor
     ArgumentCaptor<androidx.core.uwb.backend.impl.internal.UwbAddress> mAddressCaptor;
+    @Captor
+    ArgumentCaptor<List<androidx.core.uwb.backend.impl.internal.UwbAddress>> mAddressListCaptor;
     private UwbControllerClient mUwbControllerClient;
 
     @Before
@@ -111,4 +116,29 @@ public class UwbControllerClientTest {
         verify(mRangingController).removeControlee(mAddressCaptor.capture());
         assertArrayEquals(address.address, mAddressCaptor.getValue().toBytes());
     }
+
+    @Test
+    public void testAddControlees() throws RemoteException {
+        UwbAddress address1 = new UwbAddress();
+        address1.address = new byte[] {0x1, 0x2};
+        UwbAddress address2 = new UwbAddress();
+        address2.address = new byte[] {0x3, 0x4};
+        when(mRangingController.addControlees(any())).thenReturn(new int[] {STATUS_OK, STATUS_OK});
+
+        int[] statuses = mUwbControllerClient.addControlees(new UwbAddress[] {address1, address2});
+
+        verify(mRangingController).addControlees(mAddressListCaptor.capture());
+        assertArrayEquals(new int[] {STATUS_OK, STATUS_OK}, statuses);
+        assertArrayEquals(address1.address, mAddressListCaptor.getValue().get(0).toBytes());
+        assertArrayEquals(address2.address, mAddressListCaptor.getValue().get(1).toBytes());
+    }
+
+    @Test
+    public void testRemoveControlees() throws RemoteException {
+        UwbAddress address = new UwbAddress();
+        address.address = new byte[] {0x1, 0x2};
+        mUwbControllerClient.removeControlees(new UwbAddress[] {address});
+        verify(mRangingController).removeControlees(mAddressListCaptor.capture());
+        assertArrayEquals(address.address, mAddressListCaptor.getValue().get(0).toBytes());
+    }
 }
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package androidx.core.uwb.backend.impl.internal;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.platform.test.annotations.Presubmit;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+@Presubmit
+public class OpAsyncCallbackRunnerTest {
+    private final OpAsyncCallbackRunner<Boolean> mOpAsyncCallbackRunner =
+            new OpAsyncCallbackRunner<>();
+
+    @Test
+    public void testSubmitOperation_chainedOnCompletion() throws Exception {
+        ListenableFuture<Boolean> opened = mOpAsyncCallbackRunner.submitOperation(() -> {}, "Open");
+        ListenableFuture<Boolean> started =
+                Futures.transformAsync(
+                        opened,
+                        result -> mOpAsyncCallbackRunner.submitOperation(() -> {}, "Start"),
+                        directExecutor());
+
+        assertFalse(opened.isDone());
+        mOpAsyncCallbackRunner.complete(true);
+        assertTrue(opened.get());
+        assertTrue(mOpAsyncCallbackRunner.isActive());
+        assertFalse(started.isDone());
+
+        mOpAsyncCallbackRunner.complete(true);
+        assertTrue(started.get());
+        assertFalse(mOpAsyncCallbackRunner.isActive());
+        assertEquals(1, mOpAsyncCallbackRunner.getOperationStats("Open").getCount());
+        assertEquals(1, mOpAsyncCallbackRunner.getOperationStats("Start").getCount());
+    }
+
+    @Test
+    public void testSubmitOperation_timeout() {
+        mOpAsyncCallbackRunner.setOperationTimeoutMillis(10);
+        ListenableFuture<Boolean> future = mOpAsyncCallbackRunner.submitOperation(() -> {}, "Op");
+
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertTrue(e.getCause() instanceof TimeoutException);
+        assertFalse(mOpAsyncCallbackRunner.isActive());
+        assertEquals(1, mOpAsyncCallbackRunner.getOperationStats("Op").getFailureCount());
+    }
+
+    @Test
+    public void testCancel() {
+        ListenableFuture<Boolean> future = mOpAsyncCallbackRunner.submitOperation(() -> {}, "Op");
+
+        mOpAsyncCallbackRunner.cancel();
+
+        assertTrue(future.isCancelled());
+        assertFalse(mOpAsyncCallbackRunner.isActive());
+        assertFalse(mOpAsyncCallbackRunner.execOperation(
+                () -> mOpAsyncCallbackRunner.complete(null), "Op"));
+        assertEquals(2, mOpAsyncCallbackRunner.getOperationStats("Op").getCount());
+    }
+
+    @Test
+    public void testDump_operationStats() {
+        mOpAsyncCallbackRunner.submitOperation(() -> {}, "Open");
+        mOpAsyncCallbackRunner.complete(true);
+        mOpAsyncCallbackRunner.submitOperation(() -> {}, "Start");
+        mOpAsyncCallbackRunner.cancel();
+
+        StringWriter stringWriter = new StringWriter();
+        mOpAsyncCallbackRunner.dump(new PrintWriter(stringWriter));
+
+        String dump = stringWriter.toString();
+        assertTrue(dump.contains("Open: count=1 failures=0"));
+        assertTrue(dump.contains("Start: count=1 failures=1"));
+    }
+}
@@ -26,9 +26,13 @@ import static androidx.core.uwb.backend.impl.internal.Utils.INVALID_API_CALL;
 import static androidx.core.uwb.backend.impl.internal.Utils.RANGE_DATA_NTF_DISABLE;
 import static androidx.core.uwb.backend.impl.internal.Utils.RANGE_DATA_NTF_ENABLE_PROXIMITY_LEVEL_TRIG;
 import static androidx.core.uwb.backend.impl.internal.Utils.STATUS_OK;
+import static androidx.core.uwb.backend.impl.internal.Utils.UWB_SYSTEM_CALLBACK_FAILURE;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -38,13 +42,17 @@ import android.os.CancellationSignal;
 import android.os.PersistableBundle;
 import android.platform.test.annotations.Presubmit;
 import android.test.suitebuilder.annotation.SmallTest;
+import android.uwb.DistanceMeasurement;
+import android.uwb.RangingReport;
 import android.uwb.RangingSession;
 import android.uwb.UwbManager;
 
 import androidx.test.runner.AndroidJUnit4;
 
+import com.google.uwb.support.fira.FiraMulticastListUpdateStatusCode;
 import com.google.uwb.support.fira.FiraOpenSessionParams;
 import com.google.uwb.support.fira.FiraParams;
+import com.google.uwb.support.fira.FiraRangingReconfigureParams;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -449,4 +457,155 @@ public class RangingControllerTest {
                         UwbDevice.createForAddress(peerAddress.toBytes()),
                         REASON_STOP_RANGING_CALLED);
     }
+
+    private static PersistableBundle newMulticastListUpdateStatus(int status, UwbAddress address) {
+        return new FiraMulticastListUpdateStatusCode.Builder()
+                .setStatusCode(status)
+                .setAddress(android.uwb.UwbAddress.fromBytes(address.toBytes()))
+                .build()
+                .toBundle();
+    }
+
+    @Test
+    public void testAddControlees_singleReconfigureWithStatusPerControlee() {
+        UwbAddress peerAddress1 = UwbAddress.getRandomizedShortAddress();
+        UwbAddress peerAddress2 = UwbAddress.getRandomizedShortAddress();
+        mRangingController.getComplexChannel();
+
+        final RangingSessionCallback rangingSessionCallback = mock(RangingSessionCallback.class);
+        final RangingSession pfRangingSession = mock(RangingSession.class);
+        final Mutable<RangingSession.Callback> pfRangingSessionCallback = new Mutable<>();
+
+        doAnswer(
+                invocation -> {
+                    pfRangingSessionCallback.value = invocation.getArgument(2);
+                    pfRangingSessionCallback.value.onOpened(pfRangingSession);
+                    return new CancellationSignal();
+                })
+                .when(mUwbManager)
+                .openRangingSession(
+                        any(PersistableBundle.class),
+                        any(Executor.class),
+                        any(RangingSession.Callback.class));
+
+        doAnswer(
+                invocation -> {
+                    pfRangingSessionCallback.value.onStarted(new PersistableBundle());
+                    return true;
+                })
+                .when(pfRangingSession)
+                .start(any(PersistableBundle.class));
+
+        // The first controlee is added, the second is rejected.
+        doAnswer(
+                invocation -> {
+                    pfRangingSessionCallback.value.onControleeAdded(
+                            newMulticastListUpdateStatus(
+                                    FiraParams.MULTICAST_LIST_UPDATE_STATUS_OK, peerAddress1));
+                    pfRangingSessionCallback.value.onControleeAddFailed(
+                            RangingSession.Callback.CONTROLEE_FAILURE_REASON_MAX_CONTROLEE_REACHED,
+                            newMulticastListUpdateStatus(FiraParams
+                                    .MULTICAST_LIST_UPDATE_STATUS_ERROR_MULTICAST_LIST_FULL,
+                                    peerAddress2));
+                    pfRangingSessionCallback.value.onReconfigureFailed(
+                            RangingSession.Callback.REASON_GENERIC_ERROR,
+                            new PersistableBundle());
+                    return true;
+                })
+                .when(pfRangingSession)
+                .reconfigure(any(PersistableBundle.class));
+
+        mRangingController.startRanging(rangingSessionCallback, mBackendCallbackExecutor);
+        int[] statuses = mRangingController.addControlees(
+                List.of(peerAddress1, peerAddress2, mRangingParamsKnownPeerAddress));
+
+        assertArrayEquals(new int[] {STATUS_OK, UWB_SYSTEM_CALLBACK_FAILURE, STATUS_OK},
+                statuses);
+        verify(pfRangingSession, times(1)).reconfigure(mBundleArgumentCaptor.capture());
+        assertEquals(2, FiraRangingReconfigureParams.fromBundle(mBundleArgumentCaptor.getValue())
+                .getAddressList().length);
+        verify(rangingSessionCallback)
+                .onRangingInitialized(UwbDevice.createForAddress(peerAddress1.toBytes()));
+        verify(rangingSessionCallback)
+                .onRangingSuspended(
+                        UwbDevice.createForAddress(peerAddress2.toBytes()),
+                        REASON_FAILED_TO_START);
+        // The rejected controlee is not a peer of the session.
+        assertEquals(INVALID_API_CALL, mRangingController.removeControlee(peerAddress2));
+    }
+
+    private static RangingReport newRangingReport(UwbAddress peerAddress) {
+        return new RangingReport.Builder()
+                .addMeasurement(new android.uwb.RangingMeasurement.Builder()
+                        .setRemoteDeviceAddress(
+                                android.uwb.UwbAddress.fromBytes(peerAddress.toBytes()))
+                        .setStatus(android.uwb.RangingMeasurement.RANGING_STATUS_SUCCESS)
+                        .setElapsedRealtimeNanos(1)
+                        .setDistanceMeasurement(new DistanceMeasurement.Builder()
+                                .setMeters(1.0)
+                                .setErrorMeters(0.0)
+                                .setConfidenceLevel(1.0)
+                                .build())
+                        .build())
+                .build();
+    }
+
+    @Test
+    public void testOnReportReceived_peerDeviceCachedUntilPeersChange() {
+        UwbAddress peerAddress = UwbAddress.getRandomizedShortAddress();
+        mRangingController.getComplexChannel();
+
+        final RangingSessionCallback rangingSessionCallback = mock(RangingSessionCallback.class);
+        final RangingSession pfRangingSession = mock(RangingSession.class);
+        final Mutable<RangingSession.Callback> pfRangingSessionCallback = new Mutable<>();
+
+        doAnswer(
+                invocation -> {
+                    pfRangingSessionCallback.value = invocation.getArgument(2);
+                    pfRangingSessionCallback.value.onOpened(pfRangingSession);
+                    return new CancellationSignal();
+                })
+                .when(mUwbManager)
+                .openRangingSession(
+                        any(PersistableBundle.class),
+                        any(Executor.class),
+                        any(RangingSession.Callback.class));
+
+        doAnswer(
+                invocation -> {
+                    pfRangingSessionCallback.value.onStarted(new PersistableBundle());
+                    return true;
+                })
+                .when(pfRangingSession)
+                .start(any(PersistableBundle.class));
+
+        doAnswer(
+                invocation -> {
+                    pfRangingSessionCallback.value.onReconfigured(new PersistableBundle());
+                    return true;
+                })
+                .when(pfRangingSession)
+                .reconfigure(any(PersistableBundle.class));
+
+        mRangingController.startRanging(rangingSessionCallback, mBackendCallbackExecutor);
+        pfRangingSessionCallback.value.onReportReceived(
+                newRangingReport(mRangingParamsKnownPeerAddress));
+        pfRangingSessionCallback.value.onReportReceived(
+                newRangingReport(mRangingParamsKnownPeerAddress));
+        pfRangingSessionCallback.value.onReportReceived(newRangingReport(peerAddress));
+
+        ArgumentCaptor<UwbDevice> deviceCaptor = ArgumentCaptor.forClass(UwbDevice.class);
+        verify(rangingSessionCallback, times(2))
+                .onRangingResult(deviceCaptor.capture(), any(RangingPosition.class));
+        assertEquals(UwbDevice.createForAddress(mRangingParamsKnownPeerAddress.toBytes()),
+                deviceCaptor.getAllValues().get(0));
+        assertSame(deviceCaptor.getAllValues().get(0), deviceCaptor.getAllValues().get(1));
+
+        // The added controlee is matched to the reports once it is added.
+        mRangingController.addControlee(peerAddress);
+        pfRangingSessionCallback.value.onReportReceived(newRangingReport(peerAddress));
+        verify(rangingSessionCallback)
+                .onRangingResult(eq(UwbDevice.createForAddress(peerAddress.toBytes())),
+                        any(RangingPosition.class));
+    }
 }
@@ -25,9 +25,10 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.util.Log;
 
-import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @hide
@@ -36,8 +37,11 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     private final String mTag = "Uwb.RangingManager[" + this + "]";
 
     private final IUwbAdapter mAdapter;
-    private final Hashtable<SessionHandle, RangingSession> mRangingSessionTable = new Hashtable<>();
-    private static int sNextSessionId = 1;
+    // The callbacks of a session are dispatched under the lock of the session, so the events of a
+    // session stay in order while the sessions do not block each other.
+    private final ConcurrentHashMap<SessionHandle, RangingSession> mRangingSessionTable =
+            new ConcurrentHashMap<>();
+    private static final AtomicInteger sNextSessionId = new AtomicInteger(1);
 
     public RangingManager(IUwbAdapter adapter) {
         mAdapter = adapter;
@@ -75,43 +79,38 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
             }
         }
 
-        synchronized (this) {
-            SessionHandle sessionHandle =
-                    new SessionHandle(sNextSessionId++, attributionSource, Process.myPid());
-            RangingSession session =
-                    new RangingSession(executor, callbacks, mAdapter, sessionHandle, chipId);
-            Log.v(mTag, "openSession - sessionHandle: " + sessionHandle);
-            mRangingSessionTable.put(sessionHandle, session);
-            try {
-                mAdapter.openRanging(attributionSource,
-                        sessionHandle,
-                        this,
-                        params,
-                        chipId);
-            } catch (RemoteException e) {
-                throw e.rethrowFromSystemServer();
-            }
-
-            CancellationSignal cancellationSignal = new CancellationSignal();
-            cancellationSignal.setOnCancelListener(() -> session.close());
-            return cancellationSignal;
+        SessionHandle sessionHandle = new SessionHandle(
+                sNextSessionId.getAndIncrement(), attributionSource, Process.myPid());
+        RangingSession session =
+                new RangingSession(executor, callbacks, mAdapter, sessionHandle, chipId);
+        Log.v(mTag, "openSession - sessionHandle: " + sessionHandle);
+        // Registered before the call as the callbacks may be delivered before it returns.
+        mRangingSessionTable.put(sessionHandle, session);
+        try {
+            mAdapter.openRanging(attributionSource,
+                    sessionHandle,
+                    this,
+                    params,
+                    chipId);
+        } catch (RemoteException e) {
+            throw e.rethrowFromSystemServer();
         }
-    }
 
-    private boolean hasSession(SessionHandle sessionHandle) {
-        return mRangingSessionTable.containsKey(sessionHandle);
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.setOnCancelListener(() -> session.close());
+        return cancellationSignal;
     }
 
     @Override
     public void onRangingOpened(SessionHandle sessionHandle) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag,
-                        "onRangingOpened - received unexpected SessionHandle: " + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag,
+                    "onRangingOpened - received unexpected SessionHandle: " + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingOpened();
         }
     }
@@ -119,31 +118,31 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingOpenFailed(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag,
-                        "onRangingOpenedFailed - received unexpected SessionHandle: "
-                                + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag,
+                    "onRangingOpenedFailed - received unexpected SessionHandle: "
+                            + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingOpenFailed(convertToReason(reason), parameters);
-            mRangingSessionTable.remove(sessionHandle);
+            mRangingSessionTable.remove(sessionHandle, session);
         }
     }
 
     @Override
     public void onRangingReconfigured(SessionHandle sessionHandle, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag,
-                        "onRangingReconfigured - received unexpected SessionHandle: "
-                                + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag,
+                    "onRangingReconfigured - received unexpected SessionHandle: "
+                            + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingReconfigured(parameters);
         }
     }
@@ -151,14 +150,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingReconfigureFailed(SessionHandle sessionHandle,
             @RangingChangeReason int reason, PersistableBundle params) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingReconfigureFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingReconfigureFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingReconfigureFailed(convertToReason(reason), params);
         }
     }
@@ -166,14 +165,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
 
     @Override
     public void onRangingStarted(SessionHandle sessionHandle, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag,
-                        "onRangingStarted - received unexpected SessionHandle: " + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag,
+                    "onRangingStarted - received unexpected SessionHandle: " + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingStarted(parameters);
         }
     }
@@ -181,14 +180,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingStartFailed(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle params) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingStartFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingStartFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingStartFailed(convertToReason(reason), params);
         }
     }
@@ -196,14 +195,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingStopped(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle params) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingStopped - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingStopped - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingStopped(convertToReason(reason), params);
         }
     }
@@ -211,14 +210,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingStopFailed(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingStopFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingStopFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingStopFailed(convertToReason(reason), parameters);
         }
     }
@@ -226,43 +225,43 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingClosed(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle params) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingClosed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingClosed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingClosed(convertToReason(reason), params);
-            mRangingSessionTable.remove(sessionHandle);
+            mRangingSessionTable.remove(sessionHandle, session);
         }
     }
 
     @Override
     public void onRangingResult(SessionHandle sessionHandle, RangingReport result) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingResult - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingResult - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingResult(result);
         }
     }
 
     @Override
     public void onControleeAdded(SessionHandle sessionHandle, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onControleeAdded - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onControleeAdded - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onControleeAdded(parameters);
         }
     }
@@ -270,28 +269,28 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onControleeAddFailed(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onControleeAddFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onControleeAddFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onControleeAddFailed(reason, parameters);
         }
     }
 
     @Override
     public void onControleeRemoved(SessionHandle sessionHandle, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onControleeRemoved - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onControleeRemoved - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onControleeRemoved(parameters);
         }
     }
@@ -299,28 +298,28 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onControleeRemoveFailed(SessionHandle sessionHandle,
             @RangingChangeReason int reason, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onControleeRemoveFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onControleeRemoveFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onControleeRemoveFailed(reason, parameters);
         }
     }
 
     @Override
     public void onRangingPaused(SessionHandle sessionHandle, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingPaused - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingPaused - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingPaused(parameters);
         }
     }
@@ -328,28 +327,28 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingPauseFailed(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingPauseFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingPauseFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingPauseFailed(reason, parameters);
         }
     }
 
     @Override
     public void onRangingResumed(SessionHandle sessionHandle, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingResumed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingResumed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingResumed(parameters);
         }
     }
@@ -357,14 +356,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingResumeFailed(SessionHandle sessionHandle, @RangingChangeReason int reason,
             PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingResumeFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingResumeFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingResumeFailed(reason, parameters);
         }
     }
@@ -372,13 +371,13 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onDataSent(SessionHandle sessionHandle, UwbAddress remoteDeviceAddress,
             PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onDataSent - received unexpected SessionHandle: " + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onDataSent - received unexpected SessionHandle: " + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onDataSent(remoteDeviceAddress, parameters);
         }
     }
@@ -386,14 +385,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onDataSendFailed(SessionHandle sessionHandle, UwbAddress remoteDeviceAddress,
             @RangingChangeReason int reason, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onDataSendFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onDataSendFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onDataSendFailed(remoteDeviceAddress, reason, parameters);
         }
     }
@@ -401,14 +400,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onDataReceived(SessionHandle sessionHandle, UwbAddress remoteDeviceAddress,
             PersistableBundle parameters, byte[] data) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onDataReceived - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onDataReceived - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onDataReceived(remoteDeviceAddress, parameters, data);
         }
     }
@@ -416,14 +415,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onDataReceiveFailed(SessionHandle sessionHandle, UwbAddress remoteDeviceAddress,
             @RangingChangeReason int reason, PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onDataReceiveFailed - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onDataReceiveFailed - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onDataReceiveFailed(remoteDeviceAddress, reason, parameters);
         }
     }
@@ -431,14 +430,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onServiceDiscovered(SessionHandle sessionHandle,
             @NonNull PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onServiceDiscovered - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onServiceDiscovered - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onServiceDiscovered(parameters);
         }
     }
@@ -447,14 +446,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onServiceConnected(SessionHandle sessionHandle,
             @NonNull PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onServiceConnected - received unexpected SessionHandle: "
-                        + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onServiceConnected - received unexpected SessionHandle: "
+                    + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onServiceConnected(parameters);
         }
     }
@@ -462,14 +461,14 @@ public class RangingManager extends android.uwb.IUwbRangingCallbacks.Stub {
     @Override
     public void onRangingRoundsUpdateDtTagStatus(SessionHandle sessionHandle,
             @NonNull PersistableBundle parameters) {
-        synchronized (this) {
-            if (!hasSession(sessionHandle)) {
-                Log.w(mTag, "onRangingRoundsUpdateDtTagStatus - received unexpected "
-                        + "SessionHandle: " + sessionHandle);
-                return;
-            }
+        RangingSession session = mRangingSessionTable.get(sessionHandle);
+        if (session == null) {
+            Log.w(mTag, "onRangingRoundsUpdateDtTagStatus - received unexpected "
+                    + "SessionHandle: " + sessionHandle);
+            return;
+        }
 
-            RangingSession session = mRangingSessionTable.get(sessionHandle);
+        synchronized (session) {
             session.onRangingRoundsUpdateDtTagStatus(parameters);
         }
     }
@@ -22,6 +22,7 @@ import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.annotation.SuppressLint;
 import android.annotation.SystemApi;
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.PersistableBundle;
@@ -43,6 +44,18 @@ public final class RangingMeasurement implements Parcelable {
     public static final int RSSI_MIN = -127;
     public static final int RSSI_MAX = -1;
 
+    // Version of the parcel layout, in the upper byte of the header, the lower bits flag the
+    // optional sections present in the parcel.
+    private static final int WIRE_FORMAT_VERSION = 1;
+    private static final int WIRE_FORMAT_VERSION_SHIFT = 24;
+    private static final int HAS_DISTANCE = 1 << 0;
+    private static final int HAS_AOA = 1 << 1;
+    private static final int HAS_AOA_ALTITUDE = 1 << 2;
+    private static final int HAS_DEST_AOA = 1 << 3;
+    private static final int HAS_DEST_AOA_ALTITUDE = 1 << 4;
+    private static final int HAS_METADATA = 1 << 5;
+    private static final int HAS_EMPTY_METADATA = 1 << 6;
+
     private final UwbAddress mRemoteDeviceAddress;
     private final @Status int mStatus;
     private final long mElapsedRealtimeNanos;
@@ -308,39 +321,115 @@ public final class RangingMeasurement implements Parcelable {
 
     @Override
     public void writeToParcel(@NonNull Parcel dest, int flags) {
-        dest.writeParcelable(mRemoteDeviceAddress, flags);
+        // Flat layout, the nested measurements are written as their fields instead of parcelables
+        // so no class name is written nor looked up per measurement:
+        // header, address, status, time, line of sight, focus, rssi, then the present sections.
+        int presence = 0;
+        if (mDistanceMeasurement != null) presence |= HAS_DISTANCE;
+        if (mAngleOfArrivalMeasurement != null) {
+            presence |= HAS_AOA;
+            if (mAngleOfArrivalMeasurement.getAltitude() != null) presence |= HAS_AOA_ALTITUDE;
+        }
+        if (mDestinationAngleOfArrivalMeasurement != null) {
+            presence |= HAS_DEST_AOA;
+            if (mDestinationAngleOfArrivalMeasurement.getAltitude() != null) {
+                presence |= HAS_DEST_AOA_ALTITUDE;
+            }
+        }
+        if (mRangingMeasurementMetadata != null) {
+            presence |= mRangingMeasurementMetadata.isEmpty() ? HAS_EMPTY_METADATA : HAS_METADATA;
+        }
+        dest.writeInt((WIRE_FORMAT_VERSION << WIRE_FORMAT_VERSION_SHIFT) | presence);
+        dest.writeByteArray(mRemoteDeviceAddress.toBytes());
         dest.writeInt(mStatus);
         dest.writeLong(mElapsedRealtimeNanos);
-        dest.writeParcelable(mDistanceMeasurement, flags);
-        dest.writeParcelable(mAngleOfArrivalMeasurement, flags);
-        dest.writeParcelable(mDestinationAngleOfArrivalMeasurement, flags);
         dest.writeInt(mLineOfSight);
         dest.writeInt(mMeasurementFocus);
         dest.writeInt(mRssiDbm);
-        dest.writePersistableBundle(mRangingMeasurementMetadata);
+        if (mDistanceMeasurement != null) {
+            dest.writeDouble(mDistanceMeasurement.getMeters());
+            dest.writeDouble(mDistanceMeasurement.getErrorMeters());
+            dest.writeDouble(mDistanceMeasurement.getConfidenceLevel());
+        }
+        writeAngleOfArrival(dest, mAngleOfArrivalMeasurement);
+        writeAngleOfArrival(dest, mDestinationAngleOfArrivalMeasurement);
+        if ((presence & HAS_METADATA) != 0) {
+            dest.writePersistableBundle(mRangingMeasurementMetadata);
+        }
+    }
+
+    private static void writeAngleOfArrival(@NonNull Parcel dest,
+            @Nullable AngleOfArrivalMeasurement angleOfArrivalMeasurement) {
+        if (angleOfArrivalMeasurement == null) {
+            return;
+        }
+        writeAngle(dest, angleOfArrivalMeasurement.getAzimuth());
+        if (angleOfArrivalMeasurement.getAltitude() != null) {
+            writeAngle(dest, angleOfArrivalMeasurement.getAltitude());
+        }
+    }
+
+    private static void writeAngle(@NonNull Parcel dest, @NonNull AngleMeasurement angle) {
+        dest.writeDouble(angle.getRadians());
+        dest.writeDouble(angle.getErrorRadians());
+        dest.writeDouble(angle.getConfidenceLevel());
+    }
+
+    @NonNull
+    private static AngleOfArrivalMeasurement readAngleOfArrival(@NonNull Parcel in,
+            boolean hasAltitude) {
+        AngleOfArrivalMeasurement.Builder builder =
+                new AngleOfArrivalMeasurement.Builder(readAngle(in));
+        if (hasAltitude) {
+            builder.setAltitude(readAngle(in));
+        }
+        return builder.build();
+    }
+
+    @NonNull
+    private static AngleMeasurement readAngle(@NonNull Parcel in) {
+        return new AngleMeasurement(in.readDouble(), in.readDouble(), in.readDouble());
     }
 
     public static final @android.annotation.NonNull Creator<RangingMeasurement> CREATOR =
             new Creator<RangingMeasurement>() {
                 @Override
                 public RangingMeasurement createFromParcel(Parcel in) {
+                    int header = in.readInt();
+                    int version = header >>> WIRE_FORMAT_VERSION_SHIFT;
+                    if (version != WIRE_FORMAT_VERSION) {
+                        throw new BadParcelableException(
+                                "Unsupported RangingMeasurement wire format: " + version);
+                    }
                     Builder builder = new Builder();
-                    builder.setRemoteDeviceAddress(
-                            in.readParcelable(UwbAddress.class.getClassLoader()));
+                    builder.setRemoteDeviceAddress(UwbAddress.fromBytes(in.createByteArray()));
                     builder.setStatus(in.readInt());
                     builder.setElapsedRealtimeNanos(in.readLong());
-                    builder.setDistanceMeasurement(
-                            in.readParcelable(DistanceMeasurement.class.getClassLoader()));
-                    builder.setAngleOfArrivalMeasurement(
-                            in.readParcelable(AngleOfArrivalMeasurement.class.getClassLoader()));
-                    builder.setDestinationAngleOfArrivalMeasurement(
-                            in.readParcelable(AngleOfArrivalMeasurement.class.getClassLoader()));
                     builder.setLineOfSight(in.readInt());
                     builder.setMeasurementFocus(in.readInt());
                     builder.setRssiDbm(in.readInt());
-                    PersistableBundle metadata =
-                            in.readPersistableBundle(getClass().getClassLoader());
-                    if (metadata != null) builder.setRangingMeasurementMetadata(metadata);
+                    if ((header & HAS_DISTANCE) != 0) {
+                        builder.setDistanceMeasurement(new DistanceMeasurement.Builder()
+                                .setMeters(in.readDouble())
+                                .setErrorMeters(in.readDouble())
+                                .setConfidenceLevel(in.readDouble())
+                                .build());
+                    }
+                    if ((header & HAS_AOA) != 0) {
+                        builder.setAngleOfArrivalMeasurement(
+                                readAngleOfArrival(in, (header & HAS_AOA_ALTITUDE) != 0));
+                    }
+                    if ((header & HAS_DEST_AOA) != 0) {
+                        builder.setDestinationAngleOfArrivalMeasurement(
+                                readAngleOfArrival(in, (header & HAS_DEST_AOA_ALTITUDE) != 0));
+                    }
+                    if ((header & HAS_METADATA) != 0) {
+                        // The bundle is only unparcelled when its content is first accessed.
+                        builder.setRangingMeasurementMetadata(
+                                in.readPersistableBundle(getClass().getClassLoader()));
+                    } else if ((header & HAS_EMPTY_METADATA) != 0) {
+                        builder.setRangingMeasurementMetadata(new PersistableBundle());
+                    }
                     return builder.build();
                 }
 
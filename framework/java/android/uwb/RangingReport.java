@@ -19,6 +19,7 @@ package android.uwb;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.annotation.SystemApi;
+import android.os.BadParcelableException;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.PersistableBundle;
@@ -35,6 +36,11 @@ import java.util.Objects;
  */
 @SystemApi
 public final class RangingReport implements Parcelable {
+    // Version of the parcel layout, in the upper byte of the header.
+    private static final int WIRE_FORMAT_VERSION = 1;
+    private static final int WIRE_FORMAT_VERSION_SHIFT = 24;
+    private static final int HAS_METADATA = 1 << 0;
+
     private final List<RangingMeasurement> mRangingMeasurements;
     private final PersistableBundle mRangingReportMetadata;
 
@@ -103,19 +109,32 @@ public final class RangingReport implements Parcelable {
 
     @Override
     public void writeToParcel(@NonNull Parcel dest, int flags) {
+        boolean hasMetadata = mRangingReportMetadata != null && !mRangingReportMetadata.isEmpty();
+        dest.writeInt((WIRE_FORMAT_VERSION << WIRE_FORMAT_VERSION_SHIFT)
+                | (hasMetadata ? HAS_METADATA : 0));
         dest.writeTypedList(mRangingMeasurements);
-        dest.writePersistableBundle(mRangingReportMetadata);
+        // Most reports have no metadata, an empty bundle is not written at all.
+        if (hasMetadata) {
+            dest.writePersistableBundle(mRangingReportMetadata);
+        }
     }
 
     public static final @android.annotation.NonNull Creator<RangingReport> CREATOR =
             new Creator<RangingReport>() {
                 @Override
                 public RangingReport createFromParcel(Parcel in) {
+                    int header = in.readInt();
+                    int version = header >>> WIRE_FORMAT_VERSION_SHIFT;
+                    if (version != WIRE_FORMAT_VERSION) {
+                        throw new BadParcelableException(
+                                "Unsupported RangingReport wire format: " + version);
+                    }
                     Builder builder = new Builder();
                     builder.addMeasurements(in.createTypedArrayList(RangingMeasurement.CREATOR));
-                    PersistableBundle metadata =
-                            in.readPersistableBundle(getClass().getClassLoader());
-                    if (metadata != null) builder.addRangingReportMetadata(metadata);
+                    if ((header & HAS_METADATA) != 0) {
+                        builder.addRangingReportMetadata(
+                                in.readPersistableBundle(getClass().getClassLoader()));
+                    }
                     return builder.build();
                 }
 
@@ -17,9 +17,11 @@
 package android.uwb;
 
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
@@ -43,7 +45,9 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Test of {@link RangingManager}.
@@ -64,6 +68,7 @@ public class RangingManagerTest {
     private static final String VALID_CHIP_ID = "validChipId";
     private static final int HANDLE_ID = 12;
     private static final int PID = Process.myPid();
+    private static final long TIMEOUT_MS = 5000;
 
     @Test
     public void testOpenSession_OpenRangingInvoked() throws RemoteException {
@@ -446,6 +451,54 @@ public class RangingManagerTest {
         verify(callback2, times(1)).onReportReceived(any());
     }
 
+    @Test
+    public void testOnRangingReport_blockedSessionDoesNotBlockOtherSessions() throws Exception {
+        IUwbAdapter adapter = mock(IUwbAdapter.class);
+        RangingSession.Callback callback1 = mock(RangingSession.Callback.class);
+        RangingSession.Callback callback2 = mock(RangingSession.Callback.class);
+        CountDownLatch callback1Entered = new CountDownLatch(1);
+        CountDownLatch callback1Released = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            callback1Entered.countDown();
+            callback1Released.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(callback1).onReportReceived(any());
+
+        ArgumentCaptor<SessionHandle> sessionHandleCaptor =
+                ArgumentCaptor.forClass(SessionHandle.class);
+        RangingManager rangingManager = new RangingManager(adapter);
+        rangingManager.openSession(
+                ATTRIBUTION_SOURCE, PARAMS, EXECUTOR, callback1, /* chipIds= */ null);
+        rangingManager.openSession(
+                ATTRIBUTION_SOURCE, PARAMS, EXECUTOR, callback2, /* chipIds= */ null);
+        verify(adapter, times(2))
+                .openRanging(
+                        eq(ATTRIBUTION_SOURCE),
+                        sessionHandleCaptor.capture(),
+                        any(),
+                        any(),
+                        eq(/* chipId= */ null));
+        SessionHandle sessionHandle1 = sessionHandleCaptor.getAllValues().get(0);
+        SessionHandle sessionHandle2 = sessionHandleCaptor.getAllValues().get(1);
+        rangingManager.onRangingStarted(sessionHandle1, PARAMS);
+        rangingManager.onRangingStarted(sessionHandle2, PARAMS);
+
+        // The report of the first session is stuck in its callback.
+        Thread thread = new Thread(() -> rangingManager.onRangingResult(
+                sessionHandle1, UwbTestUtils.getRangingReports(1)));
+        thread.start();
+        assertTrue(callback1Entered.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        rangingManager.onRangingResult(sessionHandle2, UwbTestUtils.getRangingReports(1));
+        rangingManager.onRangingClosed(sessionHandle2, REASON, PARAMS);
+        verify(callback2, times(1)).onReportReceived(any());
+        verify(callback2, times(1)).onClosed(eq(REASON), eq(PARAMS));
+
+        callback1Released.countDown();
+        thread.join(TIMEOUT_MS);
+        verify(callback1, times(1)).onReportReceived(any());
+    }
+
     @Test
     public void testReasons() throws RemoteException {
         runReason(RangingChangeReason.LOCAL_API, RangingSession.Callback.REASON_LOCAL_REQUEST);
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.uwb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Parcel;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Test of the parcel layout of {@link RangingMeasurement} and {@link RangingReport}.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class RangingReportParcelTest {
+    private static final String TAG = RangingReportParcelTest.class.getSimpleName();
+    private static final int MAX_PARCEL_SIZE_BYTES_PER_MEASUREMENT = 164;
+
+    @Test
+    public void testMeasurementParcel_optionalSectionsAbsent_nothingElseWritten() {
+        Parcel parcel = Parcel.obtain();
+        RangingMeasurement measurement = new RangingMeasurement.Builder()
+                .setRemoteDeviceAddress(UwbTestUtils.getUwbAddress(true))
+                .setStatus(RangingMeasurement.RANGING_STATUS_FAILURE_OUT_OF_RANGE)
+                .setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos())
+                .build();
+        measurement.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        RangingMeasurement fromParcel = RangingMeasurement.CREATOR.createFromParcel(parcel);
+        assertEquals(measurement, fromParcel);
+        assertEquals(parcel.dataSize(), parcel.dataPosition());
+        parcel.recycle();
+    }
+
+    @Test
+    public void testMeasurementParcel_emptyMetadata_nothingElseWritten() {
+        Parcel parcel = Parcel.obtain();
+        RangingMeasurement measurement = new RangingMeasurement.Builder()
+                .setRemoteDeviceAddress(UwbTestUtils.getUwbAddress(false))
+                .setStatus(RangingMeasurement.RANGING_STATUS_SUCCESS)
+                .setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos())
+                .setAngleOfArrivalMeasurement(new AngleOfArrivalMeasurement.Builder(
+                        UwbTestUtils.getAngleMeasurement()).build())
+                .setRangingMeasurementMetadata(new PersistableBundle())
+                .build();
+        measurement.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        RangingMeasurement fromParcel = RangingMeasurement.CREATOR.createFromParcel(parcel);
+        assertEquals(measurement, fromParcel);
+        assertEquals(parcel.dataSize(), parcel.dataPosition());
+        parcel.recycle();
+    }
+
+    /** Benchmark of the parcel size and of the parcel round trips of a one to many report. */
+    @Test
+    public void testBenchmark_parcelSizeAndThroughput() {
+        final int measurementCount = 8;
+        final int iterations = 1000;
+        RangingReport.Builder builder = new RangingReport.Builder();
+        for (int i = 0; i < measurementCount; i++) {
+            builder.addMeasurement(new RangingMeasurement.Builder()
+                    .setRemoteDeviceAddress(UwbTestUtils.getUwbAddress(false))
+                    .setStatus(RangingMeasurement.RANGING_STATUS_SUCCESS)
+                    .setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos())
+                    .setDistanceMeasurement(UwbTestUtils.getDistanceMeasurement())
+                    .setAngleOfArrivalMeasurement(UwbTestUtils.getAngleOfArrivalMeasurement())
+                    .setDestinationAngleOfArrivalMeasurement(
+                            UwbTestUtils.getAngleOfArrivalMeasurement())
+                    .build());
+        }
+        RangingReport report = builder.build();
+
+        Parcel parcel = Parcel.obtain();
+        report.writeToParcel(parcel, 0);
+        int parcelSize = parcel.dataSize();
+        // Fixed layout of a measurement with all its sections and no metadata, no class names.
+        assertTrue(parcelSize <= MAX_PARCEL_SIZE_BYTES_PER_MEASUREMENT * measurementCount + 8);
+
+        long startNs = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            parcel.setDataPosition(0);
+            parcel.setDataSize(0);
+            report.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            assertEquals(measurementCount,
+                    RangingReport.CREATOR.createFromParcel(parcel).getMeasurements().size());
+        }
+        long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+        parcel.recycle();
+
+        Log.i(TAG, "RangingReport parcel: " + measurementCount + " measurements in "
+                + parcelSize + " bytes, " + iterations + " round trips in " + elapsedNs / 1000
+                + " us, " + (iterations * 1_000_000_000L / elapsedNs) + " reports/s");
+    }
+}
@@ -36,6 +36,8 @@ public class DeviceConfigFacade {
     public static final int DEFAULT_RANGING_RESULT_LOG_INTERVAL_MS = 5_000;
     private static final int MS_IN_HOUR = 60 * 60 * 1000;
     public static final int DEFAULT_BUG_REPORT_MIN_INTERVAL_MS = 24 * MS_IN_HOUR;
+    public static final int DEFAULT_OEM_EXTENSION_DEADLINE_MS = 50;
+    public static final int DEFAULT_OEM_EXTENSION_MAX_QUEUE_SIZE = 8;
     private static final String TAG = "DeviceConfigFacadeUwb";
 
     public enum PoseSourceType {
@@ -86,6 +88,11 @@ public class DeviceConfigFacade {
     private boolean mBackgroundRangingEnabled;
     // Flag to disable error streak timer when a session is ongoing.
     private boolean mRangingErrorStreakTimerEnabled;
+    // Config parameters related to the OEM extension callback stage.
+    private int mOemExtensionDeadlineMs;
+    private int mOemExtensionMaxQueueSize;
+    // Flag to admit new sessions only if they fit in the airtime left by the other sessions.
+    private boolean mSessionAirtimeSchedulingEnabled;
 
     public DeviceConfigFacade(Handler handler, Context context) {
         mContext = context;
@@ -109,6 +116,12 @@ public class DeviceConfigFacade {
                 "session_init_error_bugreport_enabled", false);
         mBugReportMinIntervalMs = DeviceConfig.getInt(DeviceConfig.NAMESPACE_UWB,
                 "bug_report_min_interval_ms", DEFAULT_BUG_REPORT_MIN_INTERVAL_MS);
+        mOemExtensionDeadlineMs = DeviceConfig.getInt(DeviceConfig.NAMESPACE_UWB,
+                "oem_extension_deadline_ms", DEFAULT_OEM_EXTENSION_DEADLINE_MS);
+        mOemExtensionMaxQueueSize = DeviceConfig.getInt(DeviceConfig.NAMESPACE_UWB,
+                "oem_extension_max_queue_size", DEFAULT_OEM_EXTENSION_MAX_QUEUE_SIZE);
+        mSessionAirtimeSchedulingEnabled = DeviceConfig.getBoolean(DeviceConfig.NAMESPACE_UWB,
+                "session_airtime_scheduling_enabled", false);
 
         // Default values come from the overlay file (config.xml).
         mEnableFilters = DeviceConfig.getBoolean(
@@ -489,4 +502,27 @@ public class DeviceConfigFacade {
     public boolean isRangingErrorStreakTimerEnabled() {
         return mRangingErrorStreakTimerEnabled;
     }
+
+    /**
+     * Gets how long a ranging report may wait for the OEM extension service before it is
+     * delivered to the app unmodified.
+     */
+    public int getOemExtensionDeadlineMs() {
+        return mOemExtensionDeadlineMs;
+    }
+
+    /**
+     * Gets the max number of OEM extension calls that may be pending for a single session.
+     */
+    public int getOemExtensionMaxQueueSize() {
+        return mOemExtensionMaxQueueSize;
+    }
+
+    /**
+     * Returns whether a new ranging session is only opened if its ranging rounds fit in the
+     * airtime left by the other sessions of the chip, see {@link UwbSessionScheduler}.
+     */
+    public boolean isSessionAirtimeSchedulingEnabled() {
+        return mSessionAirtimeSchedulingEnabled;
+    }
 }
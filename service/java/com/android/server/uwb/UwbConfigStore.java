@@ -31,8 +31,12 @@ import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.Preconditions;
 import com.android.proto.uwb.UwbConfigProto;
 
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileOutputStream;
@@ -40,13 +44,19 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -61,7 +71,14 @@ import java.util.stream.Stream;
  * use {@link UwbConfigStore#saveToStore(boolean)} for any writes.</li>
  * <li>{@link UwbConfigStore} controls {@link UwbConfigStore} and initiates read at bootup and
  * store file changes on user switch.</li>
- * <li>Not thread safe!</li>
+ * <li>{@link StoreData} instances that can describe their changes as a
+ * {@link UwbConfigProto.UwbConfigDelta} only get the delta appended to a journal next to the
+ * store file. The journal is folded into a new snapshot once it grows past
+ * {@link #MAX_JOURNAL_RECORDS} records or {@link #MAX_JOURNAL_SIZE_BYTES} bytes.</li>
+ * <li>File I/O runs on a dedicated I/O handler, the event handler only serializes data into
+ * immutable buffers. Forced writes within {@link #IO_WRITE_COALESCE_WINDOW_MS} are committed
+ * together, use {@link #saveToStoreAsync()} to know when the data reached the disk.</li>
+ * <li>Not thread safe, except for the I/O handler hand-off!</li>
  */
 public class UwbConfigStore {
     /**
@@ -105,6 +122,21 @@ public class UwbConfigStore {
      * Time interval for buffering file writes for non-forced writes
      */
     private static final int BUFFERED_WRITE_ALARM_INTERVAL_MS = 10 * 1000;
+    /**
+     * Time window in which forced writes are coalesced into a single write on the I/O handler.
+     */
+    @VisibleForTesting
+    public static final int IO_WRITE_COALESCE_WINDOW_MS = 50;
+    /**
+     * Max number of records in a store file journal before it is compacted into the snapshot.
+     */
+    @VisibleForTesting
+    public static final int MAX_JOURNAL_RECORDS = 64;
+    /**
+     * Max size of a store file journal before it is compacted into the snapshot.
+     */
+    @VisibleForTesting
+    public static final int MAX_JOURNAL_SIZE_BYTES = 16 * 1024;
     /**
      * Config store file name for general shared store file.
      */
@@ -125,6 +157,10 @@ public class UwbConfigStore {
      * Handler instance to post alarm timeouts to
      */
     private final Handler mEventHandler;
+    /**
+     * Handler instance running all file I/O, off the event handler.
+     */
+    private final Handler mIoHandler;
 
     /**
      * Alarm manager instance to start buffer timeout alarms.
@@ -150,6 +186,27 @@ public class UwbConfigStore {
      * Flag to indicate if there is a buffered write pending.
      */
     private boolean mBufferedWritePending = false;
+    /**
+     * Completes once the data buffered for the pending buffered write reached the disk.
+     */
+    private CompletableFuture<Boolean> mBufferedWriteFuture;
+    /**
+     * Lock guarding the state shared with the I/O handler.
+     */
+    private final Object mIoLock = new Object();
+    /**
+     * Next write to run on the I/O handler, later write requests join it. Guarded by mIoLock.
+     */
+    private IoWrite mPendingIoWrite;
+    /**
+     * I/O stats, guarded by mIoLock.
+     */
+    private long mIoWriteCount;
+    private long mIoWriteRequestCount;
+    private long mIoWriteFailureCount;
+    private long mIoBytesWritten;
+    private long mLastIoWriteLatencyMs;
+    private long mMaxIoWriteLatencyMs;
     /**
      * Alarm listener for flushing out any buffered writes.
      */
@@ -181,13 +238,7 @@ public class UwbConfigStore {
     }
 
     private final AlarmManager.OnAlarmListener mBufferedWriteListener =
-            () -> {
-                try {
-                    writeBufferedData();
-                } catch (IOException e) {
-                    Log.wtf(TAG, "Buffered write failed", e);
-                }
-            };
+            () -> writeBufferedData();
 
     public List<StoreData> getStoreDataList() {
         return mStoreDataList;
@@ -204,16 +255,18 @@ public class UwbConfigStore {
      *
      * @param context     context to use for retrieving the alarm manager.
      * @param handler     handler instance to post alarm timeouts to.
+     * @param ioHandler   handler instance to run file I/O on, must not be the UWB service handler.
      * @param uwbInjector  reference to UwbInjector.
      * @param sharedStores List of {@link StoreFile} instances pointing to the shared store files.
      *                     This should be retrieved using {@link #createSharedFiles()}}
      *                     method.
      */
-    public UwbConfigStore(Context context, Handler handler, UwbInjector uwbInjector,
-            List<StoreFile> sharedStores) {
+    public UwbConfigStore(Context context, Handler handler, Handler ioHandler,
+            UwbInjector uwbInjector, List<StoreFile> sharedStores) {
 
         mAlarmManager = context.getSystemService(AlarmManager.class);
         mEventHandler = handler;
+        mIoHandler = ioHandler;
         mUwbInjector = uwbInjector;
         mStoreDataList = new ArrayList<>();
 
@@ -232,6 +285,8 @@ public class UwbConfigStore {
      * 1. Shared UwbConfigStore.bin
      * 2. User UwbConfigStore.bin
      *
+     * The files are read on the I/O handler, writes are rejected until the data is loaded.
+     *
      * @return true on success or not needed (fresh install), false otherwise.
      */
     public boolean loadFromStore() {
@@ -250,16 +305,18 @@ public class UwbConfigStore {
             mDeferredUserUnlockRead = false;
         }
         mPendingStoreRead = true;
-        try {
-            read();
-        } catch (IOException | IllegalStateException e) {
-            Log.wtf(TAG, "Reading from new store failed. All saved networks are lost!", e);
-            // TODO Need to handle this based on dev build vs prod
-        }
-        mPendingStoreRead = false;
+        read();
         return true;
     }
 
+    private void onStoreRead() {
+        mPendingStoreRead = false;
+        if (mDeferredUserUnlockRead) {
+            mDeferredUserUnlockRead = false;
+            handleUserUnlock(mCurrentUserId);
+        }
+    }
+
     /**
      * Handles the unlock of foreground user. This maybe needed to read the store file if the user's
      * CE storage is not visible when {@link #handleUserSwitch(int)} is invoked.
@@ -302,10 +359,10 @@ public class UwbConfigStore {
             Log.v(TAG, "Loading from store after user switch/unlock for " + userId);
         }
         // Switch out the user store file.
-        if (loadFromUserStoreAfterUnlockOrSwitch(userId)) {
+        loadFromUserStoreAfterUnlockOrSwitch(userId, () -> {
             saveToStore(true);
             mPendingUnlockStoreRead = false;
-        }
+        });
     }
 
     /**
@@ -318,20 +375,16 @@ public class UwbConfigStore {
      * 1. User UwbConfigStore.bin
      *
      * @param userId The identifier of the foreground user.
-     * @return true on success, false otherwise.
+     * @param onRead Invoked on the event handler once the data is loaded.
+     * @return true if the read was started, false otherwise.
      */
-    private boolean loadFromUserStoreAfterUnlockOrSwitch(int userId) {
-        try {
-            List<StoreFile> userStoreFiles = createUserFiles(userId);
-            if (userStoreFiles == null) {
-                Log.e(TAG, "Failed to create user store files");
-                return false;
-            }
-            switchUserStoresAndRead(userStoreFiles);
-        } catch (IOException | IllegalStateException e) {
-            Log.wtf(TAG, "Reading from new store failed. All saved private networks are lost!", e);
+    private boolean loadFromUserStoreAfterUnlockOrSwitch(int userId, @NonNull Runnable onRead) {
+        List<StoreFile> userStoreFiles = createUserFiles(userId);
+        if (userStoreFiles == null) {
+            Log.e(TAG, "Failed to create user store files");
             return false;
         }
+        switchUserStoresAndRead(userStoreFiles, onRead);
         return true;
     }
 
@@ -396,20 +449,37 @@ public class UwbConfigStore {
      * Save the current snapshot of the in-memory lists to the config store.
      *
      * @param forceWrite Whether the write needs to be forced or not.
-     * @return Whether the write was successful or not, this is applicable only for force writes.
+     * @return Whether the data was handed off for writing, use {@link #saveToStoreAsync()} to
+     * wait for the write itself.
      */
     public boolean saveToStore(boolean forceWrite) {
+        CompletableFuture<Boolean> future = saveToStoreInternal(forceWrite);
+        // Only a rejected hand-off completes right away with false.
+        return !future.isDone() || future.getNow(false);
+    }
+
+    /**
+     * Save the current snapshot of the in-memory lists to the config store and write it out
+     * without waiting for the buffered write alarm.
+     *
+     * @return Future completing with whether the write reached the disk. Never wait for it on
+     * the UWB service handler.
+     */
+    public CompletableFuture<Boolean> saveToStoreAsync() {
+        return saveToStoreInternal(true);
+    }
+
+    private CompletableFuture<Boolean> saveToStoreInternal(boolean forceWrite) {
         if (mPendingStoreRead) {
             Log.e(TAG, "Cannot save to store before store is read!");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
         try {
-            write(forceWrite);
-        } catch (IOException | IllegalStateException e) {
+            return write(forceWrite);
+        } catch (IllegalStateException e) {
             Log.wtf(TAG, "Writing to store failed. Saved networks maybe lost!", e);
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
-        return true;
     }
 
     /**
@@ -536,15 +606,15 @@ public class UwbConfigStore {
      *
      * @param forceSync boolean to force write the config stores now. if false, the writes are
      *                  buffered and written after the configured interval.
+     * @return Future completing with whether the data reached the disk.
      */
-    public void write(boolean forceSync) throws  IOException {
+    public CompletableFuture<Boolean> write(boolean forceSync) {
         boolean hasAnyNewData = false;
         // Serialize the provided data and send it to the respective stores. The actual write will
         // be performed later depending on the |forceSync| flag .
         for (StoreFile sharedStoreFile : mSharedStores) {
             if (hasNewDataToSerialize(sharedStoreFile)) {
-                byte[] sharedDataBytes = serializeData(sharedStoreFile);
-                sharedStoreFile.storeRawDataToWrite(sharedDataBytes);
+                serializeToStoreFile(sharedStoreFile);
                 hasAnyNewData = true;
             }
         }
@@ -552,8 +622,7 @@ public class UwbConfigStore {
         if (mUserStores != null) {
             for (StoreFile userStoreFile : mUserStores) {
                 if (hasNewDataToSerialize(userStoreFile)) {
-                    byte[] userDataBytes = serializeData(userStoreFile);
-                    userStoreFile.storeRawDataToWrite(userDataBytes);
+                    serializeToStoreFile(userStoreFile);
                     hasAnyNewData = true;
                 }
             }
@@ -563,20 +632,67 @@ public class UwbConfigStore {
             // Every write provides a new snapshot to be persisted, so |forceSync| flag overrides
             // any pending buffer writes.
             if (forceSync) {
-                writeBufferedData();
+                return writeBufferedData();
             } else {
-                startBufferedWriteAlarm();
+                return startBufferedWriteAlarm();
             }
         } else if (forceSync && mBufferedWritePending) {
             // no new data to write, but there is a pending buffered write. So, |forceSync| should
             // flush that out.
-            writeBufferedData();
+            return writeBufferedData();
+        } else if (mBufferedWritePending) {
+            return mBufferedWriteFuture;
+        }
+        return CompletableFuture.completedFuture(true);
+    }
+
+    /**
+     * Buffer the new data of the provided {@link StoreFile} for writing, either as a journal
+     * record or as a new snapshot if the journal is due for compaction.
+     */
+    private void serializeToStoreFile(@NonNull StoreFile storeFile) {
+        if (storeFile.mJournalRecordCount < MAX_JOURNAL_RECORDS
+                && storeFile.mJournalSize < MAX_JOURNAL_SIZE_BYTES) {
+            byte[] deltaBytes = serializeDelta(storeFile);
+            if (deltaBytes != null) {
+                storeFile.storeJournalRecordToWrite(deltaBytes);
+                return;
+            }
+        }
+        storeFile.storeRawDataToWrite(serializeData(storeFile));
+    }
+
+    /**
+     * Serialize the changes from all the {@link StoreData} clients registered for the provided
+     * {@link StoreFile} into a length delimited journal record.
+     *
+     * @param storeFile StoreFile that we want to write to.
+     * @return byte[] of serialized bytes or null if any client cannot provide a delta.
+     */
+    @Nullable
+    private byte[] serializeDelta(@NonNull StoreFile storeFile) {
+        List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
+        UwbConfigProto.UwbConfigDelta.Builder builder = UwbConfigProto.UwbConfigDelta.newBuilder();
+        builder.setGeneration(storeFile.mGeneration);
+        for (StoreData storeData : storeDataList) {
+            if (!storeData.serializeDelta(builder)) {
+                return null;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            builder.build().writeDelimitedTo(out);
+        } catch (IOException e) {
+            // Not expected for an in-memory stream, fall back to a snapshot.
+            return null;
         }
+        return out.toByteArray();
     }
 
     /**
      * Serialize all the data from all the {@link StoreData} clients registered for the provided
-     * {@link StoreFile}.
+     * {@link StoreFile}. This starts a new snapshot generation, so any journal records of the
+     * previous generation are ignored on the next read.
      *
      * @param storeFile StoreFile that we want to write to.
      * @return byte[] of serialized bytes
@@ -585,22 +701,74 @@ public class UwbConfigStore {
         List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
         UwbConfigProto.UwbConfig.Builder builder = UwbConfigProto.UwbConfig.newBuilder();
         builder.setVersion(CURRENT_CONFIG_STORE_DATA_VERSION);
+        builder.setGeneration(++storeFile.mGeneration);
         for (StoreData storeData : storeDataList) {
             storeData.serializeData(builder);
         }
         return builder.build().toByteArray();
     }
 
+    /**
+     * Apply the journal records of the snapshot generation on top of the snapshot. Stale records
+     * and a trailing record torn by a crash are dropped, the torn record is also cut off the
+     * journal before the next append so that it does not hide the records appended after it.
+     */
+    private static UwbConfigProto.UwbConfig replayJournal(
+            @NonNull UwbConfigProto.UwbConfig uwbConfig, @Nullable byte[] journalBytes,
+            @NonNull StoreFile storeFile) {
+        storeFile.mGeneration = uwbConfig.getGeneration();
+        storeFile.mJournalRecordCount = 0;
+        storeFile.mJournalSize = journalBytes == null ? 0 : journalBytes.length;
+        if (journalBytes == null) {
+            return uwbConfig;
+        }
+        Map<String, UwbConfigProto.ServiceConfig> serviceConfigs = new LinkedHashMap<>();
+        for (UwbConfigProto.ServiceConfig serviceConfig : uwbConfig.getServiceConfigList()) {
+            serviceConfigs.put(serviceConfig.getServiceInstanceId(), serviceConfig);
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(journalBytes);
+        while (true) {
+            int recordOffset = journalBytes.length - in.available();
+            UwbConfigProto.UwbConfigDelta delta;
+            try {
+                delta = UwbConfigProto.UwbConfigDelta.parseDelimitedFrom(in);
+            } catch (IOException e) {
+                Log.w(TAG, "Dropping truncated journal record of " + storeFile.getName());
+                storeFile.mJournalSize = recordOffset;
+                storeFile.truncateJournalToWrite(recordOffset);
+                break;
+            }
+            if (delta == null) break;
+            storeFile.mJournalRecordCount++;
+            if (delta.getGeneration() != uwbConfig.getGeneration()) continue;
+            for (UwbConfigProto.ServiceConfig serviceConfig
+                    : delta.getUpsertedServiceConfigList()) {
+                serviceConfigs.put(serviceConfig.getServiceInstanceId(), serviceConfig);
+            }
+            for (String serviceInstanceId : delta.getRemovedServiceInstanceIdList()) {
+                serviceConfigs.remove(serviceInstanceId);
+            }
+        }
+        return uwbConfig.toBuilder()
+                .clearServiceConfig()
+                .addAllServiceConfig(serviceConfigs.values())
+                .build();
+    }
+
     /**
      * Helper method to start a buffered write alarm if one doesn't already exist.
+     *
+     * @return Future completing once the buffered data reached the disk.
      */
-    private void startBufferedWriteAlarm() {
+    private CompletableFuture<Boolean> startBufferedWriteAlarm() {
         if (!mBufferedWritePending) {
             mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
                     mUwbInjector.getElapsedSinceBootMillis() + BUFFERED_WRITE_ALARM_INTERVAL_MS,
                     BUFFERED_WRITE_ALARM_TAG, mBufferedWriteListener, mEventHandler);
             mBufferedWritePending = true;
+            mBufferedWriteFuture = new CompletableFuture<>();
         }
+        return mBufferedWriteFuture;
     }
 
     /**
@@ -614,51 +782,123 @@ public class UwbConfigStore {
     }
 
     /**
-     * Helper method to actually perform the writes to the file. This flushes out any write data
-     * being buffered in the respective stores and cancels any pending buffer write alarms.
+     * Helper method to hand off the write data being buffered in the respective stores to the I/O
+     * handler, and cancel any pending buffer write alarms.
+     *
+     * @return Future completing with whether the data reached the disk.
      */
-    private void writeBufferedData() throws IOException {
+    private CompletableFuture<Boolean> writeBufferedData() {
+        CompletableFuture<Boolean> bufferedWriteFuture = mBufferedWriteFuture;
+        mBufferedWriteFuture = null;
         stopBufferedWriteAlarm();
 
-        long writeStartTime = mUwbInjector.getElapsedSinceBootMillis();
-        for (StoreFile sharedStoreFile : mSharedStores) {
-            sharedStoreFile.writeBufferedRawData();
-        }
+        List<StoreFile> storeFiles = new ArrayList<>(mSharedStores);
         if (mUserStores != null) {
-            for (StoreFile userStoreFile : mUserStores) {
-                userStoreFile.writeBufferedRawData();
-            }
+            storeFiles.addAll(mUserStores);
         }
-        long writeTime = mUwbInjector.getElapsedSinceBootMillis() - writeStartTime;
-        Log.d(TAG, "Writing to stores completed in " + writeTime + " ms.");
+        CompletableFuture<Boolean> future = scheduleIoWrite(storeFiles);
+        if (bufferedWriteFuture != null) {
+            future.thenAccept(bufferedWriteFuture::complete);
+        }
+        return future;
     }
 
     /**
-     * Helper method to read from the shared store files.
+     * Schedule a write of the provided store files on the I/O handler. Requests made before the
+     * write starts are coalesced into it.
      */
-    private void readFromSharedStoreFiles() throws IOException {
-        for (StoreFile sharedStoreFile : mSharedStores) {
-            byte[] sharedDataBytes = sharedStoreFile.readRawData();
-            deserializeData(sharedDataBytes, sharedStoreFile);
+    private CompletableFuture<Boolean> scheduleIoWrite(@NonNull List<StoreFile> storeFiles) {
+        synchronized (mIoLock) {
+            mIoWriteRequestCount++;
+            if (mPendingIoWrite == null) {
+                mPendingIoWrite = new IoWrite();
+                mIoHandler.postDelayed(this::runIoWrite, IO_WRITE_COALESCE_WINDOW_MS);
+            }
+            mPendingIoWrite.mStoreFiles.addAll(storeFiles);
+            return mPendingIoWrite.mFuture;
         }
     }
 
     /**
-     * Helper method to read from the user store files.
+     * Helper method to actually perform the writes to the file, on the I/O handler.
      */
-    private void readFromUserStoreFiles() {
-        for (StoreFile userStoreFile : mUserStores) {
-            byte[] userDataBytes = userStoreFile.readRawData();
-            deserializeData(userDataBytes, userStoreFile);
+    private void runIoWrite() {
+        IoWrite ioWrite;
+        synchronized (mIoLock) {
+            ioWrite = mPendingIoWrite;
+            mPendingIoWrite = null;
+        }
+        if (ioWrite == null) return; // Already written out ahead of a read.
+
+        long writeStartTime = mUwbInjector.getElapsedSinceBootMillis();
+        long bytesWritten = 0;
+        boolean success = true;
+        for (StoreFile storeFile : ioWrite.mStoreFiles) {
+            try {
+                bytesWritten += storeFile.writeBufferedRawData();
+            } catch (IOException e) {
+                Log.wtf(TAG, "Writing to store failed. Saved networks maybe lost!", e);
+                success = false;
+            }
+        }
+        long writeTime = mUwbInjector.getElapsedSinceBootMillis() - writeStartTime;
+        Log.d(TAG, "Writing " + bytesWritten + " bytes to stores completed in " + writeTime
+                + " ms.");
+        synchronized (mIoLock) {
+            mIoWriteCount++;
+            if (!success) mIoWriteFailureCount++;
+            mIoBytesWritten += bytesWritten;
+            mLastIoWriteLatencyMs = writeTime;
+            mMaxIoWriteLatencyMs = Math.max(mMaxIoWriteLatencyMs, writeTime);
         }
+        ioWrite.mFuture.complete(success);
+    }
+
+    /**
+     * Read the raw data of the provided store files on the I/O handler, after any pending write,
+     * and deserialize it on the event handler.
+     *
+     * @param storeFiles List of {@link StoreFile} to read.
+     * @param isCurrent Checked on the event handler, the data is dropped if this returns false.
+     * @param onRead Invoked on the event handler once the data is loaded.
+     */
+    private void readAsync(@NonNull List<StoreFile> storeFiles,
+            @NonNull BooleanSupplier isCurrent, @NonNull Runnable onRead) {
+        mIoHandler.post(() -> {
+            runIoWrite();
+            long readStartTime = mUwbInjector.getElapsedSinceBootMillis();
+            List<byte[]> dataBytesList = new ArrayList<>();
+            List<byte[]> journalBytesList = new ArrayList<>();
+            for (StoreFile storeFile : storeFiles) {
+                dataBytesList.add(storeFile.readRawData());
+                journalBytesList.add(storeFile.readJournalRawData());
+            }
+            long readTime = mUwbInjector.getElapsedSinceBootMillis() - readStartTime;
+            Log.d(TAG, "Reading from stores completed in " + readTime + " ms.");
+            mEventHandler.post(() -> {
+                if (!isCurrent.getAsBoolean()) {
+                    Log.w(TAG, "Store files changed during read, dropping the data read");
+                    return;
+                }
+                try {
+                    for (int i = 0; i < storeFiles.size(); i++) {
+                        deserializeData(dataBytesList.get(i), journalBytesList.get(i),
+                                storeFiles.get(i));
+                    }
+                } catch (IllegalStateException e) {
+                    Log.wtf(TAG, "Reading from new store failed. All saved networks are lost!", e);
+                }
+                onRead.run();
+            });
+        });
     }
 
     /**
      * API to read the store data from the config stores.
      * The method reads the user specific configurations from user specific config store and the
-     * shared configurations from the shared config store.
+     * shared configurations from the shared config store. The data is loaded asynchronously.
      */
-    public void read() throws IOException {
+    public void read() {
         // Reset both share and user store data.
         for (StoreFile sharedStoreFile : mSharedStores) {
             resetStoreData(sharedStoreFile);
@@ -668,13 +908,12 @@ public class UwbConfigStore {
                 resetStoreData(userStoreFile);
             }
         }
-        long readStartTime = mUwbInjector.getElapsedSinceBootMillis();
-        readFromSharedStoreFiles();
-        if (mUserStores != null) {
-            readFromUserStoreFiles();
+        List<StoreFile> userStores = mUserStores;
+        List<StoreFile> storeFiles = new ArrayList<>(mSharedStores);
+        if (userStores != null) {
+            storeFiles.addAll(userStores);
         }
-        long readTime = mUwbInjector.getElapsedSinceBootMillis() - readStartTime;
-        Log.d(TAG, "Reading from all stores completed in " + readTime + " ms.");
+        readAsync(storeFiles, () -> mUserStores == userStores, this::onStoreRead);
     }
 
     /**
@@ -682,9 +921,11 @@ public class UwbConfigStore {
      * new user's store files.
      *
      * @param userStores List of {@link StoreFile} created using {@link #createUserFiles(int)}.
+     * @param onRead Invoked on the event handler once the data is loaded, unless the user stores
+     *               are switched again in the meantime.
      */
-    public void switchUserStoresAndRead(@NonNull List<StoreFile> userStores)
-            throws IOException {
+    public void switchUserStoresAndRead(@NonNull List<StoreFile> userStores,
+            @NonNull Runnable onRead) {
         //TODO Not yet supported.
         Preconditions.checkNotNull(userStores);
         // Reset user store data.
@@ -696,13 +937,14 @@ public class UwbConfigStore {
 
         // Stop any pending buffered writes, if any.
         stopBufferedWriteAlarm();
+        if (mBufferedWriteFuture != null) {
+            mBufferedWriteFuture.complete(false);
+            mBufferedWriteFuture = null;
+        }
         mUserStores = userStores;
 
         // Now read from the user store files.
-        long readStartTime = mUwbInjector.getElapsedSinceBootMillis();
-        readFromUserStoreFiles();
-        long readTime = mUwbInjector.getElapsedSinceBootMillis() - readStartTime;
-        Log.d(TAG, "Reading from user stores completed in " + readTime + " ms.");
+        readAsync(userStores, () -> mUserStores == userStores, onRead);
     }
 
     /**
@@ -724,13 +966,18 @@ public class UwbConfigStore {
     /**
      * Deserialize data from a {@link StoreFile} for all {@link StoreData} instances registered.
      *
-     * @param dataBytes The data to parse
+     * @param dataBytes The snapshot data to parse
+     * @param journalBytes The journal data to replay on top of the snapshot
      * @param storeFile StoreFile that we read from. Will be used to retrieve the list of clients
      *                  who have data to deserialize from this file.
      */
-    private void deserializeData(@NonNull byte[] dataBytes, @NonNull StoreFile storeFile) {
+    private void deserializeData(@Nullable byte[] dataBytes, @Nullable byte[] journalBytes,
+            @NonNull StoreFile storeFile) {
         List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
-        if (dataBytes == null) {
+        if (dataBytes == null && journalBytes == null) {
+            storeFile.mGeneration = 0;
+            storeFile.mJournalRecordCount = 0;
+            storeFile.mJournalSize = 0;
             indicateNoDataForStoreDatas(storeDataList);
             return;
         }
@@ -738,11 +985,15 @@ public class UwbConfigStore {
         Set<StoreData> storeDatasInvoked = new HashSet<>();
         UwbConfigProto.UwbConfig uwbConfig;
         try {
-            uwbConfig = UwbConfigProto.UwbConfig.parseFrom(dataBytes);
+            uwbConfig = dataBytes == null
+                    ? UwbConfigProto.UwbConfig.newBuilder()
+                            .setVersion(CURRENT_CONFIG_STORE_DATA_VERSION).build()
+                    : parseUwbConfig(dataBytes);
         } catch (InvalidProtocolBufferException e) {
             Log.e(TAG, "Wrong Uwb config proto version");
             return;
         }
+        uwbConfig = replayJournal(uwbConfig, journalBytes, storeFile);
         for (StoreData storeData: mStoreDataList) {
             storeData.deserializeData(uwbConfig);
             storeDatasInvoked.add(storeData);
@@ -754,6 +1005,24 @@ public class UwbConfigStore {
         indicateNoDataForStoreDatas(storeDatasNotInvoked);
     }
 
+    /**
+     * Parses the snapshot with the bytes fields, like the secure blobs, left as views of
+     * dataBytes. They are only copied out when first accessed, and most never are.
+     */
+    private static UwbConfigProto.UwbConfig parseUwbConfig(@NonNull byte[] dataBytes)
+            throws InvalidProtocolBufferException {
+        // dataBytes is not modified once read, the views stay valid.
+        CodedInputStream input = UnsafeByteOperations.unsafeWrap(dataBytes).newCodedInput();
+        input.enableAliasing(true);
+        try {
+            return UwbConfigProto.UwbConfig.parseFrom(input);
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e);
+        }
+    }
+
     /**
      * Dump the local log buffer and other internal state of UwbConfigManager.
      */
@@ -765,7 +1034,10 @@ public class UwbConfigStore {
                 .flatMap(List::stream)
                 .forEach((storeFile) -> {
                     pw.print("Name: " + storeFile.mFileName);
-                    pw.println(", File Id: " + storeFile.mFileId);
+                    pw.print(", File Id: " + storeFile.mFileId);
+                    pw.print(", Generation: " + storeFile.mGeneration);
+                    pw.print(", Journal records: " + storeFile.mJournalRecordCount);
+                    pw.println(", Journal size: " + storeFile.mJournalSize);
                 });
         pw.println("UwbConfigStore - Store Data Begin ----");
         for (StoreData storeData : mStoreDataList) {
@@ -777,15 +1049,34 @@ public class UwbConfigStore {
             pw.print(", ");
             pw.println("File Name: " + STORE_ID_TO_FILE_NAME.get(storeData.getStoreFileId()));
         }
+        synchronized (mIoLock) {
+            pw.println("UwbConfigStore - I/O ----");
+            pw.println("Write requests: " + mIoWriteRequestCount
+                    + ", writes: " + mIoWriteCount
+                    + ", failures: " + mIoWriteFailureCount
+                    + ", bytes written: " + mIoBytesWritten
+                    + ", last latency ms: " + mLastIoWriteLatencyMs
+                    + ", max latency ms: " + mMaxIoWriteLatencyMs);
+        }
         pw.println("---- Dump of UwbConfigStore ----");
     }
 
+    /**
+     * Write waiting to run on the I/O handler.
+     */
+    private static final class IoWrite {
+        final Set<StoreFile> mStoreFiles = new LinkedHashSet<>();
+        final CompletableFuture<Boolean> mFuture = new CompletableFuture<>();
+    }
+
     /**
      * Class to encapsulate all file writes. This is a wrapper over {@link AtomicFile} to write/read
      * raw data from the persistent file with integrity. This class provides helper methods to
      * read/write the entire file into a byte array.
      * This helps to separate out the processing, parsing, and integrity checking from the actual
      * file writing.
+     * The snapshot is accompanied by an append-only journal file holding the changes made since
+     * the snapshot was written.
      */
     public static class StoreFile {
         /**
@@ -793,9 +1084,34 @@ public class UwbConfigStore {
          */
         private final AtomicFile mAtomicFile;
         /**
-         * This is an intermediate buffer to store the data to be written.
+         * The journal file appended to between snapshots.
+         */
+        private final File mJournalFile;
+        /**
+         * This is an intermediate buffer to store the data to be written. Guarded by this, it is
+         * handed off to the I/O handler.
          */
         private byte[] mWriteData;
+        /**
+         * Intermediate buffer of the journal records to be appended. Guarded by this.
+         */
+        private final List<byte[]> mJournalWriteData = new ArrayList<>();
+        /**
+         * Length the journal is cut to before the next append, -1 if none. Guarded by this.
+         */
+        private long mJournalTruncateLength = -1;
+        /**
+         * Generation of the latest snapshot, written or buffered.
+         */
+        private long mGeneration;
+        /**
+         * Number of journal records on top of the latest snapshot, written or buffered.
+         */
+        private int mJournalRecordCount;
+        /**
+         * Size of the journal on top of the latest snapshot, written or buffered.
+         */
+        private long mJournalSize;
         /**
          * Store the file name for setting the file permissions/logging purposes.
          */
@@ -808,6 +1124,7 @@ public class UwbConfigStore {
 
         public StoreFile(File file, @StoreFileId int fileId) {
             mAtomicFile = new AtomicFile(file);
+            mJournalFile = new File(file.getPath() + ".journal");
             mFileName = file.getAbsolutePath();
             mFileId = fileId;
         }
@@ -837,39 +1154,160 @@ public class UwbConfigStore {
             return bytes;
         }
 
+        /**
+         * Read the entire raw data from the journal file and return in a byte array.
+         *
+         * @return raw data read from the journal or null if there is no journal.
+         */
+        public byte[] readJournalRawData() {
+            if (!mJournalFile.exists()) {
+                return null;
+            }
+            try {
+                return Files.readAllBytes(mJournalFile.toPath());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read journal " + mJournalFile, e);
+                return null;
+            }
+        }
+
         /**
          * Store the provided byte array to be written when {@link #writeBufferedRawData()} method
          * is invoked.
-         * This intermediate step is needed to help in buffering file writes.
+         * This intermediate step is needed to help in buffering file writes. The snapshot
+         * supersedes any journal record buffered before it.
          *
          * @param data raw data to be written to the file.
          */
         public void storeRawDataToWrite(byte[] data) {
-            mWriteData = data;
+            synchronized (this) {
+                mWriteData = data;
+                mJournalWriteData.clear();
+            }
+            mJournalRecordCount = 0;
+            mJournalSize = 0;
+        }
+
+        /**
+         * Store the provided journal record to be appended when {@link #writeBufferedRawData()}
+         * method is invoked. All records buffered until then are synced to disk together.
+         *
+         * @param record length delimited journal record.
+         */
+        public void storeJournalRecordToWrite(byte[] record) {
+            synchronized (this) {
+                mJournalWriteData.add(record);
+            }
+            mJournalRecordCount++;
+            mJournalSize += record.length;
+        }
+
+        /**
+         * Cut the journal to the provided length when {@link #writeBufferedRawData()} method is
+         * invoked, before the stored journal records are appended.
+         *
+         * @param length length of the valid records at the start of the journal.
+         */
+        public void truncateJournalToWrite(long length) {
+            synchronized (this) {
+                mJournalTruncateLength = length;
+            }
         }
 
         /**
-         * Write the stored raw data to the store file.
-         * After the write to file, the mWriteData member is reset.
+         * Write the stored raw data to the store file, followed by the stored journal records.
+         * After the write to file, the mWriteData and journal buffers are reset. Data that could
+         * not be written is kept for the next write.
+         * @return number of bytes written.
          * @throws IOException if an error occurs. The output stream is always closed by the method
          * even when an exception is encountered.
          */
-        public void writeBufferedRawData() throws IOException {
-            if (mWriteData == null) return; // No data to write for this file.
-            // Write the data to the atomic file.
-            FileOutputStream out = null;
+        public int writeBufferedRawData() throws IOException {
+            byte[] writeData;
+            List<byte[]> journalWriteData;
+            long journalTruncateLength;
+            synchronized (this) {
+                writeData = mWriteData;
+                journalWriteData = new ArrayList<>(mJournalWriteData);
+                journalTruncateLength = mJournalTruncateLength;
+                mWriteData = null;
+                mJournalWriteData.clear();
+                mJournalTruncateLength = -1;
+            }
+            int bytesWritten = 0;
             try {
-                out = mAtomicFile.startWrite();
-                out.write(mWriteData);
-                mAtomicFile.finishWrite(out);
+                if (writeData != null) {
+                    // Write the data to the atomic file.
+                    FileOutputStream out = null;
+                    try {
+                        out = mAtomicFile.startWrite();
+                        out.write(writeData);
+                        mAtomicFile.finishWrite(out);
+                    } catch (IOException e) {
+                        if (out != null) {
+                            mAtomicFile.failWrite(out);
+                        }
+                        throw e;
+                    }
+                    bytesWritten += writeData.length;
+                    writeData = null;
+                    // Records of the previous generation are ignored on read, this only reclaims
+                    // the space.
+                    if (mJournalFile.exists() && !mJournalFile.delete()) {
+                        Log.w(TAG, "Failed to delete journal " + mJournalFile);
+                    }
+                    journalTruncateLength = -1;
+                }
+                if (journalTruncateLength >= 0) {
+                    truncateJournal(journalTruncateLength);
+                    journalTruncateLength = -1;
+                }
+                if (!journalWriteData.isEmpty()) {
+                    bytesWritten += appendJournal(journalWriteData);
+                }
             } catch (IOException e) {
-                if (out != null) {
-                    mAtomicFile.failWrite(out);
+                synchronized (this) {
+                    // A newer snapshot supersedes anything that failed.
+                    if (mWriteData == null) {
+                        mWriteData = writeData;
+                        mJournalWriteData.addAll(0, journalWriteData);
+                        if (mJournalTruncateLength < 0) {
+                            mJournalTruncateLength = journalTruncateLength;
+                        }
+                    }
                 }
                 throw e;
             }
-            // Reset the pending write data after write.
-            mWriteData = null;
+            return bytesWritten;
+        }
+
+        private void truncateJournal(long length) throws IOException {
+            if (!mJournalFile.exists() || mJournalFile.length() <= length) {
+                return;
+            }
+            try (FileOutputStream out = new FileOutputStream(mJournalFile, true)) {
+                out.getChannel().truncate(length);
+                out.getFD().sync();
+            }
+        }
+
+        private int appendJournal(List<byte[]> records) throws IOException {
+            long journalLength = mJournalFile.length();
+            int bytesWritten = 0;
+            try (FileOutputStream out = new FileOutputStream(mJournalFile, true)) {
+                try {
+                    for (byte[] record : records) {
+                        out.write(record);
+                        bytesWritten += record.length;
+                    }
+                    out.getFD().sync();
+                } catch (IOException e) {
+                    // Drop any partial record, so that the records are retried in one piece.
+                    out.getChannel().truncate(journalLength);
+                    throw e;
+                }
+            }
+            return bytesWritten;
         }
     }
 
@@ -895,6 +1333,18 @@ public class UwbConfigStore {
          */
         void deserializeData(UwbConfigProto.UwbConfig uwbConfig);
 
+        /**
+         * Add the changes made since the last serialization to a journal record, instead of
+         * serializing all the data with {@link #serializeData(UwbConfigProto.UwbConfig.Builder)}.
+         *
+         * @param builder UwbConfigDelta builder
+         * @return false if the changes cannot be expressed as a delta, a full snapshot is written
+         * instead.
+         */
+        default boolean serializeDelta(UwbConfigProto.UwbConfigDelta.Builder builder) {
+            return false;
+        }
+
         /**
          * Reset configuration data.
          */
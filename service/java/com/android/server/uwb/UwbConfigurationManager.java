@@ -29,17 +29,26 @@ import com.android.server.uwb.params.TlvEncoder;
 
 import com.google.uwb.support.base.Params;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class UwbConfigurationManager {
     private static final String TAG = "UwbConfManager";
 
     NativeUwbManager mNativeUwbManager;
 
+    // The app configurations last applied to the UWBS, keyed by session id and then by tag.
+    private final Map<Integer, Map<Integer, byte[]>> mAppliedAppConfigs =
+            new ConcurrentHashMap<>();
+
     public UwbConfigurationManager(NativeUwbManager nativeUwbManager) {
         mNativeUwbManager = nativeUwbManager;
     }
 
     /**
-     * Set app configurations.
+     * Set app configurations, only the TLVs which differ from the ones last applied to the
+     * session are sent to the UWBS.
      */
     public int setAppConfigurations(int sessionId, Params params, String chipId) {
         int status = UwbUciConstants.STATUS_CODE_FAILED;
@@ -52,7 +61,9 @@ public class UwbConfigurationManager {
             return status;
         }
 
-        tlvBuffer = encoder.getTlvBuffer(params);
+        Map<Integer, byte[]> appliedAppConfigs =
+                mAppliedAppConfigs.computeIfAbsent(sessionId, k -> new HashMap<>());
+        tlvBuffer = encoder.getTlvBuffer(params).getDelta(appliedAppConfigs);
 
         if (tlvBuffer.getNoOfParams() != 0) {
             byte[] tlvByteArray = tlvBuffer.getByteArray();
@@ -66,13 +77,39 @@ public class UwbConfigurationManager {
                 Log.e(TAG, "appConfigList is null or size of appConfigList is zero");
                 status = UwbUciConstants.STATUS_CODE_FAILED;
             }
+            if (status == UwbUciConstants.STATUS_CODE_OK) {
+                appliedAppConfigs.putAll(tlvBuffer.getTlvs());
+            } else {
+                // The UWBS may have applied part of the TLVs, send all of them the next time.
+                mAppliedAppConfigs.remove(sessionId);
+            }
         } else {
-            // Number of reconfig params FiraRangingReconfigureParams can be null
+            // Number of reconfig params FiraRangingReconfigureParams can be null, or all the
+            // TLVs are already applied.
             status = UwbUciConstants.STATUS_CODE_OK;
         }
         return status;
     }
 
+    /**
+     * Forgets the given app configurations of the session, for the ones changed in the UWBS by
+     * other commands, so they are sent again by the next {@link #setAppConfigurations}.
+     */
+    public void invalidateAppConfigurations(int sessionId, int... tags) {
+        Map<Integer, byte[]> appliedAppConfigs = mAppliedAppConfigs.get(sessionId);
+        if (appliedAppConfigs == null) {
+            return;
+        }
+        for (int tag : tags) {
+            appliedAppConfigs.remove(tag);
+        }
+    }
+
+    /** Forgets all the app configurations of the session, once it is de-initialized. */
+    public void clearAppConfigurations(int sessionId) {
+        mAppliedAppConfigs.remove(sessionId);
+    }
+
     /**
      * Retrieve app configurations from UWBS.
      */
@@ -73,6 +73,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
@@ -92,6 +94,9 @@ public class UwbInjector {
      */
     private static final String UWB_APEX_PATH =
             new File("/apex", APEX_NAME).getAbsolutePath();
+    /** Number of OEM extension calls that can run at the same time, across all sessions. */
+    private static final int OEM_EXTENSION_THREADS = 2;
+    private static final long OEM_EXTENSION_THREAD_KEEP_ALIVE_SEC = 30;
     private static final int APP_INFO_FLAGS_SYSTEM_APP =
             ApplicationInfo.FLAG_SYSTEM | ApplicationInfo.FLAG_UPDATED_SYSTEM_APP;
 
@@ -111,6 +116,7 @@ public class UwbInjector {
     private final UwbMultichipData mUwbMultichipData;
     private final SystemBuildProperties mSystemBuildProperties;
     private final UwbDiagnostics mUwbDiagnostics;
+    private final UwbOemExtensionStage mUwbOemExtensionStage;
     private IPoseSource mDefaultPoseSource;
     private final ReentrantLock mPoseLock = new ReentrantLock();
     private int mPoseSourceRefCount = 0;
@@ -126,7 +132,12 @@ public class UwbInjector {
         mContext = context;
         mPermissionManager = context.getSystemService(PermissionManager.class);
         mUserManager = mContext.getSystemService(UserManager.class);
-        mUwbConfigStore = new UwbConfigStore(context, new Handler(mLooper), this,
+        // Config store file I/O runs on its own thread, so that slow storage never blocks the
+        // UWB service thread.
+        HandlerThread configStoreIoHandlerThread = new HandlerThread("UwbConfigStoreIo");
+        configStoreIoHandlerThread.start();
+        mUwbConfigStore = new UwbConfigStore(context, new Handler(mLooper),
+                new Handler(configStoreIoHandlerThread.getLooper()), this,
                 UwbConfigStore.createSharedFiles());
         mProfileManager = new ProfileManager(context, new Handler(mLooper),
                 mUwbConfigStore, this);
@@ -157,6 +168,16 @@ public class UwbInjector {
                 mUwbCountryCode, mUwbSessionManager, uwbConfigurationManager, this, mLooper);
         mSystemBuildProperties = new SystemBuildProperties();
         mUwbDiagnostics = new UwbDiagnostics(mContext, this, mSystemBuildProperties);
+        // OEM extension calls run on a small pool of their own, so that a slow OEM service never
+        // stalls the UWB service or notification threads. Each session drains its calls one at a
+        // time, so the pool only ever holds one task per session; the idle threads time out. The
+        // results are delivered back on the service thread, where the session state is handled.
+        ThreadPoolExecutor oemExecutor = new ThreadPoolExecutor(
+                OEM_EXTENSION_THREADS, OEM_EXTENSION_THREADS,
+                OEM_EXTENSION_THREAD_KEEP_ALIVE_SEC, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        oemExecutor.allowCoreThreadTimeOut(true);
+        mUwbOemExtensionStage = new UwbOemExtensionStage(this, mLooper, oemExecutor);
     }
 
     public Looper getUwbServiceLooper() {
@@ -222,6 +243,10 @@ public class UwbInjector {
         return mUwbSessionManager;
     }
 
+    public UwbOemExtensionStage getUwbOemExtensionStage() {
+        return mUwbOemExtensionStage;
+    }
+
     /**
      * Create a UwbShellCommand instance.
      */
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb;
+
+import android.annotation.NonNull;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.util.Log;
+import android.uwb.IUwbOemExtensionCallback;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Runs calls to the OEM extension callback off the UWB notification path.
+ *
+ * <p>Every session gets a bounded queue of pending OEM calls. The queue is drained in batches on
+ * the executor, one drain at a time per session, and every call carries a deadline after which
+ * its fallback value (for a ranging report, the unmodified report) is delivered instead. Results
+ * for a session are always delivered in submission order on the stage handler, so a slow OEM
+ * service can delay a session by at most the deadline, and never stalls the notification thread
+ * or other sessions, as long as the executor has a thread for each of them.
+ */
+public class UwbOemExtensionStage {
+    private static final String TAG = "UwbOemExtensionStage";
+
+    /** A single call into the OEM extension service. */
+    public interface OemCall<T> {
+        /** Invokes the OEM extension service and returns its (possibly modified) result. */
+        T call(@NonNull IUwbOemExtensionCallback callback) throws RemoteException;
+    }
+
+    private final UwbInjector mUwbInjector;
+    private final Handler mHandler;
+    private final Executor mOemExecutor;
+
+    // Guarded by this.
+    private final Map<Integer, SessionQueue> mSessionQueues = new HashMap<>();
+
+    // Stats, guarded by this.
+    private long mCallCount;
+    private long mDeadlineMissCount;
+    private long mOverflowCount;
+    private long mFailureCount;
+    private long mMaxOemLatencyMs;
+
+    public UwbOemExtensionStage(@NonNull UwbInjector uwbInjector, @NonNull Looper looper,
+            @NonNull Executor oemExecutor) {
+        mUwbInjector = uwbInjector;
+        mHandler = new Handler(looper);
+        mOemExecutor = oemExecutor;
+    }
+
+    /**
+     * Queues an OEM call for the given session.
+     *
+     * @param sessionId UWB session the call belongs to.
+     * @param oemCall call to make on the OEM extension service.
+     * @param fallback value to deliver if the OEM service fails or misses the deadline.
+     * @param consumer receives the result on the stage handler, in submission order.
+     */
+    public <T> void submit(int sessionId, @NonNull OemCall<T> oemCall, T fallback,
+            @NonNull Consumer<T> consumer) {
+        DeviceConfigFacade deviceConfigFacade = mUwbInjector.getDeviceConfigFacade();
+        long deadlineMs = deviceConfigFacade.getOemExtensionDeadlineMs();
+        int maxQueueSize = deviceConfigFacade.getOemExtensionMaxQueueSize();
+        synchronized (this) {
+            SessionQueue queue = mSessionQueues.computeIfAbsent(sessionId, SessionQueue::new);
+            PendingCall<T> pendingCall = new PendingCall<>(queue, oemCall, fallback, consumer);
+            // Queue is full, let the oldest calls go through unmodified to bound latency.
+            int undone = 0;
+            for (PendingCall<?> call : queue.mPending) {
+                if (!call.isDone()) undone++;
+            }
+            boolean released = false;
+            for (PendingCall<?> call : queue.mPending) {
+                if (undone < Math.max(maxQueueSize, 1)) break;
+                if (!call.isDone()) {
+                    mOverflowCount++;
+                    call.completeWithFallback();
+                    mHandler.removeCallbacks(call);
+                    undone--;
+                    released = true;
+                }
+            }
+            if (released) {
+                mHandler.post(() -> deliver(queue));
+            }
+            queue.mPending.addLast(pendingCall);
+            queue.mUndrained.addLast(pendingCall);
+            mHandler.postDelayed(pendingCall, deadlineMs);
+            if (!queue.mDrainScheduled) {
+                queue.mDrainScheduled = true;
+                mOemExecutor.execute(() -> drain(queue));
+            }
+        }
+    }
+
+    /**
+     * Runs all calls queued for a session in one pass. Calls that already went past their
+     * deadline are skipped, so a backlog caused by a slow OEM service clears quickly.
+     */
+    private void drain(SessionQueue queue) {
+        while (true) {
+            PendingCall<?> pendingCall;
+            synchronized (this) {
+                pendingCall = queue.mUndrained.pollFirst();
+                if (pendingCall == null) {
+                    queue.mDrainScheduled = false;
+                    if (queue.mPending.isEmpty()) {
+                        mSessionQueues.remove(queue.mSessionId, queue);
+                    }
+                    return;
+                }
+                if (pendingCall.isDone()) continue;
+            }
+            IUwbOemExtensionCallback callback =
+                    mUwbInjector.getUwbServiceCore().getOemExtensionCallback();
+            long startMs = mUwbInjector.getElapsedSinceBootMillis();
+            boolean success = callback != null && pendingCall.invoke(callback);
+            long latencyMs = mUwbInjector.getElapsedSinceBootMillis() - startMs;
+            synchronized (this) {
+                mCallCount++;
+                mMaxOemLatencyMs = Math.max(mMaxOemLatencyMs, latencyMs);
+                if (!success) {
+                    mFailureCount++;
+                    pendingCall.completeWithFallback();
+                }
+            }
+            mHandler.removeCallbacks(pendingCall);
+            mHandler.post(() -> deliver(queue));
+        }
+    }
+
+    /**
+     * Delivers all completed calls at the head of the session queue. Only runs on the stage
+     * handler, which keeps results of a session in submission order.
+     */
+    private void deliver(SessionQueue queue) {
+        List<PendingCall<?>> completed = new ArrayList<>();
+        synchronized (this) {
+            while (!queue.mPending.isEmpty() && queue.mPending.peekFirst().isDone()) {
+                completed.add(queue.mPending.pollFirst());
+            }
+            if (queue.mPending.isEmpty() && !queue.mDrainScheduled) {
+                mSessionQueues.remove(queue.mSessionId, queue);
+            }
+        }
+        for (PendingCall<?> pendingCall : completed) {
+            pendingCall.deliver();
+        }
+    }
+
+    private void onDeadline(SessionQueue queue, PendingCall<?> pendingCall) {
+        synchronized (this) {
+            if (pendingCall.isDone()) return;
+            // Anything queued before this call has an earlier deadline, release those as well so
+            // that ordering is preserved.
+            for (PendingCall<?> call : queue.mPending) {
+                if (!call.isDone()) {
+                    mDeadlineMissCount++;
+                    call.completeWithFallback();
+                    mHandler.removeCallbacks(call);
+                }
+                if (call == pendingCall) break;
+            }
+        }
+        deliver(queue);
+    }
+
+    @VisibleForTesting
+    synchronized int getPendingCount(int sessionId) {
+        SessionQueue queue = mSessionQueues.get(sessionId);
+        return queue == null ? 0 : queue.mPending.size();
+    }
+
+    /**
+     * Dump the OEM extension stage debug info
+     */
+    public synchronized void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("---- Dump of UwbOemExtensionStage ----");
+        pw.println("Calls: " + mCallCount
+                + ", deadline misses: " + mDeadlineMissCount
+                + ", overflows: " + mOverflowCount
+                + ", failures: " + mFailureCount
+                + ", max OEM latency ms: " + mMaxOemLatencyMs);
+        pw.println("Sessions with pending calls: " + mSessionQueues.keySet());
+        pw.println("---- Dump of UwbOemExtensionStage ----");
+    }
+
+    private static final class SessionQueue {
+        final int mSessionId;
+        // All calls not yet delivered, in submission order.
+        final ArrayDeque<PendingCall<?>> mPending = new ArrayDeque<>();
+        // Calls not yet picked up by the OEM executor.
+        final ArrayDeque<PendingCall<?>> mUndrained = new ArrayDeque<>();
+        boolean mDrainScheduled;
+
+        SessionQueue(int sessionId) {
+            mSessionId = sessionId;
+        }
+    }
+
+    private final class PendingCall<T> implements Runnable {
+        private final SessionQueue mQueue;
+        private final OemCall<T> mOemCall;
+        private final T mFallback;
+        private final Consumer<T> mConsumer;
+        // Guarded by UwbOemExtensionStage.this.
+        private boolean mDone;
+        private T mResult;
+
+        PendingCall(SessionQueue queue, OemCall<T> oemCall, T fallback, Consumer<T> consumer) {
+            mQueue = queue;
+            mOemCall = oemCall;
+            mFallback = fallback;
+            mConsumer = consumer;
+        }
+
+        /** Makes the OEM call outside of the stage lock, returns false on failure. */
+        boolean invoke(IUwbOemExtensionCallback callback) {
+            T result;
+            try {
+                result = mOemCall.call(callback);
+            } catch (RemoteException | RuntimeException e) {
+                Log.e(TAG, "OEM extension call failed", e);
+                return false;
+            }
+            synchronized (UwbOemExtensionStage.this) {
+                // The deadline already released the fallback, drop the late result.
+                if (!mDone) {
+                    mResult = result;
+                    mDone = true;
+                }
+            }
+            return true;
+        }
+
+        boolean isDone() {
+            return mDone;
+        }
+
+        void completeWithFallback() {
+            mResult = mFallback;
+            mDone = true;
+        }
+
+        void deliver() {
+            try {
+                mConsumer.accept(mResult);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to deliver OEM extension result", e);
+            }
+        }
+
+        /** Deadline expiry. */
+        @Override
+        public void run() {
+            onDeadline(mQueue, this);
+        }
+    }
+}
@@ -155,6 +155,10 @@ public class UwbServiceImpl extends IUwbAdapter.Stub {
         pw.println();
         mUwbInjector.getUwbConfigStore().dump(fd, pw, args);
         pw.println();
+        mUwbInjector.getUwbOemExtensionStage().dump(fd, pw, args);
+        pw.println();
+        mUwbInjector.getProfileManager().dump(fd, pw, args);
+        pw.println();
         dumpPowerStats(fd, pw, args);
     }
 
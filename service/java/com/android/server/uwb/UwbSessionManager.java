@@ -54,6 +54,7 @@ import android.os.RemoteException;
 import android.os.Trace;
 import android.util.Log;
 import android.util.Pair;
+import android.util.SparseIntArray;
 import android.uwb.IUwbAdapter;
 import android.uwb.IUwbRangingCallbacks;
 import android.uwb.RangingChangeReason;
@@ -64,6 +65,7 @@ import androidx.annotation.VisibleForTesting;
 
 import com.android.modules.utils.build.SdkLevel;
 import com.android.server.uwb.advertisement.UwbAdvertiseManager;
+import com.android.server.uwb.config.ConfigParam;
 import com.android.server.uwb.correction.UwbFilterEngine;
 import com.android.server.uwb.correction.pose.ApplicationPoseSource;
 import com.android.server.uwb.correction.pose.IPoseSource;
@@ -95,6 +97,7 @@ import com.google.uwb.support.fira.FiraParams;
 import com.google.uwb.support.fira.FiraPoseUpdateParams;
 import com.google.uwb.support.fira.FiraRangingReconfigureParams;
 import com.google.uwb.support.fira.FiraSpecificationParams;
+import com.google.uwb.support.fira.FiraStatusCode;
 import com.google.uwb.support.generic.GenericSpecificationParams;
 import com.google.uwb.support.oemextension.AdvertisePointedTarget;
 import com.google.uwb.support.oemextension.SessionStatus;
@@ -102,12 +105,16 @@ import com.google.uwb.support.oemextension.SessionStatus;
 import java.io.Closeable;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
@@ -145,11 +152,16 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
     @VisibleForTesting
     public static final int SESSION_UPDATE_DT_TAG_RANGING_ROUNDS = 8;
 
+    // The importance changes of the UIDs within this window are coalesced, only the last
+    // importance of each UID is applied once the window ends.
+    @VisibleForTesting
+    static final long UID_IMPORTANCE_COALESCING_WINDOW_MS = 500;
+
     // TODO: don't expose the internal field for testing.
     @VisibleForTesting
     final ConcurrentHashMap<SessionHandle, UwbSession> mSessionTable = new ConcurrentHashMap();
     // Used for storing recently closed sessions for debugging purposes.
-    final LruList<UwbSession> mDbgRecentlyClosedSessions = new LruList<>(5);
+    final LruList<ClosedSessionSummary> mDbgRecentlyClosedSessions = new LruList<>(5);
     final ConcurrentHashMap<Integer, List<UwbSession>> mNonPrivilegedUidToFiraSessionsTable =
             new ConcurrentHashMap();
     final ConcurrentHashMap<Integer, Integer> mSessionTokenMap = new ConcurrentHashMap<>();
@@ -163,6 +175,10 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
     private final AlarmManager mAlarmManager;
     private final Looper mLooper;
     private final EventTask mEventTask;
+    private final Handler mUidImportanceHandler;
+    private final UwbSessionScheduler mSessionScheduler = new UwbSessionScheduler();
+    // The last importance of the UIDs changed within the current coalescing window.
+    private final SparseIntArray mPendingUidImportances = new SparseIntArray();
 
     private Boolean mIsRangeDataNtfConfigEnableDisableSupported;
 
@@ -184,6 +200,7 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
         mActivityManager = activityManager;
         mLooper = serviceLooper;
         mEventTask = new EventTask(serviceLooper);
+        mUidImportanceHandler = new Handler(serviceLooper);
         registerUidImportanceTransitions();
     }
 
@@ -206,39 +223,67 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
 
     @Override
     public void onUidImportance(final int uid, final int importance) {
-        Handler handler = new Handler(mLooper);
-        handler.post(() -> {
-            List<UwbSession> uwbSessions = mNonPrivilegedUidToFiraSessionsTable.get(uid);
+        synchronized (mPendingUidImportances) {
+            if (mPendingUidImportances.size() == 0) {
+                mUidImportanceHandler.postDelayed(
+                        this::applyPendingUidImportances, UID_IMPORTANCE_COALESCING_WINDOW_MS);
+            }
+            mPendingUidImportances.put(uid, importance);
+        }
+    }
+
+    private void applyPendingUidImportances() {
+        SparseIntArray uidImportances;
+        synchronized (mPendingUidImportances) {
+            uidImportances = mPendingUidImportances.clone();
+            mPendingUidImportances.clear();
+        }
+        // The sessions which fg/bg state changed, grouped by chip.
+        Map<String, List<UwbSession>> changedSessions = new LinkedHashMap<>();
+        for (int i = 0; i < uidImportances.size(); i++) {
+            List<UwbSession> uwbSessions =
+                    mNonPrivilegedUidToFiraSessionsTable.get(uidImportances.keyAt(i));
             // Not a uid in the watch list
-            if (uwbSessions == null) return;
+            if (uwbSessions == null) continue;
             boolean newModeHasNonPrivilegedFgApp =
-                    UwbInjector.isForegroundAppOrServiceImportance(importance);
+                    UwbInjector.isForegroundAppOrServiceImportance(uidImportances.valueAt(i));
             for (UwbSession uwbSession : uwbSessions) {
                 // already at correct state.
                 if (newModeHasNonPrivilegedFgApp == uwbSession.hasNonPrivilegedFgApp()) {
                     continue;
                 }
                 uwbSession.setHasNonPrivilegedFgApp(newModeHasNonPrivilegedFgApp);
-                int sessionId = uwbSession.getSessionId();
-                Log.i(TAG, "App state change for session " + sessionId + ". IsFg: "
-                        + newModeHasNonPrivilegedFgApp);
-                // Reconfigure the session based on the new fg/bg state if
-                // NtfConfigEnableDisable is supported.
-                if (isRangeDataNtfConfigEnableDisableSupported()) {
-                    Log.i(TAG, "Session " + sessionId
-                            + " reconfiguring ntf control due to app state change");
-                    uwbSession.reconfigureFiraSessionOnFgStateChange();
-                }
-                // Recalculate session priority based on the new fg/bg state.
+                Log.i(TAG, "App state change for session " + uwbSession.getSessionId()
+                        + ". IsFg: " + newModeHasNonPrivilegedFgApp);
+                changedSessions.computeIfAbsent(uwbSession.getChipId(), k -> new ArrayList<>())
+                        .add(uwbSession);
+            }
+        }
+        if (changedSessions.isEmpty()) return;
+
+        // Recalculate session priority based on the new fg/bg state, for all the sessions before
+        // any of them is reconfigured.
+        for (List<UwbSession> uwbSessions : changedSessions.values()) {
+            for (UwbSession uwbSession : uwbSessions) {
                 if (!uwbSession.mSessionPriorityOverride) {
                     int newSessionPriority = uwbSession.calculateSessionPriority();
-                    Log.i(TAG, "Session " + sessionId
+                    Log.i(TAG, "Session " + uwbSession.getSessionId()
                             + " recalculating session priority, new priority: "
                             + newSessionPriority);
                     uwbSession.setStackSessionPriority(newSessionPriority);
                 }
             }
-        });
+        }
+        // Reconfigure the sessions based on the new fg/bg state if NtfConfigEnableDisable is
+        // supported, the reconfigures of a chip are queued back to back.
+        if (!isRangeDataNtfConfigEnableDisableSupported()) return;
+        for (List<UwbSession> uwbSessions : changedSessions.values()) {
+            for (UwbSession uwbSession : uwbSessions) {
+                Log.i(TAG, "Session " + uwbSession.getSessionId()
+                        + " reconfiguring ntf control due to app state change");
+                uwbSession.reconfigureFiraSessionOnFgStateChange();
+            }
+        }
     }
 
     // Detect UIDs going foreground/background
@@ -545,6 +590,18 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
             return;
         }
 
+        // Checked before a lower priority session is evicted to make space, as that cannot be
+        // undone.
+        UwbSessionScheduler.Admission refusal = getAirtimeRefusal(uwbSession, params);
+        if (refusal != null) {
+            rangingCallbacks.onRangingOpenFailed(sessionHandle,
+                    RangingChangeReason.MAX_SESSIONS_REACHED,
+                    getAirtimeExceededParam(protocolName, refusal));
+            mUwbMetrics.logRangingInitEvent(uwbSession,
+                    UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED);
+            return;
+        }
+
         boolean maxSessionsExceeded = false;
         // TODO: getCccSessionCount and getFiraSessionCount should be chip specific
         if (protocolName.equals(CccParams.PROTOCOL_NAME)
@@ -589,6 +646,69 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
         return;
     }
 
+    /**
+     * Checks that the ranging rounds of the session with the given params fit in the airtime left
+     * by the other sessions ranging on its chip. Idle sessions take no airtime, so this is checked
+     * again when a session starts ranging and when it is reconfigured to range more often.
+     *
+     * @return null if the rounds fit or the airtime scheduling is disabled, otherwise the
+     *         refused admission with the suggested settings.
+     */
+    @Nullable
+    private UwbSessionScheduler.Admission getAirtimeRefusal(UwbSession uwbSession,
+            Params params) {
+        if (!mUwbInjector.getDeviceConfigFacade().isSessionAirtimeSchedulingEnabled()) {
+            return null;
+        }
+        String chipId = uwbSession.getChipId();
+        UwbSessionScheduler.Admission admission = mSessionScheduler.admit(params,
+                getChipSessionParams(chipId, uwbSession), getFiraSpecificationParams(chipId));
+        if (admission.isAdmitted()) {
+            return null;
+        }
+        Log.i(TAG, "Ranging airtime exceeded: " + admission);
+        return admission;
+    }
+
+    /**
+     * Gets the params of the other sessions ranging on the chip. Idle sessions take no airtime
+     * and sessions being deinitialized are about to give theirs back.
+     */
+    private List<Params> getChipSessionParams(String chipId, UwbSession excludedSession) {
+        return mSessionTable.values()
+                .stream()
+                .filter(s -> s != excludedSession
+                        && Objects.equals(s.getChipId(), chipId)
+                        && s.getSessionState() == UwbUciConstants.UWB_SESSION_STATE_ACTIVE
+                        && s.getOperationType() != SESSION_ON_DEINIT
+                        && s.getOperationType() != SESSION_DEINIT)
+                .map(UwbSession::getParams)
+                .collect(Collectors.toList());
+    }
+
+    /** Gets the open failure params, with the settings a refused FiRa session would fit with. */
+    private static PersistableBundle getAirtimeExceededParam(String protocolName,
+            UwbSessionScheduler.Admission admission) {
+        if (!protocolName.equals(FiraParams.PROTOCOL_NAME)) {
+            return UwbSessionNotificationHelper.convertUciStatusToParam(protocolName,
+                    UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED);
+        }
+        return new FiraStatusCode.Builder()
+                .setStatusCode(UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED)
+                .setSuggestedRangingIntervalMs(admission.getSuggestedRangingIntervalMs())
+                .setSuggestedBlockStrideLength(admission.getSuggestedBlockStrideLength())
+                .build()
+                .toBundle();
+    }
+
+    @Nullable
+    private FiraSpecificationParams getFiraSpecificationParams(String chipId) {
+        GenericSpecificationParams specificationParams =
+                mUwbInjector.getUwbServiceCore().getCachedSpecificationParams(chipId);
+        return specificationParams != null
+                ? specificationParams.getFiraSpecificationParams() : null;
+    }
+
     private boolean tryMakeSpaceForFiraSession(int priorityThreshold) {
         Optional<UwbSession> lowestPrioritySession = getSessionWithLowestPriorityByProtocol(
                 FiraParams.PROTOCOL_NAME);
@@ -673,6 +793,16 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
                 // Need to update session priority if it changed.
                 uwbSession.updateFiraParamsOnStartIfChanged();
             }
+            UwbSessionScheduler.Admission refusal =
+                    getAirtimeRefusal(uwbSession, uwbSession.getParams());
+            if (refusal != null) {
+                mSessionNotificationManager.onRangingStartFailed(uwbSession,
+                        UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED,
+                        getAirtimeExceededParam(uwbSession.getProtocolName(), refusal));
+                mUwbMetrics.longRangingStartEvent(uwbSession,
+                        UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED);
+                return;
+            }
             mEventTask.execute(SESSION_START_RANGING, uwbSession);
         } else if (currentSessionState == UwbUciConstants.UWB_SESSION_STATE_ACTIVE) {
             Log.i(TAG, "session is already ranging");
@@ -741,6 +871,18 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
         return session.getSessionId();
     }
 
+    /**
+     * Whether a result computed off the notification thread, e.g. by the OEM extension, can still
+     * be delivered for the session, which is neither closed, stopped nor being stopped. Called on
+     * the service thread.
+     */
+    public boolean isSessionRanging(@NonNull UwbSession uwbSession) {
+        return getUwbSession(uwbSession.getSessionId()) == uwbSession
+                && uwbSession.getSessionState() == UwbUciConstants.UWB_SESSION_STATE_ACTIVE
+                && uwbSession.getOperationType() != SESSION_STOP_RANGING
+                && uwbSession.getOperationType() != SESSION_ON_DEINIT;
+    }
+
     private int getActiveSessionCount() {
         return Math.toIntExact(
                 mSessionTable.values()
@@ -773,22 +915,30 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
 
         boolean advertisePointingResult = mAdvertiseManager.isPointedTarget(macAddressBytes);
         if (mUwbInjector.getUwbServiceCore().isOemExtensionCbRegistered()) {
-            try {
-                PersistableBundle pointedTargetBundle = new AdvertisePointedTarget.Builder()
-                        .setMacAddress(macAddressBytes)
-                        .setAdvertisePointingResult(advertisePointingResult)
-                        .build()
-                        .toBundle();
-
-                advertisePointingResult = mUwbInjector
-                        .getUwbServiceCore()
-                        .getOemExtensionCallback()
-                        .onCheckPointedTarget(pointedTargetBundle);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+            // The OEM extension gets the final say, but it is queried off the notification
+            // thread; the locally computed result is used if it does not answer in time. The
+            // result comes back on the service thread, it is dropped once the session stopped.
+            PersistableBundle pointedTargetBundle = new AdvertisePointedTarget.Builder()
+                    .setMacAddress(macAddressBytes)
+                    .setAdvertisePointingResult(advertisePointingResult)
+                    .build()
+                    .toBundle();
+            mUwbInjector.getUwbOemExtensionStage().submit(uwbSession.getSessionId(),
+                    callback -> callback.onCheckPointedTarget(pointedTargetBundle),
+                    advertisePointingResult,
+                    oemPointingResult -> {
+                        if (isSessionRanging(uwbSession)) {
+                            onAdvertisePointingResult(
+                                    uwbSession, macAddressBytes, oemPointingResult);
+                        }
+                    });
+            return;
         }
+        onAdvertisePointingResult(uwbSession, macAddressBytes, advertisePointingResult);
+    }
 
+    private void onAdvertisePointingResult(UwbSession uwbSession, byte[] macAddressBytes,
+            boolean advertisePointingResult) {
         if (advertisePointingResult) {
             // Use a loop to notify all the received application data payload(s) (in sequence number
             // order) for this OWR AOA ranging session.
@@ -956,6 +1106,14 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
                     (FiraRangingReconfigureParams) params;
             Log.i(TAG, "reconfigure() - update reconfigure params: "
                     + rangingReconfigureParams);
+            UwbSessionScheduler.Admission refusal =
+                    getReconfigureAirtimeRefusal(uwbSession, rangingReconfigureParams);
+            if (refusal != null) {
+                mSessionNotificationManager.onRangingReconfigureFailed(uwbSession,
+                        UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED,
+                        getAirtimeExceededParam(uwbSession.getProtocolName(), refusal));
+                return UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED;
+            }
             // Do not update mParams if this was triggered by framework.
             if (!triggeredByFgStateChange) {
                 uwbSession.updateFiraParamsOnReconfigure(rangingReconfigureParams);
@@ -966,6 +1124,24 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
         return 0;
     }
 
+    /**
+     * Checks the airtime of a ranging session reconfigured with a shorter block stride, it ranges
+     * more often. Idle sessions are checked when they start ranging.
+     */
+    @Nullable
+    private UwbSessionScheduler.Admission getReconfigureAirtimeRefusal(UwbSession uwbSession,
+            FiraRangingReconfigureParams reconfigureParams) {
+        FiraOpenSessionParams params = (FiraOpenSessionParams) uwbSession.getParams();
+        Integer blockStrideLength = reconfigureParams.getBlockStrideLength();
+        if (uwbSession.getSessionState() != UwbUciConstants.UWB_SESSION_STATE_ACTIVE
+                || blockStrideLength == null
+                || blockStrideLength >= params.getBlockStrideLength()) {
+            return null;
+        }
+        return getAirtimeRefusal(uwbSession,
+                params.toBuilder().setBlockStrideLength(blockStrideLength).build());
+    }
+
     public synchronized int reconfigure(SessionHandle sessionHandle, @Nullable Params params) {
         return reconfigureInternal(sessionHandle, params, false /* triggeredByFgStateChange */);
     }
@@ -1089,8 +1265,10 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
             uwbSession.close();
             removeFromNonPrivilegedUidToFiraSessionTableIfNecessary(uwbSession);
             mSessionTokenMap.remove(uwbSession.getSessionId());
+            mConfigurationManager.clearAppConfigurations(uwbSession.getSessionId());
             mSessionTable.remove(uwbSession.getSessionHandle());
-            mDbgRecentlyClosedSessions.add(uwbSession);
+            mDbgRecentlyClosedSessions.add(new ClosedSessionSummary(uwbSession,
+                    mUwbInjector.getElapsedSinceBootMillis()));
         }
     }
 
@@ -1493,15 +1671,20 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
                                     Log.e(TAG, "Unable to update controller multicast list.");
                                     if (isMulticastActionAdd(action)) {
                                         mSessionNotificationManager.onControleeAddFailed(
-                                                uwbSession, status);
+                                                uwbSession, status, null);
                                     } else if (action == MULTICAST_LIST_UPDATE_ACTION_DELETE) {
                                         mSessionNotificationManager.onControleeRemoveFailed(
-                                                uwbSession, status);
+                                                uwbSession, status, null);
                                     }
                                     return status;
                                 }
 
                                 uwbSession.getWaitObj().blockingWait();
+                                // The controlees of the UWBS are no longer the ones last set.
+                                mConfigurationManager.invalidateAppConfigurations(
+                                        uwbSession.getSessionId(),
+                                        ConfigParam.NUMBER_OF_CONTROLEES,
+                                        ConfigParam.DST_MAC_ADDRESS);
 
                                 UwbMulticastListUpdateStatus multicastList =
                                         uwbSession.getMulticastListUpdateStatus();
@@ -1513,27 +1696,27 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
 
                                 for (int i = 0; i < multicastList.getNumOfControlee(); i++) {
                                     int actionStatus = multicastList.getStatus()[i];
+                                    UwbAddress controleeAddress =
+                                            multicastList.getControleeUwbAddresses()[i];
                                     if (actionStatus == UwbUciConstants.STATUS_CODE_OK) {
                                         if (isMulticastActionAdd(action)) {
-                                            uwbSession.addControlee(
-                                                    multicastList.getControleeUwbAddresses()[i]);
+                                            uwbSession.addControlee(controleeAddress);
                                             mSessionNotificationManager.onControleeAdded(
-                                                    uwbSession);
+                                                    uwbSession, controleeAddress);
                                         } else if (action == MULTICAST_LIST_UPDATE_ACTION_DELETE) {
-                                            uwbSession.removeControlee(
-                                                    multicastList.getControleeUwbAddresses()[i]);
+                                            uwbSession.removeControlee(controleeAddress);
                                             mSessionNotificationManager.onControleeRemoved(
-                                                    uwbSession);
+                                                    uwbSession, controleeAddress);
                                         }
                                     }
                                     else {
                                         status = actionStatus;
                                         if (isMulticastActionAdd(action)) {
                                             mSessionNotificationManager.onControleeAddFailed(
-                                                    uwbSession, actionStatus);
+                                                    uwbSession, actionStatus, controleeAddress);
                                         } else if (action == MULTICAST_LIST_UPDATE_ACTION_DELETE) {
                                             mSessionNotificationManager.onControleeRemoveFailed(
-                                                    uwbSession, actionStatus);
+                                                    uwbSession, actionStatus, controleeAddress);
                                         }
                                     }
                                 }
@@ -1770,6 +1953,8 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
         static final int DEFAULT_SESSION_PRIORITY = 50;
         @VisibleForTesting
         static final int BG_SESSION_PRIORITY = 40;
+        @VisibleForTesting
+        static final int MAX_RECENT_RAW_NTF_DATA = 16;
 
         private final AttributionSource mAttributionSource;
         private final SessionHandle mSessionHandle;
@@ -1813,6 +1998,10 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
         // Store a Map<SequenceNumber, SendDataInfo>, for every Data packet (sent to UWBS). It's
         // used when the corresponding DataTransferStatusNtf is received (from UWBS).
         private final ConcurrentHashMap<Long, SendDataInfo> mSendDataInfoMap;
+        // The raw UCI notifications of the last ranging rounds, least recent first. They are not
+        // sent to the app by default, the diagnostic tools pull them from here.
+        private final ArrayDeque<byte[]> mRecentRawNtfData = new ArrayDeque<>();
+        private int mRangingReportCount = 0;
 
         @VisibleForTesting
         public List<UwbControlee> mControleeList;
@@ -2128,40 +2317,103 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
 
         public void updateFiraParamsOnReconfigure(FiraRangingReconfigureParams reconfigureParams) {
             // Need to update the reconfigure params from the FiraRangingReconfigureParams for
-            // FiRa session.
+            // FiRa session. The params are only rebuilt when a value changes, so the encoding
+            // memoized by the current params is kept across no-op reconfigures.
+            FiraOpenSessionParams params = (FiraOpenSessionParams) mParams;
             FiraOpenSessionParams.Builder newParamsBuilder =
-                    new FiraOpenSessionParams.Builder((FiraOpenSessionParams) mParams);
-            if (reconfigureParams.getBlockStrideLength() != null) {
+                    new FiraOpenSessionParams.Builder(params);
+            boolean changed = false;
+            if (reconfigureParams.getBlockStrideLength() != null
+                    && reconfigureParams.getBlockStrideLength()
+                            != params.getBlockStrideLength()) {
                 newParamsBuilder.setBlockStrideLength(reconfigureParams.getBlockStrideLength());
+                changed = true;
             }
-            if (reconfigureParams.getRangeDataNtfConfig() != null) {
+            if (reconfigureParams.getRangeDataNtfConfig() != null
+                    && reconfigureParams.getRangeDataNtfConfig()
+                            != params.getRangeDataNtfConfig()) {
                 newParamsBuilder.setRangeDataNtfConfig(reconfigureParams.getRangeDataNtfConfig());
+                changed = true;
             }
-            if (reconfigureParams.getRangeDataProximityNear() != null) {
+            if (reconfigureParams.getRangeDataProximityNear() != null
+                    && reconfigureParams.getRangeDataProximityNear()
+                            != params.getRangeDataNtfProximityNear()) {
                 newParamsBuilder.setRangeDataNtfProximityNear(
                         reconfigureParams.getRangeDataProximityNear());
+                changed = true;
             }
-            if (reconfigureParams.getRangeDataProximityFar() != null) {
+            if (reconfigureParams.getRangeDataProximityFar() != null
+                    && reconfigureParams.getRangeDataProximityFar()
+                            != params.getRangeDataNtfProximityFar()) {
                 newParamsBuilder.setRangeDataNtfProximityFar(
                         reconfigureParams.getRangeDataProximityFar());
+                changed = true;
             }
-            if (reconfigureParams.getRangeDataAoaAzimuthLower() != null) {
+            if (reconfigureParams.getRangeDataAoaAzimuthLower() != null
+                    && reconfigureParams.getRangeDataAoaAzimuthLower()
+                            != params.getRangeDataNtfAoaAzimuthLower()) {
                 newParamsBuilder.setRangeDataNtfAoaAzimuthLower(
                         reconfigureParams.getRangeDataAoaAzimuthLower());
+                changed = true;
             }
-            if (reconfigureParams.getRangeDataAoaAzimuthUpper() != null) {
+            if (reconfigureParams.getRangeDataAoaAzimuthUpper() != null
+                    && reconfigureParams.getRangeDataAoaAzimuthUpper()
+                            != params.getRangeDataNtfAoaAzimuthUpper()) {
                 newParamsBuilder.setRangeDataNtfAoaAzimuthUpper(
                         reconfigureParams.getRangeDataAoaAzimuthUpper());
+                changed = true;
             }
-            if (reconfigureParams.getRangeDataAoaElevationLower() != null) {
+            if (reconfigureParams.getRangeDataAoaElevationLower() != null
+                    && reconfigureParams.getRangeDataAoaElevationLower()
+                            != params.getRangeDataNtfAoaElevationLower()) {
                 newParamsBuilder.setRangeDataNtfAoaElevationLower(
                         reconfigureParams.getRangeDataAoaElevationLower());
+                changed = true;
             }
-            if (reconfigureParams.getRangeDataAoaElevationUpper() != null) {
+            if (reconfigureParams.getRangeDataAoaElevationUpper() != null
+                    && reconfigureParams.getRangeDataAoaElevationUpper()
+                            != params.getRangeDataNtfAoaElevationUpper()) {
                 newParamsBuilder.setRangeDataNtfAoaElevationUpper(
                         reconfigureParams.getRangeDataAoaElevationUpper());
+                changed = true;
+            }
+            if (changed) {
+                this.mParams = newParamsBuilder.build();
+            }
+        }
+
+        /** Keeps the raw notification of a ranging round, the oldest one is dropped when full. */
+        public void addRawNtfData(@Nullable byte[] rawNtfData) {
+            if (rawNtfData == null) {
+                return;
+            }
+            synchronized (mRecentRawNtfData) {
+                if (mRecentRawNtfData.size() == MAX_RECENT_RAW_NTF_DATA) {
+                    mRecentRawNtfData.removeFirst();
+                }
+                mRecentRawNtfData.addLast(rawNtfData);
+            }
+        }
+
+        /** Gets the raw notifications of the last ranging rounds, least recent first. */
+        public List<byte[]> getRecentRawNtfData() {
+            synchronized (mRecentRawNtfData) {
+                return new ArrayList<>(mRecentRawNtfData);
+            }
+        }
+
+        /**
+         * Checks whether the raw notification is added to the next ranging report, as set by the
+         * raw NTF data report interval of the session.
+         */
+        public boolean shouldReportRawNtfData() {
+            int interval = mParams instanceof FiraOpenSessionParams
+                    ? ((FiraOpenSessionParams) mParams).getRawNtfDataReportInterval()
+                    : FiraParams.RAW_NTF_DATA_REPORT_INTERVAL_NEVER;
+            if (interval == FiraParams.RAW_NTF_DATA_REPORT_INTERVAL_NEVER) {
+                return false;
             }
-            this.mParams = newParamsBuilder.build();
+            return mRangingReportCount++ % interval == 0;
         }
 
         public int getCurrentFiraRangingIntervalMs() {
@@ -2446,6 +2698,43 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
         }
     }
 
+    /**
+     * Immutable summary of a closed session, kept for dumpsys. Does not hold on to the session,
+     * so its params, callbacks and filter engines can be released.
+     */
+    @VisibleForTesting
+    static final class ClosedSessionSummary {
+        final int mSessionId;
+        final SessionHandle mSessionHandle;
+        final String mProtocolName;
+        final int mSessionState;
+        final String mParams;
+        final String mAttributionSource;
+        final long mClosedTimeMs;
+
+        ClosedSessionSummary(UwbSession uwbSession, long closedTimeMs) {
+            mSessionId = uwbSession.getSessionId();
+            mSessionHandle = uwbSession.getSessionHandle();
+            mProtocolName = uwbSession.getProtocolName();
+            mSessionState = uwbSession.getSessionState();
+            mParams = String.valueOf(uwbSession.getParams());
+            mAttributionSource = String.valueOf(uwbSession.getAttributionSource());
+            mClosedTimeMs = closedTimeMs;
+        }
+
+        @Override
+        public String toString() {
+            return "UwbSession: { Session Id: " + mSessionId
+                    + ", Handle: " + mSessionHandle
+                    + ", Protocol: " + mProtocolName
+                    + ", State: " + mSessionState
+                    + ", Closed At: " + mClosedTimeMs
+                    + ", Params: " + mParams
+                    + ", AttributionSource: " + mAttributionSource
+                    + " }";
+        }
+    }
+
     // TODO: refactor the async operation flow.
     // Wrapper for unit test.
     @VisibleForTesting
@@ -2472,8 +2761,8 @@ public class UwbSessionManager implements INativeUwbManager.SessionNotification,
             pw.println(uwbSession);
         }
         pw.println("Recently closed sessions: ");
-        for (UwbSession uwbSession: mDbgRecentlyClosedSessions.getEntries()) {
-            pw.println(uwbSession);
+        for (ClosedSessionSummary closedSession : mDbgRecentlyClosedSessions.getEntries()) {
+            pw.println(closedSession);
         }
         List<Integer> nonPrivilegedSessionIds =
                 mNonPrivilegedUidToFiraSessionsTable.entrySet()
@@ -16,8 +16,8 @@
 package com.android.server.uwb;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.os.PersistableBundle;
-import android.os.RemoteException;
 import android.util.Log;
 import android.uwb.AngleMeasurement;
 import android.uwb.AngleOfArrivalMeasurement;
@@ -43,6 +43,7 @@ import com.google.uwb.support.base.Params;
 import com.google.uwb.support.ccc.CccParams;
 import com.google.uwb.support.ccc.CccRangingReconfiguredParams;
 import com.google.uwb.support.dltdoa.DlTDoAMeasurement;
+import com.google.uwb.support.fira.FiraMulticastListUpdateStatusCode;
 import com.google.uwb.support.fira.FiraOpenSessionParams;
 import com.google.uwb.support.fira.FiraParams;
 import com.google.uwb.support.oemextension.RangingReportMetadata;
@@ -70,10 +71,18 @@ public class UwbSessionNotificationManager {
             return;
         }
 
+        // The raw notification only crosses binder to the app when the session asked for it, the
+        // OEM extension always gets it for its post processing.
+        uwbSession.addRawNtfData(rangingData.getRawNtfData());
+        boolean reportRawNtfData = uwbSession.shouldReportRawNtfData();
+        boolean isOemExtensionCbRegistered =
+                mUwbInjector.getUwbServiceCore().isOemExtensionCbRegistered();
+        boolean includeRawNtfData = reportRawNtfData || isOemExtensionCbRegistered;
         RangingReport rangingReport = null;
         try {
             rangingReport = getRangingReport(rangingData, uwbSession.getProtocolName(),
-                    uwbSession.getParams(), mUwbInjector.getElapsedSinceBootNanos(), uwbSession);
+                    uwbSession.getParams(), mUwbInjector.getElapsedSinceBootNanos(), uwbSession,
+                    includeRawNtfData);
         } catch (Exception e) {
             Log.e(TAG, "getRangingReport Failed.");
             e.printStackTrace();
@@ -89,15 +98,41 @@ public class UwbSessionNotificationManager {
             e.printStackTrace();
         }
 
-        if (mUwbInjector.getUwbServiceCore().isOemExtensionCbRegistered()) {
-            try {
-                rangingReport = mUwbInjector.getUwbServiceCore().getOemExtensionCallback()
-                                .onRangingReportReceived(rangingReport);
-            } catch (RemoteException e) {
-                Log.e(TAG, "UwbInjector - onRangingReportReceived : Failed.");
-                e.printStackTrace();
-            }
+        if (isOemExtensionCbRegistered) {
+            // Let the OEM extension modify the report off this thread; the unmodified report is
+            // delivered if the OEM service does not answer in time. The report comes back on the
+            // service thread, it is dropped once the session stopped or closed.
+            final RangingReport report = rangingReport;
+            mUwbInjector.getUwbOemExtensionStage().submit(uwbSession.getSessionId(),
+                    callback -> callback.onRangingReportReceived(report), report,
+                    oemReport -> {
+                        if (mUwbInjector.getUwbSessionManager().isSessionRanging(uwbSession)) {
+                            deliverRangingResult(sessionHandle, uwbRangingCallbacks,
+                                    reportRawNtfData ? oemReport : withoutRawNtfData(oemReport));
+                        }
+                    });
+            return;
         }
+        deliverRangingResult(sessionHandle, uwbRangingCallbacks, rangingReport);
+    }
+
+    /** Strips the raw notification the OEM extension got from the report to the app. */
+    @Nullable
+    private static RangingReport withoutRawNtfData(@Nullable RangingReport rangingReport) {
+        if (rangingReport == null) {
+            return null;
+        }
+        PersistableBundle rangingReportMetadata =
+                new PersistableBundle(rangingReport.getRangingReportMetadata());
+        rangingReportMetadata.putIntArray(RangingReportMetadata.RAW_NTF_DATA, null);
+        return new RangingReport.Builder()
+                .addMeasurements(rangingReport.getMeasurements())
+                .addRangingReportMetadata(rangingReportMetadata)
+                .build();
+    }
+
+    private void deliverRangingResult(SessionHandle sessionHandle,
+            IUwbRangingCallbacks uwbRangingCallbacks, RangingReport rangingReport) {
         try {
             uwbRangingCallbacks.onRangingResult(sessionHandle, rangingReport);
             Log.i(TAG, "IUwbRangingCallbacks - onRangingResult");
@@ -149,13 +184,20 @@ public class UwbSessionNotificationManager {
 
 
     public void onRangingStartFailed(UwbSession uwbSession, int status) {
+        onRangingStartFailed(uwbSession, status,
+                UwbSessionNotificationHelper.convertUciStatusToParam(
+                        uwbSession.getProtocolName(), status));
+    }
+
+    /** Notifies the start failure with params carrying more than the status, if any. */
+    public void onRangingStartFailed(UwbSession uwbSession, int status,
+            PersistableBundle params) {
         SessionHandle sessionHandle = uwbSession.getSessionHandle();
         IUwbRangingCallbacks uwbRangingCallbacks = uwbSession.getIUwbRangingCallbacks();
         try {
             uwbRangingCallbacks.onRangingStartFailed(sessionHandle,
                     UwbSessionNotificationHelper.convertUciStatusToApiReasonCode(status),
-                    UwbSessionNotificationHelper.convertUciStatusToParam(
-                            uwbSession.getProtocolName(), status));
+                    params);
             Log.i(TAG, "IUwbRangingCallbacks - onRangingStartFailed");
         } catch (Exception e) {
             Log.e(TAG, "IUwbRangingCallbacks - onRangingStartFailed : Failed");
@@ -232,14 +274,21 @@ public class UwbSessionNotificationManager {
     }
 
     public void onRangingReconfigureFailed(UwbSession uwbSession, int status) {
+        onRangingReconfigureFailed(uwbSession, status,
+                UwbSessionNotificationHelper.convertUciStatusToParam(
+                        uwbSession.getProtocolName(), status));
+    }
+
+    /** Notifies the reconfigure failure with params carrying more than the status, if any. */
+    public void onRangingReconfigureFailed(UwbSession uwbSession, int status,
+            PersistableBundle params) {
         SessionHandle sessionHandle = uwbSession.getSessionHandle();
         IUwbRangingCallbacks uwbRangingCallbacks = uwbSession.getIUwbRangingCallbacks();
         try {
             uwbRangingCallbacks.onRangingReconfigureFailed(sessionHandle,
                     UwbSessionNotificationHelper.convertUciStatusToApiReasonCode(
                             status),
-                    UwbSessionNotificationHelper.convertUciStatusToParam(
-                            uwbSession.getProtocolName(), status));
+                    params);
             Log.i(TAG, "IUwbRangingCallbacks - onRangingReconfigureFailed");
         } catch (Exception e) {
             Log.e(TAG, "IUwbRangingCallbacks - onRangingReconfigureFailed : Failed");
@@ -247,11 +296,17 @@ public class UwbSessionNotificationManager {
         }
     }
 
-    public void onControleeAdded(UwbSession uwbSession) {
+    /**
+     * Notifies the controlee is added, the address is set in the params when the multicast list
+     * update reported it, so a batched update can be matched to each controlee.
+     */
+    public void onControleeAdded(UwbSession uwbSession, @Nullable UwbAddress address) {
         SessionHandle sessionHandle = uwbSession.getSessionHandle();
         IUwbRangingCallbacks uwbRangingCallbacks = uwbSession.getIUwbRangingCallbacks();
         try {
-            uwbRangingCallbacks.onControleeAdded(sessionHandle, new PersistableBundle());
+            uwbRangingCallbacks.onControleeAdded(sessionHandle,
+                    getControleeParams(new PersistableBundle(),
+                            UwbUciConstants.STATUS_CODE_OK, address));
             Log.i(TAG, "IUwbRangingCallbacks - onControleeAdded");
         } catch (Exception e) {
             Log.e(TAG, "IUwbRangingCallbacks - onControleeAdded: Failed");
@@ -259,15 +314,16 @@ public class UwbSessionNotificationManager {
         }
     }
 
-    public void onControleeAddFailed(UwbSession uwbSession, int status) {
+    public void onControleeAddFailed(UwbSession uwbSession, int status,
+            @Nullable UwbAddress address) {
         SessionHandle sessionHandle = uwbSession.getSessionHandle();
         IUwbRangingCallbacks uwbRangingCallbacks = uwbSession.getIUwbRangingCallbacks();
         try {
             uwbRangingCallbacks.onControleeAddFailed(sessionHandle,
                     UwbSessionNotificationHelper.convertUciStatusToApiReasonCode(
                             status),
-                    UwbSessionNotificationHelper.convertUciStatusToParam(
-                            uwbSession.getProtocolName(), status));
+                    getControleeParams(UwbSessionNotificationHelper.convertUciStatusToParam(
+                            uwbSession.getProtocolName(), status), status, address));
             Log.i(TAG, "IUwbRangingCallbacks - onControleeAddFailed");
         } catch (Exception e) {
             Log.e(TAG, "IUwbRangingCallbacks - onControleeAddFailed : Failed");
@@ -275,11 +331,13 @@ public class UwbSessionNotificationManager {
         }
     }
 
-    public void onControleeRemoved(UwbSession uwbSession) {
+    public void onControleeRemoved(UwbSession uwbSession, @Nullable UwbAddress address) {
         SessionHandle sessionHandle = uwbSession.getSessionHandle();
         IUwbRangingCallbacks uwbRangingCallbacks = uwbSession.getIUwbRangingCallbacks();
         try {
-            uwbRangingCallbacks.onControleeRemoved(sessionHandle, new PersistableBundle());
+            uwbRangingCallbacks.onControleeRemoved(sessionHandle,
+                    getControleeParams(new PersistableBundle(),
+                            UwbUciConstants.STATUS_CODE_OK, address));
             Log.i(TAG, "IUwbRangingCallbacks - onControleeRemoved");
         } catch (Exception e) {
             Log.e(TAG, "IUwbRangingCallbacks - onControleeRemoved: Failed");
@@ -287,15 +345,16 @@ public class UwbSessionNotificationManager {
         }
     }
 
-    public void onControleeRemoveFailed(UwbSession uwbSession, int status) {
+    public void onControleeRemoveFailed(UwbSession uwbSession, int status,
+            @Nullable UwbAddress address) {
         SessionHandle sessionHandle = uwbSession.getSessionHandle();
         IUwbRangingCallbacks uwbRangingCallbacks = uwbSession.getIUwbRangingCallbacks();
         try {
             uwbRangingCallbacks.onControleeRemoveFailed(sessionHandle,
                     UwbSessionNotificationHelper.convertUciStatusToApiReasonCode(
                             status),
-                    UwbSessionNotificationHelper.convertUciStatusToParam(
-                            uwbSession.getProtocolName(), status));
+                    getControleeParams(UwbSessionNotificationHelper.convertUciStatusToParam(
+                            uwbSession.getProtocolName(), status), status, address));
             Log.i(TAG, "IUwbRangingCallbacks - onControleeRemoveFailed");
         } catch (Exception e) {
             Log.e(TAG, "IUwbRangingCallbacks - onControleeRemoveFailed : Failed");
@@ -303,6 +362,18 @@ public class UwbSessionNotificationManager {
         }
     }
 
+    private static PersistableBundle getControleeParams(PersistableBundle params,
+            int status, @Nullable UwbAddress address) {
+        if (address != null) {
+            params.putAll(new FiraMulticastListUpdateStatusCode.Builder()
+                    .setStatusCode(status)
+                    .setAddress(address)
+                    .build()
+                    .toBundle());
+        }
+        return params;
+    }
+
     public void onRangingClosed(UwbSession uwbSession, int status) {
         SessionHandle sessionHandle = uwbSession.getSessionHandle();
         IUwbRangingCallbacks uwbRangingCallbacks = uwbSession.getIUwbRangingCallbacks();
@@ -412,7 +483,8 @@ public class UwbSessionNotificationManager {
 
     private static RangingReport getRangingReport(
             @NonNull UwbRangingData rangingData, String protocolName,
-            Params sessionParams, long elapsedRealtimeNanos, UwbSession uwbSession) {
+            Params sessionParams, long elapsedRealtimeNanos, UwbSession uwbSession,
+            boolean includeRawNtfData) {
         if (rangingData.getRangingMeasuresType() != UwbUciConstants.RANGING_MEASUREMENT_TYPE_TWO_WAY
                 && rangingData.getRangingMeasuresType()
                     != UwbUciConstants.RANGING_MEASUREMENT_TYPE_OWR_AOA
@@ -465,7 +537,7 @@ public class UwbSessionNotificationManager {
         //  RangingReport.equals() does not compare it.
         PersistableBundle rangingReportMetadata = new RangingReportMetadata.Builder()
                 .setSessionId(sessionId)
-                .setRawNtfData(rangingData.getRawNtfData())
+                .setRawNtfData(includeRawNtfData ? rangingData.getRawNtfData() : null)
                 .build()
                 .toBundle();
         RangingReport.Builder rangingReportBuilder = new RangingReport.Builder()
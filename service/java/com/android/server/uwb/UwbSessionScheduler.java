@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.google.uwb.support.base.Params;
+import com.google.uwb.support.ccc.CccOpenRangingParams;
+import com.google.uwb.support.fira.FiraOpenSessionParams;
+import com.google.uwb.support.fira.FiraSpecificationParams;
+
+import java.util.Collection;
+
+/**
+ * Models the share of the airtime used by the ranging sessions of a chip from the duration of
+ * their ranging rounds and their ranging interval. A new session is only admitted if its rounds
+ * fit in the airtime left by the sessions ranging on the chip, otherwise a longer ranging interval
+ * or block stride is suggested to the app, so the rounds of the concurrent sessions do not collide
+ * in the UWBS.
+ */
+public class UwbSessionScheduler {
+    /** The share of the airtime the sessions of a chip may use together. */
+    @VisibleForTesting
+    static final double MAX_AIRTIME_RATIO = 0.9;
+    // Absorbs the rounding of the sum of the airtime of the sessions.
+    private static final double AIRTIME_RATIO_EPSILON = 1e-6;
+
+    // An RSTU is 416 chips at 499.2 MHz.
+    private static final double RSTU_US = 416 / 499.2;
+    // A CCC chap is 400 RSTU, the CCC ranging interval is a multiple of 96 ms blocks.
+    private static final double CCC_CHAP_US = 400 * RSTU_US;
+    private static final int CCC_BLOCK_DURATION_MS = 96;
+    private static final int MAX_BLOCK_STRIDE_LENGTH = 255;
+
+    /** The outcome of the admission of a new session. */
+    public static final class Admission {
+        private final boolean mAdmitted;
+        private final double mAirtimeRatio;
+        private final int mSuggestedRangingIntervalMs;
+        private final int mSuggestedBlockStrideLength;
+
+        private Admission(boolean admitted, double airtimeRatio, int suggestedRangingIntervalMs,
+                int suggestedBlockStrideLength) {
+            mAdmitted = admitted;
+            mAirtimeRatio = airtimeRatio;
+            mSuggestedRangingIntervalMs = suggestedRangingIntervalMs;
+            mSuggestedBlockStrideLength = suggestedBlockStrideLength;
+        }
+
+        public boolean isAdmitted() {
+            return mAdmitted;
+        }
+
+        /** Gets the share of the airtime used by the sessions of the chip with the new one. */
+        public double getAirtimeRatio() {
+            return mAirtimeRatio;
+        }
+
+        /** Gets the ranging interval the rejected FiRa session would fit with, 0 if none. */
+        public int getSuggestedRangingIntervalMs() {
+            return mSuggestedRangingIntervalMs;
+        }
+
+        /**
+         * Gets the block stride length the rejected FiRa session would fit with, 0 if none or
+         * the UWBS does not support block striding.
+         */
+        public int getSuggestedBlockStrideLength() {
+            return mSuggestedBlockStrideLength;
+        }
+
+        @Override
+        public String toString() {
+            return "Admission { admitted = " + mAdmitted
+                    + ", airtimeRatio = " + mAirtimeRatio
+                    + ", suggestedRangingIntervalMs = " + mSuggestedRangingIntervalMs
+                    + ", suggestedBlockStrideLength = " + mSuggestedBlockStrideLength
+                    + " }";
+        }
+    }
+
+    /**
+     * Admits the new session if its ranging rounds fit in the airtime left by the other sessions
+     * of the chip.
+     */
+    public Admission admit(@NonNull Params params, @NonNull Collection<Params> chipSessionParams,
+            @Nullable FiraSpecificationParams specificationParams) {
+        double usedAirtimeRatio = 0;
+        for (Params sessionParams : chipSessionParams) {
+            usedAirtimeRatio += getAirtimeRatio(sessionParams);
+        }
+        double airtimeRatio = usedAirtimeRatio + getAirtimeRatio(params);
+        if (airtimeRatio <= MAX_AIRTIME_RATIO + AIRTIME_RATIO_EPSILON) {
+            return new Admission(true, airtimeRatio, 0, 0);
+        }
+        double leftAirtimeRatio = MAX_AIRTIME_RATIO - usedAirtimeRatio;
+        if (leftAirtimeRatio <= AIRTIME_RATIO_EPSILON
+                || !(params instanceof FiraOpenSessionParams)) {
+            return new Admission(false, airtimeRatio, 0, 0);
+        }
+
+        // The interval between the rounds of the session for it to fit in the airtime left.
+        FiraOpenSessionParams firaParams = (FiraOpenSessionParams) params;
+        double minRoundIntervalMs = getRoundDurationUs(params) / 1000 / leftAirtimeRatio;
+        int suggestedRangingIntervalMs = (int) Math.ceil(
+                minRoundIntervalMs / (firaParams.getBlockStrideLength() + 1));
+        int suggestedBlockStrideLength = 0;
+        if (specificationParams != null && specificationParams.hasBlockStridingSupport()
+                && firaParams.getRangingIntervalMs() > 0) {
+            int blockStrideLength = (int) Math.ceil(
+                    minRoundIntervalMs / firaParams.getRangingIntervalMs()) - 1;
+            if (blockStrideLength <= MAX_BLOCK_STRIDE_LENGTH) {
+                suggestedBlockStrideLength = blockStrideLength;
+            }
+        }
+        return new Admission(false, airtimeRatio, suggestedRangingIntervalMs,
+                suggestedBlockStrideLength);
+    }
+
+    /** Gets the share of the airtime used by the ranging rounds of the session, 0 if unknown. */
+    public static double getAirtimeRatio(@NonNull Params params) {
+        double roundIntervalMs = getRoundIntervalMs(params);
+        return roundIntervalMs > 0 ? getRoundDurationUs(params) / 1000 / roundIntervalMs : 0;
+    }
+
+    private static double getRoundDurationUs(Params params) {
+        if (params instanceof FiraOpenSessionParams) {
+            FiraOpenSessionParams firaParams = (FiraOpenSessionParams) params;
+            return firaParams.getSlotsPerRangingRound() * firaParams.getSlotDurationRstu()
+                    * RSTU_US;
+        } else if (params instanceof CccOpenRangingParams) {
+            CccOpenRangingParams cccParams = (CccOpenRangingParams) params;
+            return cccParams.getNumSlotsPerRound() * cccParams.getNumChapsPerSlot()
+                    * CCC_CHAP_US;
+        }
+        return 0;
+    }
+
+    private static double getRoundIntervalMs(Params params) {
+        if (params instanceof FiraOpenSessionParams) {
+            FiraOpenSessionParams firaParams = (FiraOpenSessionParams) params;
+            // Only one block in every (stride length + 1) blocks has a ranging round.
+            return (double) firaParams.getRangingIntervalMs()
+                    * (firaParams.getBlockStrideLength() + 1);
+        } else if (params instanceof CccOpenRangingParams) {
+            return (double) ((CccOpenRangingParams) params).getRanMultiplier()
+                    * CCC_BLOCK_DURATION_MS;
+        }
+        return 0;
+    }
+}
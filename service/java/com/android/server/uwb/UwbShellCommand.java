@@ -76,8 +76,10 @@ import androidx.annotation.Nullable;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.BasicShellCommandHandler;
+import com.android.server.uwb.UwbSessionManager.UwbSession;
 import com.android.server.uwb.jni.NativeUwbManager;
 import com.android.server.uwb.util.ArrayUtils;
+import com.android.server.uwb.util.UwbUtil;
 
 import com.google.common.io.BaseEncoding;
 import com.google.uwb.support.base.Params;
@@ -1035,6 +1037,20 @@ public class UwbShellCommand extends BasicShellCommandHandler {
                     }
                     return 0;
                 }
+                case "get-ranging-session-raw-ntf-data": {
+                    int sessionId = Integer.parseInt(getNextArgRequired());
+                    UwbSession uwbSession =
+                            mUwbInjector.getUwbSessionManager().getUwbSession(sessionId);
+                    if (uwbSession == null) {
+                        pw.println("No active session with session ID: " + sessionId + " found");
+                        return -1;
+                    }
+                    pw.println("Last raw ranging notifications:");
+                    for (byte[] rawNtfData : uwbSession.getRecentRawNtfData()) {
+                        pw.println(UwbUtil.toHexString(rawNtfData));
+                    }
+                    return 0;
+                }
                 case "stop-ranging-session":
                     stopRangingSession(pw);
                     return 0;
@@ -1204,6 +1220,8 @@ public class UwbShellCommand extends BasicShellCommandHandler {
         pw.println("    Displays latest cached ranging reports for an ongoing ranging session");
         pw.println("  get-all-ranging-session-reports");
         pw.println("    Displays latest cached ranging reports for all ongoing ranging session");
+        pw.println("  get-ranging-session-raw-ntf-data <sessionId>");
+        pw.println("    Displays the raw UCI notifications of the latest ranging rounds");
         pw.println("  stop-ranging-session <sessionId>");
         pw.println("    Stops an ongoing ranging session");
         pw.println("  stop-all-ranging-sessions");
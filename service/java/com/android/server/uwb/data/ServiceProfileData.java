@@ -33,6 +33,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 public class ServiceProfileData implements UwbConfigStore.StoreData {
@@ -78,6 +79,14 @@ public class ServiceProfileData implements UwbConfigStore.StoreData {
          */
         private Optional<byte[]> mSecureBlob = Optional.empty();
 
+        /**
+         * secure blob read from the store, a view of the bytes of the store file which is only
+         * copied out on the first {@link #getSecureBlob()}. Most profiles are never activated
+         * after boot.
+         */
+        @Nullable
+        private ByteString mStoredSecureBlob;
+
         /**
          *
          * serviceAppletID and serviceAdfOid will be set after provisioning.
@@ -102,14 +111,35 @@ public class ServiceProfileData implements UwbConfigStore.StoreData {
             return mServiceAppletId;
         }
 
-        public void setSecureBlob(@Nullable byte[] secureBlob) {
+        public synchronized void setSecureBlob(@Nullable byte[] secureBlob) {
+            mStoredSecureBlob = null;
             mSecureBlob = Optional.ofNullable(secureBlob);
         }
 
-        public Optional<byte[]> getSecureBlob() {
+        /**
+         * Set the secure blob read from the store, without copying it until it is needed. The
+         * blob may be a view of the bytes of the store file.
+         */
+        public synchronized void setStoredSecureBlob(@Nullable ByteString secureBlob) {
+            mStoredSecureBlob = secureBlob;
+            mSecureBlob = Optional.empty();
+        }
+
+        public synchronized Optional<byte[]> getSecureBlob() {
+            if (mStoredSecureBlob != null) {
+                mSecureBlob = Optional.of(mStoredSecureBlob.toByteArray());
+                mStoredSecureBlob = null;
+            }
             return mSecureBlob;
         }
 
+        private synchronized Optional<ByteString> getSecureBlobForSerialization() {
+            if (mStoredSecureBlob != null) {
+                return Optional.of(mStoredSecureBlob);
+            }
+            return mSecureBlob.map(ByteString::copyFrom);
+        }
+
         public Optional<ObjectIdentifier> getServiceAdfOid() {
             return mServiceAdfOid;
         }
@@ -151,6 +181,18 @@ public class ServiceProfileData implements UwbConfigStore.StoreData {
          * Indicates whether there is new data to serialize.
          */
         boolean hasNewDataToSerialize();
+
+        /**
+         * Take the service instance IDs added, changed or removed since they were last taken, so
+         * that only those are persisted. The IDs marked again while they are serialized are kept
+         * for the next serialization.
+         *
+         * @return Set of service instance IDs, or null if changes are not tracked.
+         */
+        @Nullable
+        default Set<UUID> takeChangedServiceInstanceIds() {
+            return null;
+        }
     }
 
     /**
@@ -165,26 +207,55 @@ public class ServiceProfileData implements UwbConfigStore.StoreData {
      */
     @Override
     public void serializeData(UwbConfigProto.UwbConfig.Builder builder) {
+        // Taken before the service configs are read, the full snapshot covers them.
+        mDataSource.takeChangedServiceInstanceIds();
         for (Map.Entry<UUID, ServiceProfileInfo> entry : mDataSource.toSerialize().entrySet()) {
-            UwbConfigProto.ServiceConfig.Builder serviceConfigBuilder =
-                    UwbConfigProto.ServiceConfig.newBuilder();
-            ServiceProfileInfo serviceProfileInfo = entry.getValue();
-            serviceConfigBuilder.setServiceInstanceId(serviceProfileInfo
-                    .serviceInstanceID.toString());
-            serviceConfigBuilder.setPackageName(serviceProfileInfo.packageName);
-            serviceConfigBuilder.setUid(serviceProfileInfo.uid);
-            serviceConfigBuilder.setServiceId(serviceProfileInfo.serviceID);
-            serviceConfigBuilder.setServiceAppletId(serviceProfileInfo.getServiceAppletId());
-            serviceConfigBuilder.setAdfStatus(serviceProfileInfo.getAdfStatus());
-            serviceProfileInfo.getServiceAdfOid().ifPresent(
-                    adfOid -> serviceConfigBuilder.setServiceAdfOid(
-                            ByteString.copyFrom(adfOid.value)));
-            serviceProfileInfo.getSecureBlob().ifPresent(
-                    secureBlob -> serviceConfigBuilder.setSecureBlob(
-                            ByteString.copyFrom(secureBlob)));
-            builder.addServiceConfig(serviceConfigBuilder.build());
+            builder.addServiceConfig(toServiceConfig(entry.getValue()));
         }
     }
+
+    /**
+     *
+     * @param builder
+     * Add only the service configs changed since the last serialization, removed ones are
+     * recorded by service instance ID.
+     */
+    @Override
+    public boolean serializeDelta(UwbConfigProto.UwbConfigDelta.Builder builder) {
+        Set<UUID> changedServiceInstanceIds = mDataSource.takeChangedServiceInstanceIds();
+        if (changedServiceInstanceIds == null) {
+            return false;
+        }
+        Map<UUID, ServiceProfileInfo> serviceProfileDataMap = mDataSource.toSerialize();
+        for (UUID serviceInstanceId : changedServiceInstanceIds) {
+            ServiceProfileInfo serviceProfileInfo = serviceProfileDataMap.get(serviceInstanceId);
+            if (serviceProfileInfo == null) {
+                builder.addRemovedServiceInstanceId(serviceInstanceId.toString());
+            } else {
+                builder.addUpsertedServiceConfig(toServiceConfig(serviceProfileInfo));
+            }
+        }
+        return true;
+    }
+
+    private static UwbConfigProto.ServiceConfig toServiceConfig(
+            ServiceProfileInfo serviceProfileInfo) {
+        UwbConfigProto.ServiceConfig.Builder serviceConfigBuilder =
+                UwbConfigProto.ServiceConfig.newBuilder();
+        serviceConfigBuilder.setServiceInstanceId(serviceProfileInfo
+                .serviceInstanceID.toString());
+        serviceConfigBuilder.setPackageName(serviceProfileInfo.packageName);
+        serviceConfigBuilder.setUid(serviceProfileInfo.uid);
+        serviceConfigBuilder.setServiceId(serviceProfileInfo.serviceID);
+        serviceConfigBuilder.setServiceAppletId(serviceProfileInfo.getServiceAppletId());
+        serviceConfigBuilder.setAdfStatus(serviceProfileInfo.getAdfStatus());
+        serviceProfileInfo.getServiceAdfOid().ifPresent(
+                adfOid -> serviceConfigBuilder.setServiceAdfOid(
+                        ByteString.copyFrom(adfOid.value)));
+        serviceProfileInfo.getSecureBlobForSerialization().ifPresent(
+                serviceConfigBuilder::setSecureBlob);
+        return serviceConfigBuilder.build();
+    }
     /**
      *
      * @param uwbConfig
@@ -221,11 +292,13 @@ public class ServiceProfileData implements UwbConfigStore.StoreData {
             serviceProfileInfo.setServiceAppletId(serviceConfig.getServiceAppletId());
             serviceProfileInfo.setAdfStatus(serviceConfig.getAdfStatus());
 
-            serviceProfileInfo.setServiceAdfOid(
-                    ObjectIdentifier.fromBytes(serviceConfig.getServiceAdfOid().toByteArray()));
-
-            serviceProfileInfo.setSecureBlob(
-                    serviceConfig.getSecureBlob().toByteArray());
+            if (serviceConfig.hasServiceAdfOid()) {
+                serviceProfileInfo.setServiceAdfOid(
+                        ObjectIdentifier.fromBytes(serviceConfig.getServiceAdfOid().toByteArray()));
+            }
+            if (serviceConfig.hasSecureBlob()) {
+                serviceProfileInfo.setStoredSecureBlob(serviceConfig.getSecureBlob());
+            }
             serviceProfileDataMap.put(serviceProfileInfo.serviceInstanceID, serviceProfileInfo);
         }
         mDataSource.fromDeserialized(serviceProfileDataMap);
@@ -17,6 +17,7 @@ package com.android.server.uwb.discovery;
 
 import android.content.AttributionSource;
 import android.content.Context;
+import android.os.Handler;
 
 import androidx.annotation.WorkerThread;
 
@@ -39,6 +40,7 @@ public class DiscoveryProviderFactory {
      * @param attributionSource Attribution Source.
      * @param context Context.
      * @param executor Executor.
+     * @param handler Handler timing the delayed reports of the scan provider.
      * @param discoveryInfo Info of the discovery request.
      * @param discoveryScanCallback callback for discovery scan events.
      */
@@ -46,6 +48,7 @@ public class DiscoveryProviderFactory {
             AttributionSource attributionSource,
             Context context,
             Executor executor,
+            Handler handler,
             DiscoveryInfo discoveryInfo,
             DiscoveryScanCallback discoveryScanCallback)
             throws AssertionError {
@@ -56,6 +59,7 @@ public class DiscoveryProviderFactory {
                         attributionSource,
                         context,
                         executor,
+                        handler,
                         discoveryInfo.scanInfo.get(),
                         discoveryScanCallback);
         }
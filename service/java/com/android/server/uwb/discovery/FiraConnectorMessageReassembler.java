@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.discovery.info.FiraConnectorCapabilities;
+import com.android.server.uwb.discovery.info.FiraConnectorDataPacket;
+import com.android.server.uwb.util.ArrayUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reassembles FiRa Connector Messages from the FiRa Connector Data Packets received by a transport.
+ *
+ * <p>Every SECID with a fragmented message in progress owns a buffer sized from the max message
+ * buffer size of the FiRa connector capabilities. A buffer is allocated on the first data packet
+ * of a fragmented message, and reused across messages once released. Data packet payloads are
+ * appended in place, and the completed message is delivered as a read-only view of the buffer, so
+ * data packets of interleaved SECIDs are never queued or concatenated.
+ *
+ * <p>The capabilities may come from the remote device, so the buffer size and the number of
+ * concurrent sessions are clamped to local maximums before anything is allocated.
+ */
+@WorkerThread
+public class FiraConnectorMessageReassembler {
+
+    /** Result of appending a data packet. */
+    public enum Result {
+        /** Data packet appended, the message is not complete yet. */
+        INCOMPLETE,
+        /** Message completed and delivered to the listener. */
+        COMPLETE,
+        /** Data packet dropped since an earlier data packet of the message overflowed. */
+        DROPPED,
+        /** Data packet cannot be decoded. */
+        INVALID_DATA_PACKET,
+        /** Message exceeded the max message buffer size, the message is dropped. */
+        MESSAGE_LENGTH_OVERFLOW,
+        /** Data packet exceeded the max number of concurrent fragmented message sessions. */
+        TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS,
+    }
+
+    /** Listener for reassembled messages. */
+    public interface MessageListener {
+        /**
+         * Called when all data packets of a message have been received.
+         *
+         * @param secid destination SECID of the message.
+         * @param messageBytes read-only view of the FiRa Connector Message bytes, only valid until
+         *     this call returns.
+         */
+        void onMessageReassembled(int secid, @NonNull ByteBuffer messageBytes);
+    }
+
+    /** Max message buffer size used, whatever the capabilities ask for. */
+    @VisibleForTesting static final int MAX_MESSAGE_BUFFER_SIZE = 8192;
+
+    /** Max number of concurrent fragmented message sessions, whatever the capabilities ask for. */
+    @VisibleForTesting static final int MAX_CONCURRENT_SESSIONS = 8;
+
+    private final MessageListener mMessageListener;
+
+    private int mMaxMessageBufferSize;
+    private int mMaxConcurrentSessions;
+
+    /* Buffers of the SECIDs with a fragmented message in progress. */
+    private final Map<Integer, ByteBuffer> mSessionBuffers = new HashMap<>();
+
+    /* Allocated buffers not owned by any SECID. */
+    private final ArrayDeque<ByteBuffer> mFreeBuffers = new ArrayDeque<>();
+
+    /* SECIDs whose remaining data packets are dropped, since their message overflowed. */
+    private final Set<Integer> mDroppedSecids = new HashSet<>();
+
+    public FiraConnectorMessageReassembler(
+            @NonNull FiraConnectorCapabilities capabilities,
+            @NonNull MessageListener messageListener) {
+        mMessageListener = messageListener;
+        setCapabilities(capabilities);
+    }
+
+    /**
+     * Update the buffer size and the number of concurrent sessions. Messages in progress are
+     * dropped if either of them changed.
+     *
+     * @param capabilities FiRa connector capabilities of the receiving device.
+     */
+    public void setCapabilities(@NonNull FiraConnectorCapabilities capabilities) {
+        int maxMessageBufferSize =
+                Math.max(0, Math.min(MAX_MESSAGE_BUFFER_SIZE, capabilities.maxMessageBufferSize));
+        int maxConcurrentSessions =
+                Math.max(
+                        1,
+                        Math.min(
+                                MAX_CONCURRENT_SESSIONS,
+                                capabilities.maxConcurrentFragmentedMessageSessionSupported));
+        if (maxMessageBufferSize == mMaxMessageBufferSize
+                && maxConcurrentSessions == mMaxConcurrentSessions) {
+            return;
+        }
+        mMaxMessageBufferSize = maxMessageBufferSize;
+        mMaxConcurrentSessions = maxConcurrentSessions;
+        mSessionBuffers.clear();
+        mDroppedSecids.clear();
+        mFreeBuffers.clear();
+    }
+
+    /** Drop all messages in progress. */
+    public void reset() {
+        for (ByteBuffer buffer : mSessionBuffers.values()) {
+            buffer.clear();
+            mFreeBuffers.add(buffer);
+        }
+        mSessionBuffers.clear();
+        mDroppedSecids.clear();
+    }
+
+    /**
+     * Append a data packet to the message of its SECID, and deliver the message to the listener
+     * if this was its last data packet.
+     *
+     * @param dataPacketBytes FiRa Connector Data Packet bytes.
+     * @return result of appending the data packet.
+     */
+    public Result append(@NonNull byte[] dataPacketBytes) {
+        if (ArrayUtils.isEmpty(dataPacketBytes)) {
+            return Result.INVALID_DATA_PACKET;
+        }
+        byte header = dataPacketBytes[0];
+        int secid = FiraConnectorDataPacket.getSecid(header);
+        boolean lastChainingPacket = FiraConnectorDataPacket.isLastChainingPacket(header);
+        int payloadLength = dataPacketBytes.length - FiraConnectorDataPacket.HEADER_SIZE;
+
+        if (mDroppedSecids.contains(secid)) {
+            if (lastChainingPacket) {
+                mDroppedSecids.remove(secid);
+            }
+            return Result.DROPPED;
+        }
+        ByteBuffer buffer = mSessionBuffers.get(secid);
+        if (buffer == null) {
+            if (mSessionBuffers.size() >= mMaxConcurrentSessions) {
+                return Result.TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS;
+            }
+            if (lastChainingPacket) {
+                if (payloadLength > mMaxMessageBufferSize) {
+                    return Result.MESSAGE_LENGTH_OVERFLOW;
+                }
+                // Unfragmented message, deliver a view of the data packet itself.
+                mMessageListener.onMessageReassembled(
+                        secid,
+                        ByteBuffer.wrap(
+                                        dataPacketBytes,
+                                        FiraConnectorDataPacket.HEADER_SIZE,
+                                        payloadLength)
+                                .slice()
+                                .asReadOnlyBuffer());
+                return Result.COMPLETE;
+            }
+            buffer = mFreeBuffers.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(mMaxMessageBufferSize);
+            }
+            mSessionBuffers.put(secid, buffer);
+        }
+        if (payloadLength > buffer.remaining()) {
+            releaseSession(secid);
+            if (!lastChainingPacket) {
+                mDroppedSecids.add(secid);
+            }
+            return Result.MESSAGE_LENGTH_OVERFLOW;
+        }
+        buffer.put(dataPacketBytes, FiraConnectorDataPacket.HEADER_SIZE, payloadLength);
+        if (!lastChainingPacket) {
+            return Result.INCOMPLETE;
+        }
+        buffer.flip();
+        try {
+            mMessageListener.onMessageReassembled(secid, buffer.asReadOnlyBuffer());
+        } finally {
+            releaseSession(secid);
+        }
+        return Result.COMPLETE;
+    }
+
+    /** Number of SECIDs with a fragmented message in progress. */
+    public int getSessionCount() {
+        return mSessionBuffers.size();
+    }
+
+    private void releaseSession(int secid) {
+        ByteBuffer buffer = mSessionBuffers.remove(secid);
+        if (buffer != null) {
+            buffer.clear();
+            mFreeBuffers.add(buffer);
+        }
+    }
+}
@@ -27,8 +27,11 @@ import android.bluetooth.le.ScanSettings;
 import android.content.AttributionSource;
 import android.content.Context;
 import android.content.ContextParams;
+import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
 import com.android.server.uwb.discovery.DiscoveryScanProvider;
@@ -39,17 +42,25 @@ import com.android.server.uwb.discovery.info.ScanInfo;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
 
 /** Class for UWB discovery scan provider using BLE. */
 @WorkerThread
 public class BleDiscoveryScanProvider extends DiscoveryScanProvider {
     private static final String TAG = "BleDiscoveryScanProvider";
 
+    /* Max number of devices in the advertisement cache. */
+    private static final int ADVERTISEMENT_CACHE_MAX_ENTRIES = 64;
+    /* Time after which a device that stopped advertising is removed from the cache. */
+    private static final long ADVERTISEMENT_CACHE_MAX_AGE_MS = 10_000;
+
     private final Context mContext;
     private final Executor mExecutor;
+    private final Handler mHandler;
     private ScanInfo mScanInfo;
     private DiscoveryScanCallback mDiscoveryScanCallback;
     private BluetoothManager mBluetoothManager;
+    private final DiscoveryAdvertisementCache mAdvertisementCache;
 
     private ScanCallback mScanCallback =
             new ScanCallback() {
@@ -71,9 +82,30 @@ public class BleDiscoveryScanProvider extends DiscoveryScanProvider {
             AttributionSource attributionSource,
             Context context,
             Executor executor,
+            Handler handler,
             ScanInfo scanInfo,
             DiscoveryScanCallback discoveryScanCallback) {
+        this(
+                attributionSource,
+                context,
+                executor,
+                handler,
+                scanInfo,
+                discoveryScanCallback,
+                SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    BleDiscoveryScanProvider(
+            AttributionSource attributionSource,
+            Context context,
+            Executor executor,
+            Handler handler,
+            ScanInfo scanInfo,
+            DiscoveryScanCallback discoveryScanCallback,
+            LongSupplier clock) {
         mExecutor = executor;
+        mHandler = handler;
         mScanInfo = scanInfo;
         mDiscoveryScanCallback = discoveryScanCallback;
 
@@ -83,6 +115,14 @@ public class BleDiscoveryScanProvider extends DiscoveryScanProvider {
                                 .setNextAttributionSource(attributionSource)
                                 .build());
         mBluetoothManager = mContext.getSystemService(BluetoothManager.class);
+        mAdvertisementCache =
+                new DiscoveryAdvertisementCache(
+                        ADVERTISEMENT_CACHE_MAX_ENTRIES,
+                        ADVERTISEMENT_CACHE_MAX_AGE_MS,
+                        scanInfo != null
+                                ? scanInfo.reportIntervalMs
+                                : ScanInfo.DEFAULT_REPORT_INTERVAL_MS,
+                        clock);
     }
 
     @Override
@@ -119,6 +159,7 @@ public class BleDiscoveryScanProvider extends DiscoveryScanProvider {
         }
 
         scanner.stopScan(mScanCallback);
+        mExecutor.execute(mAdvertisementCache::clear);
         mStarted = false;
         return true;
     }
@@ -135,6 +176,10 @@ public class BleDiscoveryScanProvider extends DiscoveryScanProvider {
     /**
      * Process the ScanResult according to FiRa BLE OOB 1.0 Spec and notify mDiscoveryScanCallback.
      *
+     * <p>Unchanged advertisements of a device are served from the advertisement cache instead of
+     * being parsed again, and reported at most once per report interval. The latest result
+     * suppressed within the interval is reported when the interval ends.
+     *
      * @param scanResult scan result of the BLE Scan.
      */
     private void processScanResult(ScanResult scanResult) {
@@ -144,17 +189,14 @@ public class BleDiscoveryScanProvider extends DiscoveryScanProvider {
             return;
         }
 
-        byte[] serviceData = record.getServiceData(UuidConstants.FIRA_CP_PARCEL_UUID);
-        if (serviceData == null) {
-            Log.w(TAG, "Ignoring scan result. Empty ServiceData");
-            return;
+        String address = scanResult.getDevice() != null ? scanResult.getDevice().getAddress() : "";
+        byte[] payload = record.getBytes();
+        DiscoveryAdvertisementCache.Entry entry = mAdvertisementCache.get(address, payload);
+        if (entry == null) {
+            entry = mAdvertisementCache.put(address, payload, parseAdvertisement(record));
         }
-
-        DiscoveryAdvertisement adv =
-                DiscoveryAdvertisement.fromBytes(serviceData, record.getManufacturerSpecificData());
-
+        DiscoveryAdvertisement adv = entry.advertisement;
         if (adv == null) {
-            Log.w(TAG, "Ignoring scan result. Invalid DiscoveryAdvertisement");
             return;
         }
 
@@ -168,9 +210,57 @@ public class BleDiscoveryScanProvider extends DiscoveryScanProvider {
         }
 
         DiscoveryResult discoveryResult = new DiscoveryResult(scanResult, adv);
+        long reportDelayMs = mAdvertisementCache.tryReport(entry, discoveryResult);
+        if (reportDelayMs > 0) {
+            // The handler only times the report, which runs on the executor like scan results.
+            final DiscoveryAdvertisementCache.Entry pendingEntry = entry;
+            mHandler.postDelayed(
+                    () -> mExecutor.execute(() -> processPendingResult(pendingEntry)),
+                    reportDelayMs);
+        }
+        if (reportDelayMs != 0) {
+            return;
+        }
         mDiscoveryScanCallback.onDiscovered(discoveryResult);
     }
 
+    /**
+     * Notify mDiscoveryScanCallback of the latest result of the device suppressed within the
+     * report interval, unless the scan stopped or the device was reported since.
+     *
+     * @param entry cached entry of the device.
+     */
+    private void processPendingResult(DiscoveryAdvertisementCache.Entry entry) {
+        DiscoveryResult discoveryResult = mAdvertisementCache.takePendingResult(entry);
+        if (discoveryResult == null || !mStarted) {
+            return;
+        }
+        mDiscoveryScanCallback.onDiscovered(discoveryResult);
+    }
+
+    /**
+     * Parse the DiscoveryAdvertisement of the ScanRecord.
+     *
+     * @return the DiscoveryAdvertisement, or null if the ScanRecord doesn't contain a valid one.
+     */
+    @Nullable
+    private static DiscoveryAdvertisement parseAdvertisement(ScanRecord record) {
+        byte[] serviceData = record.getServiceData(UuidConstants.FIRA_CP_PARCEL_UUID);
+        if (serviceData == null) {
+            Log.w(TAG, "Ignoring scan result. Empty ServiceData");
+            return null;
+        }
+
+        DiscoveryAdvertisement adv =
+                DiscoveryAdvertisement.fromBytes(serviceData, record.getManufacturerSpecificData());
+
+        if (adv == null) {
+            Log.w(TAG, "Ignoring scan result. Invalid DiscoveryAdvertisement");
+            return null;
+        }
+        return adv;
+    }
+
     /**
      * Process and notify mDiscoveryScanCallback of scanning failures.
      *
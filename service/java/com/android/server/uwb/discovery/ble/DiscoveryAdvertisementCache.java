@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.ble;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.discovery.DiscoveryScanProvider.DiscoveryResult;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of parsed {@link DiscoveryAdvertisement}, keyed by the advertiser address and
+ * validated by the hash of the advertisement payload.
+ *
+ * <p>Devices re-advertise the same payload many times a second. The cache lets the scan provider
+ * skip re-parsing unchanged advertisements, including invalid ones, and limits how often each
+ * device is reported. The latest result suppressed by the rate limit is kept, to be reported once
+ * the report interval ends. Entries expire when the device was not seen for the max age, and the
+ * least recently seen entry is evicted when the cache is full.
+ */
+@WorkerThread
+public class DiscoveryAdvertisementCache {
+    /** Cached advertisement of a single device. */
+    public static final class Entry {
+        /* Parsed advertisement, null if the payload isn't a valid DiscoveryAdvertisement. */
+        @Nullable public final DiscoveryAdvertisement advertisement;
+        private final byte[] mPayload;
+        private final int mPayloadHash;
+        private long mLastSeenTimeMs;
+        private long mLastReportTimeMs = -1;
+        /* Latest result suppressed by the rate limit, null if none is waiting to be reported. */
+        @Nullable private DiscoveryResult mPendingResult;
+
+        private Entry(
+                @Nullable DiscoveryAdvertisement advertisement,
+                byte[] payload,
+                int payloadHash,
+                long nowMs) {
+            this.advertisement = advertisement;
+            mPayload = payload;
+            mPayloadHash = payloadHash;
+            mLastSeenTimeMs = nowMs;
+        }
+
+        private boolean matches(byte[] payload, int payloadHash) {
+            return mPayloadHash == payloadHash && Arrays.equals(mPayload, payload);
+        }
+    }
+
+    private final int mMaxEntries;
+    private final long mMaxAgeMs;
+    private final long mReportIntervalMs;
+    private final LongSupplier mClock;
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    /**
+     * @param maxEntries max number of devices kept in the cache.
+     * @param maxAgeMs time after which a device that wasn't seen is removed from the cache.
+     * @param reportIntervalMs min time between two reports of the same device, 0 to report every
+     *     advertisement.
+     * @param clock source of the current time in milliseconds.
+     */
+    public DiscoveryAdvertisementCache(
+            int maxEntries, long maxAgeMs, long reportIntervalMs, @NonNull LongSupplier clock) {
+        mMaxEntries = Math.max(1, maxEntries);
+        mMaxAgeMs = maxAgeMs;
+        mReportIntervalMs = reportIntervalMs;
+        mClock = clock;
+        // Access ordered, so that the eldest entry is the least recently seen device.
+        mEntries =
+                new LinkedHashMap<String, Entry>(
+                        /*initialCapacity=*/ 16, /*loadFactor=*/ 0.75f, /*accessOrder=*/ true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                        if (size() <= mMaxEntries) {
+                            return false;
+                        }
+                        eldest.getValue().mPendingResult = null;
+                        return true;
+                    }
+                };
+    }
+
+    /**
+     * Get the cached advertisement of the device if its payload didn't change.
+     *
+     * @param address address of the advertiser.
+     * @param payload raw advertisement bytes.
+     * @return the cached entry, or null if the advertisement needs to be parsed.
+     */
+    @Nullable
+    public Entry get(@NonNull String address, @NonNull byte[] payload) {
+        Entry entry = mEntries.get(address);
+        if (entry == null) {
+            return null;
+        }
+        long nowMs = mClock.getAsLong();
+        if (nowMs - entry.mLastSeenTimeMs > mMaxAgeMs
+                || !entry.matches(payload, Arrays.hashCode(payload))) {
+            mEntries.remove(address);
+            entry.mPendingResult = null;
+            return null;
+        }
+        entry.mLastSeenTimeMs = nowMs;
+        return entry;
+    }
+
+    /**
+     * Cache the parsed advertisement of the device, replacing any previous entry of the device.
+     *
+     * @param address address of the advertiser.
+     * @param payload raw advertisement bytes, must not be modified afterwards.
+     * @param advertisement parsed advertisement, null if the payload is invalid.
+     * @return the new entry.
+     */
+    @NonNull
+    public Entry put(
+            @NonNull String address,
+            @NonNull byte[] payload,
+            @Nullable DiscoveryAdvertisement advertisement) {
+        long nowMs = mClock.getAsLong();
+        removeExpiredEntries(nowMs);
+        Entry entry = new Entry(advertisement, payload, Arrays.hashCode(payload), nowMs);
+        Entry previousEntry = mEntries.put(address, entry);
+        if (previousEntry != null) {
+            previousEntry.mPendingResult = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Check whether the device can be reported now, and if so record the report time. Otherwise
+     * keep the result as the latest suppressed one of the device.
+     *
+     * @param entry cached entry of the device.
+     * @param result result to report.
+     * @return the time in milliseconds until the end of the report interval if the result was the
+     *     first one suppressed in the interval, so that the caller schedules {@link
+     *     #takePendingResult}. 0 if the result can be reported now, -1 if it was suppressed and a
+     *     report is already pending.
+     */
+    public long tryReport(@NonNull Entry entry, @NonNull DiscoveryResult result) {
+        long nowMs = mClock.getAsLong();
+        long elapsedMs = nowMs - entry.mLastReportTimeMs;
+        if (entry.mLastReportTimeMs >= 0 && elapsedMs < mReportIntervalMs) {
+            boolean pending = entry.mPendingResult != null;
+            entry.mPendingResult = result;
+            return pending ? -1 : mReportIntervalMs - elapsedMs;
+        }
+        entry.mLastReportTimeMs = nowMs;
+        entry.mPendingResult = null;
+        return 0;
+    }
+
+    /**
+     * Take the latest result of the device suppressed by the rate limit, and record the report
+     * time.
+     *
+     * @return the result to report, or null if it was reported or dropped since.
+     */
+    @Nullable
+    public DiscoveryResult takePendingResult(@NonNull Entry entry) {
+        DiscoveryResult result = entry.mPendingResult;
+        if (result == null) {
+            return null;
+        }
+        entry.mLastReportTimeMs = mClock.getAsLong();
+        entry.mPendingResult = null;
+        return result;
+    }
+
+    /** Remove all entries. */
+    public void clear() {
+        for (Entry entry : mEntries.values()) {
+            entry.mPendingResult = null;
+        }
+        mEntries.clear();
+    }
+
+    /** Number of devices in the cache. */
+    public int size() {
+        return mEntries.size();
+    }
+
+    private void removeExpiredEntries(long nowMs) {
+        Iterator<Entry> it = mEntries.values().iterator();
+        // Entries are ordered by last seen time, stop at the first one still valid.
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (nowMs - entry.mLastSeenTimeMs <= mMaxAgeMs) {
+                break;
+            }
+            entry.mPendingResult = null;
+            it.remove();
+        }
+    }
+}
@@ -26,10 +26,13 @@ import android.bluetooth.BluetoothStatusCodes;
 import android.content.AttributionSource;
 import android.content.Context;
 import android.content.ContextParams;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
+import com.android.server.uwb.discovery.FiraConnectorMessageReassembler;
 import com.android.server.uwb.discovery.TransportClientProvider;
 import com.android.server.uwb.discovery.TransportClientProvider.TransportClientCallback;
 import com.android.server.uwb.discovery.TransportProvider.MessagePacket;
@@ -41,7 +44,6 @@ import com.android.server.uwb.discovery.info.FiraConnectorMessage;
 import com.android.server.uwb.discovery.info.SecureComponentInfo;
 import com.android.server.uwb.discovery.info.TransportClientInfo;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.concurrent.Executor;
@@ -56,6 +58,11 @@ import java.util.concurrent.Executor;
  * Control Point characteristic on the remote GATT server. Afterwards, the client can starts
  * exchange data with the server over the "IN" and "OUT" Control Point characteristic. When any
  * unrecoverable event occurred, GATT client will be terminated.
+ *
+ * <p>Messages are fragmented directly into reusable data packet buffers. When the server allows it,
+ * the intermediate data packets of a message are written without response, so that they don't
+ * wait for an ATT round trip each, and only the last data packet (or every data packet once the
+ * window of unacknowledged bytes reaches the message buffer size of the server) is acknowledged.
  */
 @WorkerThread
 public class GattTransportClientProvider extends TransportClientProvider {
@@ -69,6 +76,12 @@ public class GattTransportClientProvider extends TransportClientProvider {
 
     private FiraConnectorCapabilities mCapabilities;
 
+    /* Receive capabilities of the server. The client writes its capabilities but the server
+     * publishes none, so only the minimums of the FiRa OOB 1.0 spec are known to fit.
+     */
+    private final FiraConnectorCapabilities mRemoteCapabilities =
+            new FiraConnectorCapabilities.Builder().build();
+
     private boolean mConnected;
     private boolean mServiceDiscovered;
     private boolean mCapabilitiesWritten;
@@ -81,16 +94,34 @@ public class GattTransportClientProvider extends TransportClientProvider {
 
     private BluetoothGattDescriptor mOutControlPointCccdDescriptor;
 
-    /* Queue of Fira Connector Data Packets from the mOutControlPointCharacteristic that are
-     * incomplete to be constructed as FiRa Connector Message.
-     */
-    private ArrayDeque<FiraConnectorDataPacket> mIncompleteOutDataPacketQueue;
+    /* Reassembles FiRa Connector Messages from the mOutControlPointCharacteristic. */
+    private FiraConnectorMessageReassembler mOutMessageReassembler;
 
     /* Queue of Fira Connector Message wrapped as MessagePacket to be sent via the
      * mInControlPointCharacteristic.
      */
     private ArrayDeque<MessagePacket> mInMessageQueue;
 
+    /* Reused for every full sized data packet written to the mInControlPointCharacteristic. */
+    private byte[] mInDataPacketBuffer;
+
+    /* Indicates if a data packet write to mInControlPointCharacteristic awaits its callback. */
+    private boolean mInDataPacketWriteInFlight;
+
+    /* Indicates if the data packet write in flight is the last data packet of a message. */
+    private boolean mInLastDataPacketInFlight;
+
+    /* Number of data packets written without response since the last acknowledged write. */
+    private int mInWritesWithoutResponse;
+
+    /* Time the first data packet of the message in progress was written. */
+    private long mInMessageStartTimeMs;
+
+    /* Transfer time stats of the messages sent via the mInControlPointCharacteristic. */
+    private int mInMessageCount;
+    private long mInMessageTotalTransferTimeMs;
+    private long mInMessageMaxTransferTimeMs;
+
     /** GATT callbacks responsible for handling events from the remote device GATT server. */
     private BluetoothGattCallback mBluetoothGattCallback =
             new BluetoothGattCallback() {
@@ -213,7 +244,7 @@ public class GattTransportClientProvider extends TransportClientProvider {
                     } else if (characteristic
                             .getUuid()
                             .equals(mInControlPointCharacteristic.getUuid())) {
-                        mCallbackExecutor.execute(() -> processInDataPacket());
+                        mCallbackExecutor.execute(() -> onInDataPacketWritten());
                     }
                 }
 
@@ -280,7 +311,8 @@ public class GattTransportClientProvider extends TransportClientProvider {
         // Using FiRa defined default connector capabilities.
         mCapabilities = new FiraConnectorCapabilities.Builder().build();
 
-        mIncompleteOutDataPacketQueue = new ArrayDeque();
+        mOutMessageReassembler =
+                new FiraConnectorMessageReassembler(mCapabilities, this::onOutMessageReassembled);
         mInMessageQueue = new ArrayDeque();
     }
 
@@ -322,8 +354,11 @@ public class GattTransportClientProvider extends TransportClientProvider {
         mBluetoothGatt.disconnect();
 
         // Clear in/out message queue.
-        mIncompleteOutDataPacketQueue.clear();
+        mOutMessageReassembler.reset();
         mInMessageQueue.clear();
+        mInDataPacketWriteInFlight = false;
+        mInLastDataPacketInFlight = false;
+        mInWritesWithoutResponse = 0;
 
         mStarted = false;
         mConnected = false;
@@ -348,7 +383,7 @@ public class GattTransportClientProvider extends TransportClientProvider {
         mInMessageQueue.add(new MessagePacket(secid, ByteBuffer.wrap(messageBytes)));
 
         // No existing meesage in progress, sent this message immediately.
-        if (mInMessageQueue.size() == 1) {
+        if (mInMessageQueue.size() == 1 && !mInDataPacketWriteInFlight) {
             return processInDataPacket();
         }
         return true;
@@ -362,6 +397,7 @@ public class GattTransportClientProvider extends TransportClientProvider {
         }
         Log.d(TAG, "setCapabilites new capabilities:" + capabilities);
         mCapabilities = capabilities;
+        mOutMessageReassembler.setCapabilities(capabilities);
         if (!mStarted || !mServiceDiscovered) {
             Log.w(
                     TAG,
@@ -389,36 +425,103 @@ public class GattTransportClientProvider extends TransportClientProvider {
         }
         MessagePacket messagePacket = mInMessageQueue.peek();
         ByteBuffer byteBuffer = messagePacket.messageBytes;
-        byte[] nextPayload =
-                new byte
-                        [Math.min(
-                                byteBuffer.remaining(),
-                                mCapabilities.optimizedDataPacketSize
-                                        - FiraConnectorDataPacket.HEADER_SIZE)];
-        byteBuffer.get(nextPayload);
-
-        final FiraConnectorDataPacket dataPacket =
-                new FiraConnectorDataPacket(
-                        /*lastChainingPacket=*/ !byteBuffer.hasRemaining(),
-                        messagePacket.secid,
-                        nextPayload);
-
-        if (!byteBuffer.hasRemaining()) {
+        if (byteBuffer.position() == 0) {
+            mInMessageStartTimeMs = SystemClock.elapsedRealtime();
+        }
+        int dataPacketSize = mCapabilities.optimizedDataPacketSize;
+        int payloadSize =
+                Math.min(
+                        byteBuffer.remaining(),
+                        dataPacketSize - FiraConnectorDataPacket.HEADER_SIZE);
+        byte[] dataPacketBytes;
+        if (payloadSize + FiraConnectorDataPacket.HEADER_SIZE == dataPacketSize) {
+            if (mInDataPacketBuffer == null || mInDataPacketBuffer.length != dataPacketSize) {
+                mInDataPacketBuffer = new byte[dataPacketSize];
+            }
+            dataPacketBytes = mInDataPacketBuffer;
+        } else {
+            // Only the last data packet of a message can be shorter.
+            dataPacketBytes = new byte[payloadSize + FiraConnectorDataPacket.HEADER_SIZE];
+        }
+        byteBuffer.get(dataPacketBytes, FiraConnectorDataPacket.HEADER_SIZE, payloadSize);
+        final boolean lastChainingPacket = !byteBuffer.hasRemaining();
+        dataPacketBytes[0] =
+                FiraConnectorDataPacket.encodeHeader(lastChainingPacket, messagePacket.secid);
+
+        if (lastChainingPacket) {
             mInMessageQueue.pop();
         }
+        mInDataPacketWriteInFlight = true;
+        mInLastDataPacketInFlight = lastChainingPacket;
         final int status =
                 mBluetoothGatt.writeCharacteristic(
                         mInControlPointCharacteristic,
-                        dataPacket.toBytes(),
-                        BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                        dataPacketBytes,
+                        getInDataPacketWriteType(lastChainingPacket));
         if (status != BluetoothStatusCodes.SUCCESS) {
             Log.w(TAG, "processInDataPacket failed due to fail to writeCharacteristic.");
+            mInDataPacketWriteInFlight = false;
             terminateOnError(TerminationReason.CHARACTERSTIC_WRITE_FAILURE);
             return false;
         }
         return true;
     }
 
+    /**
+     * Select the write type of the next in control data packet. The intermediate data packets of a
+     * message are written without response if the server supports it, as long as the
+     * unacknowledged data packets fit into the message buffer of the server.
+     */
+    private int getInDataPacketWriteType(boolean lastChainingPacket) {
+        int window =
+                mRemoteCapabilities.maxMessageBufferSize / mCapabilities.optimizedDataPacketSize;
+        if (lastChainingPacket
+                || mInWritesWithoutResponse >= window
+                || (mInControlPointCharacteristic.getProperties()
+                                & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)
+                        == 0) {
+            mInWritesWithoutResponse = 0;
+            return BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+        }
+        mInWritesWithoutResponse++;
+        return BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+    }
+
+    /**
+     * Called when the write of an in control data packet completed. Records the transfer time if
+     * it was the last data packet of a message, and writes the next data packet in the queue.
+     */
+    private void onInDataPacketWritten() {
+        mInDataPacketWriteInFlight = false;
+        if (mInLastDataPacketInFlight) {
+            mInLastDataPacketInFlight = false;
+            long transferTimeMs = SystemClock.elapsedRealtime() - mInMessageStartTimeMs;
+            mInMessageCount++;
+            mInMessageTotalTransferTimeMs += transferTimeMs;
+            mInMessageMaxTransferTimeMs = Math.max(mInMessageMaxTransferTimeMs, transferTimeMs);
+            Log.d(
+                    TAG,
+                    "In message sent in "
+                            + transferTimeMs
+                            + " ms (count="
+                            + mInMessageCount
+                            + ", average="
+                            + mInMessageTotalTransferTimeMs / mInMessageCount
+                            + " ms, max="
+                            + mInMessageMaxTransferTimeMs
+                            + " ms)");
+        }
+        if (!mInMessageQueue.isEmpty()) {
+            processInDataPacket();
+        }
+    }
+
+    /** Number of messages completely written to the remote GATT server. */
+    @VisibleForTesting
+    int getInMessageCount() {
+        return mInMessageCount;
+    }
+
     /**
      * Process the new out control data packet. Construct the FiraConnectorMessage if data is
      * complete, and notify callback with the constructed message.
@@ -435,51 +538,41 @@ public class GattTransportClientProvider extends TransportClientProvider {
             super.sentAdminErrorMessage(ErrorType.DATA_PACKET_LENGTH_OVERFLOW);
             return false;
         }
-        FiraConnectorDataPacket latestDataPacket = FiraConnectorDataPacket.fromBytes(bytes);
-        if (latestDataPacket == null) {
-            Log.w(
-                    TAG,
-                    "processOutDataPacket failed due to latest FiraConnectorDataPacket cannot be"
-                            + " constructed from bytes.");
-            return false;
-        }
-        if (!mIncompleteOutDataPacketQueue.isEmpty()
-                && latestDataPacket.secid != mIncompleteOutDataPacketQueue.peek().secid) {
-            Log.w(
-                    TAG,
-                    "processOutDataPacket failed due to latest FiraConnectorDataPacket's SECID"
-                            + " doesn't match previous data packet.");
-            super.sentAdminErrorMessage(ErrorType.TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS);
-            return false;
-        }
-        mIncompleteOutDataPacketQueue.add(latestDataPacket);
-        if (!latestDataPacket.lastChainingPacket) {
-            return true;
-        }
-        // All data packets of the message has been received. Constructing the message.
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        for (FiraConnectorDataPacket dataPacket : mIncompleteOutDataPacketQueue) {
-            byteStream.write(dataPacket.payload, /*off=*/ 0, dataPacket.payload.length);
-        }
-        mIncompleteOutDataPacketQueue.clear();
-
-        if (byteStream.size() > mCapabilities.maxMessageBufferSize) {
-            Log.w(TAG, "processOutDataPacket failed due to message length overflow.");
-            super.sentAdminErrorMessage(ErrorType.MESSAGE_LENGTH_OVERFLOW);
-            return false;
+        switch (mOutMessageReassembler.append(bytes)) {
+            case INVALID_DATA_PACKET:
+                Log.w(
+                        TAG,
+                        "processOutDataPacket failed due to latest FiraConnectorDataPacket cannot"
+                                + " be constructed from bytes.");
+                return false;
+            case TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS:
+                Log.w(
+                        TAG,
+                        "processOutDataPacket failed due to latest FiraConnectorDataPacket's SECID"
+                                + " exceeded the concurrent fragmented message sessions.");
+                super.sentAdminErrorMessage(
+                        ErrorType.TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS);
+                return false;
+            case MESSAGE_LENGTH_OVERFLOW:
+                Log.w(TAG, "processOutDataPacket failed due to message length overflow.");
+                super.sentAdminErrorMessage(ErrorType.MESSAGE_LENGTH_OVERFLOW);
+                return false;
+            default:
+                return true;
         }
+    }
 
-        FiraConnectorMessage message = FiraConnectorMessage.fromBytes(byteStream.toByteArray());
+    /** Called when all data packets of a message from the remote GATT server were received. */
+    private void onOutMessageReassembled(int secid, ByteBuffer messageBytes) {
+        FiraConnectorMessage message = FiraConnectorMessage.fromByteBuffer(messageBytes);
         if (message == null) {
             Log.w(
                     TAG,
                     "processOutDataPacket failed due to FiraConnectorMessage cannot be constructed"
                             + " from bytes.");
-            return false;
+            return;
         }
-
-        super.onMessageReceived(latestDataPacket.secid, message);
-        return true;
+        super.onMessageReceived(secid, message);
     }
 
     /**
@@ -31,6 +31,7 @@ import android.util.Log;
 
 import androidx.annotation.WorkerThread;
 
+import com.android.server.uwb.discovery.FiraConnectorMessageReassembler;
 import com.android.server.uwb.discovery.TransportProvider.MessagePacket;
 import com.android.server.uwb.discovery.TransportProvider.TerminationReason;
 import com.android.server.uwb.discovery.TransportServerProvider;
@@ -39,7 +40,6 @@ import com.android.server.uwb.discovery.info.FiraConnectorCapabilities;
 import com.android.server.uwb.discovery.info.FiraConnectorDataPacket;
 import com.android.server.uwb.discovery.info.FiraConnectorMessage;
 
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
 import java.util.Arrays;
@@ -76,10 +76,8 @@ public class GattTransportServerProvider extends TransportServerProvider {
 
     private BluetoothGattDescriptor mOutControlPointCccdDescriptor;
 
-    /* Queue of Fira Connector Data Packets from the mInControlPointCharacteristic that are
-     * incomplete to be constructed as FiRa Connector Message.
-     */
-    private ArrayDeque<FiraConnectorDataPacket> mIncompleteInDataPacketQueue;
+    /* Reassembles FiRa Connector Messages from the mInControlPointCharacteristic. */
+    private FiraConnectorMessageReassembler mInMessageReassembler;
 
     /* Queue of Fira Connector Message wrapped as MessagePacket to be sent via the
      * mOutControlPointCharacteristic.
@@ -145,6 +143,7 @@ public class GattTransportServerProvider extends TransportServerProvider {
                         mRemoteCapabilities = FiraConnectorCapabilities.fromBytes(value);
 
                         if (mRemoteCapabilities != null) {
+                            mInMessageReassembler.setCapabilities(mRemoteCapabilities);
                             mTransportServerCallback.onCapabilitesUpdated(mRemoteCapabilities);
                             startProcessing(device);
 
@@ -256,7 +255,10 @@ public class GattTransportServerProvider extends TransportServerProvider {
         mBluetoothGattServer =
                 mBluetoothManager.openGattServer(attributedContext, mBluetoothGattServerCallback);
 
-        mIncompleteInDataPacketQueue = new ArrayDeque();
+        mInMessageReassembler =
+                new FiraConnectorMessageReassembler(
+                        new FiraConnectorCapabilities.Builder().build(),
+                        this::onInMessageReassembled);
         mOutMessageQueue = new ArrayDeque();
 
         setupGattCharacteristic();
@@ -285,7 +287,7 @@ public class GattTransportServerProvider extends TransportServerProvider {
         boolean succeed = mBluetoothGattServer.removeService(mFiraCPService);
 
         // Clear in/out message queue.
-        mIncompleteInDataPacketQueue.clear();
+        mInMessageReassembler.reset();
         mOutMessageQueue.clear();
 
         mStarted = !succeed;
@@ -374,44 +376,38 @@ public class GattTransportServerProvider extends TransportServerProvider {
             Log.w(TAG, "processInDataPacket failed due to server not ready for processing.");
             return false;
         }
-        FiraConnectorDataPacket latestDataPacket = FiraConnectorDataPacket.fromBytes(bytes);
-        if (latestDataPacket == null) {
-            Log.w(
-                    TAG,
-                    "processInDataPacket failed due to latest FiraConnectorDataPacket cannot be"
-                            + " constructed from bytes.");
-            return false;
-        }
-        if (!mIncompleteInDataPacketQueue.isEmpty()
-                && latestDataPacket.secid != mIncompleteInDataPacketQueue.peek().secid) {
-            Log.w(
-                    TAG,
-                    "processInDataPacket failed due to latest FiraConnectorDataPacket's SECID"
-                            + " doesn't match previous data packet.");
-            return false;
-        }
-        mIncompleteInDataPacketQueue.add(latestDataPacket);
-        if (!latestDataPacket.lastChainingPacket) {
-            return true;
-        }
-        // All data packets of the message has been received. Constructing the message.
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        for (FiraConnectorDataPacket dataPacket : mIncompleteInDataPacketQueue) {
-            byteStream.write(dataPacket.payload, /*off=*/ 0, dataPacket.payload.length);
+        switch (mInMessageReassembler.append(bytes)) {
+            case INVALID_DATA_PACKET:
+                Log.w(
+                        TAG,
+                        "processInDataPacket failed due to latest FiraConnectorDataPacket cannot be"
+                                + " constructed from bytes.");
+                return false;
+            case TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS:
+                Log.w(
+                        TAG,
+                        "processInDataPacket failed due to latest FiraConnectorDataPacket's SECID"
+                                + " exceeded the concurrent fragmented message sessions.");
+                return false;
+            case MESSAGE_LENGTH_OVERFLOW:
+                Log.w(TAG, "processInDataPacket failed due to message length overflow.");
+                return false;
+            default:
+                return true;
         }
-        mIncompleteInDataPacketQueue.clear();
+    }
 
-        FiraConnectorMessage message = FiraConnectorMessage.fromBytes(byteStream.toByteArray());
+    /** Called when all data packets of a message from the remote GATT client were received. */
+    private void onInMessageReassembled(int secid, ByteBuffer messageBytes) {
+        FiraConnectorMessage message = FiraConnectorMessage.fromByteBuffer(messageBytes);
         if (message == null) {
             Log.w(
                     TAG,
                     "processInDataPacket failed due to FiraConnectorMessage cannot be constructed"
                             + " from bytes.");
-            return false;
+            return;
         }
-
-        super.onMessageReceived(latestDataPacket.secid, message);
-        return true;
+        super.onMessageReceived(secid, message);
     }
 
     /**
@@ -460,7 +456,10 @@ public class GattTransportServerProvider extends TransportServerProvider {
         mInControlPointCharacteristic =
                 new BluetoothGattCharacteristic(
                         UuidConstants.CP_IN_CONTROL_POINT_UUID.getUuid(),
-                        BluetoothGattCharacteristic.PROPERTY_WRITE,
+                        // Write without response lets the client burst the intermediate data
+                        // packets of a fragmented message.
+                        BluetoothGattCharacteristic.PROPERTY_WRITE
+                                | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
                         BluetoothGattCharacteristic.PERMISSION_WRITE);
         mFiraCPService.addCharacteristic(mInControlPointCharacteristic);
 
@@ -22,9 +22,6 @@ import android.annotation.Nullable;
 import android.util.Log;
 
 import com.android.server.uwb.util.ArrayUtils;
-import com.android.server.uwb.util.DataTypeConversionUtil;
-
-import com.google.common.primitives.Bytes;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -71,8 +68,8 @@ public class FiraConnectorDataPacket {
 
         ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
         byte header = byteBuffer.get();
-        boolean lastChainingPacket = (header & LAST_CHAINING_PACKET_BITMASK) != 0;
-        int secid = header & SECID_BITMASK;
+        boolean lastChainingPacket = isLastChainingPacket(header);
+        int secid = getSecid(header);
 
         byte[] payload = new byte[byteBuffer.remaining()];
         byteBuffer.get(payload);
@@ -86,14 +83,43 @@ public class FiraConnectorDataPacket {
      * @return encoded bytes into byte array based on the FiRa specification.
      */
     public byte[] toBytes() {
-        byte[] header =
-                new byte[] {
-                    (byte)
-                            ((lastChainingPacket ? LAST_CHAINING_PACKET_BITMASK : 0)
-                                    | (DataTypeConversionUtil.i32ToByteArray(secid)[3]
-                                            & SECID_BITMASK))
-                };
-        return Bytes.concat(header, payload);
+        byte[] bytes = new byte[HEADER_SIZE + payload.length];
+        bytes[0] = encodeHeader(lastChainingPacket, secid);
+        System.arraycopy(payload, /*srcPos=*/ 0, bytes, HEADER_SIZE, payload.length);
+        return bytes;
+    }
+
+    /**
+     * Encode the data packet header, so that senders can fragment a message directly into their
+     * own buffers without creating a {@link FiraConnectorDataPacket} for every fragment.
+     *
+     * @param lastChainingPacket true if this is the last packet in a fragmented session.
+     * @param secid Secure Component ID of the packet.
+     * @return encoded header byte based on the FiRa specification.
+     */
+    public static byte encodeHeader(boolean lastChainingPacket, int secid) {
+        return (byte)
+                ((lastChainingPacket ? LAST_CHAINING_PACKET_BITMASK : 0) | (secid & SECID_BITMASK));
+    }
+
+    /**
+     * Decode the last chaining packet flag from a data packet header.
+     *
+     * @param header first byte of the data packet.
+     * @return true if this is the last packet in a fragmented session.
+     */
+    public static boolean isLastChainingPacket(byte header) {
+        return (header & LAST_CHAINING_PACKET_BITMASK) != 0;
+    }
+
+    /**
+     * Decode the SECID from a data packet header.
+     *
+     * @param header first byte of the data packet.
+     * @return Secure Component ID of the packet.
+     */
+    public static int getSecid(byte header) {
+        return header & SECID_BITMASK;
     }
 
     @Override
@@ -139,7 +139,23 @@ public class FiraConnectorMessage {
             return null;
         }
 
-        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        return fromByteBuffer(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Generate the FiraConnectorMessage from the remaining bytes of a buffer. Only the payload is
+     * copied, so a reassembled message can be decoded straight from its reassembly buffer.
+     *
+     * @param byteBuffer buffer containing the FiRa UWB Connector Message encoding based on the FiRa
+     *     specification.
+     * @return decode bytes into {@link FiraConnectorMessage}, else null if invalid.
+     */
+    @Nullable
+    public static FiraConnectorMessage fromByteBuffer(@NonNull ByteBuffer byteBuffer) {
+        if (!byteBuffer.hasRemaining()) {
+            Log.w(TAG, "Failed to convert empty into FiRa Connector Message.");
+            return null;
+        }
         byte header = byteBuffer.get();
         MessageType messageType =
                 MessageType.valueOf((header >>> MESSAGE_TYPE_BITPOS) & MESSAGE_TYPE_BITMASK);
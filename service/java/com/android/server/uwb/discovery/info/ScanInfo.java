@@ -24,14 +24,29 @@ import java.util.List;
  * Holds information about the discovery scan request.
  */
 public class ScanInfo {
+    /** Default min time between two reports of the same discovered device, not rate limited. */
+    public static final long DEFAULT_REPORT_INTERVAL_MS = 0;
 
     public ScanInfo(List<ScanFilter> scanFilters, ScanSettings scanSettings) {
+        this(scanFilters, scanSettings, DEFAULT_REPORT_INTERVAL_MS);
+    }
+
+    public ScanInfo(
+            List<ScanFilter> scanFilters, ScanSettings scanSettings, long reportIntervalMs) {
         this.scanFilters = scanFilters;
         this.scanSettings = scanSettings;
+        this.reportIntervalMs = reportIntervalMs;
     }
 
     /** BLE scan parameters */
     public final List<ScanFilter> scanFilters;
 
     public final ScanSettings scanSettings;
+
+    /**
+     * Min time between two reports of the same discovered device. Only the latest advertisement
+     * received within the interval is reported, when the interval ends. 0 to report every
+     * advertisement.
+     */
+    public final long reportIntervalMs;
 }
@@ -21,6 +21,8 @@ import com.android.server.uwb.config.ConfigParam;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /***
  * This assumes little endian data and 1 byte tags. This is intended for handling UCI interface
@@ -29,6 +31,7 @@ import java.util.Arrays;
 public class TlvBuffer {
     private static final String TAG = "TlvBuffer";
     private static final int MAX_BUFFER_SIZE = 512;
+    private static final int TLV_HEADER_SIZE = 2;
     private final ByteBuffer mBuffer;
     private final int mNoOfParams;
 
@@ -45,6 +48,45 @@ public class TlvBuffer {
         return mNoOfParams;
     }
 
+    /** Gets the value of each TLV in the buffer, keyed by tag. */
+    public Map<Integer, byte[]> getTlvs() {
+        byte[] tlvs = mBuffer.array();
+        Map<Integer, byte[]> values = new HashMap<>();
+        for (int i = 0; i + TLV_HEADER_SIZE <= tlvs.length; i += TLV_HEADER_SIZE + length(i)) {
+            values.put(tag(i), Arrays.copyOfRange(
+                    tlvs, i + TLV_HEADER_SIZE, i + TLV_HEADER_SIZE + length(i)));
+        }
+        return values;
+    }
+
+    /**
+     * Gets the TLVs of the buffer which are not in {@code tlvs} with the same value, the given
+     * TLVs are keyed by tag as returned by {@link #getTlvs()}.
+     */
+    public TlvBuffer getDelta(Map<Integer, byte[]> tlvs) {
+        byte[] buffer = mBuffer.array();
+        ByteBuffer delta = ByteBuffer.allocate(buffer.length);
+        int noOfParams = 0;
+        for (int i = 0; i + TLV_HEADER_SIZE <= buffer.length; i += TLV_HEADER_SIZE + length(i)) {
+            int end = i + TLV_HEADER_SIZE + length(i);
+            byte[] value = tlvs.get(tag(i));
+            if (value == null || !Arrays.equals(
+                    buffer, i + TLV_HEADER_SIZE, end, value, 0, value.length)) {
+                delta.put(buffer, i, end - i);
+                noOfParams++;
+            }
+        }
+        return new TlvBuffer(Arrays.copyOf(delta.array(), delta.position()), noOfParams);
+    }
+
+    private int tag(int offset) {
+        return mBuffer.array()[offset] & 0xFF;
+    }
+
+    private int length(int offset) {
+        return mBuffer.array()[offset + 1] & 0xFF;
+    }
+
     public static final class Builder {
         ByteBuffer mBuffer = ByteBuffer.allocate(MAX_BUFFER_SIZE);
         int mNoOfParams = 0;
@@ -47,6 +47,7 @@ import com.android.server.uwb.discovery.info.AdvertiseInfo;
 import com.android.server.uwb.discovery.info.DiscoveryInfo;
 import com.android.server.uwb.secure.SecureFactory;
 import com.android.server.uwb.secure.SecureSession;
+import com.android.server.uwb.secure.SecureSessionTimings;
 import com.android.server.uwb.secure.csml.ControleeInfo;
 import com.android.server.uwb.secure.csml.SessionData;
 import com.android.server.uwb.secure.csml.UwbCapability;
@@ -119,7 +120,8 @@ public class PacsControleeSession extends RangingSessionController {
     private DiscoveryProvider mDiscoveryProvider;
     private DiscoveryInfo mDiscoveryInfo;
     private TransportServerProvider mTransportServerProvider;
-    private SecureSession mSecureSession;
+    // Set on the handler thread, read by dump from a binder thread.
+    private volatile SecureSession mSecureSession;
     private DiscoveryAdvertisement mDiscoveryAdvertisement;
     private AdvertisingSetParameters mAdvertisingSetParameters;
 
@@ -187,14 +189,11 @@ public class PacsControleeSession extends RangingSessionController {
     /** Initialize controlee responder session */
     private void secureSessionInit() {
         try {
-            mSecureSession =
-                    SecureFactory.makeResponderSecureSession(
-                            mSessionInfo.mContext,
-                            mHandler.getLooper(),
-                            mControleeSessionCallback,
-                            getRunningProfileSessionInfo(),
-                            mTransportServerProvider,
-                            /* isController= */ false);
+            if (mSecureSession == null) {
+                makeSecureSession();
+            } else {
+                mSecureSession.getTimings().end(SecureSessionTimings.Phase.TRANSPORT);
+            }
             mSecureSession.startSession();
         } catch (IllegalStateException e) {
             Log.e(TAG, "secure session init failed as " + e);
@@ -202,6 +201,44 @@ public class PacsControleeSession extends RangingSessionController {
         }
     }
 
+    /**
+     * Initialize controlee responder session while the transport is connecting, so the OMAPI
+     * service is bound and the remote commands are received in the meantime.
+     */
+    private void secureSessionPrepare() {
+        try {
+            makeSecureSession();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "secure session is not prepared as " + e);
+            return;
+        }
+        mSecureSession.getTimings().begin(SecureSessionTimings.Phase.TRANSPORT);
+        mSecureSession.prepareSession();
+    }
+
+    /** Terminates the secure session, prepared or started, and releases its SE channel. */
+    private void terminateSecureSession() {
+        if (mSecureSession != null) {
+            mSecureSession.terminateSession();
+        }
+    }
+
+    private void makeSecureSession() {
+        mSecureSession =
+                SecureFactory.makeResponderSecureSession(
+                        mSessionInfo.mContext,
+                        mHandler.getLooper(),
+                        mControleeSessionCallback,
+                        getRunningProfileSessionInfo(),
+                        mTransportServerProvider,
+                        /* isController= */ false);
+    }
+
+    @Override
+    protected SecureSession getSecureSession() {
+        return mSecureSession;
+    }
+
     @Override
     public UwbConfig getUwbConfig() {
         // PACS controlee config
@@ -380,6 +417,7 @@ public class PacsControleeSession extends RangingSessionController {
                 log("Enter TransportState");
             }
             transportServerInit();
+            secureSessionPrepare();
         }
 
         @Override
@@ -396,8 +434,11 @@ public class PacsControleeSession extends RangingSessionController {
                     transportServerStart();
                     break;
                 case SESSION_STOP:
+                    stopAdvertising();
                     transportServerStop();
-                    return false;
+                    terminateSecureSession();
+                    transitionTo(mIdleState);
+                    break;
                 case TRANSPORT_COMPLETED:
                     stopAdvertising();
                     transportServerStop();
@@ -435,9 +476,9 @@ public class PacsControleeSession extends RangingSessionController {
                     transitionTo(mRangingState);
                     break;
                 case SESSION_STOP:
-                    mSecureSession.terminateSession();
-                    // continue handle
-                    return false;
+                    terminateSecureSession();
+                    transitionTo(mIdleState);
+                    break;
             }
             return true;
         }
@@ -513,9 +554,7 @@ public class PacsControleeSession extends RangingSessionController {
                 log("Enter EndSessionState");
             }
             stopAdvertising();
-            if (mSecureSession != null) {
-                mSecureSession.terminateSession();
-            }
+            terminateSecureSession();
         }
 
         @Override
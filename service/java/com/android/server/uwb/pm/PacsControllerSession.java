@@ -43,6 +43,7 @@ import com.android.server.uwb.discovery.info.ScanInfo;
 import com.android.server.uwb.discovery.info.TransportClientInfo;
 import com.android.server.uwb.secure.SecureFactory;
 import com.android.server.uwb.secure.SecureSession;
+import com.android.server.uwb.secure.SecureSessionTimings;
 import com.android.server.uwb.secure.csml.SessionData;
 import com.android.server.uwb.secure.csml.UwbCapability;
 
@@ -115,7 +116,8 @@ public class PacsControllerSession extends RangingSessionController {
     private DiscoveryProvider mDiscoveryProvider;
     private DiscoveryInfo mDiscoveryInfo;
     private TransportClientProvider mTransportClientProvider;
-    private SecureSession mSecureSession;
+    // Set on the handler thread, read by dump from a binder thread.
+    private volatile SecureSession mSecureSession;
 
     private List<ScanFilter> mScanFilterList;
     private ScanSettings mScanSettings;
@@ -147,6 +149,7 @@ public class PacsControllerSession extends RangingSessionController {
                         mSessionInfo.mAttributionSource,
                         mSessionInfo.mContext,
                         new HandlerExecutor(mHandler),
+                        mHandler,
                         mDiscoveryInfo,
                         mScanCallback);
         mDiscoveryProvider.start();
@@ -198,6 +201,43 @@ public class PacsControllerSession extends RangingSessionController {
                         /* isController= */ true);
     }
 
+    /**
+     * Initialize the controller initiator session while the transport is connecting, the SE
+     * channel is opened and the ADF is selected in the meantime.
+     */
+    private void secureSessionPrepare() {
+        try {
+            secureSessionInit();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "secure session is not prepared as " + e);
+            return;
+        }
+        mSecureSession.getTimings().begin(SecureSessionTimings.Phase.TRANSPORT);
+        mSecureSession.prepareSession();
+    }
+
+    /** Start the secure session set up with the remote device, once the transport is done. */
+    private void secureSessionStart() {
+        if (mSecureSession == null) {
+            secureSessionInit();
+        } else {
+            mSecureSession.getTimings().end(SecureSessionTimings.Phase.TRANSPORT);
+        }
+        mSecureSession.startSession();
+    }
+
+    /** Terminates the secure session, prepared or started, and releases its SE channel. */
+    private void terminateSecureSession() {
+        if (mSecureSession != null) {
+            mSecureSession.terminateSession();
+        }
+    }
+
+    @Override
+    protected SecureSession getSecureSession() {
+        return mSecureSession;
+    }
+
     @Override
     public UwbConfig getUwbConfig() {
         return PacsProfile.getPacsControllerProfile();
@@ -359,6 +399,7 @@ public class PacsControllerSession extends RangingSessionController {
                 log("Enter TransportState");
             }
             transportClientInit();
+            secureSessionPrepare();
         }
 
         @Override
@@ -375,6 +416,11 @@ public class PacsControllerSession extends RangingSessionController {
                     transportClientStart();
                     break;
                 case SESSION_STOP:
+                    stopScan();
+                    transportClientStop();
+                    terminateSecureSession();
+                    transitionTo(mIdleState);
+                    break;
                 case TRANSPORT_COMPLETED:
                     stopScan();
                     transportClientStop();
@@ -406,11 +452,15 @@ public class PacsControllerSession extends RangingSessionController {
         public boolean processMessage(Message message) {
             switch (message.what) {
                 case SECURE_SESSION_INIT:
-                    secureSessionInit();
+                    secureSessionStart();
                     break;
                 case SECURE_SESSION_ESTABLISHED:
                     transitionTo(mRangingState);
                     break;
+                case SESSION_STOP:
+                    terminateSecureSession();
+                    transitionTo(mIdleState);
+                    break;
             }
             return true;
         }
@@ -480,6 +530,7 @@ public class PacsControllerSession extends RangingSessionController {
                 log("Enter EndSessionState");
             }
             stopScan();
+            terminateSecureSession();
         }
 
         @Override
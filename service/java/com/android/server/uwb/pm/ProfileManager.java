@@ -43,25 +43,42 @@ import com.android.server.uwb.util.ObjectIdentifier;
 
 import com.google.uwb.support.fira.FiraParams.ServiceID;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ProfileManager {
 
     private static final String LOG_TAG = "UwbServiceProfileStore";
 
+    /** Index of service profiles by service instance ID. */
     public final Map<UUID, ServiceProfileInfo> mServiceProfileMap =
-            new HashMap<>();
+            new ConcurrentHashMap<>();
 
+    /**
+     * Index of service profiles by app uid. The lists are immutable snapshots replaced on every
+     * change, so lookups can hand them out without copying.
+     */
     public final Map<Integer, List<ServiceProfileInfo>> mAppServiceProfileMap =
-            new HashMap<>();
+            new ConcurrentHashMap<>();
 
+    /**
+     * Sessions by handle, changed on the handler thread. A concurrent map, so that dump can walk
+     * it from a binder thread without blocking behind a busy handler.
+     */
     public final Map<SessionHandle, RangingSessionController> mRangingSessionTable =
-            new HashMap<>();
+            new ConcurrentHashMap<>();
 
     private static final int MAX_RETRIES = 10;
 
@@ -72,6 +89,11 @@ public class ProfileManager {
 
     private boolean mHasNewDataToSerialize = false;
 
+    // Service profiles changed since the last serialization, persisted as a journal delta.
+    private final Set<UUID> mChangedServiceInstanceIds = ConcurrentHashMap.newKeySet();
+
+    // Whether a forced store write is already posted, later changes are committed with it.
+    private final AtomicBoolean mSaveToStorePending = new AtomicBoolean(false);
 
     public ProfileManager(@NonNull Context context, @NonNull Handler handler, @NonNull
              UwbConfigStore uwbConfigStore, UwbInjector uwbInjector) {
@@ -101,12 +123,40 @@ public class ProfileManager {
         public void reset() {
             mServiceProfileMap.clear();
             mAppServiceProfileMap.clear();
+            mChangedServiceInstanceIds.clear();
         }
 
         @Override
         public boolean hasNewDataToSerialize() {
             return mHasNewDataToSerialize;
         }
+
+        @Override
+        public Set<UUID> takeChangedServiceInstanceIds() {
+            // Only the IDs taken are removed, an ID marked again after it was taken stays.
+            Set<UUID> changedServiceInstanceIds = new HashSet<>();
+            Iterator<UUID> iterator = mChangedServiceInstanceIds.iterator();
+            while (iterator.hasNext()) {
+                changedServiceInstanceIds.add(iterator.next());
+                iterator.remove();
+            }
+            return changedServiceInstanceIds;
+        }
+    }
+
+    /**
+     * Marks the service profile as changed and schedules a forced store write. Changes made
+     * before the write runs are committed together.
+     */
+    private void onServiceProfileChanged(UUID serviceInstanceId) {
+        mChangedServiceInstanceIds.add(serviceInstanceId);
+        mHasNewDataToSerialize = true;
+        if (mSaveToStorePending.compareAndSet(false, true)) {
+            mHandler.post(() -> {
+                mSaveToStorePending.set(false);
+                mUwbConfigStore.saveToStore(/* forceWrite= */ true);
+            });
+        }
     }
 
     /** Check whether profile manager has an instance of SessionHandle */
@@ -127,44 +177,33 @@ public class ProfileManager {
             return Optional.empty();
         }
         ServiceProfileInfo serviceProfileInfo = new ServiceProfileInfo(serviceInstanceID,
-                Binder.getCallingUid(), mContext.getPackageName(), serviceID);
+                app_uid, mContext.getPackageName(), serviceID);
         mServiceProfileMap.put(serviceInstanceID, serviceProfileInfo);
-        if (mAppServiceProfileMap.containsKey(app_uid)) {
-            List<ServiceProfileInfo> appServiceProfileList = mAppServiceProfileMap.get(app_uid);
-            appServiceProfileList.add(serviceProfileInfo);
-            mAppServiceProfileMap.put(app_uid, appServiceProfileList);
-        } else {
-            List<ServiceProfileInfo> appServiceProfileList = new ArrayList();
-            appServiceProfileList.add(serviceProfileInfo);
-            mAppServiceProfileMap.put(app_uid, appServiceProfileList);
-        }
-        mHasNewDataToSerialize = true;
-        mHandler.post(() -> mUwbConfigStore.saveToStore(true));
+        mAppServiceProfileMap.compute(app_uid, (uid, appServiceProfileList) -> {
+            List<ServiceProfileInfo> newAppServiceProfileList = appServiceProfileList == null
+                    ? new ArrayList<>() : new ArrayList<>(appServiceProfileList);
+            newAppServiceProfileList.add(serviceProfileInfo);
+            return Collections.unmodifiableList(newAppServiceProfileList);
+        });
+        onServiceProfileChanged(serviceInstanceID);
         return Optional.of(serviceInstanceID);
     }
 
     /** Remove existing service profile from profile manager */
     public int removeServiceProfile(UUID serviceInstanceID) {
-        int app_uid = Binder.getCallingUid();
-        if (mServiceProfileMap.containsKey(serviceInstanceID)) {
-            ServiceProfileInfo serviceProfileInfo = mServiceProfileMap.get(serviceInstanceID);
-            mServiceProfileMap.remove(serviceInstanceID);
-
-            if (mAppServiceProfileMap.containsKey(app_uid)) {
-                List<ServiceProfileInfo> appServiceProfileList =
-                        mAppServiceProfileMap.get(app_uid);
-                appServiceProfileList.remove(serviceProfileInfo);
-                if (appServiceProfileList.isEmpty()) {
-                    mAppServiceProfileMap.remove(app_uid);
-                } else {
-                    mAppServiceProfileMap.put(app_uid, appServiceProfileList);
-                }
-            }
-        }
-        else {
+        ServiceProfileInfo serviceProfileInfo = mServiceProfileMap.remove(serviceInstanceID);
+        if (serviceProfileInfo == null) {
             return UwbUciConstants.STATUS_CODE_FAILED;
         }
-        mHandler.post(() -> mUwbConfigStore.saveToStore(true));
+        mAppServiceProfileMap.computeIfPresent(serviceProfileInfo.uid,
+                (uid, appServiceProfileList) -> {
+                    List<ServiceProfileInfo> newAppServiceProfileList =
+                            new ArrayList<>(appServiceProfileList);
+                    newAppServiceProfileList.remove(serviceProfileInfo);
+                    return newAppServiceProfileList.isEmpty()
+                            ? null : Collections.unmodifiableList(newAppServiceProfileList);
+                });
+        onServiceProfileChanged(serviceInstanceID);
         return UwbUciConstants.STATUS_CODE_OK;
     }
 
@@ -194,7 +233,7 @@ public class ProfileManager {
                                 serviceInstanceId, serviceProfileInfo, adfOid);
                         serviceProfileInfo.setServiceAdfOid(adfOid);
                         serviceProfileInfo.setAdfStatus(ADF_STATUS_CREATED);
-                        mHandler.post(() -> mUwbConfigStore.saveToStore(/* forceWrite= */ true));
+                        onServiceProfileChanged(serviceInstanceId);
                         adfOpCallback.onSuccess(serviceInstanceId, adfOid, AdfOp.CREATE_ADF);
                     }
 
@@ -209,7 +248,7 @@ public class ProfileManager {
                             serviceProfileInfo.setServiceAdfOid(adfOid);
                         }
                         serviceProfileInfo.setAdfStatus(ADF_STATUS_PROVISIONED);
-                        mHandler.post(() -> mUwbConfigStore.saveToStore(/* forceWrite= */ true));
+                        onServiceProfileChanged(serviceInstanceId);
                         adfOpCallback.onSuccess(serviceInstanceId, adfOid, AdfOp.PROVISIONING_ADF);
                     }
 
@@ -222,7 +261,7 @@ public class ProfileManager {
                         serviceProfileInfo.setServiceAdfOid(adfOid);
                         serviceProfileInfo.setSecureBlob(secureBlob);
                         serviceProfileInfo.setAdfStatus(ADF_STATUS_PROVISIONED);
-                        mHandler.post(() -> mUwbConfigStore.saveToStore(/* forceWrite= */ true));
+                        onServiceProfileChanged(serviceInstanceId);
                         adfOpCallback.onSuccess(serviceInstanceId, adfOid, AdfOp.IMPORT_ADF);
                     }
 
@@ -231,7 +270,7 @@ public class ProfileManager {
                             @NonNull ObjectIdentifier adfOid) {
                         serviceProfileInfo.setServiceAdfOid(null);
                         serviceProfileInfo.setAdfStatus(ADF_STATUS_NOT_PROVISIONED);
-                        mHandler.post(() -> mUwbConfigStore.saveToStore(/* forceWrite= */ true));
+                        onServiceProfileChanged(serviceInstanceId);
                         adfOpCallback.onSuccess(serviceInstanceId, adfOid, AdfOp.DELETE_ADF);
                     }
 
@@ -287,7 +326,7 @@ public class ProfileManager {
             serviceProfileInfo.setServiceAdfOid(null);
             serviceProfileInfo.setSecureBlob(null);
             serviceProfileInfo.setAdfStatus(ADF_STATUS_NOT_PROVISIONED);
-            mHandler.post(() -> mUwbConfigStore.saveToStore(/* forceWrite= */ true));
+            onServiceProfileChanged(serviceInstanceId);
             adfOpCallback.onSuccess(serviceInstanceId,
                     serviceProfileInfo.getServiceAdfOid().get(), AdfOp.DELETE_ADF);
         } else {
@@ -300,8 +339,7 @@ public class ProfileManager {
                         public void onSuccess(UUID serviceInstanceId, ObjectIdentifier adfOid) {
                             serviceProfileInfo.setServiceAdfOid(null);
                             serviceProfileInfo.setAdfStatus(ADF_STATUS_NOT_PROVISIONED);
-                            mHandler.post(
-                                    () -> mUwbConfigStore.saveToStore(/* forceWrite= */ true));
+                            onServiceProfileChanged(serviceInstanceId);
                             adfOpCallback.onSuccess(serviceInstanceId, adfOid, AdfOp.DELETE_ADF);
                         }
 
@@ -317,28 +355,27 @@ public class ProfileManager {
     public void loadServiceProfile(Map<UUID, ServiceProfileInfo> serviceProfileDataMap) {
         mServiceProfileMap.clear();
         mAppServiceProfileMap.clear();
+        Map<Integer, List<ServiceProfileInfo>> appServiceProfileMap = new HashMap<>();
         for (Map.Entry<UUID, ServiceProfileInfo> entry : serviceProfileDataMap.entrySet()) {
             mServiceProfileMap.put(entry.getKey(), entry.getValue());
-            int app_uid = entry.getValue().uid;
-            if (mAppServiceProfileMap.containsKey(app_uid)) {
-                List<ServiceProfileInfo> appServiceProfileList = mAppServiceProfileMap.get(app_uid);
-                appServiceProfileList.add(entry.getValue());
-                mAppServiceProfileMap.put(app_uid, appServiceProfileList);
-            } else {
-                List<ServiceProfileInfo> appServiceProfileList = new ArrayList();
-                appServiceProfileList.add(entry.getValue());
-                mAppServiceProfileMap.put(app_uid, appServiceProfileList);
-            }
+            appServiceProfileMap.computeIfAbsent(entry.getValue().uid, uid -> new ArrayList<>())
+                    .add(entry.getValue());
+        }
+        for (Map.Entry<Integer, List<ServiceProfileInfo>> entry
+                : appServiceProfileMap.entrySet()) {
+            mAppServiceProfileMap.put(entry.getKey(),
+                    Collections.unmodifiableList(entry.getValue()));
         }
     }
 
     //TODO Send all info related to app as a Persistable bundle
+    /**
+     * Returns the calling app's service profiles, or null if none. The unmodifiable list is
+     * shared by all the callers and is replaced rather than changed, so it is not copied. The
+     * {@link ServiceProfileInfo} in it are the live ones, not copies.
+     */
     public List<ServiceProfileInfo> getServiceProfiles() {
-        int app_uid = Binder.getCallingUid();
-        if (mAppServiceProfileMap.containsKey(app_uid)) {
-            return mAppServiceProfileMap.get(app_uid);
-        }
-        return null;
+        return mAppServiceProfileMap.get(Binder.getCallingUid());
     }
 
     /** Initializes state machine and session related info */
@@ -408,6 +445,19 @@ public class ProfileManager {
         }
     }
 
+    /**
+     * Dump the profile sessions debug info
+     */
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("---- Dump of ProfileManager ----");
+        for (Map.Entry<SessionHandle, RangingSessionController> entry
+                : mRangingSessionTable.entrySet()) {
+            pw.println("Session " + entry.getKey() + ":");
+            entry.getValue().dumpSecureSessionTimings(pw);
+        }
+        pw.println("---- Dump of ProfileManager ----");
+    }
+
     /** Operating to the ADF. */
     public enum AdfOp {
         CREATE_ADF,
@@ -17,6 +17,7 @@
 package com.android.server.uwb.pm;
 
 import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.content.AttributionSource;
 import android.content.Context;
 import android.os.Handler;
@@ -31,12 +32,14 @@ import com.android.server.uwb.UwbInjector;
 import com.android.server.uwb.UwbServiceCore;
 import com.android.server.uwb.data.ServiceProfileData.ServiceProfileInfo;
 import com.android.server.uwb.data.UwbConfig;
+import com.android.server.uwb.secure.SecureSession;
 import com.android.server.uwb.secure.csml.CsmlUtil;
 import com.android.server.uwb.secure.csml.SessionData;
 
 import com.google.uwb.support.fira.FiraOpenSessionParams;
 import com.google.uwb.support.generic.GenericSpecificationParams;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
@@ -160,6 +163,22 @@ public abstract class RangingSessionController extends StateMachine {
 
     public abstract UwbConfig getUwbConfig();
 
+    /** The secure session of the profile, null if it is not created yet. */
+    @Nullable
+    protected SecureSession getSecureSession() {
+        return null;
+    }
+
+    /** Dumps the time spent in each phase of the secure session set up. */
+    public void dumpSecureSessionTimings(@NonNull PrintWriter pw) {
+        SecureSession secureSession = getSecureSession();
+        if (secureSession == null) {
+            pw.println("Secure session is not created");
+            return;
+        }
+        secureSession.getTimings().dump(pw);
+    }
+
     public void openRangingSession() throws RemoteException {
 
         FiraOpenSessionParams firaOpenSessionParams =
@@ -27,12 +27,14 @@ import android.os.Message;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.uwb.discovery.Transport;
 import com.android.server.uwb.discovery.info.FiraConnectorMessage.MessageType;
 import com.android.server.uwb.pm.RunningProfileSessionInfo;
+import com.android.server.uwb.secure.SecureSessionTimings.Phase;
 import com.android.server.uwb.secure.csml.CsmlUtil;
 import com.android.server.uwb.secure.csml.DispatchCommand;
 import com.android.server.uwb.secure.csml.DispatchResponse;
@@ -46,13 +48,15 @@ import com.android.server.uwb.secure.csml.SwapOutAdfResponse;
 import com.android.server.uwb.secure.iso7816.CommandApdu;
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
 import com.android.server.uwb.secure.iso7816.TlvDatum;
-import com.android.server.uwb.secure.iso7816.TlvParser;
+import com.android.server.uwb.secure.iso7816.TlvReader;
 import com.android.server.uwb.util.DataTypeConversionUtil;
 import com.android.server.uwb.util.ObjectIdentifier;
 
 import java.io.IOException;
-import java.util.Objects;
+import java.util.ArrayDeque;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 /**
  * Set up the secure channel and handle the Tunnel data request.
@@ -101,6 +105,15 @@ public abstract class FiRaSecureChannel {
 
     protected Status mStatus = Status.UNINITIALIZED;
     private Optional<byte[]> mDynamicSlotIdentifier = Optional.empty();
+    protected SecureSessionTimings mTimings = new SecureSessionTimings();
+
+    // The data received before the SE is initialized, handled once it is.
+    private final ArrayDeque<byte[]> mPendingOobData = new ArrayDeque<>();
+    // False while the transport is connecting, the local set up is done in the meantime and the
+    // step which needs the remote device is kept until the transport is ready.
+    private boolean mIsTransportReady = true;
+    @Nullable
+    private Message mMessageWaitingForTransport;
 
     FiRaSecureChannel(
             @NonNull SecureElementChannel secureElementChannel,
@@ -131,16 +144,24 @@ public abstract class FiRaSecureChannel {
     protected void handleScMessage(@NonNull Message msg) {
         switch (msg.what) {
             case CMD_INIT:
+                mTimings.begin(Phase.SE_INIT);
+                // The remote device doesn't wait for the OMAPI service to be bound, its data is
+                // kept until the SE is initialized.
+                mTransport.registerDataReceiver(mDataReceiver);
                 mSecureElementChannel.init(
                         () -> {
+                            mTimings.end(Phase.SE_INIT);
                             // do nothing for ROLE_RESPONDER, wait cmd from remote device
                             if (doOpenSeChannelAfterInit()) {
                                 mWorkHandler.sendMessage(
                                         mWorkHandler.obtainMessage(CMD_OPEN_CHANNEL));
                             }
 
-                            mTransport.registerDataReceiver(mDataReceiver);
                             mStatus = Status.INITIALIZED;
+                            while (!mPendingOobData.isEmpty()) {
+                                mWorkHandler.sendMessage(mWorkHandler.obtainMessage(
+                                        CMD_PROCESS_RECEIVED_OOB_DATA, mPendingOobData.poll()));
+                            }
                         });
                 break;
             case CMD_SEND_OOB_DATA:
@@ -167,6 +188,10 @@ public abstract class FiRaSecureChannel {
                 break;
             case CMD_PROCESS_RECEIVED_OOB_DATA:
                 byte[] receivedData = (byte[]) msg.obj;
+                if (mStatus == Status.UNINITIALIZED) {
+                    mPendingOobData.add(receivedData);
+                    break;
+                }
                 processRemoteCommandOrResponse(receivedData);
                 break;
             case CMD_CLEAN_UP_TERMINATED_OR_ABORTED_CHANNEL:
@@ -198,6 +223,46 @@ public abstract class FiRaSecureChannel {
         mSecureChannelCallback = secureChannelCallback;
     }
 
+    /**
+     * Initiate the secure session set up while the transport is still connecting, the steps
+     * which need the remote device wait for {@link #onTransportReady()}.
+     */
+    public void prepare(@NonNull SecureChannelCallback secureChannelCallback) {
+        mIsTransportReady = false;
+        init(secureChannelCallback);
+    }
+
+    /**
+     * The transport to the remote device is connected, the set up goes on with it.
+     */
+    public void onTransportReady() {
+        mWorkHandler.post(
+                () -> {
+                    mIsTransportReady = true;
+                    if (mMessageWaitingForTransport != null) {
+                        mWorkHandler.sendMessage(mMessageWaitingForTransport);
+                        mMessageWaitingForTransport = null;
+                    }
+                });
+    }
+
+    /**
+     * Sends the message once the transport is ready, for the step which sends data to the remote
+     * device.
+     */
+    protected final void sendMessageWhenTransportReady(@NonNull Message msg) {
+        if (mIsTransportReady) {
+            mWorkHandler.sendMessage(msg);
+        } else {
+            mMessageWaitingForTransport = msg;
+        }
+    }
+
+    /** Records the phases of the set up in the timings of the session. */
+    void setTimings(@NonNull SecureSessionTimings timings) {
+        mTimings = timings;
+    }
+
     /**
      * Swap in the ADF, this is optional, used only when the service profile is using the
      * dynamic slot.
@@ -318,6 +383,7 @@ public abstract class FiRaSecureChannel {
                 case NOTIFICATION_EVENT_ID_SECURE_CHANNEL_ESTABLISHED:
                     logd("SC established");
                     mStatus = Status.ESTABLISHED;
+                    mTimings.end(Phase.SECURE_CHANNEL);
                     DispatchResponse.SecureChannelEstablishedNotification eNotification =
                             (DispatchResponse.SecureChannelEstablishedNotification) notification;
                     logd("defaultSessionId from notification: "
@@ -339,6 +405,7 @@ public abstract class FiRaSecureChannel {
                     DispatchResponse.RdsAvailableNotification rdsAvailableNotification =
                             (DispatchResponse.RdsAvailableNotification) notification;
                     mStatus = Status.TERMINATED;
+                    mTimings.end(Phase.SECURE_CHANNEL);
                     mSecureChannelCallback.onRdsAvailableAndTerminated(
                             rdsAvailableNotification.sessionId);
                     break;
@@ -357,11 +424,9 @@ public abstract class FiRaSecureChannel {
             ResponseApdu responseApdu =
                     mSecureElementChannel.transmit(getSessionIdCommand);
             if (responseApdu != null && responseApdu.getStatusWord() == SW_NO_ERROR.toInt()) {
-                TlvDatum sessionIdTlv = TlvParser.parseOneTlv(responseApdu.getResponseData());
-                if (sessionIdTlv != null
-                        && Objects.equals(sessionIdTlv.tag, CsmlUtil.SESSION_ID_TAG)) {
-                    return Optional.of(
-                            DataTypeConversionUtil.arbitraryByteArrayToI32(sessionIdTlv.value));
+                TlvReader reader = new TlvReader(responseApdu.getResponseData());
+                if (reader.next() && reader.isTag(CsmlUtil.SESSION_ID_TAG)) {
+                    return Optional.of(reader.getValueAsInt());
                 }
             } else {
                 throw new IllegalStateException("no valid APDU response.");
@@ -388,7 +453,12 @@ public abstract class FiRaSecureChannel {
     void sendLocalFiRaCommand(
             @NonNull FiRaCommand fiRaCommand,
             @NonNull ExternalRequestCallback externalRequestCallback) {
-        sendLocalCommandApdu(fiRaCommand.getCommandApdu(), externalRequestCallback);
+        sendLocalCommand(
+                fiRaCommand.getCommandApdu(),
+                externalRequestCallback,
+                (callback) ->
+                        mSecureElementChannel.transmitAsync(
+                                List.of(fiRaCommand), mWorkHandler, callback));
     }
 
     /**
@@ -397,24 +467,46 @@ public abstract class FiRaSecureChannel {
     void sendLocalCommandApdu(
             @NonNull CommandApdu commandApdu,
             @NonNull ExternalRequestCallback externalRequestCallback) {
+        sendLocalCommand(
+                commandApdu,
+                externalRequestCallback,
+                (callback) ->
+                        mSecureElementChannel.transmitAsync(commandApdu, mWorkHandler, callback));
+    }
+
+    // The transmit doesn't block the work handler while the SE is temporarily unavailable.
+    private void sendLocalCommand(
+            @NonNull CommandApdu commandApdu,
+            @NonNull ExternalRequestCallback externalRequestCallback,
+            @NonNull Consumer<SecureElementChannel.TransmitCallback> transmitter) {
         mWorkHandler.post(
                 () -> {
-                    try {
-                        if (!mSecureElementChannel.isOpened()) {
-                            throw new IllegalStateException("the OMAPI channel is not opened.");
-                        }
-
-                        ResponseApdu responseApdu = mSecureElementChannel.transmit(commandApdu);
-                        if (responseApdu.getStatusWord() == SW_NO_ERROR.toInt()) {
-                            externalRequestCallback.onSuccess(responseApdu.getResponseData());
-                        } else {
-                            logw("Applet failed to handle the APDU: " + commandApdu);
-                            externalRequestCallback.onFailure();
-                        }
-                    } catch (IOException | IllegalStateException e) {
-                        logw("sendLocalCommandApdu failed as: " + e);
+                    if (!mSecureElementChannel.isOpened()) {
+                        logw("sendLocalCommandApdu failed as: the OMAPI channel is not opened.");
                         externalRequestCallback.onFailure();
+                        return;
                     }
+                    transmitter.accept(
+                            new SecureElementChannel.TransmitCallback() {
+                                @Override
+                                public void onResponses(
+                                        @NonNull List<ResponseApdu> responseApdus) {
+                                    ResponseApdu responseApdu = responseApdus.get(0);
+                                    if (responseApdu.getStatusWord() == SW_NO_ERROR.toInt()) {
+                                        externalRequestCallback.onSuccess(
+                                                responseApdu.getResponseData());
+                                    } else {
+                                        logw("Applet failed to handle the APDU: " + commandApdu);
+                                        externalRequestCallback.onFailure();
+                                    }
+                                }
+
+                                @Override
+                                public void onFailure(@NonNull IOException e) {
+                                    logw("sendLocalCommandApdu failed as: " + e);
+                                    externalRequestCallback.onFailure();
+                                }
+                            });
                 });
     }
 
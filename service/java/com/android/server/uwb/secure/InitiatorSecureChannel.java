@@ -24,6 +24,7 @@ import androidx.annotation.NonNull;
 
 import com.android.server.uwb.discovery.Transport;
 import com.android.server.uwb.pm.RunningProfileSessionInfo;
+import com.android.server.uwb.secure.SecureSessionTimings.Phase;
 import com.android.server.uwb.secure.csml.InitiateTransactionCommand;
 import com.android.server.uwb.secure.csml.InitiateTransactionResponse;
 import com.android.server.uwb.secure.csml.SelectAdfCommand;
@@ -56,6 +57,7 @@ class InitiatorSecureChannel extends FiRaSecureChannel {
     protected void handleScMessage(@NonNull Message msg) {
         switch (msg.what) {
             case CMD_OPEN_CHANNEL:
+                mTimings.begin(Phase.OPEN_SE_CHANNEL);
                 if (mSecureElementChannel.openChannel()) {
                     if (mRunningProfileSessionInfo.secureBlob.isPresent()) {
                         if (!swapInAdf(
@@ -67,6 +69,7 @@ class InitiatorSecureChannel extends FiRaSecureChannel {
                         }
                     }
                     mStatus = Status.CHANNEL_OPENED;
+                    mTimings.end(Phase.OPEN_SE_CHANNEL);
                 } else {
                     mSecureChannelCallback.onSetUpError(SetupError.OPEN_SE_CHANNEL);
                     return;
@@ -74,14 +77,19 @@ class InitiatorSecureChannel extends FiRaSecureChannel {
                 mWorkHandler.sendMessage(mWorkHandler.obtainMessage(CMD_SELECT_ADF));
                 break;
             case CMD_SELECT_ADF:
+                mTimings.begin(Phase.SELECT_ADF);
                 if (selectAdf(mRunningProfileSessionInfo.oidOfProvisionedAdf)) {
-                    mWorkHandler.sendMessage(mWorkHandler.obtainMessage(CMD_INITIATE_TRANSACTION));
+                    mTimings.end(Phase.SELECT_ADF);
+                    // The transaction sends data to the remote device.
+                    sendMessageWhenTransportReady(
+                            mWorkHandler.obtainMessage(CMD_INITIATE_TRANSACTION));
                     mStatus = Status.ADF_SELECTED;
                 } else {
                     mSecureChannelCallback.onSetUpError(SetupError.SELECT_ADF);
                 }
                 break;
             case CMD_INITIATE_TRANSACTION:
+                mTimings.begin(Phase.INITIATE_TRANSACTION);
                 Optional<Integer> uwbSessionId = mRunningProfileSessionInfo.sharedPrimarySessionId;
 
                 execInitiateTransactionCmd(
@@ -128,6 +136,8 @@ class InitiatorSecureChannel extends FiRaSecureChannel {
             // must have outbound data, otherwise the flow is stopped.
             if (response.outboundDataToRemoteApplet.isPresent()
                     && !response.outboundDataToRemoteApplet.isEmpty()) {
+                mTimings.end(Phase.INITIATE_TRANSACTION);
+                mTimings.begin(Phase.SECURE_CHANNEL);
                 mWorkHandler.sendMessage(
                         mWorkHandler.obtainMessage(
                                 CMD_SEND_OOB_DATA, OOB_MSG_TYPE_APDU_COMMAND, 0,
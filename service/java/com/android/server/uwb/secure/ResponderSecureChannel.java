@@ -28,6 +28,7 @@ import androidx.annotation.NonNull;
 
 import com.android.server.uwb.discovery.Transport;
 import com.android.server.uwb.pm.RunningProfileSessionInfo;
+import com.android.server.uwb.secure.SecureSessionTimings.Phase;
 import com.android.server.uwb.secure.iso7816.CommandApdu;
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
 
@@ -48,6 +49,7 @@ class ResponderSecureChannel extends FiRaSecureChannel {
     protected void handleScMessage(@NonNull Message msg) {
         switch (msg.what) {
             case CMD_OPEN_CHANNEL:
+                mTimings.begin(Phase.OPEN_SE_CHANNEL);
                 try {
                     ResponseApdu responseApdu = mSecureElementChannel.openChannelWithResponse();
                     if (responseApdu.getStatusWord() == SW_NO_ERROR.toInt()) {
@@ -61,6 +63,9 @@ class ResponderSecureChannel extends FiRaSecureChannel {
                             }
                         }
                         mStatus = Status.CHANNEL_OPENED;
+                        mTimings.end(Phase.OPEN_SE_CHANNEL);
+                        // The initiator drives the set up from now on.
+                        mTimings.begin(Phase.SECURE_CHANNEL);
                     } else {
                         throw new IllegalStateException(
                                 String.valueOf(responseApdu.getStatusWord()));
@@ -19,9 +19,11 @@ package com.android.server.uwb.secure;
 import static com.android.server.uwb.secure.iso7816.StatusWord.SW_NO_ERROR;
 import static com.android.server.uwb.secure.iso7816.StatusWord.SW_NO_SPECIFIC_DIAGNOSTIC;
 
+import android.os.Handler;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 
@@ -33,7 +35,12 @@ import com.android.server.uwb.secure.omapi.OmapiConnection;
 import com.android.server.uwb.secure.omapi.OmapiConnection.InitCompletionCallback;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /** Manages the Secure Element and allows communications with the FiRa applet. */
 @WorkerThread
@@ -50,6 +57,13 @@ public class SecureElementChannel {
 
     private boolean mIsOpened = false;
 
+    // Responses of cacheable commands, valid until a command may have modified the applet content.
+    private final Map<CommandApdu, ResponseApdu> mResponseCache = new HashMap<>();
+
+    // Asynchronous transmits, executed in order on the handler given by the caller.
+    private final ArrayDeque<PendingTransmit> mPendingTransmits = new ArrayDeque<>();
+    private boolean mIsPendingTransmitScheduled = false;
+
     /**
      * The constructor of the SecureElementChannel.
      */
@@ -112,6 +126,7 @@ public class SecureElementChannel {
             threadSleep(DELAY_BETWEEN_SE_RETRY_ATTEMPTS_MILLIS);
         }
 
+        mResponseCache.clear();
         if (responseApdu.getStatusWord() == StatusWord.SW_NO_ERROR.toInt()) {
             mIsOpened = true;
         } else {
@@ -144,6 +159,7 @@ public class SecureElementChannel {
             return false;
         }
         mIsOpened = false;
+        mResponseCache.clear();
         return true;
     }
 
@@ -152,22 +168,36 @@ public class SecureElementChannel {
      */
     @NonNull
     public ResponseApdu transmit(@NonNull FiRaCommand fiRaCommand) throws IOException {
-        return transmit(fiRaCommand.getCommandApdu());
+        return transmit(fiRaCommand.getCommandApdu(), fiRaCommand.isCacheable());
     }
 
     /**
-     * Transmits a Command APDU to FiRa applet.
+     * Transmits a Command APDU to FiRa applet, it is never served from the response cache.
+     *
+     * <p>The retries while the SE is temporarily unavailable block the calling thread, use
+     * {@link #transmitAsync} on a handler thread that must stay responsive.
      */
     @NonNull
     public ResponseApdu transmit(@NonNull CommandApdu command) throws IOException {
+        return transmit(command, /* cacheable= */ false);
+    }
+
+    @NonNull
+    private ResponseApdu transmit(@NonNull CommandApdu command, boolean cacheable)
+            throws IOException {
         ResponseApdu responseApdu = ResponseApdu.fromStatusWord(SW_TEMPORARILY_UNAVAILABLE);
 
         if (!mIsOpened) {
             return responseApdu;
         }
+        ResponseApdu cachedResponseApdu = getCachedResponse(command, cacheable);
+        if (cachedResponseApdu != null) {
+            return cachedResponseApdu;
+        }
         for (int i = 0; i < MAX_SE_OPERATION_RETRIES; i++) {
             responseApdu = mOmapiConnection.transmit(command);
             if (responseApdu.getStatusWord() != SW_TEMPORARILY_UNAVAILABLE.toInt()) {
+                cacheResponse(command, cacheable, responseApdu);
                 return responseApdu;
             }
             logw(
@@ -180,6 +210,158 @@ public class SecureElementChannel {
         return responseApdu;
     }
 
+    /**
+     * Transmits a Command APDU to FiRa applet without blocking the handler thread, the retries
+     * while the SE is temporarily unavailable are scheduled on the handler with a backoff.
+     *
+     * <p>Asynchronous transmits are executed in order, the callback is invoked on the handler.
+     */
+    public void transmitAsync(
+            @NonNull CommandApdu command,
+            @NonNull Handler handler,
+            @NonNull TransmitCallback callback) {
+        enqueueTransmit(
+                new PendingTransmit(
+                        new CommandApdu[] {command}, new boolean[] {false}, handler, callback));
+    }
+
+    /**
+     * Transmits independent Command APDUs defined by the FiRa to the FiRa applet without blocking
+     * the handler thread. The commands are sent back to back, and all the responses are reported
+     * at once, in the order of the commands.
+     *
+     * <p>Asynchronous transmits are executed in order, the callback is invoked on the handler.
+     */
+    public void transmitAsync(
+            @NonNull List<? extends FiRaCommand> fiRaCommands,
+            @NonNull Handler handler,
+            @NonNull TransmitCallback callback) {
+        CommandApdu[] commands = new CommandApdu[fiRaCommands.size()];
+        boolean[] cacheable = new boolean[fiRaCommands.size()];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = fiRaCommands.get(i).getCommandApdu();
+            cacheable[i] = fiRaCommands.get(i).isCacheable();
+        }
+        enqueueTransmit(new PendingTransmit(commands, cacheable, handler, callback));
+    }
+
+    private void enqueueTransmit(@NonNull PendingTransmit pendingTransmit) {
+        mPendingTransmits.add(pendingTransmit);
+        if (!mIsPendingTransmitScheduled) {
+            mIsPendingTransmitScheduled = true;
+            pendingTransmit.mHandler.post(this::processPendingTransmits);
+        }
+    }
+
+    private void processPendingTransmits() {
+        mIsPendingTransmitScheduled = false;
+        PendingTransmit pendingTransmit;
+        while ((pendingTransmit = mPendingTransmits.peek()) != null) {
+            try {
+                while (pendingTransmit.mResponses.size() < pendingTransmit.mCommands.length) {
+                    int index = pendingTransmit.mResponses.size();
+                    ResponseApdu responseApdu =
+                            transmitOnce(
+                                    pendingTransmit.mCommands[index],
+                                    pendingTransmit.mCacheable[index]);
+                    if (responseApdu.getStatusWord() == SW_TEMPORARILY_UNAVAILABLE.toInt()
+                            && mIsOpened
+                            && ++pendingTransmit.mAttempts < MAX_SE_OPERATION_RETRIES) {
+                        logw(
+                                "Transmit failed because SE is temporarily unavailable. "
+                                        + "Total attempts so far: "
+                                        + pendingTransmit.mAttempts);
+                        // Retry later, without blocking the other messages of the handler.
+                        mIsPendingTransmitScheduled = true;
+                        pendingTransmit.mHandler.postDelayed(
+                                this::processPendingTransmits,
+                                DELAY_BETWEEN_SE_RETRY_ATTEMPTS_MILLIS
+                                        << (pendingTransmit.mAttempts - 1));
+                        return;
+                    }
+                    pendingTransmit.mAttempts = 0;
+                    pendingTransmit.mResponses.add(responseApdu);
+                }
+                mPendingTransmits.poll();
+                pendingTransmit.mCallback.onResponses(pendingTransmit.mResponses);
+            } catch (IOException e) {
+                mPendingTransmits.poll();
+                logw("Transmit failed with exception: " + e);
+                pendingTransmit.mCallback.onFailure(e);
+            }
+        }
+    }
+
+    @NonNull
+    private ResponseApdu transmitOnce(@NonNull CommandApdu command, boolean cacheable)
+            throws IOException {
+        if (!mIsOpened) {
+            return ResponseApdu.fromStatusWord(SW_TEMPORARILY_UNAVAILABLE);
+        }
+        ResponseApdu responseApdu = getCachedResponse(command, cacheable);
+        if (responseApdu != null) {
+            return responseApdu;
+        }
+        responseApdu = mOmapiConnection.transmit(command);
+        if (responseApdu.getStatusWord() != SW_TEMPORARILY_UNAVAILABLE.toInt()) {
+            cacheResponse(command, cacheable, responseApdu);
+        }
+        return responseApdu;
+    }
+
+    /**
+     * Gets the cached response of a cacheable command. Any command which isn't cacheable may
+     * modify the applet content, so the cache is invalidated before it is sent.
+     */
+    @Nullable
+    private ResponseApdu getCachedResponse(@NonNull CommandApdu command, boolean cacheable) {
+        if (!cacheable) {
+            mResponseCache.clear();
+            return null;
+        }
+        return mResponseCache.get(command);
+    }
+
+    private void cacheResponse(
+            @NonNull CommandApdu command, boolean cacheable, @NonNull ResponseApdu responseApdu) {
+        if (cacheable && responseApdu.getStatusWord() == SW_NO_ERROR.toInt()) {
+            mResponseCache.put(command, responseApdu);
+        }
+    }
+
+    /** Callback of the asynchronous transmit. */
+    public interface TransmitCallback {
+        /**
+         * The responses of the commands, in the order of the commands. A response with
+         * the status word SW_CONDITIONS_NOT_SATISFIED is reported if all the retries failed.
+         */
+        void onResponses(@NonNull List<ResponseApdu> responseApdus);
+
+        /** The transmit failed, the remaining commands are not sent. */
+        void onFailure(@NonNull IOException e);
+    }
+
+    private static class PendingTransmit {
+        final CommandApdu[] mCommands;
+        final boolean[] mCacheable;
+        final Handler mHandler;
+        final TransmitCallback mCallback;
+        final List<ResponseApdu> mResponses;
+        int mAttempts = 0;
+
+        PendingTransmit(
+                CommandApdu[] commands,
+                boolean[] cacheable,
+                Handler handler,
+                TransmitCallback callback) {
+            mCommands = commands;
+            mCacheable = cacheable;
+            mHandler = handler;
+            mCallback = callback;
+            mResponses = new ArrayList<>(commands.length);
+        }
+    }
+
     private void threadSleep(long millis) {
         if (!mRemoveDelayBetweenRetriesForTest) {
             try {
@@ -24,14 +24,25 @@ import androidx.annotation.NonNull;
 import com.android.server.uwb.discovery.Transport;
 import com.android.server.uwb.pm.RunningProfileSessionInfo;
 import com.android.server.uwb.secure.omapi.OmapiConnection;
-import com.android.server.uwb.secure.omapi.OmapiConnectionImpl;
+import com.android.server.uwb.secure.omapi.OmapiConnectionPool;
+import com.android.server.uwb.secure.provisioning.ProvisioningJobScheduler;
 import com.android.server.uwb.secure.provisioning.ProvisioningManager;
 
+import java.util.concurrent.Executors;
+
 /**
  * The factory is used to instance the secure session which setup secure channel and
  * exchange UWB parameters.
  */
 public class SecureFactory {
+    // Shared by all the secure sessions, to keep the OMAPI binding and session warm.
+    private static OmapiConnectionPool sOmapiConnectionPool;
+    // Shared by all the provisioning managers, it runs the jobs one at a time on a single thread.
+    private static ProvisioningJobScheduler sProvisioningJobScheduler;
+    // Shared by all the provisioning managers, the scheduler runs the scripts of a channel in
+    // order, one at a time. With a single channel, no job runs concurrently with another one.
+    private static SecureElementChannel sProvisioningSecureElementChannel;
+
     /**
      * Create the instance of SecureSession for an UWB initiator.
      */
@@ -43,7 +54,7 @@ public class SecureFactory {
             @NonNull RunningProfileSessionInfo runningProfileSessionInfo,
             @NonNull Transport transport,
             boolean isController) {
-        OmapiConnection omapiConnection = new OmapiConnectionImpl(context);
+        OmapiConnection omapiConnection = makeOmapiConnection(context, workLooper);
         SecureElementChannel secureElementChannel = new SecureElementChannel(omapiConnection);
         FiRaSecureChannel fiRaSecureChannel =
                 new InitiatorSecureChannel(
@@ -74,7 +85,7 @@ public class SecureFactory {
             @NonNull RunningProfileSessionInfo runningProfileSessionInfo,
             @NonNull Transport transport,
             boolean isController) {
-        OmapiConnection omapiConnection = new OmapiConnectionImpl(context);
+        OmapiConnection omapiConnection = makeOmapiConnection(context, workLooper);
         SecureElementChannel secureElementChannel = new SecureElementChannel(omapiConnection);
         FiRaSecureChannel fiRaSecureChannel =
                 new ResponderSecureChannel(
@@ -99,9 +110,37 @@ public class SecureFactory {
     public static ProvisioningManager makeProvisioningManager(
             @NonNull Context context,
             @NonNull Looper workLooper) {
-        OmapiConnection omapiConnection = new OmapiConnectionImpl(context);
-        SecureElementChannel secureElementChannel = new SecureElementChannel(omapiConnection);
+        return new ProvisioningManager(getProvisioningSecureElementChannel(context, workLooper),
+                workLooper, getProvisioningJobScheduler());
+    }
+
+    @NonNull
+    private static synchronized SecureElementChannel getProvisioningSecureElementChannel(
+            @NonNull Context context, @NonNull Looper workLooper) {
+        if (sProvisioningSecureElementChannel == null) {
+            sProvisioningSecureElementChannel = new SecureElementChannel(
+                    makeOmapiConnection(context, workLooper));
+        }
+        return sProvisioningSecureElementChannel;
+    }
 
-        return new ProvisioningManager(secureElementChannel, workLooper);
+    @NonNull
+    private static synchronized ProvisioningJobScheduler getProvisioningJobScheduler() {
+        if (sProvisioningJobScheduler == null) {
+            // The jobs all share the provisioning channel, so they never run concurrently and
+            // one thread is enough.
+            sProvisioningJobScheduler = new ProvisioningJobScheduler(
+                    Executors.newSingleThreadExecutor(), /* maxConcurrentJobs= */ 1);
+        }
+        return sProvisioningJobScheduler;
+    }
+
+    @NonNull
+    private static synchronized OmapiConnection makeOmapiConnection(
+            @NonNull Context context, @NonNull Looper workLooper) {
+        if (sOmapiConnectionPool == null) {
+            sOmapiConnectionPool = new OmapiConnectionPool(context, workLooper);
+        }
+        return sOmapiConnectionPool.newConnection();
     }
 }
@@ -23,6 +23,7 @@ import android.util.Log;
 import androidx.annotation.NonNull;
 
 import com.android.server.uwb.pm.RunningProfileSessionInfo;
+import com.android.server.uwb.secure.SecureSessionTimings.Phase;
 import com.android.server.uwb.secure.csml.CsmlUtil;
 import com.android.server.uwb.secure.csml.DispatchResponse;
 import com.android.server.uwb.secure.csml.SessionData;
@@ -40,6 +41,7 @@ public abstract class SecureSession {
     protected final FiRaSecureChannel mFiRaSecureChannel;
     protected final Callback mSessionCallback;
     protected final RunningProfileSessionInfo mRunningProfileSessionInfo;
+    private final SecureSessionTimings mTimings = new SecureSessionTimings();
 
     // it could be sessionId for unicast session or subSessionId for multicast session.
     protected Optional<Integer> mUniqueSessionId = Optional.empty();
@@ -50,6 +52,9 @@ public abstract class SecureSession {
 
     protected boolean mIsController = false;
 
+    // The set up is started before the transport is connected.
+    private boolean mIsPrepared = false;
+
     private final FiRaSecureChannel.SecureChannelCallback mSecureChannelCallback =
             new FiRaSecureChannel.SecureChannelCallback() {
                 @Override
@@ -60,6 +65,7 @@ public abstract class SecureSession {
                     } else if (mIsController) {
                         mUniqueSessionId = Optional.of(CsmlUtil.generateRandomSessionId());
                     }
+                    mTimings.begin(Phase.SESSION_DATA);
                     handleFiRaSecureChannelEstablished();
                 }
 
@@ -106,7 +112,28 @@ public abstract class SecureSession {
             @NonNull RunningProfileSessionInfo runningProfileSessionInfo) {
         mWorkHandler = new Handler(workLooper);
         mFiRaSecureChannel = fiRaSecureChannel;
-        mSessionCallback = sessionCallback;
+        mFiRaSecureChannel.setTimings(mTimings);
+        mSessionCallback = new Callback() {
+            @Override
+            public void onSessionDataReady(int updatedSessionId,
+                    Optional<SessionData> sessionData, boolean isSessionTerminated) {
+                // The RDS case skips the session data exchange.
+                mTimings.begin(Phase.SESSION_DATA);
+                mTimings.end(Phase.SESSION_DATA);
+                sessionCallback.onSessionDataReady(
+                        updatedSessionId, sessionData, isSessionTerminated);
+            }
+
+            @Override
+            public void onSessionAborted() {
+                sessionCallback.onSessionAborted();
+            }
+
+            @Override
+            public void onSessionTerminated() {
+                sessionCallback.onSessionTerminated();
+            }
+        };
         mRunningProfileSessionInfo = runningProfileSessionInfo;
     }
 
@@ -120,7 +147,29 @@ public abstract class SecureSession {
      * Start the dynamic STS secure session set up.
      */
     public final void startSession() {
-        mFiRaSecureChannel.init(mSecureChannelCallback);
+        if (mIsPrepared) {
+            mFiRaSecureChannel.onTransportReady();
+        } else {
+            mFiRaSecureChannel.init(mSecureChannelCallback);
+        }
+    }
+
+    /**
+     * Start the set up which doesn't need the remote device, such as binding the OMAPI service,
+     * opening the SE channel and selecting the ADF, while the transport is connecting. The set up
+     * goes on with the remote device once {@link #startSession()} is called.
+     */
+    public final void prepareSession() {
+        mIsPrepared = true;
+        mFiRaSecureChannel.prepare(mSecureChannelCallback);
+    }
+
+    /**
+     * Gets the time spent in each phase of the set up.
+     */
+    @NonNull
+    public SecureSessionTimings getTimings() {
+        return mTimings;
     }
 
     /**
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * The time spent in each phase of the secure session set up, as the phases independent of each
+ * other may overlap, the start of each phase is kept along with its duration.
+ */
+public final class SecureSessionTimings {
+    /** The phases of the set up, in the order they start in the sequential flow. */
+    public enum Phase {
+        /** Connecting the OOB transport to the remote device. */
+        TRANSPORT,
+        /** Binding the OMAPI service. */
+        SE_INIT,
+        /** Opening the logical channel to the FiRa applet, including the swap in of the ADF. */
+        OPEN_SE_CHANNEL,
+        /** Selecting the provisioned ADF. */
+        SELECT_ADF,
+        /** Sending the INITIATE TRANSACTION command to the local applet. */
+        INITIATE_TRANSACTION,
+        /** Exchanging the OOB data with the remote applet until the channel is established. */
+        SECURE_CHANNEL,
+        /** Exchanging the session data over the secure channel. */
+        SESSION_DATA,
+    }
+
+    private static final int NOT_RECORDED = -1;
+
+    private final LongSupplier mClock;
+    private final long mCreationTimeMs;
+    private final long[] mStartTimesMs = new long[Phase.values().length];
+    private final long[] mEndTimesMs = new long[Phase.values().length];
+
+    public SecureSessionTimings() {
+        this(SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    SecureSessionTimings(@NonNull LongSupplier clock) {
+        mClock = clock;
+        mCreationTimeMs = clock.getAsLong();
+        Arrays.fill(mStartTimesMs, NOT_RECORDED);
+        Arrays.fill(mEndTimesMs, NOT_RECORDED);
+    }
+
+    /** Records the start of the phase, only the first start of a phase is kept. */
+    public synchronized void begin(@NonNull Phase phase) {
+        if (mStartTimesMs[phase.ordinal()] == NOT_RECORDED) {
+            mStartTimesMs[phase.ordinal()] = mClock.getAsLong();
+        }
+    }
+
+    /** Records the end of the phase, ignored if the phase is not started or already ended. */
+    public synchronized void end(@NonNull Phase phase) {
+        if (mStartTimesMs[phase.ordinal()] != NOT_RECORDED
+                && mEndTimesMs[phase.ordinal()] == NOT_RECORDED) {
+            mEndTimesMs[phase.ordinal()] = mClock.getAsLong();
+        }
+    }
+
+    /** Gets the duration of the phase, -1 if it is not ended. */
+    public synchronized long getDurationMs(@NonNull Phase phase) {
+        if (mEndTimesMs[phase.ordinal()] == NOT_RECORDED) {
+            return NOT_RECORDED;
+        }
+        return mEndTimesMs[phase.ordinal()] - mStartTimesMs[phase.ordinal()];
+    }
+
+    /** Gets the time both phases were running at the same time. */
+    public synchronized long getOverlapMs(@NonNull Phase phase1, @NonNull Phase phase2) {
+        if (mEndTimesMs[phase1.ordinal()] == NOT_RECORDED
+                || mEndTimesMs[phase2.ordinal()] == NOT_RECORDED) {
+            return 0;
+        }
+        long start = Math.max(mStartTimesMs[phase1.ordinal()], mStartTimesMs[phase2.ordinal()]);
+        long end = Math.min(mEndTimesMs[phase1.ordinal()], mEndTimesMs[phase2.ordinal()]);
+        return Math.max(0, end - start);
+    }
+
+    /** Gets the time from the creation of the session to the session data, -1 if not ready. */
+    public synchronized long getTotalMs() {
+        long end = mEndTimesMs[Phase.SESSION_DATA.ordinal()];
+        return end == NOT_RECORDED ? NOT_RECORDED : end - mCreationTimeMs;
+    }
+
+    /** Dumps the breakdown of the set up, the phases are relative to the session creation. */
+    public synchronized void dump(@NonNull PrintWriter pw) {
+        pw.println("Secure session set up: total=" + getTotalMs() + "ms");
+        for (Phase phase : Phase.values()) {
+            long startTimeMs = mStartTimesMs[phase.ordinal()];
+            if (startTimeMs == NOT_RECORDED) {
+                continue;
+            }
+            pw.println("  " + phase + ": start=+" + (startTimeMs - mCreationTimeMs)
+                    + "ms duration=" + getDurationMs(phase) + "ms");
+        }
+        long seSetUpOverlapMs = 0;
+        for (Phase phase : new Phase[] {Phase.SE_INIT, Phase.OPEN_SE_CHANNEL, Phase.SELECT_ADF}) {
+            seSetUpOverlapMs += getOverlapMs(Phase.TRANSPORT, phase);
+        }
+        pw.println("  SE set up overlapped with the transport: " + seSetUpOverlapMs + "ms");
+    }
+}
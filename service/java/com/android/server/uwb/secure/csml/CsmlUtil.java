@@ -18,20 +18,16 @@ package com.android.server.uwb.secure.csml;
 
 import static com.android.server.uwb.secure.iso7816.Iso7816Constants.EXTENDED_HEAD_LIST;
 
-import static com.google.uwb.support.fira.FiraParams.MULTI_NODE_MODE_ONE_TO_MANY;
-import static com.google.uwb.support.fira.FiraParams.MULTI_NODE_MODE_UNICAST;
-
 import androidx.annotation.NonNull;
 
 import com.android.server.uwb.secure.iso7816.TlvDatum;
 import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
-import com.android.server.uwb.secure.iso7816.TlvParser;
+import com.android.server.uwb.secure.iso7816.TlvReader;
 import com.android.server.uwb.util.ObjectIdentifier;
 
 import com.google.common.primitives.Bytes;
 
 import java.security.SecureRandom;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Random;
 
@@ -48,6 +44,10 @@ public final class CsmlUtil {
     private static final Tag TERMINATE_SESSION_DO_TAG = new Tag((byte) 0x80);
     private static final Tag TERMINATE_SESSION_TOP_DO_TAG = new Tag((byte) 0xBF, (byte) 0x79);
 
+    // Shared by the sessions, so the negotiation with a known peer is reused.
+    private static final UwbCapabilityNegotiator sUwbCapabilityNegotiator =
+            new UwbCapabilityNegotiator();
+
     public static final Tag UWB_CONFIG_AVAILABLE_TAG = new Tag((byte) 0x87);
     public static final Tag SESSION_DATA_DO_TAG = new Tag((byte) 0xBF, (byte) 0x78);
     public static final Tag SESSION_ID_TAG = new Tag((byte) 0x81);
@@ -60,13 +60,10 @@ public final class CsmlUtil {
      * @return true the session data is not available, false otherwise.
      */
     public static boolean isSessionDataNotAvailable(@NonNull byte[] data) {
-        TlvDatum tlvDatum = TlvParser.parseOneTlv(data);
-        if (tlvDatum != null
-                && Objects.equals(tlvDatum.tag, CsmlUtil.UWB_CONFIG_AVAILABLE_TAG)
-                && Objects.deepEquals(tlvDatum.value, new byte[]{(byte) 0x00})) {
-            return true;
-        }
-        return false;
+        TlvReader reader = new TlvReader(data);
+        return reader.next()
+                && reader.isTag(CsmlUtil.UWB_CONFIG_AVAILABLE_TAG)
+                && reader.valueEquals(new byte[]{(byte) 0x00});
     }
 
     /**
@@ -93,12 +90,9 @@ public final class CsmlUtil {
     }
 
     private static boolean isSpecifiedDo(@NonNull Tag specifiedTag, @NonNull byte[] data) {
-        TlvDatum tlvDatum = TlvParser.parseOneTlv(data);
-        if (tlvDatum != null && Objects.equals(tlvDatum.tag, specifiedTag)) {
-            return  true;
-        }
-
-        return false;
+        // Only the tag is checked, the value of the DO is not parsed.
+        TlvReader reader = new TlvReader(data);
+        return reader.next() && reader.isTag(specifiedTag);
     }
 
     /**
@@ -238,39 +232,8 @@ public final class CsmlUtil {
             // use default session data
             return builder.build();
         }
-        UwbCapability remoteCap = controleeInfo.mUwbCapability.get();
-        if (!localCap.isCompatibleTo(remoteCap)) {
-            throw new IllegalStateException("devices are not compatible.");
-        }
-
-        ConfigurationParams.Builder paramsBuilder = new ConfigurationParams.Builder();
-        paramsBuilder.setPhyVersion(
-                localCap.getPreferredPhyVersion(remoteCap.mMinPhyVersionSupported));
-        paramsBuilder.setMacVersion(
-                localCap.getPreferredMacVersion(remoteCap.mMinMacVersionSupported));
-        paramsBuilder.setStsConfig(
-                localCap.getPreferredStsConfig(remoteCap.mStsConfig, shareSessionId.isPresent()));
-        Optional<Integer> commonChannel = localCap.getPreferredChannel(remoteCap.mChannels);
-        if (commonChannel.isEmpty()) {
-            throw new IllegalStateException("no common channel supported by both devices.");
-        }
-        paramsBuilder.setChannel(commonChannel.get());
-        paramsBuilder.setCcConstraintLength(
-                localCap.getPreferredConstrainLengthOfConvolutionalCode(
-                        remoteCap.mCcConstraintLength));
-        paramsBuilder.setHoppingMode(localCap.getPreferredHoppingMode(remoteCap.mHoppingMode));
-        paramsBuilder.setRframeConfig(localCap.getPreferredRframeConfig(remoteCap.mRframeConfig));
-        paramsBuilder.setMultiNodeMode(
-                shareSessionId.isEmpty() ? MULTI_NODE_MODE_UNICAST : MULTI_NODE_MODE_ONE_TO_MANY);
-        paramsBuilder.setScheduleMode(localCap.getPreferredScheduleMode(remoteCap.mScheduledMode));
-        paramsBuilder.setBlockStriding(
-                localCap.getPreferredBlockStriding(remoteCap.mBlockStriding));
-        paramsBuilder.setRangingMethod(
-                localCap.getPreferredRangingMethod(remoteCap.mRangingMethod));
-        paramsBuilder.setMacAddressMode(
-                localCap.getPreferredMacAddressMode(remoteCap.mExtendedMacSupport));
-
-        builder.setConfigParams(paramsBuilder.build());
+        builder.setConfigParams(sUwbCapabilityNegotiator.negotiate(
+                localCap, controleeInfo.mUwbCapability.get(), shareSessionId.isPresent()));
 
         return builder.build();
     }
@@ -23,9 +23,8 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
-import com.android.server.uwb.secure.iso7816.TlvDatum;
 import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
-import com.android.server.uwb.secure.iso7816.TlvParser;
+import com.android.server.uwb.secure.iso7816.TlvReader;
 import com.android.server.uwb.util.DataTypeConversionUtil;
 import com.android.server.uwb.util.ObjectIdentifier;
 
@@ -33,7 +32,6 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -193,23 +191,34 @@ public class DispatchResponse extends FiRaResponse {
         if (!isSuccess()) {
             return;
         }
-        Map<Tag, List<TlvDatum>> proprietaryTlvsMap = TlvParser.parseTlvs(responseApdu);
-        List<TlvDatum> proprietaryTlv = proprietaryTlvsMap.get(PROPRIETARY_RESPONSE_TAG);
-        if (proprietaryTlv == null || proprietaryTlv.size() == 0) {
+        TlvReader reader = new TlvReader(responseApdu.getResponseData());
+        if (!reader.find(PROPRIETARY_RESPONSE_TAG)) {
             logw("no valid dispatch response, root tag is empty.");
             return;
         }
 
-        Map<Tag, List<TlvDatum>> tlvsMap = TlvParser.parseTlvs(proprietaryTlv.get(0).value);
-
-        notifications.addAll(parseNotification(tlvsMap.get(NOTIFICATION_TAG)));
+        // Single pass over the proprietary TLV, only the first status and data are used.
+        TlvReader proprietaryReader = reader.descend();
+        byte[] status = null;
+        byte[] data = null;
+        while (proprietaryReader.next()) {
+            if (proprietaryReader.isTag(NOTIFICATION_TAG)) {
+                Notification notification = parseNotification(proprietaryReader.descend());
+                if (notification != null) {
+                    notifications.add(notification);
+                }
+            } else if (status == null && proprietaryReader.isTag(STATUS_TAG)) {
+                status = proprietaryReader.getValue();
+            } else if (data == null && proprietaryReader.isTag(DATA_TAG)) {
+                data = proprietaryReader.getValue();
+            }
+        }
 
-        List<TlvDatum> statusTlvs = tlvsMap.get(STATUS_TAG);
-        if (statusTlvs == null || statusTlvs.size() == 0) {
+        if (status == null) {
             logw("no status tag is attached, required by FiRa");
             return;
         }
-        mTransactionStatus = parseTransactionStatus(statusTlvs.get(0).value);
+        mTransactionStatus = parseTransactionStatus(status);
         switch (mTransactionStatus) {
             case TRANSACTION_STATUS_WITH_ERROR:
                 notifications.add(new SecureSessionAbortedNotification());
@@ -217,18 +226,15 @@ public class DispatchResponse extends FiRaResponse {
             case TRANSACTION_STATUS_FORWARD_TO_HOST:
                 // fall through
             case TRANSACTION_STATUS_FORWARD_TO_REMOTE:
-                List<TlvDatum> dataTlvs = tlvsMap.get(DATA_TAG);
-                if (dataTlvs.size() == 0) {
+                if (data == null) {
                     break;
                 }
                 if (mTransactionStatus == TRANSACTION_STATUS_FORWARD_TO_HOST) {
                     mOutboundData = Optional.of(
-                            new OutboundData(OUTBOUND_TARGET_HOST,
-                                    dataTlvs.get(0).value));
+                            new OutboundData(OUTBOUND_TARGET_HOST, data));
                 } else {
                     mOutboundData = Optional.of(
-                            new OutboundData(OUTBOUND_TARGET_REMOTE,
-                                    dataTlvs.get(0).value));
+                            new OutboundData(OUTBOUND_TARGET_REMOTE, data));
                 }
                 break;
             case TRANSACTION_STATUS_UNDEFINED:
@@ -261,112 +267,95 @@ public class DispatchResponse extends FiRaResponse {
     }
 
     // throw IllegalStateException
-    @NonNull
-    private List<Notification> parseNotification(
-            @Nullable List<TlvDatum> notificationTlvs) {
-        List<Notification> notificationList = new ArrayList<>();
-        if (notificationTlvs == null || notificationTlvs.size() == 0) {
-            return notificationList;
-        }
-
-        for (TlvDatum tlv : notificationTlvs) {
-            Map<Tag, List<TlvDatum>> curTlvs = TlvParser.parseTlvs(tlv.value);
-            List<TlvDatum> eventIdTlvs = curTlvs.get(NOTIFICATION_EVENT_ID_TAG);
-            if (eventIdTlvs == null || eventIdTlvs.size() == 0) {
-                throw new IllegalStateException("Notification event ID is not available.");
-            }
-            byte[] eventIdValue = eventIdTlvs.get(0).value;
-            if (eventIdValue == null || eventIdValue.length == 0) {
-                throw new IllegalStateException("Notification event ID value is not available.");
+    @Nullable
+    private Notification parseNotification(@NonNull TlvReader notificationReader) {
+        byte[] eventIdValue = null;
+        byte[] notificationData = null;
+        while (notificationReader.next()) {
+            if (eventIdValue == null && notificationReader.isTag(NOTIFICATION_EVENT_ID_TAG)) {
+                eventIdValue = notificationReader.getValue();
+            } else if (notificationData == null
+                    && notificationReader.isTag(NOTIFICATION_DATA_TAG)) {
+                notificationData = notificationReader.getValue();
             }
-            switch (eventIdValue[0]) {
-                case (byte) 0x00:
-                    // parse OID
-                    List<TlvDatum> notificationDataTlvs = curTlvs.get(NOTIFICATION_DATA_TAG);
-                    if (notificationDataTlvs == null || notificationDataTlvs.size() == 0) {
-                        throw new IllegalStateException("Notification data - OID is not available");
-                    }
-
-                    byte[] adfOidBytes = notificationDataTlvs.get(0).value;
-                    ObjectIdentifier adfOid =
-                            ObjectIdentifier.fromBytes(adfOidBytes);
+        }
+        if (eventIdValue == null) {
+            throw new IllegalStateException("Notification event ID is not available.");
+        }
+        if (eventIdValue.length == 0) {
+            throw new IllegalStateException("Notification event ID value is not available.");
+        }
+        switch (eventIdValue[0]) {
+            case (byte) 0x00:
+                // parse OID
+                if (notificationData == null) {
+                    throw new IllegalStateException("Notification data - OID is not available");
+                }
 
-                    notificationList.add(new AdfSelectedNotification(adfOid));
-                    break;
-                case (byte) 0x01:
-                    // TODO: not defined by CSML, may be changed.
-                    Optional<Integer> defaultSessionId = Optional.empty();
-                    notificationDataTlvs = curTlvs.get(NOTIFICATION_DATA_TAG);
-                    if (notificationDataTlvs != null && notificationDataTlvs.size() != 0) {
-                        // try to get the default session Id from the notification.
-                        byte[] payload = notificationDataTlvs.get(0).value;
-                        if (payload == null || payload.length < 2
-                                || payload.length < 1 + payload[0]) {
-                            logd("not valid session id in sc established notification.");
-                        } else {
-                            int sessionIdLen = payload[0];
-                            byte[] sessionId = new byte[sessionIdLen];
-                            System.arraycopy(payload, 1, sessionId, 0, sessionIdLen);
-                            defaultSessionId = Optional.of(
-                                    DataTypeConversionUtil.arbitraryByteArrayToI32(sessionId));
-                        }
+                ObjectIdentifier adfOid = ObjectIdentifier.fromBytes(notificationData);
+
+                return new AdfSelectedNotification(adfOid);
+            case (byte) 0x01:
+                // TODO: not defined by CSML, may be changed.
+                Optional<Integer> defaultSessionId = Optional.empty();
+                if (notificationData != null) {
+                    // try to get the default session Id from the notification.
+                    byte[] payload = notificationData;
+                    if (payload.length < 2 || payload.length < 1 + payload[0]) {
+                        logd("not valid session id in sc established notification.");
+                    } else {
+                        int sessionIdLen = payload[0];
+                        byte[] sessionId = new byte[sessionIdLen];
+                        System.arraycopy(payload, 1, sessionId, 0, sessionIdLen);
+                        defaultSessionId = Optional.of(
+                                DataTypeConversionUtil.arbitraryByteArrayToI32(sessionId));
                     }
-                    notificationList.add(
-                            new SecureChannelEstablishedNotification(defaultSessionId));
-                    break;
-                case (byte) 0x02:
-                    // parse sessionId and arbitrary data
-                    notificationDataTlvs = curTlvs.get(NOTIFICATION_DATA_TAG);
-                    if (notificationDataTlvs == null || notificationDataTlvs.size() == 0) {
-                        throw new IllegalStateException(
-                                "RDS Notification data - sessionId is not available");
-                    }
-                    byte[] payload = notificationDataTlvs.get(0).value;
-                    if (payload == null || payload.length < 2 || payload.length < 1 + payload[0]) {
-                        throw new IllegalStateException(
-                                "RDS Notification data - bad payload");
-                    }
-                    int sessionIdLen = payload[0];
-                    byte[] sessionId = new byte[sessionIdLen];
-                    System.arraycopy(payload, 1, sessionId, 0, sessionIdLen);
-
-                    byte[] arbitraryData = new byte[0];
-                    int arbitraryDataOffset = sessionIdLen + 1;
-                    if (payload.length > arbitraryDataOffset) {
-                        int arbitraryDataLen = payload[arbitraryDataOffset];
-                        if (payload.length == 2 + sessionIdLen + arbitraryDataLen) {
-                            arbitraryData = new byte[arbitraryDataLen];
-                            System.arraycopy(payload, arbitraryDataOffset + 1,
-                                    arbitraryData, 0, arbitraryDataLen);
-                        }
+                }
+                return new SecureChannelEstablishedNotification(defaultSessionId);
+            case (byte) 0x02:
+                // parse sessionId and arbitrary data
+                if (notificationData == null) {
+                    throw new IllegalStateException(
+                            "RDS Notification data - sessionId is not available");
+                }
+                byte[] payload = notificationData;
+                if (payload.length < 2 || payload.length < 1 + payload[0]) {
+                    throw new IllegalStateException(
+                            "RDS Notification data - bad payload");
+                }
+                int sessionIdLen = payload[0];
+                byte[] sessionId = new byte[sessionIdLen];
+                System.arraycopy(payload, 1, sessionId, 0, sessionIdLen);
+
+                byte[] arbitraryData = new byte[0];
+                int arbitraryDataOffset = sessionIdLen + 1;
+                if (payload.length > arbitraryDataOffset) {
+                    int arbitraryDataLen = payload[arbitraryDataOffset];
+                    if (payload.length == 2 + sessionIdLen + arbitraryDataLen) {
+                        arbitraryData = new byte[arbitraryDataLen];
+                        System.arraycopy(payload, arbitraryDataOffset + 1,
+                                arbitraryData, 0, arbitraryDataLen);
                     }
+                }
 
-                    notificationList.add(
-                            new RdsAvailableNotification(
-                                    DataTypeConversionUtil.arbitraryByteArrayToI32(sessionId),
-                                    arbitraryData));
-                    break;
-                case (byte) 0x03:
-                    // TODO: change it according to the final CSML spec, this is not defined yet.
-                    // use 0x03 and controlee info data as notification data.
-                    notificationDataTlvs = curTlvs.get(NOTIFICATION_DATA_TAG);
-                    arbitraryData = new byte[0];
-                    if (notificationDataTlvs != null && notificationDataTlvs.size() != 0) {
-                        payload = notificationDataTlvs.get(0).value;
-                        if (payload == null || payload.length == 0) {
-                            throw new IllegalStateException(
-                                    "payload of controlee info available notification is bad.");
-                        }
-                        arbitraryData = new byte[payload.length];
-                        System.arraycopy(payload, 0, arbitraryData, 0, payload.length);
+                return new RdsAvailableNotification(
+                        DataTypeConversionUtil.arbitraryByteArrayToI32(sessionId),
+                        arbitraryData);
+            case (byte) 0x03:
+                // TODO: change it according to the final CSML spec, this is not defined yet.
+                // use 0x03 and controlee info data as notification data.
+                arbitraryData = new byte[0];
+                if (notificationData != null) {
+                    if (notificationData.length == 0) {
+                        throw new IllegalStateException(
+                                "payload of controlee info available notification is bad.");
                     }
-                    notificationList.add(new ControleeInfoAvailableNotification(arbitraryData));
-                    break;
-                default:
-            }
+                    arbitraryData = notificationData;
+                }
+                return new ControleeInfoAvailableNotification(arbitraryData);
+            default:
+                return null;
         }
-
-        return notificationList;
     }
 
     /**
@@ -63,6 +63,14 @@ public abstract class FiRaCommand {
     @NonNull
     protected abstract List<TlvDatum> getTlvPayload();
 
+    /**
+     * Whether the command only reads data which doesn't change until the applet content is
+     * modified by another command, so that its response can be cached.
+     */
+    public boolean isCacheable() {
+        return false;
+    }
+
     @NonNull
     private byte[] buildPayload(@NonNull List<TlvDatum> tlvData) {
         if (tlvData.size() == 0) {
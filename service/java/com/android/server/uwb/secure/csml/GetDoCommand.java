@@ -36,6 +36,18 @@ public class GetDoCommand extends FiRaCommand {
         mQueryDataObject = queryDataObject;
     }
 
+    /**
+     * Only the DOs of the ADF which don't change between secure sessions are cacheable. The
+     * session data is set up by the applet for each session, and querying the terminate session DO
+     * terminates the secure session.
+     */
+    @Override
+    public boolean isCacheable() {
+        return Arrays.equals(
+                mQueryDataObject.toBytes(),
+                CsmlUtil.constructGetDoTlv(CsmlUtil.CONTROLEE_INFO_DO_TAG).toBytes());
+    }
+
     @Override
     protected byte getCla() {
         return (byte) 0x00;
@@ -55,6 +55,11 @@ public class GetLocalDataCommand extends FiRaCommand {
         return GetLocalDataCommand.build((byte) 0xBF, (byte) 0x21);
     }
 
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
     @Override
     protected byte getIns() {
         return (byte) 0xCA;
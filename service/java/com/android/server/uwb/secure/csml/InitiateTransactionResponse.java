@@ -21,12 +21,9 @@ import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
-import com.android.server.uwb.secure.iso7816.TlvDatum;
 import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
-import com.android.server.uwb.secure.iso7816.TlvParser;
+import com.android.server.uwb.secure.iso7816.TlvReader;
 
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -62,25 +59,24 @@ public class InitiateTransactionResponse extends FiRaResponse {
             outboundDataToRemoteApplet = Optional.empty();
             return;
         }
-        Map<Tag, List<TlvDatum>> tlvsMap = TlvParser.parseTlvs(responseApdu);
-        List<TlvDatum> proprietaryTlv = tlvsMap.get(PROPRIETARY_RESPONSE_TAG);
-        if (proprietaryTlv == null || proprietaryTlv.size() == 0) {
+        TlvReader reader = new TlvReader(responseApdu.getResponseData());
+        if (!reader.find(PROPRIETARY_RESPONSE_TAG)) {
             outboundDataToRemoteApplet = Optional.empty();
             return;
         }
 
-        tlvsMap = TlvParser.parseTlvs(proprietaryTlv.get(0).value);
-        List<TlvDatum> statusTlvs = tlvsMap.get(STATUS_TAG);
-        if (statusTlvs != null && statusTlvs.size() > 0) {
-            mStatus = statusTlvs.get(0).value[0];
+        TlvReader proprietaryReader = reader.descend();
+        if (proprietaryReader.find(STATUS_TAG)) {
+            mStatus = proprietaryReader.getValueAsByte();
         }
         if (!hasOutboundData()) {
             outboundDataToRemoteApplet = Optional.empty();
             return;
         }
-        List<TlvDatum> dataTlvs = tlvsMap.get(DATA_TAG);
-        if (dataTlvs != null && dataTlvs.size() > 0) {
-            outboundDataToRemoteApplet = Optional.of(dataTlvs.get(0).value);
+        // The data may come before the status, search from the beginning.
+        proprietaryReader = reader.descend();
+        if (proprietaryReader.find(DATA_TAG)) {
+            outboundDataToRemoteApplet = Optional.of(proprietaryReader.getValue());
         } else {
             outboundDataToRemoteApplet = Optional.empty();
         }
@@ -19,12 +19,9 @@ import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
-import com.android.server.uwb.secure.iso7816.TlvDatum;
 import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
-import com.android.server.uwb.secure.iso7816.TlvParser;
+import com.android.server.uwb.secure.iso7816.TlvReader;
 
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -46,10 +43,9 @@ public class SwapInAdfResponse extends FiRaResponse {
             return;
         }
 
-        Map<Tag, List<TlvDatum>> tlvsMap = TlvParser.parseTlvs(responseApdu);
-        List<TlvDatum> tlvs = tlvsMap.get(SLOT_IDENTIFIER_TAG);
-        if (tlvs != null && tlvs.size() > 0) {
-            slotIdentifier = Optional.of(tlvs.get(0).value);
+        TlvReader reader = new TlvReader(responseApdu.getResponseData());
+        if (reader.find(SLOT_IDENTIFIER_TAG)) {
+            slotIdentifier = Optional.of(reader.getValue());
         } else {
             slotIdentifier = Optional.empty();
         }
@@ -21,12 +21,9 @@ import androidx.annotation.NonNull;
 import androidx.annotation.VisibleForTesting;
 
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
-import com.android.server.uwb.secure.iso7816.TlvDatum;
 import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
-import com.android.server.uwb.secure.iso7816.TlvParser;
+import com.android.server.uwb.secure.iso7816.TlvReader;
 
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -45,17 +42,15 @@ public class TunnelResponse extends FiRaResponse {
     private TunnelResponse(ResponseApdu responseApdu) {
         super(responseApdu.getStatusWord());
         if (isSuccess()) {
-            Map<Tag, List<TlvDatum>> tlvsMap = TlvParser.parseTlvs(responseApdu);
-            List<TlvDatum> proprietaryTlv = tlvsMap.get(PROPRIETARY_RESPONSE_TAG);
-            if (proprietaryTlv == null || proprietaryTlv.size() == 0) {
+            TlvReader reader = new TlvReader(responseApdu.getResponseData());
+            if (!reader.find(PROPRIETARY_RESPONSE_TAG)) {
                 outboundDataOrApdu = Optional.empty();
                 return;
             }
 
-            tlvsMap = TlvParser.parseTlvs(proprietaryTlv.get(0).value);
-            List<TlvDatum> dataTlvs = tlvsMap.get(DATA_TAG);
-            if (dataTlvs != null && dataTlvs.size() > 0) {
-                outboundDataOrApdu = Optional.of(dataTlvs.get(0).value);
+            reader = reader.descend();
+            if (reader.find(DATA_TAG)) {
+                outboundDataOrApdu = Optional.of(reader.getValue());
             } else {
                 outboundDataOrApdu = Optional.empty();
             }
@@ -64,6 +64,7 @@ import static com.google.uwb.support.fira.FiraParams.STS_CONFIG_DYNAMIC;
 import static com.google.uwb.support.fira.FiraParams.STS_CONFIG_DYNAMIC_FOR_CONTROLEE_INDIVIDUAL_KEY;
 import static com.google.uwb.support.fira.FiraParams.TIME_SCHEDULED_RANGING;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -130,6 +131,19 @@ public class UwbCapability {
     public final Optional<EnumSet<FiraParams.AoaCapabilityFlag>> mAoaSupport;
     public final Optional<Byte> mExtendedMacSupport;
 
+    // The encoding per CSML, computed on first use only as the capability is immutable.
+    @Nullable
+    private volatile byte[] mEncoded;
+
+    // The capability of the last FiraSpecificationParams converted, which are cached per chip.
+    private static final Object sLock = new Object();
+    @GuardedBy("sLock")
+    @Nullable
+    private static FiraSpecificationParams sLastFiraSpecificationParams;
+    @GuardedBy("sLock")
+    @Nullable
+    private static UwbCapability sLastLocalCapability;
+
     private UwbCapability(FiraProtocolVersion minPhyVersionSupported,
             FiraProtocolVersion maxPhyVersionSupported,
             FiraProtocolVersion minMacVersionSupported,
@@ -177,6 +191,24 @@ public class UwbCapability {
      */
     @NonNull
     public byte[] toBytes() {
+        return getEncoded().clone();
+    }
+
+    /**
+     * Gets the bytes of {@link #toBytes()} without copying them, the array must not be modified.
+     */
+    @NonNull
+    byte[] getEncoded() {
+        byte[] encoded = mEncoded;
+        if (encoded == null) {
+            encoded = encode();
+            mEncoded = encoded;
+        }
+        return encoded;
+    }
+
+    @NonNull
+    private byte[] encode() {
         TlvBuffer.Builder uwbCapabilityBuilder = new TlvBuffer.Builder()
                 .putByteArray(FIRA_PHY_VERSION_RANGE, new byte[]{
                         (byte) mMinPhyVersionSupported.getMajor(),
@@ -369,10 +401,29 @@ public class UwbCapability {
         return (byte) rangingMethod;
     }
 
-    /** Converts the FiRaSpecificationParam to UwbCapability. */
+    /**
+     * Converts the FiRaSpecificationParam to UwbCapability. The same instance is returned for the
+     * same params, which are cached per chip, so the capability is not derived for each session.
+     */
     @NonNull
     public static UwbCapability fromFiRaSpecificationParam(
             @NonNull FiraSpecificationParams firaSpecificationParams) {
+        synchronized (sLock) {
+            if (firaSpecificationParams == sLastFiraSpecificationParams) {
+                return sLastLocalCapability;
+            }
+        }
+        UwbCapability uwbCapability = convertFiRaSpecificationParam(firaSpecificationParams);
+        synchronized (sLock) {
+            sLastFiraSpecificationParams = firaSpecificationParams;
+            sLastLocalCapability = uwbCapability;
+        }
+        return uwbCapability;
+    }
+
+    @NonNull
+    private static UwbCapability convertFiRaSpecificationParam(
+            @NonNull FiraSpecificationParams firaSpecificationParams) {
         return new UwbCapability.Builder()
                 .setMinPhyVersionSupported(firaSpecificationParams.getMinPhyVersionSupported())
                 .setMaxPhyVersionSupported(firaSpecificationParams.getMaxPhyVersionSupported())
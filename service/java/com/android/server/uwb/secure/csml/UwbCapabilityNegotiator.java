@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.csml;
+
+import static com.google.uwb.support.fira.FiraParams.MULTI_NODE_MODE_ONE_TO_MANY;
+import static com.google.uwb.support.fira.FiraParams.MULTI_NODE_MODE_UNICAST;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Negotiates the {@link ConfigurationParams} of a session from the {@link UwbCapability} of the
+ * controller and the controlee.
+ *
+ * <p>The result only depends on both capabilities and the multicast mode, it is cached per
+ * (local capability, remote capability, multicast) so the sessions with a known peer skip the
+ * negotiation. The capabilities are compared by their CSML encoding, where the flags are already
+ * bit masks, and by the channel lists, as the order of the local channels decides the preferred
+ * one.
+ */
+class UwbCapabilityNegotiator {
+    @VisibleForTesting
+    static final int MAX_CACHED_RESULTS = 32;
+
+    private final Object mLock = new Object();
+
+    // The least recently used result is evicted first.
+    @GuardedBy("mLock")
+    private final LinkedHashMap<Key, Result> mResults =
+            new LinkedHashMap<>(16, 0.75f, /* accessOrder= */ true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest) {
+                    return size() > MAX_CACHED_RESULTS;
+                }
+            };
+
+    /**
+     * Gets the configuration supported by both devices.
+     *
+     * @throws IllegalStateException if the devices are not compatible.
+     */
+    @NonNull
+    ConfigurationParams negotiate(@NonNull UwbCapability localCap,
+            @NonNull UwbCapability remoteCap, boolean isMulticast) {
+        Key key = new Key(localCap, remoteCap, isMulticast);
+        Result result;
+        synchronized (mLock) {
+            result = mResults.get(key);
+        }
+        if (result == null) {
+            result = compute(localCap, remoteCap, isMulticast);
+            synchronized (mLock) {
+                mResults.put(key, result);
+            }
+        }
+        if (result.mConfigurationParams == null) {
+            throw new IllegalStateException(result.mIncompatibleReason);
+        }
+        return result.mConfigurationParams;
+    }
+
+    @VisibleForTesting
+    int getCachedResultCount() {
+        synchronized (mLock) {
+            return mResults.size();
+        }
+    }
+
+    @NonNull
+    private static Result compute(@NonNull UwbCapability localCap,
+            @NonNull UwbCapability remoteCap, boolean isMulticast) {
+        if (!localCap.isCompatibleTo(remoteCap)) {
+            return new Result(null, "devices are not compatible.");
+        }
+        Optional<Integer> commonChannel = localCap.getPreferredChannel(remoteCap.mChannels);
+        if (commonChannel.isEmpty()) {
+            return new Result(null, "no common channel supported by both devices.");
+        }
+
+        ConfigurationParams.Builder paramsBuilder = new ConfigurationParams.Builder();
+        paramsBuilder.setPhyVersion(
+                localCap.getPreferredPhyVersion(remoteCap.mMinPhyVersionSupported));
+        paramsBuilder.setMacVersion(
+                localCap.getPreferredMacVersion(remoteCap.mMinMacVersionSupported));
+        paramsBuilder.setStsConfig(
+                localCap.getPreferredStsConfig(remoteCap.mStsConfig, isMulticast));
+        paramsBuilder.setChannel(commonChannel.get());
+        paramsBuilder.setCcConstraintLength(
+                localCap.getPreferredConstrainLengthOfConvolutionalCode(
+                        remoteCap.mCcConstraintLength));
+        paramsBuilder.setHoppingMode(localCap.getPreferredHoppingMode(remoteCap.mHoppingMode));
+        paramsBuilder.setRframeConfig(localCap.getPreferredRframeConfig(remoteCap.mRframeConfig));
+        paramsBuilder.setMultiNodeMode(
+                isMulticast ? MULTI_NODE_MODE_ONE_TO_MANY : MULTI_NODE_MODE_UNICAST);
+        paramsBuilder.setScheduleMode(localCap.getPreferredScheduleMode(remoteCap.mScheduledMode));
+        paramsBuilder.setBlockStriding(
+                localCap.getPreferredBlockStriding(remoteCap.mBlockStriding));
+        paramsBuilder.setRangingMethod(
+                localCap.getPreferredRangingMethod(remoteCap.mRangingMethod));
+        paramsBuilder.setMacAddressMode(
+                localCap.getPreferredMacAddressMode(remoteCap.mExtendedMacSupport));
+        return new Result(paramsBuilder.build(), null);
+    }
+
+    private static class Key {
+        private final byte[] mLocalEncoded;
+        private final Optional<List<Integer>> mLocalChannels;
+        private final byte[] mRemoteEncoded;
+        private final Optional<List<Integer>> mRemoteChannels;
+        private final boolean mIsMulticast;
+        private final int mHashCode;
+
+        Key(@NonNull UwbCapability localCap, @NonNull UwbCapability remoteCap,
+                boolean isMulticast) {
+            mLocalEncoded = localCap.getEncoded();
+            mLocalChannels = localCap.mChannels;
+            mRemoteEncoded = remoteCap.getEncoded();
+            mRemoteChannels = remoteCap.mChannels;
+            mIsMulticast = isMulticast;
+            mHashCode = Objects.hash(Arrays.hashCode(mLocalEncoded), mLocalChannels,
+                    Arrays.hashCode(mRemoteEncoded), mRemoteChannels, mIsMulticast);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mHashCode == key.mHashCode
+                    && mIsMulticast == key.mIsMulticast
+                    && Arrays.equals(mLocalEncoded, key.mLocalEncoded)
+                    && Arrays.equals(mRemoteEncoded, key.mRemoteEncoded)
+                    && Objects.equals(mLocalChannels, key.mLocalChannels)
+                    && Objects.equals(mRemoteChannels, key.mRemoteChannels);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    private static class Result {
+        @Nullable
+        final ConfigurationParams mConfigurationParams;
+        @Nullable
+        final String mIncompatibleReason;
+
+        Result(@Nullable ConfigurationParams configurationParams,
+                @Nullable String incompatibleReason) {
+            mConfigurationParams = configurationParams;
+            mIncompatibleReason = incompatibleReason;
+        }
+    }
+}
@@ -75,6 +75,16 @@ public class TlvDatum {
         this.value = value;
     }
 
+    /**
+     * Constructor of a parsed constructed TlvDatum, the value is kept as received.
+     */
+    TlvDatum(@NonNull Tag tag, @NonNull byte[] value,
+            @NonNull Map<Tag, List<TlvDatum>> subTlvData) {
+        this.tag = tag;
+        this.value = value;
+        this.subTlvData = subTlvData;
+    }
+
     /**
      * Constructor of TlvDatum with a sub TlvDatum.
      */
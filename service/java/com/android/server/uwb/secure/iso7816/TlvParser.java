@@ -18,13 +18,7 @@ package com.android.server.uwb.secure.iso7816;
 import androidx.annotation.Nullable;
 
 import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
-import com.android.server.uwb.util.DataTypeConversionUtil;
 
-import com.google.common.primitives.Bytes;
-
-import java.io.IOException;
-import java.nio.BufferUnderflowException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -37,55 +31,22 @@ import java.util.Map;
  * specifies what the value means (e.g., credit card number) and how it is encoded (e.g., ASCII).
  * The [length] is 1-3 bytes and specifies how long the [value] field is. The [value] field is the
  * value of the object and is decoded depending on the [tag].
+ *
+ * <p>All the data objects are parsed and copied upfront, use {@link TlvReader} when only some of
+ * them are needed.
  */
 public class TlvParser {
-    private static class ByteArrayWrapper {
-        private final ByteBuffer mByteBuffer;
-
-        ByteArrayWrapper(byte[] byteArray) {
-            this.mByteBuffer = ByteBuffer.wrap(byteArray);
-        }
-
-        /**
-         * Read the part of the data in the array from the current offset.
-         */
-        private byte[] read(int bytes) throws IOException {
-            byte[] result = new byte[bytes];
-            try {
-                mByteBuffer.get(result);
-            } catch (BufferUnderflowException e) {
-                throw new IOException("Not enough bytes");
-            }
-            return result;
-        }
-    }
-
     /**
-     * Parses bytes from a stream interface to a TlvDatum wrapper object.
+     * Parses the TLV data objects of a reader into TlvDatum wrapper objects until consumed.
      *
-     * @param byteArrayWrapper byte stream provider
-     * @return TlvDatum derived from the data.
-     */
-    @Nullable
-    private static TlvDatum parseOneTlv(ByteArrayWrapper byteArrayWrapper) {
-        try {
-            return parseTlv(byteArrayWrapper);
-        } catch (IOException e) {
-            return null;
-        }
-    }
-
-    /**
-     * Parses bytes from a stream interface to TlvDatum wrapper objects until consumed.
-     *
-     * @param stream byte stream provider
+     * @param reader the TLV reader.
      * @return The map of tag and TlvDatum derived from the data.
      */
-    private static Map<Tag, List<TlvDatum>> parseTlvs(ByteArrayWrapper byteArrayWrapper) {
+    private static Map<Tag, List<TlvDatum>> parseTlvs(TlvReader reader) {
         Map<Tag, List<TlvDatum>> tlvData = new HashMap<>();
-        TlvDatum tlvDatum;
 
-        while ((tlvDatum = parseOneTlv(byteArrayWrapper)) != null) {
+        while (reader.next()) {
+            TlvDatum tlvDatum = toTlvDatum(reader);
             List<TlvDatum> tlvs = tlvData.computeIfAbsent(
                     tlvDatum.tag, (k) -> new ArrayList<>());
             tlvs.add(tlvDatum);
@@ -121,7 +82,7 @@ public class TlvParser {
      * @return TlvDatum list of TlvDatum derived from the data.
      */
     public static Map<Tag, List<TlvDatum>> parseTlvs(byte[] message) {
-        return parseTlvs(new ByteArrayWrapper(message));
+        return parseTlvs(new TlvReader(message));
     }
 
     /**
@@ -129,49 +90,23 @@ public class TlvParser {
      * @param message It should only contain one tlv.
      * @return The TlvDatum instance.
      */
+    @Nullable
     public static TlvDatum parseOneTlv(byte[] message) {
-        return parseOneTlv(new ByteArrayWrapper(message));
-    }
-
-    private static TlvDatum parseTlv(ByteArrayWrapper byteArrayWrapper) throws IOException {
-        byte[] tag = byteArrayWrapper.read(/* bytes= */ 1);
-        // When first byte is of the form 0bXXX11111, the tag contains a 2nd byte.
-        if (((tag[0] + 1) & 0b00011111) == 0) {
-            tag = Bytes.concat(tag, byteArrayWrapper.read(/* bytes= */ 1));
-        }
-
-        byte[] lengthBytes = byteArrayWrapper.read(/* bytes= */ 1);
-        switch (lengthBytes[0]) {
-            case TlvDatum.TWO_BYTES_LEN_FIRST_BYTE:
-                lengthBytes = byteArrayWrapper.read(/* bytes= */ 1);
-                break;
-            case TlvDatum.THREE_BYTES_LEN_FIRST_BYTE:
-                lengthBytes = byteArrayWrapper.read(/* bytes= */ 2);
-                break;
-            case TlvDatum.FOUR_BYTES_LEN_FIRST_BYTE:
-                lengthBytes = byteArrayWrapper.read(/* bytes= */ 3);
-                break;
-            case TlvDatum.FIVE_BYTES_LEN_FIRST_BYTE:
-                lengthBytes = byteArrayWrapper.read(/* bytes= */ 4);
-                break;
-            default: // fall out
+        TlvReader reader = new TlvReader(message);
+        if (!reader.next()) {
+            return null;
         }
-        int length = DataTypeConversionUtil.arbitraryByteArrayToI32(lengthBytes);
+        return toTlvDatum(reader);
+    }
 
-        byte[] value = byteArrayWrapper.read(length);
-        if (isConstructedTag(tag[0])) {
-            return new TlvDatum(new Tag(tag), parseTlvs(value));
+    private static TlvDatum toTlvDatum(TlvReader reader) {
+        if (reader.isConstructed()) {
+            // Keep the value as received, the sub TLVs are not re-encoded.
+            return new TlvDatum(reader.getTag(), reader.getValue(), parseTlvs(reader.descend()));
         } else {
-            return new TlvDatum(new Tag(tag), value);
+            return new TlvDatum(reader.getTag(), reader.getValue());
         }
     }
 
-    private static boolean isConstructedTag(byte firstTagByte) {
-        // If 6th bit is 1, then data object is constructed; otherwise it is primitive.
-        // A constructed object's value field contains more TLV structures, while a primitive
-        // object's data field does not (contains only data).
-        return (firstTagByte & 0b00100000) != 0;
-    }
-
     private TlvParser() {}
 }
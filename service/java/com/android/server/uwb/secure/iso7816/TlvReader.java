@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.iso7816;
+
+import androidx.annotation.NonNull;
+
+import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
+
+import java.util.Arrays;
+
+/**
+ * Cursor over the TLV (Tag, Length, Value) data objects of a byte array, see {@link TlvParser}
+ * for the encoding.
+ *
+ * <p>Nothing is parsed or copied upfront: {@link #next()} only decodes the tag and the length of
+ * the next data object, its value stays in the original array and is only copied when requested.
+ * Constructed data objects are not parsed unless {@link #descend()} is called, which returns a
+ * reader over the value of the current data object sharing the same array.
+ *
+ * <p>Parsing stops at the first malformed data object, the same as {@link TlvParser}.
+ */
+public final class TlvReader {
+    private final byte[] mData;
+    private final int mLimit;
+    private int mNextOffset;
+
+    // Position of the current data object, mTagOffset is -1 before the first next().
+    private int mTagOffset = -1;
+    private int mTagLength;
+    private int mValueOffset;
+    private int mValueLength;
+
+    public TlvReader(@NonNull byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Reads the TLV data objects in data[offset, offset + length).
+     */
+    public TlvReader(@NonNull byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException(
+                    "offset " + offset + " length " + length + " size " + data.length);
+        }
+        mData = data;
+        mNextOffset = offset;
+        mLimit = offset + length;
+    }
+
+    /**
+     * Moves to the next data object.
+     *
+     * @return false if there is no more data object or the next one is malformed.
+     */
+    public boolean next() {
+        int offset = mNextOffset;
+        if (offset >= mLimit) {
+            return false;
+        }
+        int tagOffset = offset;
+        // When first byte is of the form 0bXXX11111, the tag contains a 2nd byte.
+        int tagLength = ((mData[offset] + 1) & 0b00011111) == 0 ? 2 : 1;
+        offset += tagLength;
+        if (offset >= mLimit) {
+            return false;
+        }
+
+        int lengthSize;
+        switch (mData[offset]) {
+            case TlvDatum.TWO_BYTES_LEN_FIRST_BYTE:
+                lengthSize = 1;
+                break;
+            case TlvDatum.THREE_BYTES_LEN_FIRST_BYTE:
+                lengthSize = 2;
+                break;
+            case TlvDatum.FOUR_BYTES_LEN_FIRST_BYTE:
+                lengthSize = 3;
+                break;
+            case TlvDatum.FIVE_BYTES_LEN_FIRST_BYTE:
+                lengthSize = 4;
+                break;
+            default:
+                lengthSize = 0;
+        }
+        if (lengthSize > 0) {
+            offset++;
+        } else {
+            lengthSize = 1;
+        }
+        if (offset + lengthSize > mLimit) {
+            return false;
+        }
+        long valueLength = 0;
+        for (int i = 0; i < lengthSize; i++) {
+            valueLength = (valueLength << 8) | (mData[offset++] & 0xFF);
+        }
+        if (valueLength > mLimit - offset) {
+            return false;
+        }
+
+        mTagOffset = tagOffset;
+        mTagLength = tagLength;
+        mValueOffset = offset;
+        mValueLength = (int) valueLength;
+        mNextOffset = offset + mValueLength;
+        return true;
+    }
+
+    /**
+     * Moves to the next data object with the given tag, skipping the others without parsing
+     * them.
+     *
+     * @return false if no such data object is found.
+     */
+    public boolean find(@NonNull Tag tag) {
+        while (next()) {
+            if (isTag(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks the tag of the current data object, without allocating it.
+     */
+    public boolean isTag(@NonNull Tag tag) {
+        checkPositioned();
+        return regionEquals(mTagOffset, mTagLength, tag.literalValue);
+    }
+
+    /** Gets the tag of the current data object. */
+    @NonNull
+    public Tag getTag() {
+        checkPositioned();
+        return new Tag(Arrays.copyOfRange(mData, mTagOffset, mTagOffset + mTagLength));
+    }
+
+    /**
+     * Checks if the current data object is constructed, meaning its value contains more TLV
+     * data objects.
+     */
+    public boolean isConstructed() {
+        checkPositioned();
+        // If 6th bit is 1, then data object is constructed; otherwise it is primitive.
+        return (mData[mTagOffset] & 0b00100000) != 0;
+    }
+
+    /**
+     * Gets a reader over the value of the current data object, which shares the underlying array.
+     * The value is parsed as TLV data objects whether the tag is constructed or not.
+     */
+    @NonNull
+    public TlvReader descend() {
+        checkPositioned();
+        return new TlvReader(mData, mValueOffset, mValueLength);
+    }
+
+    /** The array this reader is parsing, for reading the value in place. */
+    @NonNull
+    public byte[] getData() {
+        return mData;
+    }
+
+    /** The offset of the value of the current data object in {@link #getData()}. */
+    public int getValueOffset() {
+        checkPositioned();
+        return mValueOffset;
+    }
+
+    /** The length of the value of the current data object. */
+    public int getValueLength() {
+        checkPositioned();
+        return mValueLength;
+    }
+
+    /** Gets a copy of the value of the current data object. */
+    @NonNull
+    public byte[] getValue() {
+        checkPositioned();
+        return Arrays.copyOfRange(mData, mValueOffset, mValueOffset + mValueLength);
+    }
+
+    /**
+     * Gets the first byte of the value of the current data object.
+     *
+     * @throws IllegalStateException if the value is empty.
+     */
+    public byte getValueAsByte() {
+        checkPositioned();
+        if (mValueLength < 1) {
+            throw new IllegalStateException("empty value.");
+        }
+        return mData[mValueOffset];
+    }
+
+    /**
+     * Gets the value of the current data object as a big endian integer.
+     *
+     * @throws IllegalStateException if the value is empty or longer than 4 bytes.
+     */
+    public int getValueAsInt() {
+        checkPositioned();
+        if (mValueLength < 1 || mValueLength > Integer.BYTES) {
+            throw new IllegalStateException("unexpected value length " + mValueLength);
+        }
+        int value = 0;
+        for (int i = mValueOffset; i < mValueOffset + mValueLength; i++) {
+            value = (value << 8) | (mData[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * Checks if the value of the current data object equals the given bytes, without copying it.
+     */
+    public boolean valueEquals(@NonNull byte[] expected) {
+        checkPositioned();
+        return regionEquals(mValueOffset, mValueLength, expected);
+    }
+
+    private boolean regionEquals(int offset, int length, byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mData[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkPositioned() {
+        if (mTagOffset < 0) {
+            throw new IllegalStateException("next() is not called.");
+        }
+    }
+}
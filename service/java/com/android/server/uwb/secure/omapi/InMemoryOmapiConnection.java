@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.omapi;
+
+import static com.android.server.uwb.secure.iso7816.StatusWord.SW_NO_SPECIFIC_DIAGNOSTIC;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.secure.iso7816.CommandApdu;
+import com.android.server.uwb.secure.iso7816.ResponseApdu;
+
+import java.io.IOException;
+
+/**
+ * In-memory fake secure element, used to exercise and benchmark the secure channel stack without
+ * an eSE. The applet behavior is provided by an {@link Applet}, and the cost of the OMAPI
+ * operations can be simulated with fixed delays.
+ */
+@WorkerThread
+public class InMemoryOmapiConnection implements OmapiConnection {
+    /** Behavior of the fake FiRa applet. */
+    public interface Applet {
+        /** Response to the SELECT of the applet, sent when a channel is opened. */
+        @NonNull
+        ResponseApdu select();
+
+        /** Processes the command APDU sent on the opened channel. */
+        @NonNull
+        ResponseApdu process(@NonNull CommandApdu command);
+    }
+
+    private final Applet mApplet;
+    private final long mOpenChannelDelayMs;
+    private final long mTransmitDelayMs;
+    private boolean mIsChannelOpened = false;
+    private int mOpenChannelCount = 0;
+    private int mTransmitCount = 0;
+
+    /**
+     * @param applet behavior of the fake FiRa applet.
+     * @param openChannelDelayMs simulated cost of opening a logical channel.
+     * @param transmitDelayMs simulated cost of each APDU exchange.
+     */
+    public InMemoryOmapiConnection(
+            @NonNull Applet applet, long openChannelDelayMs, long transmitDelayMs) {
+        mApplet = applet;
+        mOpenChannelDelayMs = openChannelDelayMs;
+        mTransmitDelayMs = transmitDelayMs;
+    }
+
+    @Override
+    public void init(@NonNull InitCompletionCallback callback) {
+        callback.onInitCompletion();
+    }
+
+    @NonNull
+    @Override
+    public ResponseApdu transmit(@NonNull CommandApdu command) throws IOException {
+        if (!mIsChannelOpened) {
+            throw new IOException("No active channel found.");
+        }
+        mTransmitCount++;
+        simulateDelay(mTransmitDelayMs);
+        return mApplet.process(command);
+    }
+
+    @NonNull
+    @Override
+    public ResponseApdu openChannel() throws IOException {
+        if (mIsChannelOpened) {
+            return ResponseApdu.fromStatusWord(SW_NO_SPECIFIC_DIAGNOSTIC);
+        }
+        mOpenChannelCount++;
+        simulateDelay(mOpenChannelDelayMs);
+        mIsChannelOpened = true;
+        return mApplet.select();
+    }
+
+    @Override
+    public void closeChannel() throws IOException {
+        mIsChannelOpened = false;
+    }
+
+    /** Number of logical channels opened so far. */
+    public int getOpenChannelCount() {
+        return mOpenChannelCount;
+    }
+
+    /** Number of APDUs which reached the applet so far. */
+    public int getTransmitCount() {
+        return mTransmitCount;
+    }
+
+    private static void simulateDelay(long delayMs) {
+        if (delayMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.omapi;
+
+import static com.android.server.uwb.secure.iso7816.StatusWord.SW_NO_ERROR;
+import static com.android.server.uwb.util.Constants.FIRA_APPLET_AID;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.se.omapi.Channel;
+import android.se.omapi.Reader;
+import android.se.omapi.SEService;
+import android.se.omapi.Session;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.server.uwb.secure.iso7816.ResponseApdu;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the OMAPI {@link SEService} binding, the eSE {@link Reader} hosting the FiRa applet and the
+ * {@link Session} warm across secure sessions, and leases logical channels to the FiRa applet to
+ * {@link PooledOmapiConnection}s.
+ *
+ * <p>Every secure session opens its own logical channel, since the state of the FiRa applet (the
+ * selected ADF and the secure channel) is bound to the channel and can only be reset by a new
+ * SELECT. What is saved is the SEService binding, the reader lookup with its applet presence check,
+ * and the session opening. The session is closed once no channel was leased for {@link
+ * #SESSION_IDLE_TIMEOUT_MS}, and everything is health checked before a channel is leased.
+ */
+public class OmapiConnectionPool {
+    private static final String LOG_TAG = "OmapiConnectionPool";
+
+    @VisibleForTesting static final long SESSION_IDLE_TIMEOUT_MS = 30_000;
+
+    private final Object mLock = new Object();
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Executor mSyncExecutor = (runnable) -> runnable.run();
+    private final Runnable mIdleTimeoutRunnable = this::onIdleTimeout;
+
+    @VisibleForTesting
+    @GuardedBy("mLock")
+    @Nullable
+    SEService mSeService;
+
+    @GuardedBy("mLock")
+    private boolean mIsSeServiceBinding = false;
+
+    @GuardedBy("mLock")
+    private final List<OmapiConnection.InitCompletionCallback> mPendingInitCallbacks =
+            new ArrayList<>();
+
+    @GuardedBy("mLock")
+    @Nullable
+    private Reader mReader;
+
+    @GuardedBy("mLock")
+    @Nullable
+    private Session mSession;
+
+    @GuardedBy("mLock")
+    private int mLeasedChannelCount = 0;
+
+    public OmapiConnectionPool(@NonNull Context context, @NonNull Looper looper) {
+        mContext = context;
+        mHandler = new Handler(looper);
+    }
+
+    /** Creates a connection which leases its logical channel from this pool. */
+    @NonNull
+    public OmapiConnection newConnection() {
+        return new PooledOmapiConnection(this);
+    }
+
+    /**
+     * Binds the SEService if needed, the callback is invoked once it is connected, immediately if
+     * the binding is already warm.
+     */
+    void init(@NonNull OmapiConnection.InitCompletionCallback callback) {
+        synchronized (mLock) {
+            if (mSeService == null || !mSeService.isConnected()) {
+                mPendingInitCallbacks.add(callback);
+                bindSeServiceLocked();
+                return;
+            }
+        }
+        callback.onInitCompletion();
+    }
+
+    @GuardedBy("mLock")
+    private void bindSeServiceLocked() {
+        if (mIsSeServiceBinding) {
+            return;
+        }
+        if (mSeService != null) {
+            // The binding is lost, the SEService doesn't reconnect by itself.
+            mSeService.shutdown();
+            resetReaderLocked();
+        }
+        mIsSeServiceBinding = true;
+        mSeService = new SEService(mContext, mSyncExecutor, this::onSeServiceConnected);
+    }
+
+    private void onSeServiceConnected() {
+        List<OmapiConnection.InitCompletionCallback> callbacks;
+        synchronized (mLock) {
+            mIsSeServiceBinding = false;
+            callbacks = new ArrayList<>(mPendingInitCallbacks);
+            mPendingInitCallbacks.clear();
+        }
+        for (OmapiConnection.InitCompletionCallback callback : callbacks) {
+            callback.onInitCompletion();
+        }
+    }
+
+    /**
+     * Opens a logical channel to the FiRa applet on the warm session.
+     *
+     * @throws IOException if the SE or the FiRa applet is not available.
+     */
+    @NonNull
+    Channel leaseChannel() throws IOException {
+        synchronized (mLock) {
+            mHandler.removeCallbacks(mIdleTimeoutRunnable);
+            Session session = getHealthySessionLocked();
+            Channel channel;
+            try {
+                channel = session.openLogicalChannel(FIRA_APPLET_AID);
+            } catch (SecurityException | NoSuchElementException | UnsupportedOperationException e) {
+                logw("Exception trying to open the logical channel to the FiRa applet");
+                scheduleIdleTimeoutLocked();
+                throw new IOException(e);
+            }
+            if (channel == null) {
+                scheduleIdleTimeoutLocked();
+                throw new IOException("No logical channel available.");
+            }
+            mLeasedChannelCount++;
+            return channel;
+        }
+    }
+
+    /** Closes the leased channel, the other channels of the session are kept open. */
+    void releaseChannel(@NonNull Channel channel) {
+        synchronized (mLock) {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+            mLeasedChannelCount--;
+            scheduleIdleTimeoutLocked();
+        }
+    }
+
+    @VisibleForTesting
+    int getLeasedChannelCount() {
+        synchronized (mLock) {
+            return mLeasedChannelCount;
+        }
+    }
+
+    @VisibleForTesting
+    boolean isSessionOpen() {
+        synchronized (mLock) {
+            return mSession != null && !mSession.isClosed();
+        }
+    }
+
+    @GuardedBy("mLock")
+    @NonNull
+    private Session getHealthySessionLocked() throws IOException {
+        if (mSeService == null || !mSeService.isConnected()) {
+            logw("SEService not connected, rebinding.");
+            bindSeServiceLocked();
+            throw new IOException("SEService not connected.");
+        }
+        if (mReader != null && !mReader.isSecureElementPresent()) {
+            logw("Secure element removed from reader: " + mReader.getName());
+            resetReaderLocked();
+        }
+        if (mReader == null) {
+            mReader = findFiRaReaderLocked();
+        }
+        if (mSession == null || mSession.isClosed()) {
+            logi("Opening session with reader: " + mReader.getName());
+            mSession = mReader.openSession();
+        }
+        return mSession;
+    }
+
+    @GuardedBy("mLock")
+    @NonNull
+    private Reader findFiRaReaderLocked() throws IOException {
+        for (Reader reader : mSeService.getReaders()) {
+            if (reader.getName().startsWith("eSE") && checkFiRaAppletPresenceLocked(reader)) {
+                return reader;
+            }
+        }
+        logw("Unable to find or select applet.");
+        throw new IOException("FiRa applet not found");
+    }
+
+    @GuardedBy("mLock")
+    private boolean checkFiRaAppletPresenceLocked(@NonNull Reader reader) {
+        Session session = null;
+        try {
+            session = reader.openSession();
+            Channel channel = session.openLogicalChannel(FIRA_APPLET_AID);
+            if (channel != null) {
+                byte[] response = channel.getSelectResponse();
+                channel.close();
+                if (response != null
+                        && response.length > 0
+                        && ResponseApdu.fromResponse(response).getStatusWord()
+                                == SW_NO_ERROR.toInt()) {
+                    logi("FiRa applet found with reader: " + reader.getName());
+                    // Keep the session for the leases.
+                    mSession = session;
+                    return true;
+                }
+            }
+        } catch (IOException
+                | SecurityException
+                | NoSuchElementException
+                | UnsupportedOperationException e) {
+            logw("Exception happened with reader: " + reader.getName() + " " + e);
+        }
+        logw("Error selecting FiRa applet (or applet not present) on reader: "
+                + reader.getName());
+        if (session != null) {
+            session.close();
+        }
+        return false;
+    }
+
+    @GuardedBy("mLock")
+    private void resetReaderLocked() {
+        if (mSession != null) {
+            mSession.close();
+            mSession = null;
+        }
+        mReader = null;
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleIdleTimeoutLocked() {
+        if (mLeasedChannelCount == 0) {
+            mHandler.postDelayed(mIdleTimeoutRunnable, SESSION_IDLE_TIMEOUT_MS);
+        }
+    }
+
+    private void onIdleTimeout() {
+        synchronized (mLock) {
+            if (mLeasedChannelCount > 0 || mSession == null) {
+                return;
+            }
+            logi("Closing idle OMAPI session.");
+            mSession.close();
+            mSession = null;
+        }
+    }
+
+    private void logw(String log) {
+        Log.w(LOG_TAG, log);
+    }
+
+    private void logi(String log) {
+        Log.i(LOG_TAG, log);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.omapi;
+
+import static com.android.server.uwb.secure.iso7816.StatusWord.SW_NO_SPECIFIC_DIAGNOSTIC;
+
+import android.se.omapi.Channel;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.secure.iso7816.CommandApdu;
+import com.android.server.uwb.secure.iso7816.ResponseApdu;
+
+import java.io.IOException;
+
+/** Connection to the FiRa applet using a logical channel leased from an OmapiConnectionPool. */
+@WorkerThread
+public class PooledOmapiConnection implements OmapiConnection {
+    private static final String LOG_TAG = "PooledOmapiConnection";
+
+    private final OmapiConnectionPool mPool;
+    @Nullable private Channel mChannel;
+
+    PooledOmapiConnection(@NonNull OmapiConnectionPool pool) {
+        mPool = pool;
+    }
+
+    @Override
+    public void init(@NonNull InitCompletionCallback callback) {
+        mPool.init(callback);
+    }
+
+    @NonNull
+    @Override
+    public ResponseApdu transmit(@NonNull CommandApdu command) throws IOException {
+        if (mChannel == null || !mChannel.isOpen()) {
+            throw new IOException("No active channel found.");
+        }
+        return ResponseApdu.fromResponse(mChannel.transmit(command.getEncoded()));
+    }
+
+    @NonNull
+    @Override
+    public ResponseApdu openChannel() throws IOException {
+        if (mChannel != null) {
+            // Repeated SELECT operations are not supported and indicative of leaky code.
+            Log.w(LOG_TAG, "Repeated SELECT operations are not supported.");
+            return ResponseApdu.fromStatusWord(SW_NO_SPECIFIC_DIAGNOSTIC);
+        }
+        Channel channel = mPool.leaseChannel();
+        byte[] response = channel.getSelectResponse();
+        if (response == null || response.length == 0) {
+            mPool.releaseChannel(channel);
+            throw new IOException("Null response received from channel open.");
+        }
+        mChannel = channel;
+        return ResponseApdu.fromResponse(response);
+    }
+
+    /** Closes the leased channel only, the channels of other connections stay open. */
+    @Override
+    public void closeChannel() throws IOException {
+        if (mChannel == null) {
+            return;
+        }
+        mPool.releaseChannel(mChannel);
+        mChannel = null;
+    }
+}
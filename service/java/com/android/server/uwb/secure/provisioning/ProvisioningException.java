@@ -16,6 +16,8 @@
 
 package com.android.server.uwb.secure.provisioning;
 
+import java.io.IOException;
+
 class ProvisioningException extends Exception {
 
     ProvisioningException(String message) {
@@ -29,4 +31,9 @@ class ProvisioningException extends Exception {
     ProvisioningException(String message, Throwable cause) {
         super(message, cause);
     }
+
+    /** The communication with the SE failed, the script may succeed if resumed. */
+    boolean isTransient() {
+        return getCause() instanceof IOException;
+    }
 }
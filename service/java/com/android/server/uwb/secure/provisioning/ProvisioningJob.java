@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.provisioning;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.secure.SecureElementChannel;
+
+import java.util.UUID;
+import java.util.function.LongSupplier;
+
+/**
+ * A provisioning script to be run on a SE channel. The job keeps the parsed script and the
+ * progress of the last run, so a failed run can be run again without parsing and verifying the
+ * script again, nor invoking the callbacks of the ADF APDUs which already succeeded. The ADF APDUs
+ * sent by a previous run are run again tolerating their rejection, since the applet may already
+ * hold their changes.
+ */
+class ProvisioningJob {
+    private static final String LOG_TAG = "ProvisioningJob";
+
+    @NonNull
+    final UUID mServiceInstanceId;
+    @NonNull
+    final SecureElementChannel mSecureElementChannel;
+    @NonNull
+    private final ProvisioningManager.ProvisioningCallback mProvisioningCallback;
+    @Nullable
+    private byte[] mScriptData;
+    @Nullable
+    private ScriptParser.ScriptContent mScriptContent;
+
+    private int mCompletedApduCount = 0;
+    // Also counts the ADF APDU in flight when the last run failed, it may have been applied.
+    private int mSentApduCount = 0;
+    private int mAttempts = 0;
+    private long mQueuedTimeMs = -1;
+    private long mStartTimeMs = -1;
+
+    ProvisioningJob(@NonNull UUID serviceInstanceId,
+            @NonNull SecureElementChannel secureElementChannel,
+            @NonNull byte[] scriptData,
+            @NonNull ProvisioningManager.ProvisioningCallback provisioningCallback) {
+        mServiceInstanceId = serviceInstanceId;
+        mSecureElementChannel = secureElementChannel;
+        mScriptData = scriptData;
+        mProvisioningCallback = provisioningCallback;
+    }
+
+    ProvisioningJob(@NonNull UUID serviceInstanceId,
+            @NonNull SecureElementChannel secureElementChannel,
+            @NonNull ScriptParser.ScriptContent scriptContent,
+            @NonNull ProvisioningManager.ProvisioningCallback provisioningCallback) {
+        mServiceInstanceId = serviceInstanceId;
+        mSecureElementChannel = secureElementChannel;
+        mScriptContent = scriptContent;
+        mProvisioningCallback = provisioningCallback;
+    }
+
+    /** Marks the job as queued, the first time only. */
+    void onQueued(long nowMs) {
+        if (mQueuedTimeMs < 0) {
+            mQueuedTimeMs = nowMs;
+        }
+    }
+
+    int getAttempts() {
+        return mAttempts;
+    }
+
+    int getCompletedApduCount() {
+        return mCompletedApduCount;
+    }
+
+    /**
+     * Runs the whole script on a new channel, the channel is closed at the end of the run.
+     *
+     * @throws ProvisioningException if the run failed, the job can be run again if it is
+     *                               {@link ProvisioningException#isTransient()}.
+     */
+    @WorkerThread
+    void run(@NonNull ScriptRunner scriptRunner, @NonNull LongSupplier clock)
+            throws ProvisioningException {
+        mAttempts++;
+        if (mStartTimeMs < 0) {
+            mStartTimeMs = clock.getAsLong();
+        }
+        try {
+            if (mScriptContent == null) {
+                mScriptContent = ScriptParser.parseSignedScript(mScriptData);
+                mScriptData = null;
+            }
+            if (mAttempts > 1) {
+                logd("running " + mServiceInstanceId + " again, " + mCompletedApduCount
+                        + " APDUs were done, attempt " + mAttempts);
+            }
+            scriptRunner.run(mScriptContent, mServiceInstanceId, mProvisioningCallback,
+                    mCompletedApduCount, mSentApduCount,
+                    new ScriptRunner.ProgressListener() {
+                        @Override
+                        public void onSending(int sentApduCount) {
+                            mSentApduCount = Math.max(mSentApduCount, sentApduCount);
+                        }
+
+                        @Override
+                        public void onProgress(int completedApduCount) {
+                            if (completedApduCount <= mCompletedApduCount) {
+                                return;
+                            }
+                            mCompletedApduCount = completedApduCount;
+                            mProvisioningCallback.onProgress(mServiceInstanceId,
+                                    getProgress(clock.getAsLong()));
+                        }
+                    });
+            mCompletedApduCount = mScriptContent.mProvisioningApdus.size();
+        } finally {
+            // The applet state is bound to the channel, a new run starts on a new one.
+            mSecureElementChannel.closeChannel();
+        }
+    }
+
+    /** Reports the failure of the job, once it is not retried anymore. */
+    void onFail() {
+        mProvisioningCallback.onFail(mServiceInstanceId);
+    }
+
+    @NonNull
+    ProvisioningManager.ProvisioningProgress getProgress(long nowMs) {
+        int totalApdus = mScriptContent == null ? 0 : mScriptContent.mProvisioningApdus.size();
+        long startTimeMs = mStartTimeMs < 0 ? nowMs : mStartTimeMs;
+        return new ProvisioningManager.ProvisioningProgress(
+                mCompletedApduCount,
+                totalApdus,
+                mAttempts,
+                /* queuedMs= */ mQueuedTimeMs < 0 ? 0 : startTimeMs - mQueuedTimeMs,
+                /* runningMs= */ nowMs - startTimeMs);
+    }
+
+    private void logd(String dbgMsg) {
+        Log.d(LOG_TAG, dbgMsg);
+    }
+}
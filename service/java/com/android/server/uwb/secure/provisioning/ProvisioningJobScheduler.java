@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.provisioning;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.server.uwb.secure.SecureElementChannel;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.LongSupplier;
+
+/**
+ * Queues the ADF provisioning jobs and runs them on an executor.
+ *
+ * <p>The jobs and tasks of a SE channel are run one at a time in the order they are submitted,
+ * the ones of different channels are run concurrently, up to the given limit. A job failing
+ * because of the communication with the SE is queued again behind the other jobs of its channel,
+ * and run again from the start of its script, until {@link #MAX_ATTEMPTS} runs failed.
+ */
+public class ProvisioningJobScheduler {
+    private static final String LOG_TAG = "ProvisioningJobScheduler";
+
+    @VisibleForTesting
+    static final int MAX_ATTEMPTS = 3;
+
+    private final Object mLock = new Object();
+    private final Executor mExecutor;
+    private final int mMaxConcurrentJobs;
+    private final LongSupplier mClock;
+
+    // Pending tasks of each channel, in the order the channels got their first task.
+    @GuardedBy("mLock")
+    private final Map<SecureElementChannel, ArrayDeque<Runnable>> mPendingTasks =
+            new LinkedHashMap<>();
+
+    @GuardedBy("mLock")
+    private final Set<SecureElementChannel> mBusyChannels = new HashSet<>();
+
+    /**
+     * @param executor runs the jobs, it should have at least maxConcurrentJobs threads for the
+     *                 jobs to run concurrently.
+     * @param maxConcurrentJobs the max number of jobs running at the same time.
+     */
+    public ProvisioningJobScheduler(@NonNull Executor executor, int maxConcurrentJobs) {
+        this(executor, maxConcurrentJobs, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    ProvisioningJobScheduler(@NonNull Executor executor, int maxConcurrentJobs,
+            @NonNull LongSupplier clock) {
+        mExecutor = executor;
+        mMaxConcurrentJobs = maxConcurrentJobs;
+        mClock = clock;
+    }
+
+    /** Queues the job, it is run once the previous jobs of its channel are done. */
+    void submit(@NonNull ProvisioningJob job) {
+        job.onQueued(mClock.getAsLong());
+        submit(job.mSecureElementChannel, () -> runJob(job));
+    }
+
+    /**
+     * Queues a task using the channel, it is run once the previous jobs and tasks of the channel
+     * are done.
+     */
+    void submit(@NonNull SecureElementChannel secureElementChannel, @NonNull Runnable task) {
+        List<Runnable> tasksToRun;
+        synchronized (mLock) {
+            enqueueLocked(secureElementChannel, task);
+            tasksToRun = pollRunnableTasksLocked();
+        }
+        execute(tasksToRun);
+    }
+
+    @VisibleForTesting
+    int getPendingJobCount() {
+        synchronized (mLock) {
+            int count = 0;
+            for (ArrayDeque<Runnable> tasks : mPendingTasks.values()) {
+                count += tasks.size();
+            }
+            return count;
+        }
+    }
+
+    @VisibleForTesting
+    int getRunningJobCount() {
+        synchronized (mLock) {
+            return mBusyChannels.size();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void enqueueLocked(@NonNull SecureElementChannel secureElementChannel,
+            @NonNull Runnable task) {
+        mPendingTasks.computeIfAbsent(secureElementChannel, (k) -> new ArrayDeque<>())
+                .addLast(task);
+    }
+
+    /** Takes the head task of the idle channels, as long as the limit is not reached. */
+    @GuardedBy("mLock")
+    @NonNull
+    private List<Runnable> pollRunnableTasksLocked() {
+        List<Runnable> tasksToRun = new ArrayList<>();
+        Iterator<Map.Entry<SecureElementChannel, ArrayDeque<Runnable>>> iterator =
+                mPendingTasks.entrySet().iterator();
+        while (iterator.hasNext() && mBusyChannels.size() < mMaxConcurrentJobs) {
+            Map.Entry<SecureElementChannel, ArrayDeque<Runnable>> entry = iterator.next();
+            if (mBusyChannels.contains(entry.getKey())) {
+                continue;
+            }
+            SecureElementChannel secureElementChannel = entry.getKey();
+            Runnable task = entry.getValue().pollFirst();
+            tasksToRun.add(() -> runTask(secureElementChannel, task));
+            mBusyChannels.add(secureElementChannel);
+            if (entry.getValue().isEmpty()) {
+                iterator.remove();
+            }
+        }
+        return tasksToRun;
+    }
+
+    private void execute(@NonNull List<Runnable> tasks) {
+        for (Runnable task : tasks) {
+            mExecutor.execute(task);
+        }
+    }
+
+    private void runTask(@NonNull SecureElementChannel secureElementChannel,
+            @NonNull Runnable task) {
+        try {
+            task.run();
+        } finally {
+            List<Runnable> tasksToRun;
+            synchronized (mLock) {
+                mBusyChannels.remove(secureElementChannel);
+                tasksToRun = pollRunnableTasksLocked();
+            }
+            execute(tasksToRun);
+        }
+    }
+
+    private void runJob(@NonNull ProvisioningJob job) {
+        boolean shouldRetry = false;
+        try {
+            job.run(new ScriptRunner(job.mSecureElementChannel), mClock);
+            logd("job of " + job.mServiceInstanceId + " is done: "
+                    + job.getProgress(mClock.getAsLong()));
+        } catch (ProvisioningException e) {
+            shouldRetry = e.isTransient() && job.getAttempts() < MAX_ATTEMPTS;
+            logw("job of " + job.mServiceInstanceId + " failed after "
+                    + job.getCompletedApduCount() + " APDUs, attempt " + job.getAttempts()
+                    + (shouldRetry ? ", will be run again: " : ": ") + e);
+            if (!shouldRetry) {
+                job.onFail();
+            }
+        }
+        if (shouldRetry) {
+            synchronized (mLock) {
+                enqueueLocked(job.mSecureElementChannel, () -> runJob(job));
+            }
+        }
+    }
+
+    private void logd(String dbgMsg) {
+        Log.d(LOG_TAG, dbgMsg);
+    }
+
+    private void logw(String dbgMsg) {
+        Log.w(LOG_TAG, dbgMsg);
+    }
+}
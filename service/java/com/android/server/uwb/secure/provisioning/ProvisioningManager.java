@@ -38,34 +38,48 @@ public class ProvisioningManager {
     private final SecureElementChannel mSecureElementChannel;
     @NonNull
     private Handler mWorkHandler;
+    @NonNull
+    private final ProvisioningJobScheduler mProvisioningJobScheduler;
 
-    /** Constructors of {@link ProvisioningManager} */
+    /** Constructors of {@link ProvisioningManager}, the scripts are run on the work looper. */
     public ProvisioningManager(@NonNull SecureElementChannel secureElementChannel,
             @NonNull Looper workLooper) {
+        this(secureElementChannel, workLooper,
+                new ProvisioningJobScheduler(new Handler(workLooper)::post,
+                        /* maxConcurrentJobs= */ 1));
+    }
 
+    /**
+     * Constructors of {@link ProvisioningManager}, the scripts are run by the scheduler, which
+     * may be shared with the other instances.
+     */
+    public ProvisioningManager(@NonNull SecureElementChannel secureElementChannel,
+            @NonNull Looper workLooper,
+            @NonNull ProvisioningJobScheduler provisioningJobScheduler) {
         this.mSecureElementChannel = secureElementChannel;
         this.mWorkHandler = new Handler(workLooper);
+        this.mProvisioningJobScheduler = provisioningJobScheduler;
     }
 
-    /** Provisions the ADF with the signed script file which is encoded as PKCS#7 CMS. */
+    /**
+     * Provisions the ADF with the signed script file which is encoded as PKCS#7 CMS. The script
+     * is queued behind the other scripts of the SE channel, the callback is invoked on the work
+     * looper.
+     */
     public void provisioningAdf(@NonNull UUID serviceInstanceId, @NonNull byte[] scriptData,
             @NonNull ProvisioningCallback provisioningCallback) {
-        mWorkHandler.post(() -> {
-            try {
-                ScriptParser.ScriptContent scriptContent =
-                        ScriptParser.parseSignedScript(scriptData);
-                ScriptRunner engine = new ScriptRunner(mSecureElementChannel);
-                engine.run(scriptContent, serviceInstanceId, provisioningCallback);
-            } catch (ProvisioningException e) {
-                provisioningCallback.onFail(serviceInstanceId);
-            }
-        });
+        mProvisioningJobScheduler.submit(new ProvisioningJob(serviceInstanceId,
+                mSecureElementChannel, scriptData,
+                new HandlerProvisioningCallback(mWorkHandler, provisioningCallback)));
     }
 
-    /** Deletes the specified ADF in applet. */
+    /**
+     * Deletes the specified ADF in applet. The deletion is queued behind the scripts of the SE
+     * channel, the callback is invoked on the work looper.
+     */
     public void deleteAdf(@NonNull UUID serviceInstanceId, @NonNull ObjectIdentifier adfOid,
             @NonNull DeleteAdfCallback deleteAdfCallback) {
-        mWorkHandler.post(() -> {
+        mProvisioningJobScheduler.submit(mSecureElementChannel, () -> {
             DeleteAdfCommand deleteAdfCommand = DeleteAdfCommand.build(adfOid);
             try {
                 if (!mSecureElementChannel.openChannel()) {
@@ -78,10 +92,13 @@ public class ProvisioningManager {
                     throw new IllegalStateException("error from applet: " + response.statusWord);
                 }
 
-                deleteAdfCallback.onSuccess(serviceInstanceId, adfOid);
+                mWorkHandler.post(() -> deleteAdfCallback.onSuccess(serviceInstanceId, adfOid));
             } catch (IOException | IllegalStateException e) {
                 logw("DeleteAdf: error - " + e);
-                deleteAdfCallback.onFail(serviceInstanceId, adfOid);
+                mWorkHandler.post(() -> deleteAdfCallback.onFail(serviceInstanceId, adfOid));
+            } finally {
+                // The channel is shared with the next jobs of the scheduler.
+                mSecureElementChannel.closeChannel();
             }
         });
     }
@@ -104,6 +121,87 @@ public class ProvisioningManager {
 
         /** The script was not executed successfully. */
         void onFail(@NonNull UUID serviceInstanceId);
+
+        /** A stage of the script is done. */
+        default void onProgress(@NonNull UUID serviceInstanceId,
+                @NonNull ProvisioningProgress progress) {}
+    }
+
+    /** The progress and timing of a provisioning script. */
+    public static class ProvisioningProgress {
+        /** The number of APDUs of the script which are done. */
+        public final int completedApdus;
+        /** The number of APDUs of the script. */
+        public final int totalApdus;
+        /** The number of times the script was run, it is run again after a SE failure. */
+        public final int attempts;
+        /** The time the script waited for the previous scripts of the SE channel. */
+        public final long queuedMs;
+        /** The time since the script started to run, including the failed attempts. */
+        public final long runningMs;
+
+        ProvisioningProgress(int completedApdus, int totalApdus, int attempts, long queuedMs,
+                long runningMs) {
+            this.completedApdus = completedApdus;
+            this.totalApdus = totalApdus;
+            this.attempts = attempts;
+            this.queuedMs = queuedMs;
+            this.runningMs = runningMs;
+        }
+
+        @Override
+        public String toString() {
+            return "ProvisioningProgress { apdus=" + completedApdus + "/" + totalApdus
+                    + ", attempts=" + attempts + ", queuedMs=" + queuedMs
+                    + ", runningMs=" + runningMs + " }";
+        }
+    }
+
+    /** Invokes the callback on the handler, as the scripts are run on the scheduler threads. */
+    private static class HandlerProvisioningCallback implements ProvisioningCallback {
+        private final Handler mHandler;
+        private final ProvisioningCallback mCallback;
+
+        HandlerProvisioningCallback(@NonNull Handler handler,
+                @NonNull ProvisioningCallback callback) {
+            mHandler = handler;
+            mCallback = callback;
+        }
+
+        @Override
+        public void onAdfCreated(@NonNull UUID serviceInstanceId,
+                @NonNull ObjectIdentifier adfOid) {
+            mHandler.post(() -> mCallback.onAdfCreated(serviceInstanceId, adfOid));
+        }
+
+        @Override
+        public void onAdfProvisioned(@NonNull UUID serviceInstanceId,
+                @NonNull ObjectIdentifier adfOid) {
+            mHandler.post(() -> mCallback.onAdfProvisioned(serviceInstanceId, adfOid));
+        }
+
+        @Override
+        public void onAdfImported(@NonNull UUID serviceInstanceId,
+                @NonNull ObjectIdentifier adfOid, @NonNull byte[] secureBlob) {
+            mHandler.post(() -> mCallback.onAdfImported(serviceInstanceId, adfOid, secureBlob));
+        }
+
+        @Override
+        public void onAdfDeleted(@NonNull UUID serviceInstanceId,
+                @NonNull ObjectIdentifier adfOid) {
+            mHandler.post(() -> mCallback.onAdfDeleted(serviceInstanceId, adfOid));
+        }
+
+        @Override
+        public void onFail(@NonNull UUID serviceInstanceId) {
+            mHandler.post(() -> mCallback.onFail(serviceInstanceId));
+        }
+
+        @Override
+        public void onProgress(@NonNull UUID serviceInstanceId,
+                @NonNull ProvisioningProgress progress) {
+            mHandler.post(() -> mCallback.onProgress(serviceInstanceId, progress));
+        }
     }
 
     /** Callback for the deleting ADF operation. */
@@ -25,12 +25,11 @@ import com.android.server.uwb.secure.iso7816.CommandApdu;
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
 import com.android.server.uwb.secure.iso7816.StatusWord;
 import com.android.server.uwb.secure.iso7816.TlvDatum;
-import com.android.server.uwb.secure.iso7816.TlvParser;
+import com.android.server.uwb.secure.iso7816.TlvReader;
 import com.android.server.uwb.util.ObjectIdentifier;
 
 import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -49,67 +48,136 @@ class ScriptRunner {
             @NonNull UUID serviceInstanceId,
             ProvisioningManager.ProvisioningCallback provisioningCallback)
             throws ProvisioningException {
+        run(scriptContent, serviceInstanceId, provisioningCallback, /* reportedApduCount= */ 0,
+                /* sentApduCount= */ 0, new ProgressListener() {
+                    @Override
+                    public void onSending(int sentApduCount) {}
+
+                    @Override
+                    public void onProgress(int completedApduCount) {}
+                });
+    }
+
+    /**
+     * Runs the whole script on a newly opened channel. A script run again after a failure still
+     * starts from its first APDU, since the secure channel set up by the script chains the MAC of
+     * every command to the previous ones.
+     *
+     * <p>The ADF APDUs before sentApduCount were sent by a previous run, the applet may already
+     * hold their changes and reject them, e.g. an ADF created by the previous run cannot be
+     * created again. Such a rejection is taken as the APDU being already done, except for the
+     * import which has to return the secure blob. The ADF callbacks of the APDUs before
+     * reportedApduCount were invoked by a previous run and are not invoked again.
+     *
+     * <p>The listener is told before each ADF APDU (create, manage, import or delete) is sent,
+     * and after it succeeded.
+     */
+    void run(@NonNull ScriptParser.ScriptContent scriptContent,
+            @NonNull UUID serviceInstanceId,
+            ProvisioningManager.ProvisioningCallback provisioningCallback,
+            int reportedApduCount,
+            int sentApduCount,
+            @NonNull ProgressListener progressListener)
+            throws ProvisioningException {
         List<byte[]> primitiveApdus = scriptContent.mProvisioningApdus;
         if (!mSecureElementChannel.openChannel()) {
-            throw new ProvisioningException("open logical channel error.");
+            // Mostly the logical channels are all taken for now, the run may succeed later.
+            throw new ProvisioningException(new IOException("open logical channel error."));
         }
-        for (byte[] apduBytes : primitiveApdus) {
-            try {
-                CommandApdu commandApdu = CommandApdu.parse(apduBytes);
-                ApduCategory apduCategory = getApduCategory(commandApdu);
-                if (apduCategory == ApduCategory.NOT_ALLOWED) {
-                    throw new ProvisioningException("not allowed Command APDU."
-                            + commandApdu.getIns());
-                }
-                ResponseApdu responseApdu = mSecureElementChannel.transmit(commandApdu);
-                if (responseApdu.getStatusWord() != StatusWord.SW_NO_ERROR.toInt()) {
+        for (int i = 0; i < primitiveApdus.size(); i++) {
+            if (runApdu(primitiveApdus.get(i), i, scriptContent, serviceInstanceId,
+                    provisioningCallback, /* replayed= */ i < sentApduCount,
+                    /* notifyAdf= */ i >= reportedApduCount, progressListener)) {
+                progressListener.onProgress(i + 1);
+            }
+        }
+    }
+
+    /** Runs one APDU of the script, returns true if it was an ADF APDU. */
+    private boolean runApdu(@NonNull byte[] apduBytes,
+            int apduIndex,
+            @NonNull ScriptParser.ScriptContent scriptContent,
+            @NonNull UUID serviceInstanceId,
+            ProvisioningManager.ProvisioningCallback provisioningCallback,
+            boolean replayed,
+            boolean notifyAdf,
+            @NonNull ProgressListener progressListener)
+            throws ProvisioningException {
+        try {
+            CommandApdu commandApdu = CommandApdu.parse(apduBytes);
+            ApduCategory apduCategory = getApduCategory(commandApdu);
+            if (apduCategory == ApduCategory.NOT_ALLOWED) {
+                throw new ProvisioningException("not allowed Command APDU."
+                        + commandApdu.getIns());
+            }
+            if (apduCategory != ApduCategory.GENERAL) {
+                progressListener.onSending(apduIndex + 1);
+            }
+            ResponseApdu responseApdu = mSecureElementChannel.transmit(commandApdu);
+            boolean alreadyDone = false;
+            if (responseApdu.getStatusWord() != StatusWord.SW_NO_ERROR.toInt()) {
+                if (!replayed || !isIdempotent(apduCategory)) {
                     throw new ProvisioningException("cannot handle the provisioning apdu.");
                 }
-                logd("apdu category: " + apduCategory);
-                if (apduCategory == ApduCategory.GENERAL) {
-                    // no further processing
-                    continue;
-                }
+                logw("apdu " + apduIndex + " (" + apduCategory + ") rejected with SW "
+                        + Integer.toHexString(responseApdu.getStatusWord())
+                        + ", it was already done by a previous run.");
+                alreadyDone = true;
+            }
+            logd("apdu category: " + apduCategory);
+            if (apduCategory == ApduCategory.GENERAL) {
+                // no further processing
+                return false;
+            }
 
-                Map<TlvDatum.Tag, List<TlvDatum>> tlvsMap =
-                        TlvParser.parseTlvs(responseApdu);
-                Optional<ObjectIdentifier> adfOid = scriptContent.mAdfOid;
-                if (adfOid.isEmpty()) {
-                    List<TlvDatum> oids =  tlvsMap.get(CsmlUtil.OID_TAG);
-                    if (oids != null && oids.size() > 0) {
-                        adfOid = Optional.of(ObjectIdentifier.fromBytes(oids.get(0).value));
-                    } else if (apduCategory != ApduCategory.MANAGE_ADF
-                            && commandApdu.getP1() == LAST_MANAGE_ADF_INDICATOR_P1) {
-                        throw new ProvisioningException(
-                                "ADF OID must be provided in script or response.");
+            // Only the DOs which are needed are looked up in the response.
+            byte[] responseData = responseApdu.getResponseData();
+            Optional<ObjectIdentifier> adfOid = scriptContent.mAdfOid;
+            if (adfOid.isEmpty()) {
+                TlvReader reader = new TlvReader(responseData);
+                if (reader.find(CsmlUtil.OID_TAG)) {
+                    adfOid = Optional.of(ObjectIdentifier.fromBytes(reader.getValue()));
+                } else if (alreadyDone) {
+                    // The OID was only in the response of the previous run.
+                    if (notifyAdf) {
+                        logw("no ADF OID for the callback of apdu " + apduIndex);
                     }
+                    return true;
+                } else if (apduCategory != ApduCategory.MANAGE_ADF
+                        && commandApdu.getP1() == LAST_MANAGE_ADF_INDICATOR_P1) {
+                    throw new ProvisioningException(
+                            "ADF OID must be provided in script or response.");
                 }
-                switch(apduCategory) {
-                    case CREATE_ADF:
-                        provisioningCallback.onAdfCreated(serviceInstanceId, adfOid.get());
-                        break;
-                    case MANAGE_ADF:
-                        if (commandApdu.getP1() == LAST_MANAGE_ADF_INDICATOR_P1) {
-                            provisioningCallback.onAdfProvisioned(serviceInstanceId, adfOid.get());
-                        }
-                        break;
-                    case IMPORT_ADF:
-                        List<TlvDatum>  secureBlobs = tlvsMap.get(SECURE_BLOB_TAG);
-                        if (secureBlobs == null || secureBlobs.size() == 0) {
-                            throw new ProvisioningException("SecureBlob is not available.");
-                        }
-                        provisioningCallback.onAdfImported(serviceInstanceId, adfOid.get(),
-                                secureBlobs.get(0).value);
-                        break;
-                    case DELETE_ADF:
-                        provisioningCallback.onAdfDeleted(serviceInstanceId, adfOid.get());
-                        break;
-                    default:
-                        break;
-                }
-            } catch (IOException e) {
-                throw new ProvisioningException(e);
             }
+            if (!notifyAdf) {
+                return true;
+            }
+            switch(apduCategory) {
+                case CREATE_ADF:
+                    provisioningCallback.onAdfCreated(serviceInstanceId, adfOid.get());
+                    break;
+                case MANAGE_ADF:
+                    if (commandApdu.getP1() == LAST_MANAGE_ADF_INDICATOR_P1) {
+                        provisioningCallback.onAdfProvisioned(serviceInstanceId, adfOid.get());
+                    }
+                    break;
+                case IMPORT_ADF:
+                    TlvReader reader = new TlvReader(responseData);
+                    if (!reader.find(SECURE_BLOB_TAG)) {
+                        throw new ProvisioningException("SecureBlob is not available.");
+                    }
+                    provisioningCallback.onAdfImported(serviceInstanceId, adfOid.get(),
+                            reader.getValue());
+                    break;
+                case DELETE_ADF:
+                    provisioningCallback.onAdfDeleted(serviceInstanceId, adfOid.get());
+                    break;
+                default:
+                    break;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new ProvisioningException(e);
         }
     }
 
@@ -133,6 +201,16 @@ class ScriptRunner {
         return ApduCategory.GENERAL;
     }
 
+    /**
+     * Whether the APDU can be run again once it succeeded. The import is not, the secure blob is
+     * only returned when it succeeds.
+     */
+    private boolean isIdempotent(ApduCategory apduCategory) {
+        return apduCategory == ApduCategory.CREATE_ADF
+                || apduCategory == ApduCategory.MANAGE_ADF
+                || apduCategory == ApduCategory.DELETE_ADF;
+    }
+
     private boolean isUnsecureApdu(CommandApdu commandApdu) {
         if (commandApdu.getIns() == (byte) 0xE4) { // DELETE ADF.
             return true;
@@ -140,6 +218,15 @@ class ScriptRunner {
         return false;
     }
 
+    /** Listener of the progress of a script run. */
+    interface ProgressListener {
+        /** The APDUs before sentApduCount were sent, they may have reached the applet. */
+        void onSending(int sentApduCount);
+
+        /** The APDUs before completedApduCount were run successfully. */
+        void onProgress(int completedApduCount);
+    }
+
     enum ApduCategory {
         CREATE_ADF,
         MANAGE_ADF,
@@ -152,4 +239,8 @@ class ScriptRunner {
     private void logd(String dbgMsg) {
         Log.d(LOG_TAG, dbgMsg);
     }
+
+    private void logw(String dbgMsg) {
+        Log.w(LOG_TAG, dbgMsg);
+    }
 }
@@ -19,19 +19,24 @@ package com.android.server.uwb.util;
 import android.annotation.NonNull;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Utility class for keeping a relatively small List of values, sorted by most recently added
  * first.
  *
  * Copied from {@code packages/modules/Wifi/service/java/com/android/server/wifi/util/LruList.java}
+ * Backed by a {@link LinkedHashMap}, so that {@link #add} and {@link #remove} take constant time.
+ * Entries need consistent {@link Object#equals} and {@link Object#hashCode} implementations.
  * @param <E>
  */
 public class LruList<E> {
-    private int mSize;
-    private LinkedList<E> mLinkedList;
+    private final int mSize;
+    // Entries in insertion order, least recently added first.
+    private final LinkedHashMap<E, Boolean> mEntries;
 
     /**
      * Creates a new LruList capped by maxSize.
@@ -39,7 +44,12 @@ public class LruList<E> {
      */
     public LruList(int maxSize) {
         mSize = maxSize;
-        mLinkedList = new LinkedList<E>();
+        mEntries = new LinkedHashMap<E, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<E, Boolean> eldest) {
+                return size() > mSize;
+            }
+        };
     }
 
     /**
@@ -53,14 +63,9 @@ public class LruList<E> {
         if (entry == null) {
             return;
         }
-        int index = mLinkedList.indexOf(entry);
-        if (index >= 0) {
-            mLinkedList.remove(index);
-        }
-        mLinkedList.addFirst(entry);
-        while (mLinkedList.size() > mSize) {
-            mLinkedList.removeLast();
-        }
+        // Re-inserting an existing key keeps its position, remove it first to move it.
+        mEntries.remove(entry);
+        mEntries.put(entry, Boolean.TRUE);
     }
 
     /**
@@ -70,11 +75,7 @@ public class LruList<E> {
         if (entry == null) {
             return;
         }
-        int index = mLinkedList.indexOf(entry);
-        if (index < 0) {
-            return;
-        }
-        mLinkedList.remove(index);
+        mEntries.remove(entry);
     }
 
     /**
@@ -82,14 +83,16 @@ public class LruList<E> {
      * @return
      */
     public @NonNull List<E> getEntries() {
-        return new ArrayList<E>(mLinkedList);
+        List<E> entries = new ArrayList<E>(mEntries.keySet());
+        Collections.reverse(entries);
+        return entries;
     }
 
     /**
      * Gets the number of entries in this LruList.
      */
     public int size() {
-        return mLinkedList.size();
+        return mEntries.size();
     }
 
     /**
@@ -98,6 +101,16 @@ public class LruList<E> {
      * If in the list, smaller index is more recently added.
      */
     public int indexOf(E entry) {
-        return mLinkedList.indexOf(entry);
+        if (!mEntries.containsKey(entry)) {
+            return -1;
+        }
+        int index = mEntries.size() - 1;
+        for (E e : mEntries.keySet()) {
+            if (e.equals(entry)) {
+                return index;
+            }
+            index--;
+        }
+        return -1;
     }
 }
@@ -17,20 +17,31 @@
 package com.google.uwb.support.fira;
 
 import android.os.PersistableBundle;
+import android.uwb.UwbAddress;
+
+import androidx.annotation.Nullable;
 
 import com.google.uwb.support.base.RequiredParam;
 
-/** FiRa Multicast List update status code defined in UCI 1.0 Table 27 */
+/**
+ * FiRa Multicast List update status code defined in UCI 1.0 Table 27, along with the address of
+ * the controlee it applies to when known.
+ */
 public class FiraMulticastListUpdateStatusCode extends FiraParams {
     private static final int BUNDLE_VERSION_1 = 1;
     private static final int BUNDLE_VERSION_CURRENT = BUNDLE_VERSION_1;
 
     @MulticastListUpdateStatus private final int mStatusCode;
+    @Nullable private final UwbAddress mAddress;
 
     private static final String KEY_STATUS_CODE = "multicast_list_update_status_code";
+    private static final String KEY_MAC_ADDRESS_MODE = "multicast_list_update_mac_address_mode";
+    private static final String KEY_ADDRESS = "multicast_list_update_address";
 
-    private FiraMulticastListUpdateStatusCode(@MulticastListUpdateStatus int statusCode) {
+    private FiraMulticastListUpdateStatusCode(@MulticastListUpdateStatus int statusCode,
+            @Nullable UwbAddress address) {
         mStatusCode = statusCode;
+        mAddress = address;
     }
 
     @Override
@@ -43,10 +54,22 @@ public class FiraMulticastListUpdateStatusCode extends FiraParams {
         return mStatusCode;
     }
 
+    /** Gets the address of the controlee, null if the status is not for a single controlee. */
+    @Nullable
+    public UwbAddress getAddress() {
+        return mAddress;
+    }
+
     @Override
     public PersistableBundle toBundle() {
         PersistableBundle bundle = super.toBundle();
         bundle.putInt(KEY_STATUS_CODE, mStatusCode);
+        if (mAddress != null) {
+            bundle.putInt(KEY_MAC_ADDRESS_MODE,
+                    mAddress.size() == UwbAddress.EXTENDED_ADDRESS_BYTE_LENGTH
+                            ? MAC_ADDRESS_MODE_8_BYTES : MAC_ADDRESS_MODE_2_BYTES);
+            bundle.putLong(KEY_ADDRESS, uwbAddressToLong(mAddress));
+        }
         return bundle;
     }
 
@@ -69,22 +92,38 @@ public class FiraMulticastListUpdateStatusCode extends FiraParams {
     }
 
     private static FiraMulticastListUpdateStatusCode parseVersion1(PersistableBundle bundle) {
-        return new FiraMulticastListUpdateStatusCode.Builder()
-                .setStatusCode(bundle.getInt(KEY_STATUS_CODE))
-                .build();
+        FiraMulticastListUpdateStatusCode.Builder builder =
+                new FiraMulticastListUpdateStatusCode.Builder()
+                        .setStatusCode(bundle.getInt(KEY_STATUS_CODE));
+        if (bundle.containsKey(KEY_ADDRESS)) {
+            int addressByteLength =
+                    bundle.getInt(KEY_MAC_ADDRESS_MODE) == MAC_ADDRESS_MODE_8_BYTES
+                            ? UwbAddress.EXTENDED_ADDRESS_BYTE_LENGTH
+                            : UwbAddress.SHORT_ADDRESS_BYTE_LENGTH;
+            builder.setAddress(longToUwbAddress(bundle.getLong(KEY_ADDRESS), addressByteLength));
+        }
+        return builder.build();
     }
 
     /** Builder */
     public static class Builder {
         private final RequiredParam<Integer> mStatusCode = new RequiredParam<>();
+        @Nullable private UwbAddress mAddress = null;
 
         public FiraMulticastListUpdateStatusCode.Builder setStatusCode(int statusCode) {
             mStatusCode.set(statusCode);
             return this;
         }
 
+        /** Sets the address of the controlee the status applies to. */
+        public FiraMulticastListUpdateStatusCode.Builder setAddress(
+                @Nullable UwbAddress address) {
+            mAddress = address;
+            return this;
+        }
+
         public FiraMulticastListUpdateStatusCode build() {
-            return new FiraMulticastListUpdateStatusCode(mStatusCode.get());
+            return new FiraMulticastListUpdateStatusCode(mStatusCode.get(), mAddress);
         }
     }
 }
@@ -141,6 +141,10 @@ public class FiraOpenSessionParams extends FiraParams {
     @UlTdoaTxTimestampType private final int mUlTdoaTxTimestampType;
     @FilterType private final int mFilterType;
     private final int mMaxNumberOfMeasurements;
+    private final int mRawNtfDataReportInterval;
+
+    // The params are immutable, the encoded bundle is kept to be copied by later encodings.
+    @Nullable private volatile PersistableBundle mBundle;
 
     private static final int BUNDLE_VERSION_1 = 1;
     private static final int BUNDLE_VERSION_CURRENT = BUNDLE_VERSION_1;
@@ -240,6 +244,8 @@ public class FiraOpenSessionParams extends FiraParams {
     private static final String UL_TDOA_TX_TIMESTAMP_TYPE = "ul_tdoa_tx_timestamp_type";
     private static final String KEY_FILTER_TYPE = "filter_type";
     private static final String KEY_MAX_NUMBER_OF_MEASUREMENTS = "max_number_of_measurements";
+    private static final String KEY_RAW_NTF_DATA_REPORT_INTERVAL =
+            "raw_ntf_data_report_interval";
 
     private FiraOpenSessionParams(
             FiraProtocolVersion protocolVersion,
@@ -317,7 +323,8 @@ public class FiraOpenSessionParams extends FiraParams {
             @Nullable byte[] ulTdoaDeviceId,
             int ulTdoaTxTimestampType,
             int filterType,
-            int maxNumberOfMeasurements) {
+            int maxNumberOfMeasurements,
+            int rawNtfDataReportInterval) {
         mProtocolVersion = protocolVersion;
         mSessionId = sessionId;
         mSessionType = sessionType;
@@ -394,6 +401,7 @@ public class FiraOpenSessionParams extends FiraParams {
         mUlTdoaTxTimestampType = ulTdoaTxTimestampType;
         mFilterType = filterType;
         mMaxNumberOfMeasurements = maxNumberOfMeasurements;
+        mRawNtfDataReportInterval = rawNtfDataReportInterval;
     }
 
     @Override
@@ -729,6 +737,11 @@ public class FiraOpenSessionParams extends FiraParams {
 
     public int getMaxNumberOfMeasurements() { return mMaxNumberOfMeasurements; }
 
+    /** Gets the number of ranging reports between two reports with the raw notification. */
+    public int getRawNtfDataReportInterval() {
+        return mRawNtfDataReportInterval;
+    }
+
     @Nullable
     private static int[] byteArrayToIntArray(@Nullable byte[] bytes) {
         if (bytes == null) {
@@ -756,6 +769,17 @@ public class FiraOpenSessionParams extends FiraParams {
 
     @Override
     public PersistableBundle toBundle() {
+        PersistableBundle bundle = mBundle;
+        if (bundle == null) {
+            bundle = encodeBundle();
+            mBundle = bundle;
+        }
+        // Callers may change the returned bundle or the arrays in it, hand out a deep copy of the
+        // memoized one.
+        return bundle.deepCopy();
+    }
+
+    private PersistableBundle encodeBundle() {
         PersistableBundle bundle = super.toBundle();
         bundle.putString(KEY_PROTOCOL_VERSION, mProtocolVersion.toString());
         bundle.putInt(KEY_SESSION_ID, mSessionId);
@@ -853,6 +877,7 @@ public class FiraOpenSessionParams extends FiraParams {
         bundle.putInt(UL_TDOA_TX_TIMESTAMP_TYPE, mUlTdoaTxTimestampType);
         bundle.putInt(KEY_FILTER_TYPE, mFilterType);
         bundle.putInt(KEY_MAX_NUMBER_OF_MEASUREMENTS, mMaxNumberOfMeasurements);
+        bundle.putInt(KEY_RAW_NTF_DATA_REPORT_INTERVAL, mRawNtfDataReportInterval);
         return bundle;
     }
 
@@ -985,7 +1010,9 @@ public class FiraOpenSessionParams extends FiraParams {
                 .setUlTdoaTxTimestampType(bundle.getInt(UL_TDOA_TX_TIMESTAMP_TYPE))
                 .setFilterType(bundle.getInt(KEY_FILTER_TYPE, FILTER_TYPE_DEFAULT))
                 .setMaxNumberOfMeasurements(bundle.getInt(
-                        KEY_MAX_NUMBER_OF_MEASUREMENTS, MAX_NUMBER_OF_MEASUREMENTS_DEFAULT));
+                        KEY_MAX_NUMBER_OF_MEASUREMENTS, MAX_NUMBER_OF_MEASUREMENTS_DEFAULT))
+                .setRawNtfDataReportInterval(bundle.getInt(
+                        KEY_RAW_NTF_DATA_REPORT_INTERVAL, RAW_NTF_DATA_REPORT_INTERVAL_NEVER));
         return builder.build();
     }
 
@@ -1219,6 +1246,9 @@ public class FiraOpenSessionParams extends FiraParams {
 
         private int mMaxNumberOfMeasurements = MAX_NUMBER_OF_MEASUREMENTS_DEFAULT;
 
+        /** Raw UCI notification in the ranging reports, omitted by default */
+        private int mRawNtfDataReportInterval = RAW_NTF_DATA_REPORT_INTERVAL_NEVER;
+
         public Builder() {}
 
         public Builder(@NonNull Builder builder) {
@@ -1299,6 +1329,7 @@ public class FiraOpenSessionParams extends FiraParams {
             mUlTdoaDeviceId = builder.mUlTdoaDeviceId;
             mUlTdoaTxTimestampType = builder.mUlTdoaTxTimestampType;
             mMaxNumberOfMeasurements = builder.mMaxNumberOfMeasurements;
+            mRawNtfDataReportInterval = builder.mRawNtfDataReportInterval;
         }
 
         public Builder(@NonNull FiraOpenSessionParams params) {
@@ -1380,6 +1411,7 @@ public class FiraOpenSessionParams extends FiraParams {
             mUlTdoaTxTimestampType = params.mUlTdoaTxTimestampType;
             mFilterType = params.mFilterType;
             mMaxNumberOfMeasurements = params.mMaxNumberOfMeasurements;
+            mRawNtfDataReportInterval = params.mRawNtfDataReportInterval;
         }
 
         public FiraOpenSessionParams.Builder setProtocolVersion(FiraProtocolVersion version) {
@@ -1824,6 +1856,19 @@ public class FiraOpenSessionParams extends FiraParams {
             return this;
         }
 
+        /**
+         * Sets how often the raw UCI notification is added to the ranging report metadata,
+         * {@link FiraParams#RAW_NTF_DATA_REPORT_INTERVAL_NEVER},
+         * {@link FiraParams#RAW_NTF_DATA_REPORT_INTERVAL_ALWAYS} or every Nth report. Defaults to
+         * never.
+         */
+        public FiraOpenSessionParams.Builder setRawNtfDataReportInterval(
+                int rawNtfDataReportInterval) {
+            checkArgument(rawNtfDataReportInterval >= 0);
+            mRawNtfDataReportInterval = rawNtfDataReportInterval;
+            return this;
+        }
+
         private void checkAddress() {
             checkArgument(
                     mMacAddressMode == MAC_ADDRESS_MODE_2_BYTES
@@ -2039,7 +2084,8 @@ public class FiraOpenSessionParams extends FiraParams {
                     mUlTdoaDeviceId,
                     mUlTdoaTxTimestampType,
                     mFilterType,
-                    mMaxNumberOfMeasurements);
+                    mMaxNumberOfMeasurements,
+                    mRawNtfDataReportInterval);
         }
     }
 }
@@ -1067,6 +1067,13 @@ public abstract class FiraParams extends Params {
     // Default value (Unlimited)
     public static final int MAX_NUMBER_OF_MEASUREMENTS_DEFAULT = 0;
 
+    /**
+     * How often the raw UCI notification is added to the ranging report metadata, as the number
+     * of reports between two reports with the raw notification.
+     */
+    public static final int RAW_NTF_DATA_REPORT_INTERVAL_NEVER = 0;
+    public static final int RAW_NTF_DATA_REPORT_INTERVAL_ALWAYS = 1;
+
     // Helper functions
     protected static UwbAddress longToUwbAddress(long value, int length) {
         ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
@@ -26,11 +26,20 @@ public class FiraStatusCode extends FiraParams {
     private static final int BUNDLE_VERSION_CURRENT = BUNDLE_VERSION_1;
 
     @StatusCode private final int mStatusCode;
+    private final int mSuggestedRangingIntervalMs;
+    private final int mSuggestedBlockStrideLength;
 
     private static final String KEY_STATUS_CODE = "status_code";
+    private static final String KEY_SUGGESTED_RANGING_INTERVAL_MS =
+            "suggested_ranging_interval_ms";
+    private static final String KEY_SUGGESTED_BLOCK_STRIDE_LENGTH =
+            "suggested_block_stride_length";
 
-    private FiraStatusCode(@StatusCode int statusCode) {
+    private FiraStatusCode(@StatusCode int statusCode, int suggestedRangingIntervalMs,
+            int suggestedBlockStrideLength) {
         mStatusCode = statusCode;
+        mSuggestedRangingIntervalMs = suggestedRangingIntervalMs;
+        mSuggestedBlockStrideLength = suggestedBlockStrideLength;
     }
 
     @Override
@@ -43,10 +52,28 @@ public class FiraStatusCode extends FiraParams {
         return mStatusCode;
     }
 
+    /**
+     * Gets the ranging interval a session refused for lack of airtime would be admitted with,
+     * 0 if none.
+     */
+    public int getSuggestedRangingIntervalMs() {
+        return mSuggestedRangingIntervalMs;
+    }
+
+    /**
+     * Gets the block stride length a session refused for lack of airtime would be admitted with,
+     * 0 if none.
+     */
+    public int getSuggestedBlockStrideLength() {
+        return mSuggestedBlockStrideLength;
+    }
+
     @Override
     public PersistableBundle toBundle() {
         PersistableBundle bundle = super.toBundle();
         bundle.putInt(KEY_STATUS_CODE, mStatusCode);
+        bundle.putInt(KEY_SUGGESTED_RANGING_INTERVAL_MS, mSuggestedRangingIntervalMs);
+        bundle.putInt(KEY_SUGGESTED_BLOCK_STRIDE_LENGTH, mSuggestedBlockStrideLength);
         return bundle;
     }
 
@@ -65,7 +92,11 @@ public class FiraStatusCode extends FiraParams {
     }
 
     private static FiraStatusCode parseVersion1(PersistableBundle bundle) {
-        return new FiraStatusCode.Builder().setStatusCode(bundle.getInt(KEY_STATUS_CODE)).build();
+        return new FiraStatusCode.Builder()
+                .setStatusCode(bundle.getInt(KEY_STATUS_CODE))
+                .setSuggestedRangingIntervalMs(bundle.getInt(KEY_SUGGESTED_RANGING_INTERVAL_MS))
+                .setSuggestedBlockStrideLength(bundle.getInt(KEY_SUGGESTED_BLOCK_STRIDE_LENGTH))
+                .build();
     }
 
     public static boolean isBundleValid(PersistableBundle bundle) {
@@ -75,14 +106,29 @@ public class FiraStatusCode extends FiraParams {
     /** Builder */
     public static class Builder {
         private final RequiredParam<Integer> mStatusCode = new RequiredParam<>();
+        private int mSuggestedRangingIntervalMs = 0;
+        private int mSuggestedBlockStrideLength = 0;
 
         public FiraStatusCode.Builder setStatusCode(int statusCode) {
             mStatusCode.set(statusCode);
             return this;
         }
 
+        public FiraStatusCode.Builder setSuggestedRangingIntervalMs(
+                int suggestedRangingIntervalMs) {
+            mSuggestedRangingIntervalMs = suggestedRangingIntervalMs;
+            return this;
+        }
+
+        public FiraStatusCode.Builder setSuggestedBlockStrideLength(
+                int suggestedBlockStrideLength) {
+            mSuggestedBlockStrideLength = suggestedBlockStrideLength;
+            return this;
+        }
+
         public FiraStatusCode build() {
-            return new FiraStatusCode(mStatusCode.get());
+            return new FiraStatusCode(mStatusCode.get(), mSuggestedRangingIntervalMs,
+                    mSuggestedBlockStrideLength);
         }
     }
 }
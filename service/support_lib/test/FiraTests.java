@@ -39,6 +39,7 @@ import static com.google.uwb.support.fira.FiraParams.SESSION_TYPE_RANGING;
 import static com.google.uwb.support.fira.FiraParams.SFD_ID_VALUE_3;
 import static com.google.uwb.support.fira.FiraParams.STATE_CHANGE_REASON_CODE_ERROR_INVALID_RANGING_INTERVAL;
 import static com.google.uwb.support.fira.FiraParams.STATUS_CODE_ERROR_ADDRESS_ALREADY_PRESENT;
+import static com.google.uwb.support.fira.FiraParams.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED;
 import static com.google.uwb.support.fira.FiraParams.STS_CONFIG_DYNAMIC_FOR_CONTROLEE_INDIVIDUAL_KEY;
 import static com.google.uwb.support.fira.FiraParams.STS_LENGTH_128_SYMBOLS;
 import static com.google.uwb.support.fira.FiraParams.STS_SEGMENT_COUNT_VALUE_2;
@@ -47,6 +48,8 @@ import static com.google.uwb.support.fira.FiraParams.UL_TDOA_DEVICE_ID_16_BIT;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import android.os.PersistableBundle;
@@ -448,6 +451,34 @@ public class FiraTests {
         verifyBundlesEqual(params, fromCopy);
     }
 
+    @Test
+    public void testOpenSessionParams_toBundleMemoized() {
+        FiraOpenSessionParams params =
+                new FiraOpenSessionParams.Builder()
+                        .setProtocolVersion(FiraParams.PROTOCOL_VERSION_1_1)
+                        .setSessionId(1)
+                        .setSessionType(SESSION_TYPE_RANGING)
+                        .setDeviceType(RANGING_DEVICE_TYPE_CONTROLLER)
+                        .setDeviceRole(RANGING_DEVICE_ROLE_INITIATOR)
+                        .setDeviceAddress(UwbAddress.fromBytes(new byte[] {0x01, 0x02}))
+                        .setDestAddressList(List.of(UwbAddress.fromBytes(new byte[] {0x03, 0x04})))
+                        .setMultiNodeMode(MULTI_NODE_MODE_MANY_TO_MANY)
+                        .setVendorId(new byte[] {0x05, 0x06})
+                        .setStaticStsIV(new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06})
+                        .build();
+
+        PersistableBundle bundle = params.toBundle();
+        bundle.putInt("added_by_caller", 1);
+        bundle.getLongArray("dest_address_list")[0] = 0;
+        PersistableBundle secondBundle = params.toBundle();
+
+        assertFalse(secondBundle.containsKey("added_by_caller"));
+        assertEquals(bundle.size() - 1, secondBundle.size());
+        assertEquals(params, FiraOpenSessionParams.fromBundle(secondBundle));
+        assertEquals(params.getDestAddressList(),
+                FiraOpenSessionParams.fromBundle(secondBundle).getDestAddressList());
+    }
+
     @Test
     public void testRangingReconfigureParams() {
         int action = MULTICAST_LIST_UPDATE_ACTION_DELETE;
@@ -559,6 +590,24 @@ public class FiraTests {
         verifyBundlesEqual(params, fromBundle);
     }
 
+    @Test
+    public void testStatusCodeWithSuggestion() {
+        int statusCode = STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED;
+        int suggestedRangingIntervalMs = 200;
+        int suggestedBlockStrideLength = 1;
+        FiraStatusCode params = new FiraStatusCode.Builder()
+                .setStatusCode(statusCode)
+                .setSuggestedRangingIntervalMs(suggestedRangingIntervalMs)
+                .setSuggestedBlockStrideLength(suggestedBlockStrideLength)
+                .build();
+        FiraStatusCode fromBundle = FiraStatusCode.fromBundle(params.toBundle());
+        assertEquals(fromBundle.getStatusCode(), statusCode);
+        assertEquals(fromBundle.getSuggestedRangingIntervalMs(), suggestedRangingIntervalMs);
+        assertEquals(fromBundle.getSuggestedBlockStrideLength(), suggestedBlockStrideLength);
+
+        verifyBundlesEqual(params, fromBundle);
+    }
+
     @Test
     public void testMulticastListUpdateStatusCode() {
         int statusCode = MULTICAST_LIST_UPDATE_STATUS_ERROR_MULTICAST_LIST_FULL;
@@ -570,6 +619,18 @@ public class FiraTests {
         FiraMulticastListUpdateStatusCode fromBundle =
                 FiraMulticastListUpdateStatusCode.fromBundle(params.toBundle());
         assertEquals(fromBundle.getStatusCode(), statusCode);
+        assertNull(fromBundle.getAddress());
+
+        UwbAddress address = UwbAddress.fromBytes(new byte[] {0x4, 0x6});
+        FiraMulticastListUpdateStatusCode withAddress =
+                FiraMulticastListUpdateStatusCode.fromBundle(
+                        new FiraMulticastListUpdateStatusCode.Builder()
+                                .setStatusCode(statusCode)
+                                .setAddress(address)
+                                .build()
+                                .toBundle());
+        assertEquals(withAddress.getStatusCode(), statusCode);
+        assertEquals(withAddress.getAddress(), address);
 
         verifyProtocolPresent(params);
         verifyBundlesEqual(params, fromBundle);
@@ -174,6 +174,11 @@ public class DeviceConfigFacadeTest {
         assertEquals(false, mDeviceConfigFacade.isSessionInitErrorBugreportEnabled());
         assertEquals(DeviceConfigFacade.DEFAULT_BUG_REPORT_MIN_INTERVAL_MS,
                 mDeviceConfigFacade.getBugReportMinIntervalMs());
+        assertEquals(DeviceConfigFacade.DEFAULT_OEM_EXTENSION_DEADLINE_MS,
+                mDeviceConfigFacade.getOemExtensionDeadlineMs());
+        assertEquals(DeviceConfigFacade.DEFAULT_OEM_EXTENSION_MAX_QUEUE_SIZE,
+                mDeviceConfigFacade.getOemExtensionMaxQueueSize());
+        assertEquals(false, mDeviceConfigFacade.isSessionAirtimeSchedulingEnabled());
 
         assertEquals(true, mDeviceConfigFacade.isEnableFilters());
         assertEquals(true, mDeviceConfigFacade.isEnablePrimerEstElevation());
@@ -240,6 +245,11 @@ public class DeviceConfigFacadeTest {
         mOnPropertiesChangedListenerCaptor.getValue().onPropertiesChanged(null);
         assertEquals(true, mDeviceConfigFacade.isDeviceErrorBugreportEnabled());
 
+        when(DeviceConfig.getBoolean(anyString(), eq("session_airtime_scheduling_enabled"),
+                anyBoolean())).thenReturn(true);
+        mOnPropertiesChangedListenerCaptor.getValue().onPropertiesChanged(null);
+        assertEquals(true, mDeviceConfigFacade.isSessionAirtimeSchedulingEnabled());
+
         when(DeviceConfig.getInt(anyString(), eq("bug_report_min_interval_ms"),
                 anyInt())).thenReturn(10 * 3600_000);
         mOnPropertiesChangedListenerCaptor.getValue().onPropertiesChanged(null);
@@ -21,6 +21,7 @@ import static com.android.server.uwb.UwbConfigStore.STORE_FILE_USER_GENERAL;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
@@ -32,6 +33,7 @@ import android.app.AlarmManager;
 import android.content.Context;
 import android.os.Handler;
 import android.os.UserManager;
+import android.os.test.TestLooper;
 import android.platform.test.annotations.Presubmit;
 import android.test.suitebuilder.annotation.SmallTest;
 
@@ -42,20 +44,23 @@ import com.android.proto.uwb.UwbConfigProto;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 @Presubmit
 public class UwbConfigStoreTest {
     @Mock private Context mContext;
-    @Mock private Handler mHandler;
     @Mock private UwbInjector mUwbInjector;
     @Mock private AlarmManager mAlarmManager;
     @Mock private UserManager mUserManager;
@@ -63,6 +68,7 @@ public class UwbConfigStoreTest {
     private MockStoreData mStoreData;
     private MockStoreFile mUserStoreFile;
     private final List<UwbConfigStore.StoreFile> mUserStores = new ArrayList<>();
+    private final TestLooper mTestLooper = new TestLooper();
 
     private UwbConfigStore mUwbConfigStore;
 
@@ -74,12 +80,19 @@ public class UwbConfigStoreTest {
 
         List<UwbConfigStore.StoreFile> mSharedStores = new ArrayList<>();
         mSharedStores.add(mSharedStoreFile);
-        mUwbConfigStore = new UwbConfigStore(mContext, mHandler, mUwbInjector, mSharedStores);
+        Handler handler = new Handler(mTestLooper.getLooper());
+        mUwbConfigStore = new UwbConfigStore(mContext, handler, handler, mUwbInjector,
+                mSharedStores);
         mUserStoreFile = new MockStoreFile(STORE_FILE_USER_GENERAL);
         mStoreData = new MockStoreData(STORE_FILE_USER_GENERAL);
         mUserStores.add(mUserStoreFile);
     }
 
+    private void flushIo() {
+        mTestLooper.moveTimeForward(UwbConfigStore.IO_WRITE_COALESCE_WINDOW_MS);
+        mTestLooper.dispatchAll();
+    }
+
     @Test
     public void testRegisterStoreData() {
         mUwbConfigStore.registerStoreData(mStoreData);
@@ -98,6 +111,9 @@ public class UwbConfigStoreTest {
         mUwbConfigStore.setUserStores(mUserStores);
         mUwbConfigStore.write(false);
         mUwbConfigStore.saveToStore(true);
+        // File I/O happens off the caller's handler.
+        assertFalse(mUserStoreFile.isStoreWritten());
+        flushIo();
 
         verify(userStoreData, times(2)).hasNewDataToSerialize();
         assertTrue(mUserStoreFile.isStoreWritten());
@@ -129,11 +145,14 @@ public class UwbConfigStoreTest {
         assertTrue(mUwbConfigStore.registerStoreData(userStoreData));
 
         mUwbConfigStore.setUserStores(mUserStores);
-        mUwbConfigStore.write(true);
+        CompletableFuture<Boolean> future = mUwbConfigStore.write(true);
+        assertFalse(future.isDone());
+        flushIo();
 
         verify(userStoreData).hasNewDataToSerialize();
 
         assertTrue(mUserStoreFile.isStoreWritten());
+        assertTrue(future.getNow(false));
     }
 
     @Test
@@ -152,9 +171,194 @@ public class UwbConfigStoreTest {
         assertFalse(mUserStoreFile.isStoreWritten());
 
         mUwbConfigStore.handleUserSwitch(2);
+        flushIo();
+        assertTrue(mUserStoreFile.isStoreWritten());
+    }
+
+    @Test
+    public void testWriteDeltaAppendsJournalRecord() throws IOException {
+        UwbConfigStore.StoreData userStoreData = mock(UwbConfigStore.StoreData.class);
+
+        when(userStoreData.getStoreFileId()).thenReturn(STORE_FILE_USER_GENERAL);
+        when(userStoreData.hasNewDataToSerialize()).thenReturn(true);
+        when(userStoreData.serializeDelta(any())).thenReturn(true);
+
+        assertTrue(mUwbConfigStore.registerStoreData(userStoreData));
+
+        mUwbConfigStore.setUserStores(mUserStores);
+        mUwbConfigStore.write(true);
+        flushIo();
+
+        // Only the delta is written, the snapshot is left untouched.
+        verify(userStoreData, times(0)).serializeData(any());
+        assertNull(mUserStoreFile.readRawData());
+        assertEquals(1, mUserStoreFile.mJournalRecords.size());
         assertTrue(mUserStoreFile.isStoreWritten());
     }
 
+    @Test
+    public void testWriteCompactsJournalIntoSnapshot() throws IOException {
+        UwbConfigStore.StoreData userStoreData = mock(UwbConfigStore.StoreData.class);
+
+        when(userStoreData.getStoreFileId()).thenReturn(STORE_FILE_USER_GENERAL);
+        when(userStoreData.hasNewDataToSerialize()).thenReturn(true);
+        when(userStoreData.serializeDelta(any())).thenReturn(true);
+
+        assertTrue(mUwbConfigStore.registerStoreData(userStoreData));
+
+        mUwbConfigStore.setUserStores(mUserStores);
+        for (int i = 0; i < UwbConfigStore.MAX_JOURNAL_RECORDS; i++) {
+            mUwbConfigStore.write(true);
+        }
+        assertNull(mUserStoreFile.readRawData());
+        assertEquals(UwbConfigStore.MAX_JOURNAL_RECORDS, mUserStoreFile.mJournalRecords.size());
+
+        mUwbConfigStore.write(true);
+        verify(userStoreData).serializeData(any());
+        assertTrue(mUserStoreFile.readRawData() != null);
+        assertTrue(mUserStoreFile.mJournalRecords.isEmpty());
+    }
+
+    @Test
+    public void testReadReplaysJournal() throws IOException {
+        UwbConfigStore.StoreData userStoreData = mock(UwbConfigStore.StoreData.class);
+        when(userStoreData.getStoreFileId()).thenReturn(STORE_FILE_USER_GENERAL);
+        assertTrue(mUwbConfigStore.registerStoreData(userStoreData));
+
+        mUserStoreFile.storeRawDataToWrite(UwbConfigProto.UwbConfig.newBuilder()
+                .setVersion(1)
+                .setGeneration(1)
+                .addServiceConfig(createServiceConfig("a", 1))
+                .addServiceConfig(createServiceConfig("b", 1))
+                .build().toByteArray());
+        // Stale record of the previous generation.
+        mUserStoreFile.storeJournalRecordToWrite(createJournalRecord(
+                UwbConfigProto.UwbConfigDelta.newBuilder()
+                        .setGeneration(0)
+                        .addRemovedServiceInstanceId("b")));
+        mUserStoreFile.storeJournalRecordToWrite(createJournalRecord(
+                UwbConfigProto.UwbConfigDelta.newBuilder()
+                        .setGeneration(1)
+                        .addRemovedServiceInstanceId("a")
+                        .addUpsertedServiceConfig(createServiceConfig("b", 2))
+                        .addUpsertedServiceConfig(createServiceConfig("c", 1))));
+        // Torn trailing record.
+        mUserStoreFile.storeJournalRecordToWrite(new byte[] {0x10, 0x01});
+
+        mUwbConfigStore.setUserStores(mUserStores);
+        mUwbConfigStore.read();
+        mTestLooper.dispatchAll();
+
+        ArgumentCaptor<UwbConfigProto.UwbConfig> captor =
+                ArgumentCaptor.forClass(UwbConfigProto.UwbConfig.class);
+        verify(userStoreData).deserializeData(captor.capture());
+        UwbConfigProto.UwbConfig uwbConfig = captor.getValue();
+        assertEquals(2, uwbConfig.getServiceConfigCount());
+        assertEquals("b", uwbConfig.getServiceConfig(0).getServiceInstanceId());
+        assertEquals(2, uwbConfig.getServiceConfig(0).getAdfStatus());
+        assertEquals("c", uwbConfig.getServiceConfig(1).getServiceInstanceId());
+    }
+
+    @Test
+    public void testAppendAfterTornJournalRecordSurvivesReload() throws IOException {
+        UwbConfigStore.StoreData userStoreData = mock(UwbConfigStore.StoreData.class);
+        when(userStoreData.getStoreFileId()).thenReturn(STORE_FILE_USER_GENERAL);
+        assertTrue(mUwbConfigStore.registerStoreData(userStoreData));
+
+        File file = File.createTempFile("UwbConfigStoreTest", null);
+        File journalFile = new File(file.getPath() + ".journal");
+        file.deleteOnExit();
+        journalFile.deleteOnExit();
+        UwbConfigStore.StoreFile storeFile =
+                new UwbConfigStore.StoreFile(file, STORE_FILE_USER_GENERAL);
+        storeFile.storeRawDataToWrite(UwbConfigProto.UwbConfig.newBuilder()
+                .setVersion(1)
+                .setGeneration(1)
+                .addServiceConfig(createServiceConfig("a", 1))
+                .build().toByteArray());
+        storeFile.storeJournalRecordToWrite(createJournalRecord(
+                UwbConfigProto.UwbConfigDelta.newBuilder()
+                        .setGeneration(1)
+                        .addUpsertedServiceConfig(createServiceConfig("b", 1))));
+        storeFile.writeBufferedRawData();
+        // Torn trailing record.
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(new byte[] {0x10, 0x01});
+        }
+
+        mUwbConfigStore.setUserStores(List.of(storeFile));
+        mUwbConfigStore.read();
+        mTestLooper.dispatchAll();
+        storeFile.storeJournalRecordToWrite(createJournalRecord(
+                UwbConfigProto.UwbConfigDelta.newBuilder()
+                        .setGeneration(1)
+                        .addUpsertedServiceConfig(createServiceConfig("c", 1))));
+        storeFile.writeBufferedRawData();
+        mUwbConfigStore.read();
+        mTestLooper.dispatchAll();
+
+        ArgumentCaptor<UwbConfigProto.UwbConfig> captor =
+                ArgumentCaptor.forClass(UwbConfigProto.UwbConfig.class);
+        verify(userStoreData, times(2)).deserializeData(captor.capture());
+        UwbConfigProto.UwbConfig uwbConfig = captor.getValue();
+        assertEquals(3, uwbConfig.getServiceConfigCount());
+        assertEquals("c", uwbConfig.getServiceConfig(2).getServiceInstanceId());
+    }
+
+    @Test
+    public void testForcedWritesAreCoalesced() {
+        UwbConfigStore.StoreData userStoreData = mock(UwbConfigStore.StoreData.class);
+
+        when(userStoreData.getStoreFileId()).thenReturn(STORE_FILE_USER_GENERAL);
+        when(userStoreData.hasNewDataToSerialize()).thenReturn(true);
+
+        assertTrue(mUwbConfigStore.registerStoreData(userStoreData));
+
+        mUwbConfigStore.setUserStores(mUserStores);
+        CompletableFuture<Boolean> first = mUwbConfigStore.saveToStoreAsync();
+        CompletableFuture<Boolean> second = mUwbConfigStore.saveToStoreAsync();
+        flushIo();
+
+        assertTrue(first.getNow(false));
+        assertTrue(second.getNow(false));
+        assertEquals(1, mUserStoreFile.mWriteCount);
+    }
+
+    @Test
+    public void testSaveToStoreRejectedWhileReading() {
+        UwbConfigStore.StoreData userStoreData = mock(UwbConfigStore.StoreData.class);
+
+        when(userStoreData.getStoreFileId()).thenReturn(STORE_FILE_USER_GENERAL);
+        when(userStoreData.hasNewDataToSerialize()).thenReturn(true);
+
+        assertTrue(mUwbConfigStore.registerStoreData(userStoreData));
+
+        mUwbConfigStore.setUserStores(mUserStores);
+        assertTrue(mUwbConfigStore.loadFromStore());
+        assertFalse(mUwbConfigStore.saveToStore(true));
+
+        mTestLooper.dispatchAll();
+        assertTrue(mUwbConfigStore.saveToStore(true));
+    }
+
+    private static UwbConfigProto.ServiceConfig createServiceConfig(String serviceInstanceId,
+            int adfStatus) {
+        return UwbConfigProto.ServiceConfig.newBuilder()
+                .setServiceInstanceId(serviceInstanceId)
+                .setUid(1)
+                .setPackageName("test")
+                .setServiceId(1)
+                .setAdfStatus(adfStatus)
+                .build();
+    }
+
+    private static byte[] createJournalRecord(UwbConfigProto.UwbConfigDelta.Builder builder)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        builder.build().writeDelimitedTo(out);
+        return out.toByteArray();
+    }
+
     /**
      * Mock Store File to redirect all file writes from WifiConfigStore to local buffers.
      * This can be used to examine the data output by WifiConfigStore.
@@ -162,6 +366,8 @@ public class UwbConfigStoreTest {
     private static class MockStoreFile extends UwbConfigStore.StoreFile {
         private byte[] mStoreBytes;
         private boolean mStoreWritten;
+        private int mWriteCount;
+        private final List<byte[]> mJournalRecords = new ArrayList<>();
 
         MockStoreFile(@UwbConfigStore.StoreFileId int fileId) {
             super(new File("MockStoreFile"), fileId);
@@ -172,15 +378,38 @@ public class UwbConfigStoreTest {
             return mStoreBytes;
         }
 
+        @Override
+        public byte[] readJournalRawData() {
+            if (mJournalRecords.isEmpty()) {
+                return null;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (byte[] record : mJournalRecords) {
+                out.write(record, 0, record.length);
+            }
+            return out.toByteArray();
+        }
+
         @Override
         public void storeRawDataToWrite(byte[] data) {
+            super.storeRawDataToWrite(data);
             mStoreBytes = data;
+            mJournalRecords.clear();
+            mStoreWritten = false;
+        }
+
+        @Override
+        public void storeJournalRecordToWrite(byte[] record) {
+            super.storeJournalRecordToWrite(record);
+            mJournalRecords.add(record);
             mStoreWritten = false;
         }
 
         @Override
-        public void writeBufferedRawData() {
+        public int writeBufferedRawData() {
             mStoreWritten = true;
+            mWriteCount++;
+            return 0;
         }
 
         public boolean isStoreWritten() {
@@ -42,6 +42,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -51,6 +52,7 @@ import android.uwb.UwbAddress;
 
 import androidx.test.runner.AndroidJUnit4;
 
+import com.android.server.uwb.config.ConfigParam;
 import com.android.server.uwb.data.UwbConfigStatusData;
 import com.android.server.uwb.data.UwbTlvData;
 import com.android.server.uwb.data.UwbUciConstants;
@@ -60,6 +62,7 @@ import com.android.server.uwb.proto.UwbStatsLog;
 import com.google.uwb.support.fira.FiraOpenSessionParams;
 import com.google.uwb.support.fira.FiraParams;
 import com.google.uwb.support.fira.FiraProtocolVersion;
+import com.google.uwb.support.fira.FiraRangingReconfigureParams;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -114,6 +117,69 @@ public class UwbConfigurationManagerTest {
         assertEquals(UwbUciConstants.STATUS_CODE_OK, status);
     }
 
+    @Test
+    public void testSetAppConfigurations_onlyChangedTlvsSent() throws Exception {
+        UwbConfigStatusData appConfig = new UwbConfigStatusData(UwbUciConstants.STATUS_CODE_OK,
+                0, new byte[0]);
+        when(mNativeUwbManager.setAppConfigurations(anyInt(), anyInt(), anyInt(),
+                any(byte[].class), anyString())).thenReturn(appConfig);
+        mUwbConfigurationManager.setAppConfigurations(1, mFiraParams, TEST_CHIP_ID);
+
+        FiraRangingReconfigureParams sameBlockStride =
+                new FiraRangingReconfigureParams.Builder()
+                        .setBlockStrideLength(mFiraParams.getBlockStrideLength())
+                        .build();
+        assertEquals(UwbUciConstants.STATUS_CODE_OK, mUwbConfigurationManager
+                .setAppConfigurations(1, sameBlockStride, TEST_CHIP_ID));
+        assertEquals(UwbUciConstants.STATUS_CODE_OK, mUwbConfigurationManager
+                .setAppConfigurations(1, mFiraParams, TEST_CHIP_ID));
+        verify(mNativeUwbManager).setAppConfigurations(anyInt(), anyInt(), anyInt(),
+                any(byte[].class), anyString());
+
+        FiraRangingReconfigureParams newBlockStride =
+                new FiraRangingReconfigureParams.Builder()
+                        .setBlockStrideLength(mFiraParams.getBlockStrideLength() + 1)
+                        .build();
+        mUwbConfigurationManager.setAppConfigurations(1, newBlockStride, TEST_CHIP_ID);
+        verify(mNativeUwbManager).setAppConfigurations(1, 1, 3,
+                new byte[] {ConfigParam.BLOCK_STRIDE_LENGTH, 1,
+                        (byte) (mFiraParams.getBlockStrideLength() + 1)},
+                TEST_CHIP_ID);
+
+        // The params of another session are not applied yet.
+        mUwbConfigurationManager.setAppConfigurations(2, newBlockStride, TEST_CHIP_ID);
+        verify(mNativeUwbManager).setAppConfigurations(eq(2), eq(1), anyInt(),
+                any(byte[].class), anyString());
+    }
+
+    @Test
+    public void testSetAppConfigurations_allTlvsSentAfterFailureOrInvalidation()
+            throws Exception {
+        when(mNativeUwbManager.setAppConfigurations(anyInt(), anyInt(), anyInt(),
+                any(byte[].class), anyString())).thenReturn(
+                new UwbConfigStatusData(UwbUciConstants.STATUS_CODE_FAILED, 0, new byte[0]));
+        mUwbConfigurationManager.setAppConfigurations(1, mFiraParams, TEST_CHIP_ID);
+        mUwbConfigurationManager.setAppConfigurations(1, mFiraParams, TEST_CHIP_ID);
+        verify(mNativeUwbManager, times(2)).setAppConfigurations(anyInt(), anyInt(), anyInt(),
+                any(byte[].class), anyString());
+
+        when(mNativeUwbManager.setAppConfigurations(anyInt(), anyInt(), anyInt(),
+                any(byte[].class), anyString())).thenReturn(
+                new UwbConfigStatusData(UwbUciConstants.STATUS_CODE_OK, 0, new byte[0]));
+        mUwbConfigurationManager.setAppConfigurations(1, mFiraParams, TEST_CHIP_ID);
+        mUwbConfigurationManager.invalidateAppConfigurations(1, ConfigParam.BLOCK_STRIDE_LENGTH);
+        mUwbConfigurationManager.setAppConfigurations(1, mFiraParams, TEST_CHIP_ID);
+        verify(mNativeUwbManager).setAppConfigurations(1, 1, 3,
+                new byte[] {ConfigParam.BLOCK_STRIDE_LENGTH, 1,
+                        (byte) mFiraParams.getBlockStrideLength()},
+                TEST_CHIP_ID);
+
+        mUwbConfigurationManager.clearAppConfigurations(1);
+        mUwbConfigurationManager.setAppConfigurations(1, mFiraParams, TEST_CHIP_ID);
+        verify(mNativeUwbManager, times(5)).setAppConfigurations(anyInt(), anyInt(), anyInt(),
+                any(byte[].class), anyString());
+    }
+
     @Test
     public void testGetAppConfigurations() throws Exception {
         byte[] tlvs = {0x01, 0x02, 0x02, 0x03};
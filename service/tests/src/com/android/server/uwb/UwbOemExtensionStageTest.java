@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.os.PersistableBundle;
+import android.os.RemoteException;
+import android.os.test.TestLooper;
+import android.platform.test.annotations.Presubmit;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.uwb.IUwbOemExtensionCallback;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit tests for {@link com.android.server.uwb.UwbOemExtensionStage}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+@Presubmit
+public class UwbOemExtensionStageTest {
+    private static final int SESSION_ID = 1;
+    private static final int OTHER_SESSION_ID = 2;
+    private static final int DEADLINE_MS = 50;
+    private static final int MAX_QUEUE_SIZE = 2;
+
+    @Mock private UwbInjector mUwbInjector;
+    @Mock private UwbServiceCore mUwbServiceCore;
+    @Mock private DeviceConfigFacade mDeviceConfigFacade;
+    @Mock private IUwbOemExtensionCallback mOemExtensionCallback;
+
+    private final TestLooper mTestLooper = new TestLooper();
+    // Holds OEM calls until the test runs them, to simulate a slow OEM service.
+    private final ArrayDeque<Runnable> mOemTasks = new ArrayDeque<>();
+    private UwbOemExtensionStage mUwbOemExtensionStage;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mUwbInjector.getUwbServiceCore()).thenReturn(mUwbServiceCore);
+        when(mUwbInjector.getDeviceConfigFacade()).thenReturn(mDeviceConfigFacade);
+        when(mUwbServiceCore.getOemExtensionCallback()).thenReturn(mOemExtensionCallback);
+        when(mDeviceConfigFacade.getOemExtensionDeadlineMs()).thenReturn(DEADLINE_MS);
+        when(mDeviceConfigFacade.getOemExtensionMaxQueueSize()).thenReturn(MAX_QUEUE_SIZE);
+        mUwbOemExtensionStage = new UwbOemExtensionStage(
+                mUwbInjector, mTestLooper.getLooper(), mOemTasks::add);
+    }
+
+    private void runOemTasks() {
+        while (!mOemTasks.isEmpty()) {
+            mOemTasks.poll().run();
+        }
+    }
+
+    @Test
+    public void testSubmit_deliversOemResult() throws Exception {
+        when(mOemExtensionCallback.onCheckPointedTarget(any())).thenReturn(true);
+        List<Boolean> results = new ArrayList<>();
+
+        mUwbOemExtensionStage.submit(SESSION_ID,
+                callback -> callback.onCheckPointedTarget(new PersistableBundle()), false,
+                results::add);
+        // Nothing is delivered until the OEM call completes.
+        mTestLooper.dispatchAll();
+        assertThat(results).isEmpty();
+
+        runOemTasks();
+        mTestLooper.dispatchAll();
+        assertThat(results).containsExactly(true);
+        assertThat(mUwbOemExtensionStage.getPendingCount(SESSION_ID)).isEqualTo(0);
+    }
+
+    @Test
+    public void testSubmit_deadlineDeliversFallback() throws Exception {
+        when(mOemExtensionCallback.onCheckPointedTarget(any())).thenReturn(true);
+        List<Boolean> results = new ArrayList<>();
+
+        mUwbOemExtensionStage.submit(SESSION_ID,
+                callback -> callback.onCheckPointedTarget(new PersistableBundle()), false,
+                results::add);
+        mTestLooper.moveTimeForward(DEADLINE_MS);
+        mTestLooper.dispatchAll();
+        assertThat(results).containsExactly(false);
+
+        // The OEM call was skipped since it already went past its deadline.
+        runOemTasks();
+        mTestLooper.dispatchAll();
+        assertThat(results).containsExactly(false);
+        verify(mOemExtensionCallback, never()).onCheckPointedTarget(any());
+    }
+
+    @Test
+    public void testSubmit_remoteExceptionDeliversFallback() throws Exception {
+        when(mOemExtensionCallback.onCheckPointedTarget(any())).thenThrow(new RemoteException());
+        List<Boolean> results = new ArrayList<>();
+
+        mUwbOemExtensionStage.submit(SESSION_ID,
+                callback -> callback.onCheckPointedTarget(new PersistableBundle()), true,
+                results::add);
+        runOemTasks();
+        mTestLooper.dispatchAll();
+        assertThat(results).containsExactly(true);
+    }
+
+    @Test
+    public void testSubmit_overflowReleasesOldestInOrder() throws Exception {
+        List<Integer> results = new ArrayList<>();
+
+        for (int i = 0; i < MAX_QUEUE_SIZE + 1; i++) {
+            final int value = i;
+            mUwbOemExtensionStage.submit(SESSION_ID, callback -> value + 100, value,
+                    results::add);
+        }
+        mTestLooper.dispatchAll();
+        // Oldest call went through unmodified to keep the queue bounded.
+        assertThat(results).containsExactly(0);
+
+        runOemTasks();
+        mTestLooper.dispatchAll();
+        assertThat(results).containsExactly(0, 101, 102).inOrder();
+    }
+
+    @Test
+    public void testSubmit_sessionsAreIndependent() throws Exception {
+        List<Integer> results = new ArrayList<>();
+
+        mUwbOemExtensionStage.submit(SESSION_ID, callback -> 1, 0, results::add);
+        mUwbOemExtensionStage.submit(OTHER_SESSION_ID, callback -> 2, 0, results::add);
+        runOemTasks();
+        mTestLooper.dispatchAll();
+
+        assertThat(results).containsExactly(1, 2);
+        assertThat(mUwbOemExtensionStage.getPendingCount(SESSION_ID)).isEqualTo(0);
+        assertThat(mUwbOemExtensionStage.getPendingCount(OTHER_SESSION_ID)).isEqualTo(0);
+    }
+}
@@ -20,6 +20,7 @@ import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_BACKG
 import static android.app.ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
 
 import static com.android.server.uwb.UwbSessionManager.SESSION_OPEN_RANGING;
+import static com.android.server.uwb.UwbSessionManager.UID_IMPORTANCE_COALESCING_WINDOW_MS;
 import static com.android.server.uwb.UwbTestUtils.DATA_PAYLOAD;
 import static com.android.server.uwb.UwbTestUtils.MAX_DATA_SIZE;
 import static com.android.server.uwb.UwbTestUtils.PEER_BAD_MAC_ADDRESS;
@@ -69,6 +70,7 @@ import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
@@ -124,6 +126,7 @@ import com.google.uwb.support.fira.FiraParams;
 import com.google.uwb.support.fira.FiraProtocolVersion;
 import com.google.uwb.support.fira.FiraRangingReconfigureParams;
 import com.google.uwb.support.fira.FiraSpecificationParams;
+import com.google.uwb.support.fira.FiraStatusCode;
 import com.google.uwb.support.generic.GenericSpecificationParams;
 
 import org.junit.After;
@@ -239,6 +242,12 @@ public class UwbSessionManagerTest {
         when(mUwbMultichipData.getDefaultChipId()).thenReturn("default");
         when(mDeviceConfigFacade.isBackgroundRangingEnabled()).thenReturn(false);
         when(mDeviceConfigFacade.isRangingErrorStreakTimerEnabled()).thenReturn(true);
+        when(mDeviceConfigFacade.getOemExtensionDeadlineMs()).thenReturn(
+                DeviceConfigFacade.DEFAULT_OEM_EXTENSION_DEADLINE_MS);
+        when(mDeviceConfigFacade.getOemExtensionMaxQueueSize()).thenReturn(
+                DeviceConfigFacade.DEFAULT_OEM_EXTENSION_MAX_QUEUE_SIZE);
+        when(mUwbInjector.getUwbOemExtensionStage()).thenReturn(new UwbOemExtensionStage(
+                mUwbInjector, mTestLooper.getLooper(), Runnable::run));
 
         // TODO: Don't use spy.
         mUwbSessionManager = spy(new UwbSessionManager(
@@ -370,6 +379,9 @@ public class UwbSessionManagerTest {
         when(mockUwbSession.getRangingRoundUsage()).thenReturn(ROUND_USAGE_OWR_AOA_MEASUREMENT);
         doReturn(mockUwbSession)
                 .when(mUwbSessionManager).getUwbSession(eq(TEST_SESSION_ID));
+        when(mockUwbSession.getSessionId()).thenReturn(TEST_SESSION_ID);
+        when(mockUwbSession.getSessionState())
+                .thenReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE);
         UwbOemExtensionCallbackListener mUwbOemExtensionCallbackListener =
                 mock(UwbOemExtensionCallbackListener.class);
         when(mUwbServiceCore.isOemExtensionCbRegistered()).thenReturn(true);
@@ -395,6 +407,7 @@ public class UwbSessionManagerTest {
         when(mockUwbSession.getAllReceivedDataInfo(PEER_EXTENDED_MAC_ADDRESS_LONG))
                 .thenReturn(List.of(buildReceivedDataInfo(PEER_EXTENDED_MAC_ADDRESS_LONG)));
         mUwbSessionManager.onRangeDataNotificationReceived(uwbRangingData);
+        mTestLooper.dispatchAll();
 
         verify(mUwbSessionNotificationManager)
                 .onRangingResult(eq(mockUwbSession), eq(uwbRangingData));
@@ -416,6 +429,9 @@ public class UwbSessionManagerTest {
         when(mockUwbSession.getRangingRoundUsage()).thenReturn(ROUND_USAGE_OWR_AOA_MEASUREMENT);
         doReturn(mockUwbSession)
                 .when(mUwbSessionManager).getUwbSession(eq(TEST_SESSION_ID));
+        when(mockUwbSession.getSessionId()).thenReturn(TEST_SESSION_ID);
+        when(mockUwbSession.getSessionState())
+                .thenReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE);
         UwbOemExtensionCallbackListener mUwbOemExtensionCallbackListener =
                 mock(UwbOemExtensionCallbackListener.class);
         when(mUwbServiceCore.isOemExtensionCbRegistered()).thenReturn(true);
@@ -442,6 +458,7 @@ public class UwbSessionManagerTest {
         when(mockUwbSession.getAllReceivedDataInfo(PEER_EXTENDED_SHORT_MAC_ADDRESS_LONG))
                 .thenReturn(List.of(buildReceivedDataInfo(PEER_EXTENDED_SHORT_MAC_ADDRESS_LONG)));
         mUwbSessionManager.onRangeDataNotificationReceived(uwbRangingData);
+        mTestLooper.dispatchAll();
 
         verify(mUwbSessionNotificationManager)
                 .onRangingResult(eq(mockUwbSession), eq(uwbRangingData));
@@ -533,6 +550,9 @@ public class UwbSessionManagerTest {
         when(mockUwbSession.getRangingRoundUsage()).thenReturn(ROUND_USAGE_OWR_AOA_MEASUREMENT);
         doReturn(mockUwbSession)
                 .when(mUwbSessionManager).getUwbSession(eq(TEST_SESSION_ID));
+        when(mockUwbSession.getSessionId()).thenReturn(TEST_SESSION_ID);
+        when(mockUwbSession.getSessionState())
+                .thenReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE);
         UwbOemExtensionCallbackListener mUwbOemExtensionCallbackListener =
                 mock(UwbOemExtensionCallbackListener.class);
         when(mUwbServiceCore.isOemExtensionCbRegistered()).thenReturn(true);
@@ -555,6 +575,7 @@ public class UwbSessionManagerTest {
         when(mockUwbSession.getParams()).thenReturn(firaParams);
         when(mUwbAdvertiseManager.isPointedTarget(PEER_SHORT_MAC_ADDRESS)).thenReturn(true);
         mUwbSessionManager.onRangeDataNotificationReceived(uwbRangingData);
+        mTestLooper.dispatchAll();
 
         verify(mUwbSessionNotificationManager)
                 .onRangingResult(eq(mockUwbSession), eq(uwbRangingData));
@@ -565,6 +586,49 @@ public class UwbSessionManagerTest {
         verify(mUwbAdvertiseManager, never()).removeAdvertiseTarget(PEER_SHORT_MAC_ADDRESS_LONG);
     }
 
+    @Test
+    public void onRangeDataNotificationReceived_owrAoa_oemResultAfterStop_dropped()
+            throws RemoteException {
+        UwbSession mockUwbSession = mock(UwbSession.class);
+        when(mockUwbSession.getWaitObj()).thenReturn(mock(WaitObj.class));
+        when(mockUwbSession.getRangingRoundUsage()).thenReturn(ROUND_USAGE_OWR_AOA_MEASUREMENT);
+        doReturn(mockUwbSession)
+                .when(mUwbSessionManager).getUwbSession(eq(TEST_SESSION_ID));
+        when(mockUwbSession.getSessionId()).thenReturn(TEST_SESSION_ID);
+        when(mockUwbSession.getSessionState())
+                .thenReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE);
+        UwbOemExtensionCallbackListener mUwbOemExtensionCallbackListener =
+                mock(UwbOemExtensionCallbackListener.class);
+        when(mUwbServiceCore.isOemExtensionCbRegistered()).thenReturn(true);
+        when(mUwbServiceCore.getOemExtensionCallback())
+                .thenReturn(mUwbOemExtensionCallbackListener);
+        when(mUwbOemExtensionCallbackListener.onCheckPointedTarget(any())).thenReturn(true);
+
+        mUwbSessionManager.onDataReceived(TEST_SESSION_ID, UwbUciConstants.STATUS_CODE_OK,
+                DATA_SEQUENCE_NUM, PEER_EXTENDED_MAC_ADDRESS, SOURCE_END_POINT, DEST_END_POINT,
+                DATA_PAYLOAD);
+        UwbRangingData uwbRangingData = UwbTestUtils.generateRangingData(
+                RANGING_MEASUREMENT_TYPE_OWR_AOA, MAC_ADDRESSING_MODE_EXTENDED,
+                UwbUciConstants.STATUS_CODE_OK);
+        Params firaParams = setupFiraParams(
+                RANGING_DEVICE_ROLE_OBSERVER, Optional.of(ROUND_USAGE_OWR_AOA_MEASUREMENT));
+        when(mockUwbSession.getParams()).thenReturn(firaParams);
+        when(mUwbAdvertiseManager.isPointedTarget(PEER_EXTENDED_MAC_ADDRESS)).thenReturn(true);
+        when(mockUwbSession.getAllReceivedDataInfo(PEER_EXTENDED_MAC_ADDRESS_LONG))
+                .thenReturn(List.of(buildReceivedDataInfo(PEER_EXTENDED_MAC_ADDRESS_LONG)));
+        mUwbSessionManager.onRangeDataNotificationReceived(uwbRangingData);
+        // The session is stopped before the OEM result is delivered on the service thread.
+        when(mockUwbSession.getOperationType()).thenReturn(UwbSessionManager.SESSION_STOP_RANGING);
+        mTestLooper.dispatchAll();
+
+        verify(mUwbOemExtensionCallbackListener).onCheckPointedTarget(any());
+        verify(mUwbSessionNotificationManager, never())
+                .onDataReceived(eq(mockUwbSession), eq(PEER_EXTENDED_UWB_ADDRESS),
+                        isA(PersistableBundle.class), eq(DATA_PAYLOAD));
+        verify(mUwbAdvertiseManager, never())
+                .removeAdvertiseTarget(PEER_EXTENDED_MAC_ADDRESS_LONG);
+    }
+
     @Test
     public void onRangeDataNotificationReceived_owrAoa_missingUwbSession() {
         UwbRangingData uwbRangingData = UwbTestUtils.generateRangingData(
@@ -964,6 +1028,201 @@ public class UwbSessionManagerTest {
         assertThat(mTestLooper.nextMessage().what).isEqualTo(1); // SESSION_OPEN_RANGING
     }
 
+    @Test
+    public void uwbSession_rawNtfData_sampledAndBuffered() {
+        FiraOpenSessionParams mockParams = mock(FiraOpenSessionParams.class);
+        when(mockParams.getRawNtfDataReportInterval()).thenReturn(3);
+        UwbSession uwbSession = mUwbSessionManager.new UwbSession(ATTRIBUTION_SOURCE,
+                mock(SessionHandle.class), TEST_SESSION_ID, TEST_SESSION_TYPE,
+                FiraParams.PROTOCOL_NAME, mockParams, mock(IUwbRangingCallbacks.class),
+                TEST_CHIP_ID);
+
+        assertThat(uwbSession.shouldReportRawNtfData()).isTrue();
+        assertThat(uwbSession.shouldReportRawNtfData()).isFalse();
+        assertThat(uwbSession.shouldReportRawNtfData()).isFalse();
+        assertThat(uwbSession.shouldReportRawNtfData()).isTrue();
+
+        for (int i = 0; i <= UwbSession.MAX_RECENT_RAW_NTF_DATA; i++) {
+            uwbSession.addRawNtfData(new byte[] {(byte) i});
+        }
+        List<byte[]> rawNtfData = uwbSession.getRecentRawNtfData();
+        assertThat(rawNtfData).hasSize(UwbSession.MAX_RECENT_RAW_NTF_DATA);
+        assertThat(rawNtfData.get(0)).isEqualTo(new byte[] {1});
+    }
+
+    @Test
+    public void uwbSession_rawNtfData_notReportedByDefault() {
+        UwbSession uwbSession = mUwbSessionManager.new UwbSession(ATTRIBUTION_SOURCE,
+                mock(SessionHandle.class), TEST_SESSION_ID, TEST_SESSION_TYPE,
+                FiraParams.PROTOCOL_NAME, mock(FiraParams.class), mock(IUwbRangingCallbacks.class),
+                TEST_CHIP_ID);
+
+        assertThat(uwbSession.shouldReportRawNtfData()).isFalse();
+    }
+
+    @Test
+    public void initFiraSession_airtimeExceeded_refusedBeforeEvictingSession()
+            throws RemoteException {
+        doReturn(false).when(mUwbInjector).isSystemApp(UID, PACKAGE_NAME);
+        doReturn(true).when(mUwbInjector).isSystemApp(UID_2, PACKAGE_NAME_2);
+        doReturn(1L).when(mUwbSessionManager).getMaxFiraSessionsNumber(TEST_CHIP_ID);
+        when(mDeviceConfigFacade.isSessionAirtimeSchedulingEnabled()).thenReturn(true);
+        IUwbRangingCallbacks mockRangingCallbacks = mock(IUwbRangingCallbacks.class);
+        // 30 slots of 2 ms every 100 ms.
+        FiraOpenSessionParams mockParams = mockAirtimeParams(100);
+        UwbSession lowPrioUwbSession = initAirtimeSession(ATTRIBUTION_SOURCE, SESSION_HANDLE,
+                TEST_SESSION_ID, mockParams, mockRangingCallbacks);
+        doReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE).when(lowPrioUwbSession)
+                .getSessionState();
+        doReturn(UwbSessionManager.SESSION_START_RANGING).when(lowPrioUwbSession)
+                .getOperationType();
+
+        initAirtimeSession(ATTRIBUTION_SOURCE_2, SESSION_HANDLE_2, TEST_SESSION_ID_2,
+                mockParams, mockRangingCallbacks);
+
+        ArgumentCaptor<PersistableBundle> paramsCaptor =
+                ArgumentCaptor.forClass(PersistableBundle.class);
+        verify(mockRangingCallbacks).onRangingOpenFailed(eq(SESSION_HANDLE_2),
+                eq(RangingChangeReason.MAX_SESSIONS_REACHED), paramsCaptor.capture());
+        FiraStatusCode statusCode = FiraStatusCode.fromBundle(paramsCaptor.getValue());
+        assertThat(statusCode.getStatusCode())
+                .isEqualTo(UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED);
+        assertThat(statusCode.getSuggestedRangingIntervalMs()).isEqualTo(200);
+        // The low priority session was not evicted for a session that does not fit anyway.
+        verify(mNativeUwbManager, never()).deInitSession(anyInt(), anyString());
+        assertThat(mUwbSessionManager.getUwbSession(TEST_SESSION_ID))
+                .isEqualTo(lowPrioUwbSession);
+        assertThat(mUwbSessionManager.getUwbSession(TEST_SESSION_ID_2)).isNull();
+    }
+
+    @Test
+    public void initFiraSession_airtimeOfIdleSessionNotCounted() throws RemoteException {
+        doReturn(true).when(mUwbInjector).isSystemApp(UID_2, PACKAGE_NAME_2);
+        when(mDeviceConfigFacade.isSessionAirtimeSchedulingEnabled()).thenReturn(true);
+        IUwbRangingCallbacks mockRangingCallbacks = mock(IUwbRangingCallbacks.class);
+        FiraOpenSessionParams mockParams = mockAirtimeParams(100);
+        UwbSession idleUwbSession = initAirtimeSession(ATTRIBUTION_SOURCE, SESSION_HANDLE,
+                TEST_SESSION_ID, mockParams, mockRangingCallbacks);
+        doReturn(UwbUciConstants.UWB_SESSION_STATE_IDLE).when(idleUwbSession).getSessionState();
+
+        UwbSession uwbSession = initAirtimeSession(ATTRIBUTION_SOURCE_2, SESSION_HANDLE_2,
+                TEST_SESSION_ID_2, mockParams, mockRangingCallbacks);
+
+        verify(mockRangingCallbacks, never()).onRangingOpenFailed(any(), anyInt(), any());
+        assertThat(mUwbSessionManager.getUwbSession(TEST_SESSION_ID_2)).isEqualTo(uwbSession);
+    }
+
+    @Test
+    public void startFiraSession_airtimeExceeded_refused() throws RemoteException {
+        doReturn(true).when(mUwbInjector).isSystemApp(UID_2, PACKAGE_NAME_2);
+        when(mDeviceConfigFacade.isSessionAirtimeSchedulingEnabled()).thenReturn(true);
+        IUwbRangingCallbacks mockRangingCallbacks = mock(IUwbRangingCallbacks.class);
+        FiraOpenSessionParams params = newAirtimeParams(100, /* blockStrideLength= */ 0);
+        UwbSession rangingUwbSession = initAirtimeSession(ATTRIBUTION_SOURCE, SESSION_HANDLE,
+                TEST_SESSION_ID, params, mockRangingCallbacks);
+        doReturn(UwbUciConstants.UWB_SESSION_STATE_IDLE).when(rangingUwbSession)
+                .getSessionState();
+        // Admitted while the other session is idle.
+        UwbSession uwbSession = initAirtimeSession(ATTRIBUTION_SOURCE_2, SESSION_HANDLE_2,
+                TEST_SESSION_ID_2, params, mockRangingCallbacks);
+        doReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE).when(rangingUwbSession)
+                .getSessionState();
+        doReturn(UwbSessionManager.SESSION_START_RANGING).when(rangingUwbSession)
+                .getOperationType();
+        doReturn(UwbUciConstants.UWB_SESSION_STATE_IDLE)
+                .when(mUwbSessionManager).getCurrentSessionState(TEST_SESSION_ID_2);
+
+        mUwbSessionManager.startRanging(SESSION_HANDLE_2, /* params= */ null);
+
+        ArgumentCaptor<PersistableBundle> paramsCaptor =
+                ArgumentCaptor.forClass(PersistableBundle.class);
+        verify(mUwbSessionNotificationManager).onRangingStartFailed(eq(uwbSession),
+                eq(UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED),
+                paramsCaptor.capture());
+        FiraStatusCode statusCode = FiraStatusCode.fromBundle(paramsCaptor.getValue());
+        assertThat(statusCode.getSuggestedRangingIntervalMs()).isEqualTo(200);
+        verify(mUwbMetrics).longRangingStartEvent(uwbSession,
+                UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED);
+    }
+
+    @Test
+    public void reconfigureFiraSession_shorterBlockStride_airtimeExceeded_refused()
+            throws RemoteException {
+        doReturn(true).when(mUwbInjector).isSystemApp(UID_2, PACKAGE_NAME_2);
+        when(mDeviceConfigFacade.isSessionAirtimeSchedulingEnabled()).thenReturn(true);
+        IUwbRangingCallbacks mockRangingCallbacks = mock(IUwbRangingCallbacks.class);
+        // 60% of the airtime.
+        UwbSession rangingUwbSession = initAirtimeSession(ATTRIBUTION_SOURCE, SESSION_HANDLE,
+                TEST_SESSION_ID, newAirtimeParams(100, /* blockStrideLength= */ 0),
+                mockRangingCallbacks);
+        doReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE).when(rangingUwbSession)
+                .getSessionState();
+        doReturn(UwbSessionManager.SESSION_START_RANGING).when(rangingUwbSession)
+                .getOperationType();
+        // 30% of the airtime, 60% without the block stride.
+        UwbSession uwbSession = initAirtimeSession(ATTRIBUTION_SOURCE_2, SESSION_HANDLE_2,
+                TEST_SESSION_ID_2, newAirtimeParams(100, /* blockStrideLength= */ 1),
+                mockRangingCallbacks);
+        verify(mockRangingCallbacks, never()).onRangingOpenFailed(any(), anyInt(), any());
+        doReturn(UwbUciConstants.UWB_SESSION_STATE_ACTIVE).when(uwbSession).getSessionState();
+
+        int status = mUwbSessionManager.reconfigure(SESSION_HANDLE_2,
+                new FiraRangingReconfigureParams.Builder().setBlockStrideLength(0).build());
+
+        assertThat(status).isEqualTo(UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED);
+        verify(mUwbSessionNotificationManager).onRangingReconfigureFailed(eq(uwbSession),
+                eq(UwbUciConstants.STATUS_CODE_ERROR_MAX_SESSIONS_EXCEEDED), any());
+        assertThat(((FiraOpenSessionParams) uwbSession.getParams()).getBlockStrideLength())
+                .isEqualTo(1);
+    }
+
+    private static FiraOpenSessionParams newAirtimeParams(int rangingIntervalMs,
+            int blockStrideLength) {
+        // 30 slots of 2 ms every ranging round.
+        return new FiraOpenSessionParams.Builder()
+                .setDeviceAddress(UwbAddress.fromBytes(new byte[] {(byte) 0x01, (byte) 0x02 }))
+                .setVendorId(new byte[] { (byte) 0x00, (byte) 0x01 })
+                .setStaticStsIV(new byte[] { (byte) 0x01, (byte) 0x02, (byte) 0x03,
+                        (byte) 0x04, (byte) 0x05, (byte) 0x06 })
+                .setDestAddressList(Arrays.asList(UWB_DEST_ADDRESS))
+                .setProtocolVersion(new FiraProtocolVersion(1, 0))
+                .setSessionId(10)
+                .setSessionType(SESSION_TYPE_RANGING)
+                .setDeviceType(FiraParams.RANGING_DEVICE_TYPE_CONTROLLER)
+                .setDeviceRole(FiraParams.RANGING_DEVICE_ROLE_INITIATOR)
+                .setMultiNodeMode(FiraParams.MULTI_NODE_MODE_UNICAST)
+                .setRangingIntervalMs(rangingIntervalMs)
+                .setBlockStrideLength(blockStrideLength)
+                .setSlotsPerRangingRound(30)
+                .setSlotDurationRstu(2400)
+                .build();
+    }
+
+    private static FiraOpenSessionParams mockAirtimeParams(int rangingIntervalMs) {
+        FiraOpenSessionParams params = mock(FiraOpenSessionParams.class);
+        when(params.getSlotsPerRangingRound()).thenReturn(30);
+        when(params.getSlotDurationRstu()).thenReturn(2400);
+        when(params.getRangingIntervalMs()).thenReturn(rangingIntervalMs);
+        when(params.getBlockStrideLength()).thenReturn(0);
+        return params;
+    }
+
+    private UwbSession initAirtimeSession(AttributionSource attributionSource,
+            SessionHandle sessionHandle, int sessionId, Params params,
+            IUwbRangingCallbacks rangingCallbacks) throws RemoteException {
+        UwbSession uwbSession = spy(
+                mUwbSessionManager.new UwbSession(attributionSource, sessionHandle, sessionId,
+                        TEST_SESSION_TYPE, FiraParams.PROTOCOL_NAME, params, rangingCallbacks,
+                        TEST_CHIP_ID));
+        doReturn(mock(IBinder.class)).when(uwbSession).getBinder();
+        doReturn(uwbSession).when(mUwbSessionManager).createUwbSession(any(), any(), anyInt(),
+                anyByte(), anyString(), any(), any(), anyString());
+        mUwbSessionManager.initSession(attributionSource, sessionHandle, sessionId,
+                TEST_SESSION_TYPE, FiraParams.PROTOCOL_NAME, params, rangingCallbacks,
+                TEST_CHIP_ID);
+        return uwbSession;
+    }
+
     @Test
     public void initSessionMaxSessions_lowestPrioritySessionReplaced() throws RemoteException {
         doReturn(false).when(mUwbInjector).isSystemApp(UID, PACKAGE_NAME);
@@ -1799,6 +2058,7 @@ public class UwbSessionManagerTest {
         // reconfigured (to disable the ranging data notifications).
         mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
                 UID_2, IMPORTANCE_BACKGROUND);
+        mTestLooper.moveTimeForward(UID_IMPORTANCE_COALESCING_WINDOW_MS);
         mTestLooper.dispatchAll();
         ArgumentCaptor<Params> paramsArgumentCaptor = ArgumentCaptor.forClass(Params.class);
         verify(mUwbConfigurationManager).setAppConfigurations(
@@ -1856,6 +2116,7 @@ public class UwbSessionManagerTest {
         // reconfigured (to disable the ranging data notifications).
         mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
                 UID_2, IMPORTANCE_BACKGROUND);
+        mTestLooper.moveTimeForward(UID_IMPORTANCE_COALESCING_WINDOW_MS);
         mTestLooper.dispatchAll();
         ArgumentCaptor<Params> paramsArgumentCaptor = ArgumentCaptor.forClass(Params.class);
         verify(mUwbConfigurationManager).setAppConfigurations(
@@ -1882,6 +2143,7 @@ public class UwbSessionManagerTest {
         // Move to background.
         mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
                 UID_2, IMPORTANCE_BACKGROUND);
+        mTestLooper.moveTimeForward(UID_IMPORTANCE_COALESCING_WINDOW_MS);
         mTestLooper.dispatchAll();
         ArgumentCaptor<Params> paramsArgumentCaptor = ArgumentCaptor.forClass(Params.class);
         verify(mUwbConfigurationManager).setAppConfigurations(
@@ -1895,6 +2157,7 @@ public class UwbSessionManagerTest {
         // Move to foreground.
         mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
                 UID_2, IMPORTANCE_FOREGROUND);
+        mTestLooper.moveTimeForward(UID_IMPORTANCE_COALESCING_WINDOW_MS);
         mTestLooper.dispatchAll();
         paramsArgumentCaptor = ArgumentCaptor.forClass(Params.class);
         verify(mUwbConfigurationManager, times(2)).setAppConfigurations(
@@ -1905,6 +2168,46 @@ public class UwbSessionManagerTest {
         verify(mUwbSessionNotificationManager, never()).onRangingReconfigured(eq(uwbSession));
     }
 
+    @Test
+    public void testOpenRangingWithNonSystemAppInFgInChain_MoveToBgAndFgCoalesced()
+            throws Exception {
+        UwbSession uwbSession = initUwbSessionForNonSystemAppInFgInChain();
+        // OPEN_RANGING message scheduled.
+        assertThat(mTestLooper.nextMessage().what).isEqualTo(SESSION_OPEN_RANGING);
+        mTestLooper.dispatchAll();
+
+        // Move to background and back to foreground within the window, nothing to apply.
+        mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
+                UID_2, IMPORTANCE_BACKGROUND);
+        mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
+                UID_2, IMPORTANCE_FOREGROUND);
+        mTestLooper.dispatchAll();
+        assertThat(uwbSession.hasNonPrivilegedFgApp()).isTrue();
+        mTestLooper.moveTimeForward(UID_IMPORTANCE_COALESCING_WINDOW_MS);
+        mTestLooper.dispatchAll();
+        verify(mUwbConfigurationManager, never()).setAppConfigurations(
+                anyInt(), any(), anyString());
+        assertThat(uwbSession.hasNonPrivilegedFgApp()).isTrue();
+
+        // Flap ending in background, only the last state is applied.
+        mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
+                UID_2, IMPORTANCE_BACKGROUND);
+        mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
+                UID_2, IMPORTANCE_FOREGROUND);
+        mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
+                UID_2, IMPORTANCE_BACKGROUND);
+        mTestLooper.moveTimeForward(UID_IMPORTANCE_COALESCING_WINDOW_MS);
+        mTestLooper.dispatchAll();
+        ArgumentCaptor<Params> paramsArgumentCaptor = ArgumentCaptor.forClass(Params.class);
+        verify(mUwbConfigurationManager).setAppConfigurations(
+                eq(TEST_SESSION_ID), paramsArgumentCaptor.capture(), eq(TEST_CHIP_ID));
+        FiraRangingReconfigureParams firaParams =
+                (FiraRangingReconfigureParams) paramsArgumentCaptor.getValue();
+        assertThat(firaParams.getRangeDataNtfConfig()).isEqualTo(
+                FiraParams.RANGE_DATA_NTF_CONFIG_DISABLE);
+        assertThat(uwbSession.hasNonPrivilegedFgApp()).isFalse();
+    }
+
     @Test
     public void testOpenRangingWithNonSystemAppInFgInChain_MoveToBgTriggersSessionPriorityChange()
             throws Exception {
@@ -1919,6 +2222,7 @@ public class UwbSessionManagerTest {
                 .thenReturn(false);
         mOnUidImportanceListenerArgumentCaptor.getValue().onUidImportance(
                 UID_2, ActivityManager.RunningAppProcessInfo.IMPORTANCE_CACHED);
+        mTestLooper.moveTimeForward(UID_IMPORTANCE_COALESCING_WINDOW_MS);
         mTestLooper.dispatchAll();
 
         assertThat(uwbSession.getStackSessionPriority()).isEqualTo(UwbSession.BG_SESSION_PRIORITY);
@@ -2963,7 +3267,7 @@ public class UwbSessionManagerTest {
                 uwbSession.getSessionId(), reconfigureParams.getAction(), 1,
                 dstAddress, reconfigureParams.getSubSessionIdList(), null,
                 uwbSession.getChipId());
-        verify(mUwbSessionNotificationManager).onControleeAdded(eq(uwbSession));
+        verify(mUwbSessionNotificationManager).onControleeAdded(eq(uwbSession), any());
         verify(mUwbSessionNotificationManager).onRangingReconfigured(eq(uwbSession));
     }
 
@@ -3006,7 +3310,7 @@ public class UwbSessionManagerTest {
                 uwbSession.getSessionId(), reconfigureParams.getAction(), 1,
                 dstAddress, reconfigureParams.getSubSessionIdList(), null,
                 uwbSession.getChipId());
-        verify(mUwbSessionNotificationManager).onControleeRemoved(eq(uwbSession));
+        verify(mUwbSessionNotificationManager).onControleeRemoved(eq(uwbSession), any());
         verify(mUwbSessionNotificationManager).onRangingReconfigured(eq(uwbSession));
     }
 
@@ -3048,7 +3352,7 @@ public class UwbSessionManagerTest {
                 uwbSession.getSessionId(), reconfigureParams.getAction(), 1,
                 dstAddress, reconfigureParams.getSubSessionIdList(),
                 reconfigureParams.getSubSessionKeyList(), uwbSession.getChipId());
-        verify(mUwbSessionNotificationManager).onControleeAdded(eq(uwbSession));
+        verify(mUwbSessionNotificationManager).onControleeAdded(eq(uwbSession), any());
         verify(mUwbSessionNotificationManager).onRangingReconfigured(eq(uwbSession));
     }
 
@@ -3066,7 +3370,7 @@ public class UwbSessionManagerTest {
         mTestLooper.dispatchNext();
 
         verify(mUwbSessionNotificationManager).onControleeAddFailed(eq(uwbSession),
-                eq(UwbUciConstants.STATUS_CODE_FAILED));
+                eq(UwbUciConstants.STATUS_CODE_FAILED), isNull());
         verify(mUwbSessionNotificationManager).onRangingReconfigureFailed(
                 eq(uwbSession), eq(UwbUciConstants.STATUS_CODE_FAILED));
     }
@@ -3095,9 +3399,10 @@ public class UwbSessionManagerTest {
 
         // Fail callback for the first one.
         verify(mUwbSessionNotificationManager).onControleeAddFailed(eq(uwbSession),
-                eq(UwbUciConstants.STATUS_CODE_FAILED));
+                eq(UwbUciConstants.STATUS_CODE_FAILED), eq(UWB_DEST_ADDRESS_2));
         // Success callback for the second.
-        verify(mUwbSessionNotificationManager).onControleeAdded(eq(uwbSession));
+        verify(mUwbSessionNotificationManager).onControleeAdded(eq(uwbSession),
+                eq(UWB_DEST_ADDRESS_3));
 
         // Make sure the failed address was not added.
         assertThat(uwbSession.getControleeList().stream()
@@ -3121,6 +3426,8 @@ public class UwbSessionManagerTest {
         UwbMulticastListUpdateStatus uwbMulticastListUpdateStatus =
                 mock(UwbMulticastListUpdateStatus.class);
         when(uwbMulticastListUpdateStatus.getNumOfControlee()).thenReturn(1);
+        when(uwbMulticastListUpdateStatus.getControleeUwbAddresses()).thenReturn(
+                new UwbAddress[] { UWB_DEST_ADDRESS_2 });
         when(uwbMulticastListUpdateStatus.getStatus()).thenReturn(
                 new int[] { UwbUciConstants.STATUS_CODE_FAILED });
         doReturn(uwbMulticastListUpdateStatus).when(uwbSession).getMulticastListUpdateStatus();
@@ -3129,7 +3436,7 @@ public class UwbSessionManagerTest {
         mTestLooper.dispatchNext();
 
         verify(mUwbSessionNotificationManager).onControleeAddFailed(eq(uwbSession),
-                eq(UwbUciConstants.STATUS_CODE_FAILED));
+                eq(UwbUciConstants.STATUS_CODE_FAILED), eq(UWB_DEST_ADDRESS_2));
         verify(mUwbSessionNotificationManager).onRangingReconfigureFailed(
                 eq(uwbSession), eq(UwbUciConstants.STATUS_CODE_FAILED));
     }
@@ -26,12 +26,15 @@ import static com.android.server.uwb.data.UwbUciConstants.RANGING_MEASUREMENT_TY
 import static com.android.server.uwb.data.UwbUciConstants.RANGING_MEASUREMENT_TYPE_TWO_WAY;
 import static com.android.server.uwb.data.UwbUciConstants.STATUS_CODE_FAILED;
 
+import static com.google.common.truth.Truth.assertThat;
+
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.validateMockitoUsage;
 import static org.mockito.Mockito.verify;
@@ -40,9 +43,11 @@ import static org.mockito.Mockito.when;
 import android.content.AttributionSource;
 import android.os.PersistableBundle;
 import android.os.RemoteException;
+import android.os.test.TestLooper;
 import android.platform.test.annotations.Presubmit;
 import android.test.suitebuilder.annotation.SmallTest;
 import android.util.Pair;
+import android.uwb.IUwbOemExtensionCallback;
 import android.uwb.IUwbRangingCallbacks;
 import android.uwb.RangingChangeReason;
 import android.uwb.RangingReport;
@@ -53,13 +58,16 @@ import androidx.test.runner.AndroidJUnit4;
 import com.android.server.uwb.data.UwbRangingData;
 import com.android.server.uwb.data.UwbUciConstants;
 
+import com.google.uwb.support.fira.FiraMulticastListUpdateStatusCode;
 import com.google.uwb.support.fira.FiraOpenSessionParams;
 import com.google.uwb.support.fira.FiraParams;
+import com.google.uwb.support.oemextension.RangingReportMetadata;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -96,6 +104,7 @@ public class UwbSessionNotificationManagerTest {
         when(mUwbSession.getProtocolName()).thenReturn(FiraParams.PROTOCOL_NAME);
         when(mUwbSession.getParams()).thenReturn(mFiraParams);
         when(mUwbSession.getAttributionSource()).thenReturn(ATTRIBUTION_SOURCE);
+        when(mUwbSession.shouldReportRawNtfData()).thenReturn(true);
         when(mFiraParams.getAoaResultRequest()).thenReturn(
                 FiraParams.AOA_RESULT_REQUEST_MODE_REQ_AOA_RESULTS);
         when(mFiraParams.hasRangingResultReportMessage()).thenReturn(false);
@@ -132,6 +141,67 @@ public class UwbSessionNotificationManagerTest {
         verify(mUwbMetrics, never()).logRangingResult(anyInt(), any(), any());
     }
 
+    @Test
+    public void testOnRangingResult_rawNtfDataNotRequested_omittedAndBuffered() throws Exception {
+        Pair<UwbRangingData, RangingReport> testRangingDataAndRangingReport =
+                UwbTestUtils.generateRangingDataAndRangingReport(
+                        PEER_SHORT_MAC_ADDRESS, MAC_ADDRESSING_MODE_SHORT,
+                        RANGING_MEASUREMENT_TYPE_TWO_WAY,
+                        true, true, false, false, TEST_ELAPSED_NANOS);
+        when(mUwbSession.shouldReportRawNtfData()).thenReturn(false);
+
+        mUwbSessionNotificationManager.onRangingResult(
+                mUwbSession, testRangingDataAndRangingReport.first);
+
+        verify(mUwbSession).addRawNtfData(testRangingDataAndRangingReport.first.getRawNtfData());
+        verify(mIUwbRangingCallbacks).onRangingResult(eq(mSessionHandle), argThat(report ->
+                RangingReportMetadata.fromBundle(report.getRangingReportMetadata())
+                        .getRawNtfData() == null
+                        && report.getMeasurements().equals(
+                                testRangingDataAndRangingReport.second.getMeasurements())));
+    }
+
+    @Test
+    public void testOnRangingResult_rawNtfDataNotRequested_oemGetsItAppDoesNot()
+            throws Exception {
+        Pair<UwbRangingData, RangingReport> testRangingDataAndRangingReport =
+                UwbTestUtils.generateRangingDataAndRangingReport(
+                        PEER_SHORT_MAC_ADDRESS, MAC_ADDRESSING_MODE_SHORT,
+                        RANGING_MEASUREMENT_TYPE_TWO_WAY,
+                        true, true, false, false, TEST_ELAPSED_NANOS);
+        when(mUwbSession.shouldReportRawNtfData()).thenReturn(false);
+        TestLooper testLooper = new TestLooper();
+        DeviceConfigFacade deviceConfigFacade = mock(DeviceConfigFacade.class);
+        when(deviceConfigFacade.getOemExtensionDeadlineMs()).thenReturn(
+                DeviceConfigFacade.DEFAULT_OEM_EXTENSION_DEADLINE_MS);
+        when(deviceConfigFacade.getOemExtensionMaxQueueSize()).thenReturn(
+                DeviceConfigFacade.DEFAULT_OEM_EXTENSION_MAX_QUEUE_SIZE);
+        when(mUwbInjector.getDeviceConfigFacade()).thenReturn(deviceConfigFacade);
+        when(mUwbInjector.getUwbOemExtensionStage()).thenReturn(new UwbOemExtensionStage(
+                mUwbInjector, testLooper.getLooper(), Runnable::run));
+        UwbSessionManager uwbSessionManager = mock(UwbSessionManager.class);
+        when(uwbSessionManager.isSessionRanging(mUwbSession)).thenReturn(true);
+        when(mUwbInjector.getUwbSessionManager()).thenReturn(uwbSessionManager);
+        IUwbOemExtensionCallback oemExtensionCallback = mock(IUwbOemExtensionCallback.class);
+        when(oemExtensionCallback.onRangingReportReceived(any()))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        when(mUwbServiceCore.isOemExtensionCbRegistered()).thenReturn(true);
+        when(mUwbServiceCore.getOemExtensionCallback()).thenReturn(oemExtensionCallback);
+
+        mUwbSessionNotificationManager.onRangingResult(
+                mUwbSession, testRangingDataAndRangingReport.first);
+        testLooper.dispatchAll();
+
+        verify(oemExtensionCallback).onRangingReportReceived(argThat(report ->
+                RangingReportMetadata.fromBundle(report.getRangingReportMetadata())
+                        .getRawNtfData() != null));
+        verify(mIUwbRangingCallbacks).onRangingResult(eq(mSessionHandle), argThat(report ->
+                RangingReportMetadata.fromBundle(report.getRangingReportMetadata())
+                        .getRawNtfData() == null
+                        && report.getMeasurements().equals(
+                                testRangingDataAndRangingReport.second.getMeasurements())));
+    }
+
     @Test
     public void testOnRangingResult_forTwoWay_WithAoa() throws Exception {
         Pair<UwbRangingData, RangingReport> testRangingDataAndRangingReport =
@@ -512,24 +582,49 @@ public class UwbSessionNotificationManagerTest {
 
     @Test
     public void testOnControleeAdded() throws Exception {
-        mUwbSessionNotificationManager.onControleeAdded(mUwbSession);
+        mUwbSessionNotificationManager.onControleeAdded(mUwbSession, null);
 
         verify(mIUwbRangingCallbacks).onControleeAdded(eq(mSessionHandle), any());
     }
 
+    @Test
+    public void testOnControleeAdded_withAddress() throws Exception {
+        mUwbSessionNotificationManager.onControleeAdded(mUwbSession, PEER_EXTENDED_UWB_ADDRESS);
+
+        ArgumentCaptor<PersistableBundle> captor = ArgumentCaptor.forClass(PersistableBundle.class);
+        verify(mIUwbRangingCallbacks).onControleeAdded(eq(mSessionHandle), captor.capture());
+        FiraMulticastListUpdateStatusCode statusCode =
+                FiraMulticastListUpdateStatusCode.fromBundle(captor.getValue());
+        assertThat(statusCode.getStatusCode()).isEqualTo(UwbUciConstants.STATUS_CODE_OK);
+        assertThat(statusCode.getAddress()).isEqualTo(PEER_EXTENDED_UWB_ADDRESS);
+    }
+
     @Test
     public void testOnControleeAddFailed() throws Exception {
         int status =  UwbUciConstants.STATUS_CODE_INVALID_MESSAGE_SIZE;
-        mUwbSessionNotificationManager.onControleeAddFailed(mUwbSession, status);
+        mUwbSessionNotificationManager.onControleeAddFailed(mUwbSession, status, null);
 
         verify(mIUwbRangingCallbacks).onControleeAddFailed(eq(mSessionHandle),
                 eq(UwbSessionNotificationHelper.convertUciStatusToApiReasonCode(status)),
                 argThat(p -> (p.getInt("status_code")) == status));
     }
 
+    @Test
+    public void testOnControleeAddFailed_withAddress() throws Exception {
+        int status =  UwbUciConstants.STATUS_CODE_INVALID_MESSAGE_SIZE;
+        mUwbSessionNotificationManager.onControleeAddFailed(
+                mUwbSession, status, PEER_EXTENDED_UWB_ADDRESS);
+
+        verify(mIUwbRangingCallbacks).onControleeAddFailed(eq(mSessionHandle),
+                eq(UwbSessionNotificationHelper.convertUciStatusToApiReasonCode(status)),
+                argThat(p -> p.getInt("status_code") == status
+                        && PEER_EXTENDED_UWB_ADDRESS.equals(
+                                FiraMulticastListUpdateStatusCode.fromBundle(p).getAddress())));
+    }
+
     @Test
     public void testOnControleeRemoved() throws Exception {
-        mUwbSessionNotificationManager.onControleeRemoved(mUwbSession);
+        mUwbSessionNotificationManager.onControleeRemoved(mUwbSession, null);
 
         verify(mIUwbRangingCallbacks).onControleeRemoved(eq(mSessionHandle), any());
     }
@@ -537,7 +632,7 @@ public class UwbSessionNotificationManagerTest {
     @Test
     public void testOnControleeRemoveFailed() throws Exception {
         int status =  UwbUciConstants.STATUS_CODE_INVALID_MESSAGE_SIZE;
-        mUwbSessionNotificationManager.onControleeRemoveFailed(mUwbSession, status);
+        mUwbSessionNotificationManager.onControleeRemoveFailed(mUwbSession, status, null);
 
         verify(mIUwbRangingCallbacks).onControleeRemoveFailed(eq(mSessionHandle),
                 eq(UwbSessionNotificationHelper.convertUciStatusToApiReasonCode(status)),
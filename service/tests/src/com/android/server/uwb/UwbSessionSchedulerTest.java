@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.platform.test.annotations.Presubmit;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.uwb.UwbAddress;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.uwb.support.fira.FiraOpenSessionParams;
+import com.google.uwb.support.fira.FiraParams;
+import com.google.uwb.support.fira.FiraSpecificationParams;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+/**
+ * Tests for {@link UwbSessionScheduler}.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+@Presubmit
+public class UwbSessionSchedulerTest {
+    private static final int SLOT_DURATION_RSTU = 2400;
+    private static final int SLOTS_PER_RANGING_ROUND = 30;
+
+    private final UwbSessionScheduler mScheduler = new UwbSessionScheduler();
+
+    @Test
+    public void getAirtimeRatio_roundDurationOverInterval() {
+        // 30 slots of 2 ms every 200 ms.
+        assertThat(UwbSessionScheduler.getAirtimeRatio(getFiraParams(200, 0)))
+                .isWithin(1e-9).of(0.3);
+        // Only one block in two has a round.
+        assertThat(UwbSessionScheduler.getAirtimeRatio(getFiraParams(100, 1)))
+                .isWithin(1e-9).of(0.3);
+    }
+
+    @Test
+    public void admit_fitsInAirtimeLeft() {
+        UwbSessionScheduler.Admission admission = mScheduler.admit(getFiraParams(200, 0),
+                List.of(getFiraParams(200, 0), getFiraParams(200, 0)), null);
+
+        assertThat(admission.isAdmitted()).isTrue();
+        assertThat(admission.getAirtimeRatio()).isWithin(1e-9).of(0.9);
+    }
+
+    @Test
+    public void admit_rejectedWithSuggestedInterval() {
+        UwbSessionScheduler.Admission admission = mScheduler.admit(getFiraParams(100, 0),
+                List.of(getFiraParams(200, 0), getFiraParams(200, 0)), null);
+
+        assertThat(admission.isAdmitted()).isFalse();
+        assertThat(admission.getAirtimeRatio()).isWithin(1e-9).of(1.2);
+        assertThat(admission.getSuggestedRangingIntervalMs()).isEqualTo(200);
+        assertThat(admission.getSuggestedBlockStrideLength()).isEqualTo(0);
+    }
+
+    @Test
+    public void admit_rejectedWithSuggestedBlockStrideWhenSupported() {
+        FiraSpecificationParams specificationParams = mock(FiraSpecificationParams.class);
+        when(specificationParams.hasBlockStridingSupport()).thenReturn(true);
+
+        UwbSessionScheduler.Admission admission = mScheduler.admit(getFiraParams(100, 0),
+                List.of(getFiraParams(200, 0), getFiraParams(200, 0)), specificationParams);
+
+        assertThat(admission.isAdmitted()).isFalse();
+        assertThat(admission.getSuggestedRangingIntervalMs()).isEqualTo(200);
+        assertThat(admission.getSuggestedBlockStrideLength()).isEqualTo(1);
+    }
+
+    @Test
+    public void admit_rejectedWithoutSuggestionWhenNoAirtimeLeft() {
+        UwbSessionScheduler.Admission admission = mScheduler.admit(getFiraParams(200, 0),
+                List.of(getFiraParams(100, 0), getFiraParams(200, 0)), null);
+
+        assertThat(admission.isAdmitted()).isFalse();
+        assertThat(admission.getSuggestedRangingIntervalMs()).isEqualTo(0);
+    }
+
+    private static FiraOpenSessionParams getFiraParams(int rangingIntervalMs,
+            int blockStrideLength) {
+        return new FiraOpenSessionParams.Builder()
+                .setProtocolVersion(FiraParams.PROTOCOL_VERSION_1_1)
+                .setSessionId(1)
+                .setSessionType(FiraParams.SESSION_TYPE_RANGING)
+                .setDeviceType(FiraParams.RANGING_DEVICE_TYPE_CONTROLLER)
+                .setDeviceRole(FiraParams.RANGING_DEVICE_ROLE_INITIATOR)
+                .setDeviceAddress(UwbAddress.fromBytes(new byte[] {0x01, 0x02}))
+                .setDestAddressList(List.of(UwbAddress.fromBytes(new byte[] {0x03, 0x04})))
+                .setMultiNodeMode(FiraParams.MULTI_NODE_MODE_UNICAST)
+                .setVendorId(new byte[] {0x05, 0x06})
+                .setStaticStsIV(new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06})
+                .setSlotDurationRstu(SLOT_DURATION_RSTU)
+                .setSlotsPerRangingRound(SLOTS_PER_RANGING_ROUND)
+                .setRangingIntervalMs(rangingIntervalMs)
+                .setBlockStrideLength(blockStrideLength)
+                .build();
+    }
+}
@@ -18,7 +18,9 @@ package com.android.server.uwb.data;
 
 import static com.android.server.uwb.data.ServiceProfileData.ServiceProfileInfo.ADF_STATUS_PROVISIONED;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
@@ -39,7 +41,9 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 @SmallTest
@@ -95,10 +99,60 @@ public class ServiceProfileDataTest {
         assertEquals(mServiceProfileData.getStoreFileId(), 1);
     }
 
+    @Test
+    public void testDeserializeSecureBlob() {
+        UUID serviceInstanceID = new UUID(100, 500);
+        byte[] secureBlob = new byte[] {(byte) 1, (byte) 2};
+        UwbConfigProto.UwbConfig uwbConfig = UwbConfigProto.UwbConfig.newBuilder()
+                .setVersion(1)
+                .addServiceConfig(UwbConfigProto.ServiceConfig.newBuilder()
+                        .setServiceInstanceId(serviceInstanceID.toString())
+                        .setUid(1)
+                        .setPackageName("test")
+                        .setServiceId(1)
+                        .setAdfStatus(ADF_STATUS_PROVISIONED)
+                        .setSecureBlob(ByteString.copyFrom(secureBlob)))
+                .build();
+
+        mServiceProfileData.deserializeData(uwbConfig);
+
+        ServiceProfileInfo serviceProfileInfo = mDataSource.mData.get(serviceInstanceID);
+        assertTrue(serviceProfileInfo.getServiceAdfOid().isEmpty());
+        assertArrayEquals(secureBlob, serviceProfileInfo.getSecureBlob().get());
+    }
+
+    @Test
+    public void testSerializeDelta() {
+        UwbConfigProto.UwbConfigDelta.Builder builder = UwbConfigProto.UwbConfigDelta.newBuilder();
+        // Changes not tracked, a full snapshot is needed.
+        assertFalse(mServiceProfileData.serializeDelta(builder));
+
+        UUID changedServiceInstanceID = new UUID(100, 500);
+        UUID removedServiceInstanceID = new UUID(200, 600);
+        mDataSource.mChangedServiceInstanceIds =
+                Set.of(changedServiceInstanceID, removedServiceInstanceID);
+        assertTrue(mServiceProfileData.serializeDelta(builder));
+
+        assertEquals(1, builder.getUpsertedServiceConfigCount());
+        assertEquals(changedServiceInstanceID.toString(),
+                builder.getUpsertedServiceConfig(0).getServiceInstanceId());
+        assertEquals(1, builder.getRemovedServiceInstanceIdCount());
+        assertEquals(removedServiceInstanceID.toString(),
+                builder.getRemovedServiceInstanceId(0));
+
+        // The IDs serialized were taken, the next delta is empty.
+        UwbConfigProto.UwbConfigDelta.Builder nextBuilder =
+                UwbConfigProto.UwbConfigDelta.newBuilder();
+        assertTrue(mServiceProfileData.serializeDelta(nextBuilder));
+        assertEquals(0, nextBuilder.getUpsertedServiceConfigCount());
+        assertEquals(0, nextBuilder.getRemovedServiceInstanceIdCount());
+    }
+
     private static class MockDataSource implements ServiceProfileData.DataSource {
 
         public Map<UUID, ServiceProfileData.ServiceProfileInfo> mData =
                 new HashMap<>();
+        public Set<UUID> mChangedServiceInstanceIds;
         @Override
         public Map<UUID, ServiceProfileInfo> toSerialize() {
             Map<UUID, ServiceProfileInfo> mServiceProfileMap =
@@ -131,5 +185,14 @@ public class ServiceProfileDataTest {
         public boolean hasNewDataToSerialize() {
             return true;
         }
+
+        @Override
+        public Set<UUID> takeChangedServiceInstanceIds() {
+            Set<UUID> changedServiceInstanceIds = mChangedServiceInstanceIds;
+            if (changedServiceInstanceIds != null) {
+                mChangedServiceInstanceIds = new HashSet<>();
+            }
+            return changedServiceInstanceIds;
+        }
     }
 }
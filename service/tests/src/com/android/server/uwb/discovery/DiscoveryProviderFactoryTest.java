@@ -30,6 +30,7 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanSettings;
 import android.content.AttributionSource;
 import android.content.Context;
+import android.os.Handler;
 import android.uwb.UwbTestUtils;
 
 import androidx.test.filters.SmallTest;
@@ -100,6 +101,7 @@ public class DiscoveryProviderFactoryTest {
     @Mock BluetoothLeScanner mMockBluetoothLeScanner;
     @Mock DiscoveryAdvertiseCallback mMockDiscoveryAdvertiseCallback;
     @Mock DiscoveryScanCallback mMockDiscoveryScanCallback;
+    @Mock Handler mMockHandler;
 
     @Before
     public void setUp() throws Exception {
@@ -120,6 +122,7 @@ public class DiscoveryProviderFactoryTest {
                         mMockAttributionSource,
                         mMockContext,
                         EXECUTOR,
+                        mMockHandler,
                         DISCOVERY_INFO,
                         mMockDiscoveryScanCallback);
 
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.uwb.discovery.FiraConnectorMessageReassembler.Result;
+import com.android.server.uwb.discovery.info.FiraConnectorCapabilities;
+import com.android.server.uwb.discovery.info.FiraConnectorDataPacket;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Unit test for {@link FiraConnectorMessageReassembler} */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class FiraConnectorMessageReassemblerTest {
+    private static final int SECID = 2;
+    private static final int SECID2 = 3;
+    private static final int SECID3 = 4;
+    private static final int MAX_MESSAGE_BUFFER_SIZE = 263;
+    private static final FiraConnectorCapabilities CAPABILITIES =
+            new FiraConnectorCapabilities.Builder()
+                    .setMaxMessageBufferSize(MAX_MESSAGE_BUFFER_SIZE)
+                    .setMaxConcurrentFragmentedMessageSessionSupported(2)
+                    .build();
+
+    private final List<Integer> mSecids = new ArrayList<>();
+    private final List<byte[]> mMessages = new ArrayList<>();
+    private final List<Boolean> mReadOnly = new ArrayList<>();
+    private FiraConnectorMessageReassembler mReassembler;
+
+    @Before
+    public void setUp() {
+        mReassembler =
+                new FiraConnectorMessageReassembler(
+                        CAPABILITIES,
+                        (secid, messageBytes) -> {
+                            mSecids.add(secid);
+                            mReadOnly.add(messageBytes.isReadOnly());
+                            byte[] bytes = new byte[messageBytes.remaining()];
+                            messageBytes.get(bytes);
+                            mMessages.add(bytes);
+                        });
+    }
+
+    private static byte[] dataPacket(boolean lastChainingPacket, int secid, byte[] payload) {
+        return new FiraConnectorDataPacket(lastChainingPacket, secid, payload).toBytes();
+    }
+
+    private static byte[] filled(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    @Test
+    public void testAppend_unfragmentedMessage() {
+        assertThat(mReassembler.append(dataPacket(true, SECID, new byte[] {1, 2, 3})))
+                .isEqualTo(Result.COMPLETE);
+
+        assertThat(mSecids).containsExactly(SECID);
+        assertThat(mMessages.get(0)).isEqualTo(new byte[] {1, 2, 3});
+        assertThat(mReadOnly).containsExactly(true);
+        assertThat(mReassembler.getSessionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAppend_interleavedSessions() {
+        assertThat(mReassembler.append(dataPacket(false, SECID, filled(10, 1))))
+                .isEqualTo(Result.INCOMPLETE);
+        assertThat(mReassembler.append(dataPacket(false, SECID2, filled(10, 2))))
+                .isEqualTo(Result.INCOMPLETE);
+        assertThat(mReassembler.append(dataPacket(false, SECID, filled(10, 1))))
+                .isEqualTo(Result.INCOMPLETE);
+        assertThat(mReassembler.getSessionCount()).isEqualTo(2);
+
+        assertThat(mReassembler.append(dataPacket(true, SECID2, filled(5, 2))))
+                .isEqualTo(Result.COMPLETE);
+        assertThat(mReassembler.append(dataPacket(true, SECID, filled(5, 1))))
+                .isEqualTo(Result.COMPLETE);
+
+        assertThat(mSecids).containsExactly(SECID2, SECID).inOrder();
+        assertThat(mMessages.get(0)).isEqualTo(filled(15, 2));
+        assertThat(mMessages.get(1)).isEqualTo(filled(25, 1));
+        assertThat(mReadOnly).containsExactly(true, true);
+        assertThat(mReassembler.getSessionCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAppend_tooManyConcurrentSessions() {
+        mReassembler.append(dataPacket(false, SECID, filled(10, 1)));
+        mReassembler.append(dataPacket(false, SECID2, filled(10, 2)));
+
+        assertThat(mReassembler.append(dataPacket(false, SECID3, filled(10, 3))))
+                .isEqualTo(Result.TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS);
+        assertThat(mReassembler.append(dataPacket(true, SECID, filled(1, 1))))
+                .isEqualTo(Result.COMPLETE);
+        // A buffer got released, so the new session fits now.
+        assertThat(mReassembler.append(dataPacket(true, SECID3, filled(1, 3))))
+                .isEqualTo(Result.COMPLETE);
+    }
+
+    @Test
+    public void testAppend_messageLengthOverflowDropsRemainingPackets() {
+        mReassembler.append(dataPacket(false, SECID, filled(200, 1)));
+
+        assertThat(mReassembler.append(dataPacket(false, SECID, filled(100, 1))))
+                .isEqualTo(Result.MESSAGE_LENGTH_OVERFLOW);
+        assertThat(mReassembler.append(dataPacket(false, SECID, filled(10, 1))))
+                .isEqualTo(Result.DROPPED);
+        assertThat(mReassembler.append(dataPacket(true, SECID, filled(10, 1))))
+                .isEqualTo(Result.DROPPED);
+        assertThat(mSecids).isEmpty();
+
+        // The next message of the SECID is reassembled again.
+        assertThat(mReassembler.append(dataPacket(true, SECID, filled(10, 1))))
+                .isEqualTo(Result.COMPLETE);
+    }
+
+    @Test
+    public void testAppend_invalidDataPacket() {
+        assertThat(mReassembler.append(new byte[] {})).isEqualTo(Result.INVALID_DATA_PACKET);
+    }
+
+    @Test
+    public void testReset_dropsMessagesInProgress() {
+        mReassembler.append(dataPacket(false, SECID, filled(10, 1)));
+        mReassembler.reset();
+
+        assertThat(mReassembler.getSessionCount()).isEqualTo(0);
+        assertThat(mReassembler.append(dataPacket(true, SECID, filled(5, 1))))
+                .isEqualTo(Result.COMPLETE);
+        assertThat(mMessages.get(0)).isEqualTo(filled(5, 1));
+    }
+
+    @Test
+    public void testReassembledMessageBuffer_reusedAcrossMessages() {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        FiraConnectorMessageReassembler reassembler =
+                new FiraConnectorMessageReassembler(
+                        new FiraConnectorCapabilities.Builder().build(),
+                        (secid, messageBytes) -> buffers.add(messageBytes));
+        reassembler.append(dataPacket(false, SECID, filled(10, 1)));
+        reassembler.append(dataPacket(true, SECID, filled(10, 1)));
+        reassembler.append(dataPacket(false, SECID2, filled(10, 2)));
+        reassembler.append(dataPacket(true, SECID2, filled(10, 2)));
+
+        assertThat(buffers).hasSize(2);
+        assertThat(buffers.get(0).capacity())
+                .isEqualTo(new FiraConnectorCapabilities.Builder().build().maxMessageBufferSize);
+        // Both views are backed by the same buffer.
+        assertThat(buffers.get(0).get(0)).isEqualTo((byte) 2);
+    }
+
+    @Test
+    public void testSetCapabilities_clampedToLocalMaximums() {
+        FiraConnectorMessageReassembler reassembler =
+                new FiraConnectorMessageReassembler(
+                        new FiraConnectorCapabilities.Builder()
+                                .setMaxMessageBufferSize(0xFFFF)
+                                .setMaxConcurrentFragmentedMessageSessionSupported(0xFF)
+                                .build(),
+                        (secid, messageBytes) -> {});
+
+        for (int secid = 0; secid < FiraConnectorMessageReassembler.MAX_CONCURRENT_SESSIONS;
+                secid++) {
+            assertThat(reassembler.append(dataPacket(false, secid, filled(10, 1))))
+                    .isEqualTo(Result.INCOMPLETE);
+        }
+        assertThat(
+                        reassembler.append(
+                                dataPacket(
+                                        false,
+                                        FiraConnectorMessageReassembler.MAX_CONCURRENT_SESSIONS,
+                                        filled(10, 1))))
+                .isEqualTo(Result.TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS);
+        assertThat(
+                        reassembler.append(
+                                dataPacket(
+                                        true,
+                                        0,
+                                        filled(
+                                                FiraConnectorMessageReassembler
+                                                        .MAX_MESSAGE_BUFFER_SIZE,
+                                                1))))
+                .isEqualTo(Result.MESSAGE_LENGTH_OVERFLOW);
+    }
+}
@@ -37,6 +37,8 @@ import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.AttributionSource;
 import android.content.Context;
+import android.os.Handler;
+import android.os.test.TestLooper;
 import android.uwb.UwbTestUtils;
 
 import androidx.test.filters.SmallTest;
@@ -79,6 +81,8 @@ public class BleDiscoveryScanProviderTest {
     @Mock DiscoveryScanCallback mMockDiscoveryScanCallback;
     @Mock ScanInfo mScanInfo;
 
+    private final TestLooper mTestLooper = new TestLooper();
+
     private BleDiscoveryScanProvider mBleDiscoveryScanProvider;
 
     @Before
@@ -93,6 +97,7 @@ public class BleDiscoveryScanProviderTest {
                         mMockAttributionSource,
                         mMockContext,
                         EXECUTOR,
+                        new Handler(mTestLooper.getLooper()),
                         mScanInfo,
                         mMockDiscoveryScanCallback);
     }
@@ -109,6 +114,7 @@ public class BleDiscoveryScanProviderTest {
                         mMockAttributionSource,
                         mMockContext,
                         EXECUTOR,
+                        new Handler(mTestLooper.getLooper()),
                         new ScanInfo(
                                 scanFilterList,
                                 new ScanSettings.Builder().setReportDelay(10).build()),
@@ -440,4 +446,171 @@ public class BleDiscoveryScanProviderTest {
                 .isEqualTo(expectedAdv.toString());
         assertThat(captor.getValue().scanResult).isEqualTo(scanResult);
     }
+
+    @Test
+    public void testBleScanResult_unchangedAdvertisementRateLimited() {
+        when(mMockBluetoothManager.getAdapter()).thenReturn(mMockBluetoothAdapter);
+        when(mMockBluetoothAdapter.getBluetoothLeScanner()).thenReturn(mMockBluetoothLeScanner);
+        long[] nowMs = {0};
+        mBleDiscoveryScanProvider =
+                new BleDiscoveryScanProvider(
+                        mMockAttributionSource,
+                        mMockContext,
+                        EXECUTOR,
+                        new Handler(mTestLooper.getLooper()),
+                        new ScanInfo(
+                                new ArrayList<ScanFilter>(),
+                                /*scanSettings=*/ null,
+                                /*reportIntervalMs=*/ 100),
+                        mMockDiscoveryScanCallback,
+                        () -> nowMs[0]);
+        ScanRecord scanRecord =
+                parseScanRecord(
+                        new byte[] {
+                            // advertising flags
+                            0x02,
+                            0x01,
+                            0x1a,
+                            // 16 bit service uuids
+                            0x03,
+                            0x03,
+                            (byte) 0xF3,
+                            (byte) 0xFF,
+                            // service data, rssi threhold=-100
+                            0x06,
+                            0x16,
+                            (byte) 0xF3,
+                            (byte) 0xFF,
+                            0x12,
+                            (byte) 0b11101001,
+                            (byte) 0x9C,
+                        });
+        ScanResult scanResult =
+                new ScanResult(
+                        /*device=*/ null,
+                        /*eventType=*/ 0,
+                        /*primaryPhy=*/ 0,
+                        /*secondaryPhy=*/ 0,
+                        /*advertisingSid=*/ 0,
+                        /*txPower=*/ 0,
+                        /*rssi=*/ 10,
+                        /*periodicAdvertisingInterval=*/ 0,
+                        scanRecord,
+                        /*timestampNanos=*/ 0);
+
+        assertThat(mBleDiscoveryScanProvider.start()).isTrue();
+        ArgumentCaptor<ScanCallback> captor = ArgumentCaptor.forClass(ScanCallback.class);
+        verify(mMockBluetoothLeScanner, times(1)).startScan(any(), any(), captor.capture());
+        ScanCallback cb = captor.getValue();
+
+        cb.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult);
+        nowMs[0] = 50;
+        cb.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult);
+        verify(mMockDiscoveryScanCallback, times(1)).onDiscovered(any());
+
+        nowMs[0] = 100;
+        cb.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult);
+        verify(mMockDiscoveryScanCallback, times(2)).onDiscovered(any());
+    }
+
+    @Test
+    public void testBleScanResult_latestSuppressedResultReportedAfterInterval() {
+        when(mMockBluetoothManager.getAdapter()).thenReturn(mMockBluetoothAdapter);
+        when(mMockBluetoothAdapter.getBluetoothLeScanner()).thenReturn(mMockBluetoothLeScanner);
+        long[] nowMs = {0};
+        mBleDiscoveryScanProvider =
+                new BleDiscoveryScanProvider(
+                        mMockAttributionSource,
+                        mMockContext,
+                        EXECUTOR,
+                        new Handler(mTestLooper.getLooper()),
+                        new ScanInfo(
+                                new ArrayList<ScanFilter>(),
+                                /*scanSettings=*/ null,
+                                /*reportIntervalMs=*/ 100),
+                        mMockDiscoveryScanCallback,
+                        () -> nowMs[0]);
+        ScanRecord scanRecord =
+                parseScanRecord(
+                        new byte[] {
+                            // advertising flags
+                            0x02,
+                            0x01,
+                            0x1a,
+                            // 16 bit service uuids
+                            0x03,
+                            0x03,
+                            (byte) 0xF3,
+                            (byte) 0xFF,
+                            // service data, rssi threhold=-100
+                            0x06,
+                            0x16,
+                            (byte) 0xF3,
+                            (byte) 0xFF,
+                            0x12,
+                            (byte) 0b11101001,
+                            (byte) 0x9C,
+                        });
+        ScanResult scanResult1 =
+                new ScanResult(
+                        /*device=*/ null,
+                        /*eventType=*/ 0,
+                        /*primaryPhy=*/ 0,
+                        /*secondaryPhy=*/ 0,
+                        /*advertisingSid=*/ 0,
+                        /*txPower=*/ 0,
+                        /*rssi=*/ 10,
+                        /*periodicAdvertisingInterval=*/ 0,
+                        scanRecord,
+                        /*timestampNanos=*/ 0);
+        ScanResult scanResult2 =
+                new ScanResult(
+                        /*device=*/ null,
+                        /*eventType=*/ 0,
+                        /*primaryPhy=*/ 0,
+                        /*secondaryPhy=*/ 0,
+                        /*advertisingSid=*/ 0,
+                        /*txPower=*/ 0,
+                        /*rssi=*/ 20,
+                        /*periodicAdvertisingInterval=*/ 0,
+                        scanRecord,
+                        /*timestampNanos=*/ 0);
+        ScanResult scanResult3 =
+                new ScanResult(
+                        /*device=*/ null,
+                        /*eventType=*/ 0,
+                        /*primaryPhy=*/ 0,
+                        /*secondaryPhy=*/ 0,
+                        /*advertisingSid=*/ 0,
+                        /*txPower=*/ 0,
+                        /*rssi=*/ 30,
+                        /*periodicAdvertisingInterval=*/ 0,
+                        scanRecord,
+                        /*timestampNanos=*/ 0);
+
+        assertThat(mBleDiscoveryScanProvider.start()).isTrue();
+        ArgumentCaptor<ScanCallback> captor = ArgumentCaptor.forClass(ScanCallback.class);
+        verify(mMockBluetoothLeScanner, times(1)).startScan(any(), any(), captor.capture());
+        ScanCallback cb = captor.getValue();
+
+        cb.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult1);
+        nowMs[0] = 30;
+        cb.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult2);
+        nowMs[0] = 60;
+        cb.onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, scanResult3);
+        verify(mMockDiscoveryScanCallback, times(1)).onDiscovered(any());
+
+        // The device stopped advertising, its latest result is reported when the interval ends.
+        nowMs[0] = 100;
+        mTestLooper.moveTimeForward(70);
+        mTestLooper.dispatchAll();
+        ArgumentCaptor<DiscoveryResult> resultCaptor =
+                ArgumentCaptor.forClass(DiscoveryResult.class);
+        verify(mMockDiscoveryScanCallback, times(2)).onDiscovered(resultCaptor.capture());
+        assertThat(resultCaptor.getAllValues().get(1).scanResult).isEqualTo(scanResult3);
+
+        mTestLooper.moveTimeForward(100);
+        mTestLooper.dispatchAll();
+        verify(mMockDiscoveryScanCallback, times(2)).onDiscovered(any());
+    }
 }
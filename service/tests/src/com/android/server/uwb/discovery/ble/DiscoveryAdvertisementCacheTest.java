@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.ble;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.uwb.discovery.DiscoveryScanProvider.DiscoveryResult;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit test for {@link DiscoveryAdvertisementCache} */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class DiscoveryAdvertisementCacheTest {
+    private static final String ADDRESS1 = "00:11:22:33:44:55";
+    private static final String ADDRESS2 = "00:11:22:33:44:66";
+    private static final String ADDRESS3 = "00:11:22:33:44:77";
+    private static final byte[] PAYLOAD1 = new byte[] {0x01, 0x02, 0x03};
+    private static final byte[] PAYLOAD2 = new byte[] {0x01, 0x02, 0x04};
+    private static final DiscoveryAdvertisement ADVERTISEMENT =
+            new DiscoveryAdvertisement(null, null, null, null);
+    private static final DiscoveryResult RESULT1 = new DiscoveryResult(null, ADVERTISEMENT);
+    private static final DiscoveryResult RESULT2 = new DiscoveryResult(null, ADVERTISEMENT);
+
+    private long mNowMs;
+    private DiscoveryAdvertisementCache mCache;
+
+    @Before
+    public void setUp() {
+        mNowMs = 0;
+        mCache =
+                new DiscoveryAdvertisementCache(
+                        /*maxEntries=*/ 2,
+                        /*maxAgeMs=*/ 1000,
+                        /*reportIntervalMs=*/ 100,
+                        () -> mNowMs);
+    }
+
+    @Test
+    public void testGet_unchangedPayload() {
+        DiscoveryAdvertisementCache.Entry entry = mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+
+        assertThat(mCache.get(ADDRESS1, PAYLOAD1.clone())).isSameInstanceAs(entry);
+        assertThat(mCache.get(ADDRESS2, PAYLOAD1)).isNull();
+    }
+
+    @Test
+    public void testGet_changedPayload() {
+        mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+
+        assertThat(mCache.get(ADDRESS1, PAYLOAD2)).isNull();
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGet_invalidAdvertisementCached() {
+        mCache.put(ADDRESS1, PAYLOAD1, null);
+
+        DiscoveryAdvertisementCache.Entry entry = mCache.get(ADDRESS1, PAYLOAD1);
+        assertThat(entry).isNotNull();
+        assertThat(entry.advertisement).isNull();
+    }
+
+    @Test
+    public void testGet_expiredEntry() {
+        mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+        mNowMs = 1000;
+        assertThat(mCache.get(ADDRESS1, PAYLOAD1)).isNotNull();
+
+        // Seen at 1000, so still valid at 2000.
+        mNowMs = 2000;
+        assertThat(mCache.get(ADDRESS1, PAYLOAD1)).isNotNull();
+
+        mNowMs = 3001;
+        assertThat(mCache.get(ADDRESS1, PAYLOAD1)).isNull();
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlySeen() {
+        mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+        mCache.put(ADDRESS2, PAYLOAD1, ADVERTISEMENT);
+        mCache.get(ADDRESS1, PAYLOAD1);
+        mCache.put(ADDRESS3, PAYLOAD1, ADVERTISEMENT);
+
+        assertThat(mCache.size()).isEqualTo(2);
+        assertThat(mCache.get(ADDRESS1, PAYLOAD1)).isNotNull();
+        assertThat(mCache.get(ADDRESS2, PAYLOAD1)).isNull();
+        assertThat(mCache.get(ADDRESS3, PAYLOAD1)).isNotNull();
+    }
+
+    @Test
+    public void testPut_removesExpiredEntries() {
+        mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+        mNowMs = 1001;
+        mCache.put(ADDRESS2, PAYLOAD1, ADVERTISEMENT);
+
+        assertThat(mCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTryReport_rateLimited() {
+        DiscoveryAdvertisementCache.Entry entry = mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+
+        assertThat(mCache.tryReport(entry, RESULT1)).isEqualTo(0L);
+        mNowMs = 99;
+        assertThat(mCache.tryReport(entry, RESULT1)).isEqualTo(1L);
+        mNowMs = 100;
+        assertThat(mCache.tryReport(entry, RESULT1)).isEqualTo(0L);
+        assertThat(mCache.takePendingResult(entry)).isNull();
+    }
+
+    @Test
+    public void testTakePendingResult_latestSuppressedResult() {
+        DiscoveryAdvertisementCache.Entry entry = mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+
+        assertThat(mCache.tryReport(entry, RESULT1)).isEqualTo(0L);
+        mNowMs = 40;
+        assertThat(mCache.tryReport(entry, RESULT1)).isEqualTo(60L);
+        mNowMs = 60;
+        assertThat(mCache.tryReport(entry, RESULT2)).isEqualTo(-1L);
+        mNowMs = 100;
+        assertThat(mCache.takePendingResult(entry)).isSameInstanceAs(RESULT2);
+        assertThat(mCache.takePendingResult(entry)).isNull();
+        // The trailing report starts a new report interval.
+        mNowMs = 150;
+        assertThat(mCache.tryReport(entry, RESULT1)).isEqualTo(50L);
+    }
+
+    @Test
+    public void testTakePendingResult_droppedWithEntry() {
+        DiscoveryAdvertisementCache.Entry entry = mCache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+        mCache.tryReport(entry, RESULT1);
+        mNowMs = 50;
+        mCache.tryReport(entry, RESULT2);
+
+        assertThat(mCache.get(ADDRESS1, PAYLOAD2)).isNull();
+        assertThat(mCache.takePendingResult(entry)).isNull();
+    }
+
+    @Test
+    public void testTryReport_noReportInterval() {
+        DiscoveryAdvertisementCache cache =
+                new DiscoveryAdvertisementCache(
+                        /*maxEntries=*/ 2,
+                        /*maxAgeMs=*/ 1000,
+                        /*reportIntervalMs=*/ 0,
+                        () -> mNowMs);
+        DiscoveryAdvertisementCache.Entry entry = cache.put(ADDRESS1, PAYLOAD1, ADVERTISEMENT);
+
+        assertThat(cache.tryReport(entry, RESULT1)).isEqualTo(0L);
+        assertThat(cache.tryReport(entry, RESULT1)).isEqualTo(0L);
+    }
+}
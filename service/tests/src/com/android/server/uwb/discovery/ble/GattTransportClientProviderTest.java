@@ -72,7 +72,9 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.Executor;
 
 /** Unit test for {@link GattTransportClientProvider} */
@@ -110,6 +112,12 @@ public class GattTransportClientProviderTest {
                     UuidConstants.CP_IN_CONTROL_POINT_UUID.getUuid(),
                     BluetoothGattCharacteristic.PROPERTY_WRITE,
                     BluetoothGattCharacteristic.PERMISSION_WRITE);
+    private static final BluetoothGattCharacteristic IN_NO_RESPONSE_CHARACTERSTIC =
+            new BluetoothGattCharacteristic(
+                    UuidConstants.CP_IN_CONTROL_POINT_UUID.getUuid(),
+                    BluetoothGattCharacteristic.PROPERTY_WRITE
+                            | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+                    BluetoothGattCharacteristic.PERMISSION_WRITE);
     private static final BluetoothGattCharacteristic CAPABILITIES_CHARACTERSTIC =
             new BluetoothGattCharacteristic(
                     UuidConstants.CP_FIRA_CONNECTOR_CAPABILITIES_UUID.getUuid(),
@@ -140,6 +148,10 @@ public class GattTransportClientProviderTest {
     private BluetoothGattCallback mBluetoothGattCallback;
     private FiraConnectorCapabilities mDefaultCapabilities =
             new FiraConnectorCapabilities.Builder().build();
+    // Copies of the data packets written to the IN characteristic, since the provider reuses its
+    // data packet buffer.
+    private final List<byte[]> mInDataPackets = new ArrayList<>();
+    private final List<Integer> mInWriteTypes = new ArrayList<>();
 
     // For matching the package name of a PackageInfo
     private static class CharacteristicMatcher
@@ -242,11 +254,15 @@ public class GattTransportClientProviderTest {
     }
 
     private void setupGattServicesDiscover() {
+        setupGattServicesDiscover(IN_CHARACTERSTIC);
+    }
+
+    private void setupGattServicesDiscover(BluetoothGattCharacteristic inCharacteristic) {
         when(mMockBluetoothGatt.getService(UuidConstants.FIRA_CP_PARCEL_UUID.getUuid()))
                 .thenReturn(mMockBluetoothGattService);
         when(mMockBluetoothGattService.getCharacteristic(
                         UuidConstants.CP_IN_CONTROL_POINT_UUID.getUuid()))
-                .thenReturn(IN_CHARACTERSTIC);
+                .thenReturn(inCharacteristic);
         when(mMockBluetoothGattService.getCharacteristic(
                         UuidConstants.CP_OUT_CONTROL_POINT_UUID.getUuid()))
                 .thenReturn(mOutCharacterstic);
@@ -271,6 +287,12 @@ public class GattTransportClientProviderTest {
         Answer notifyGattCharacteristicWrite =
                 new Answer() {
                     public Integer answer(InvocationOnMock invocation) {
+                        BluetoothGattCharacteristic characteristic = invocation.getArgument(0);
+                        if (characteristic.getUuid().equals(IN_CHARACTERSTIC.getUuid())) {
+                            byte[] value = invocation.getArgument(/*index=*/ 1);
+                            mInDataPackets.add(Arrays.copyOf(value, value.length));
+                            mInWriteTypes.add(invocation.getArgument(/*index=*/ 2));
+                        }
                         EXECUTOR.execute(
                                 () ->
                                         mBluetoothGattCallback.onCharacteristicWrite(
@@ -305,8 +327,12 @@ public class GattTransportClientProviderTest {
     }
 
     private void startProcessing() {
+        startProcessing(IN_CHARACTERSTIC);
+    }
+
+    private void startProcessing(BluetoothGattCharacteristic inCharacteristic) {
         setupGattConnect();
-        setupGattServicesDiscover();
+        setupGattServicesDiscover(inCharacteristic);
         setupGattWriteCharacteristic(CAPABILITIES_CHARACTERSTIC);
         setupGattWriteDescriptor();
         setupGattWriteCharacteristic(IN_CHARACTERSTIC);
@@ -616,17 +642,101 @@ public class GattTransportClientProviderTest {
 
         assertThat(mGattTransportClientProvider.sendMessage(SECID, message)).isTrue();
 
-        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
         verify(mMockBluetoothGatt, times(3))
                 .writeCharacteristic(
                         argThat(new CharacteristicMatcher(IN_CHARACTERSTIC)),
-                        captor.capture(),
-                        anyInt());
-        assertThat(captor.getAllValues().get(0)).isEqualTo(packet1.toBytes());
-        assertThat(captor.getAllValues().get(1)).isEqualTo(packet_bytes2);
-        assertThat(captor.getAllValues().get(2)).isEqualTo(packet_bytes3);
-        assertThat(FiraConnectorDataPacket.fromBytes(captor.getAllValues().get(0)).toString())
+                        any(),
+                        eq(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+        assertThat(mInDataPackets).hasSize(3);
+        assertThat(mInDataPackets.get(0)).isEqualTo(packet1.toBytes());
+        assertThat(mInDataPackets.get(1)).isEqualTo(packet_bytes2);
+        assertThat(mInDataPackets.get(2)).isEqualTo(packet_bytes3);
+        assertThat(FiraConnectorDataPacket.fromBytes(mInDataPackets.get(0)).toString())
                 .isEqualTo(packet1.toString());
+        assertThat(mGattTransportClientProvider.getInMessageCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSendMessage_intermediatePacketsWrittenWithoutResponse() {
+        byte[] messagePayload = new byte[51];
+        Arrays.fill(messagePayload, (byte) 3);
+        FiraConnectorMessage message =
+                new FiraConnectorMessage(
+                        MessageType.EVENT, InstructionCode.DATA_EXCHANGE, messagePayload);
+        byte[] messageBytes = message.toBytes();
+        int payloadSize = mDefaultCapabilities.optimizedDataPacketSize - 1;
+
+        startProcessing(IN_NO_RESPONSE_CHARACTERSTIC);
+
+        assertThat(mGattTransportClientProvider.sendMessage(SECID, message)).isTrue();
+        assertThat(mGattTransportClientProvider.sendMessage(SECID, MESSAGE)).isTrue();
+
+        assertThat(mInWriteTypes)
+                .containsExactly(
+                        BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE,
+                        BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE,
+                        BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT,
+                        BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT)
+                .inOrder();
+        assertThat(mInDataPackets.get(1))
+                .isEqualTo(
+                        new FiraConnectorDataPacket(
+                                        /*lastChainingPacket=*/ false,
+                                        SECID,
+                                        Arrays.copyOfRange(
+                                                messageBytes, payloadSize, 2 * payloadSize))
+                                .toBytes());
+        assertThat(mInDataPackets.get(3)).isEqualTo(DATA_PACKET_BYTES);
+        assertThat(mGattTransportClientProvider.getInMessageCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSendMessage_writeWindowBoundByServerMessageBuffer() {
+        // The client could buffer much more than the server is known to.
+        FiraConnectorCapabilities capabilities =
+                new FiraConnectorCapabilities.Builder().setMaxMessageBufferSize(4096).build();
+        mGattTransportClientProvider.setCapabilites(capabilities);
+        byte[] messagePayload = new byte[400];
+        FiraConnectorMessage message =
+                new FiraConnectorMessage(
+                        MessageType.EVENT, InstructionCode.DATA_EXCHANGE, messagePayload);
+        int window = mDefaultCapabilities.maxMessageBufferSize
+                / mDefaultCapabilities.optimizedDataPacketSize;
+
+        startProcessing(IN_NO_RESPONSE_CHARACTERSTIC);
+
+        assertThat(mGattTransportClientProvider.sendMessage(SECID, message)).isTrue();
+
+        assertThat(mInWriteTypes.size()).isGreaterThan(window + 1);
+        for (int i = 0; i < window; i++) {
+            assertThat(mInWriteTypes.get(i))
+                    .isEqualTo(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+        assertThat(mInWriteTypes.get(window))
+                .isEqualTo(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+    }
+
+    @Test
+    public void testSendMessage_waitsForWriteInFlight() {
+        startProcessing();
+        // Hold back the write callback of the IN characteristic.
+        doReturn(BluetoothStatusCodes.SUCCESS)
+                .when(mMockBluetoothGatt)
+                .writeCharacteristic(
+                        argThat(new CharacteristicMatcher(IN_CHARACTERSTIC)), any(), anyInt());
+
+        assertThat(mGattTransportClientProvider.sendMessage(SECID, MESSAGE)).isTrue();
+        assertThat(mGattTransportClientProvider.sendMessage(SECID, MESSAGE)).isTrue();
+        verify(mMockBluetoothGatt, times(1))
+                .writeCharacteristic(
+                        argThat(new CharacteristicMatcher(IN_CHARACTERSTIC)), any(), anyInt());
+
+        mBluetoothGattCallback.onCharacteristicWrite(
+                mMockBluetoothGatt, IN_CHARACTERSTIC, BluetoothGatt.GATT_SUCCESS);
+        verify(mMockBluetoothGatt, times(2))
+                .writeCharacteristic(
+                        argThat(new CharacteristicMatcher(IN_CHARACTERSTIC)), any(), anyInt());
+        assertThat(mGattTransportClientProvider.getInMessageCount()).isEqualTo(1);
     }
 
     private void notifyAndReadOutCharacteristic(byte[] bytes) {
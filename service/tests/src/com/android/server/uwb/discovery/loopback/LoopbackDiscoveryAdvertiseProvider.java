@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.loopback;
+
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.discovery.DiscoveryAdvertiseProvider;
+import com.android.server.uwb.discovery.DiscoveryAdvertiseProvider.DiscoveryAdvertiseCallback;
+import com.android.server.uwb.discovery.ble.DiscoveryAdvertisement;
+
+/**
+ * Class for UWB discovery advertise provider using an in-memory {@link LoopbackLink}. Injects its
+ * advertisement into all loopback scanners of the link, in bursts at a fixed interval.
+ */
+@WorkerThread
+public class LoopbackDiscoveryAdvertiseProvider extends DiscoveryAdvertiseProvider {
+    private static final String TAG = LoopbackDiscoveryAdvertiseProvider.class.getSimpleName();
+
+    private final LoopbackInfo mLoopbackInfo;
+    private final DiscoveryAdvertiseCallback mDiscoveryAdvertiseCallback;
+
+    public LoopbackDiscoveryAdvertiseProvider(
+            LoopbackInfo loopbackInfo, DiscoveryAdvertiseCallback discoveryAdvertiseCallback) {
+        mLoopbackInfo = loopbackInfo;
+        mDiscoveryAdvertiseCallback = discoveryAdvertiseCallback;
+    }
+
+    @Override
+    public boolean start() {
+        if (!super.start()) {
+            return false;
+        }
+        if (mLoopbackInfo.discoveryAdvertisement == null) {
+            Log.w(TAG, "startAdvertise failed due to empty discoveryAdvertisement.");
+            return false;
+        }
+        byte[] serviceData =
+                DiscoveryAdvertisement.toBytes(
+                        mLoopbackInfo.discoveryAdvertisement,
+                        /*includeVendorSpecificData=*/ false);
+        mLoopbackInfo.link.startAdvertising(
+                this,
+                serviceData,
+                mLoopbackInfo.advertiseIntervalMs,
+                Math.max(1, mLoopbackInfo.advertiseBurstSize));
+        mStarted = true;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (!super.stop()) {
+            return false;
+        }
+        mLoopbackInfo.link.stopAdvertising(this);
+        mStarted = false;
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.loopback;
+
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.discovery.DiscoveryScanProvider;
+import com.android.server.uwb.discovery.DiscoveryScanProvider.DiscoveryResult;
+import com.android.server.uwb.discovery.DiscoveryScanProvider.DiscoveryScanCallback;
+import com.android.server.uwb.discovery.ble.DiscoveryAdvertisement;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Class for UWB discovery scan provider using an in-memory {@link LoopbackLink}. Decodes the
+ * advertisements injected by loopback advertisers the same way the BLE scanner decodes the service
+ * data of a scan result. Reported {@link DiscoveryResult}s carry no BLE scan result.
+ */
+@WorkerThread
+public class LoopbackDiscoveryScanProvider extends DiscoveryScanProvider {
+    private static final String TAG = LoopbackDiscoveryScanProvider.class.getSimpleName();
+
+    private final Executor mExecutor;
+    private final LoopbackInfo mLoopbackInfo;
+    private final DiscoveryScanCallback mDiscoveryScanCallback;
+
+    public LoopbackDiscoveryScanProvider(
+            Executor executor,
+            LoopbackInfo loopbackInfo,
+            DiscoveryScanCallback discoveryScanCallback) {
+        mExecutor = executor;
+        mLoopbackInfo = loopbackInfo;
+        mDiscoveryScanCallback = discoveryScanCallback;
+    }
+
+    @Override
+    public boolean start() {
+        if (!super.start()) {
+            return false;
+        }
+        mLoopbackInfo.link.addScanner(this);
+        mStarted = true;
+        return true;
+    }
+
+    @Override
+    public boolean stop() {
+        if (!super.stop()) {
+            return false;
+        }
+        mLoopbackInfo.link.removeScanner(this);
+        mStarted = false;
+        return true;
+    }
+
+    /** Called by the link when an advertisement was delivered. */
+    void onAdvertisementReceived(byte[] serviceData) {
+        mExecutor.execute(() -> processAdvertisement(serviceData));
+    }
+
+    private void processAdvertisement(byte[] serviceData) {
+        DiscoveryAdvertisement adv =
+                DiscoveryAdvertisement.fromBytes(serviceData, /*vendorSpecificDataArray=*/ null);
+        if (adv == null) {
+            Log.w(TAG, "Ignoring advertisement. Invalid DiscoveryAdvertisement");
+            return;
+        }
+        mDiscoveryScanCallback.onDiscovered(new DiscoveryResult(/*scanResult=*/ null, adv));
+    }
+}
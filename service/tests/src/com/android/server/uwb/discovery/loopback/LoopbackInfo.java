@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.loopback;
+
+import androidx.annotation.Nullable;
+
+import com.android.server.uwb.discovery.ble.DiscoveryAdvertisement;
+
+/** Holds information about the in-memory link used by the loopback discovery and transport. */
+public class LoopbackInfo {
+    public LoopbackInfo(
+            LoopbackLink link,
+            @Nullable DiscoveryAdvertisement discoveryAdvertisement,
+            long advertiseIntervalMs,
+            int advertiseBurstSize) {
+        this.link = link;
+        this.discoveryAdvertisement = discoveryAdvertisement;
+        this.advertiseIntervalMs = advertiseIntervalMs;
+        this.advertiseBurstSize = advertiseBurstSize;
+    }
+
+    public LoopbackInfo(LoopbackLink link) {
+        this(
+                link,
+                /*discoveryAdvertisement=*/ null,
+                /*advertiseIntervalMs=*/ 0,
+                /*advertiseBurstSize=*/ 0);
+    }
+
+    /** Link shared with the remote loopback providers. */
+    public final LoopbackLink link;
+
+    /** Advertisement injected by the loopback advertiser. */
+    @Nullable public final DiscoveryAdvertisement discoveryAdvertisement;
+
+    /** Interval between two advertisement bursts. */
+    public final long advertiseIntervalMs;
+
+    /** Number of advertisements injected every interval. */
+    public final int advertiseBurstSize;
+}
@@ -0,0 +1,511 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.loopback;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.server.uwb.discovery.info.FiraConnectorCapabilities;
+import com.android.server.uwb.discovery.info.FiraConnectorDataPacket;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * In-memory link shared by a loopback transport server and client, and by loopback discovery
+ * advertisers and scanners.
+ *
+ * <p>The link replaces the Bluetooth radio, so that the whole FiRa OOB stack can be exercised and
+ * benchmarked without real devices. Data packets and advertisements are delivered on the link
+ * handler after the configured latency plus a random jitter, and are dropped with the configured
+ * loss rate. Like a BLE connection, the data packets of each direction are delivered in order.
+ *
+ * <p>The link is used from the threads of the providers and from its handler, its state is
+ * guarded by a lock. The provider callbacks are invoked without holding the lock.
+ */
+public class LoopbackLink {
+    private static final String TAG = LoopbackLink.class.getSimpleName();
+
+    /** FiRa OOB 1.0 spec default optimized data packet size: 20 */
+    private static final int DEFAULT_DATA_PACKET_SIZE = 20;
+
+    private final Handler mHandler;
+    private final int mDataPacketSize;
+    private final long mLatencyMs;
+    private final long mJitterMs;
+    private final double mLossRate;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Random mRandom;
+
+    @GuardedBy("mLock")
+    private LoopbackTransportServerProvider mServer;
+
+    @GuardedBy("mLock")
+    private LoopbackTransportClientProvider mClient;
+
+    @GuardedBy("mLock")
+    private boolean mConnected;
+
+    /* Delivery time of the last data packet scheduled in each direction, to preserve order. */
+    @GuardedBy("mLock")
+    private long mLastToServerDeliveryTimeMs;
+
+    @GuardedBy("mLock")
+    private long mLastToClientDeliveryTimeMs;
+
+    @GuardedBy("mLock")
+    private final List<LoopbackDiscoveryScanProvider> mScanners = new ArrayList<>();
+
+    @GuardedBy("mLock")
+    private final Map<LoopbackDiscoveryAdvertiseProvider, Runnable> mAdvertisers =
+            new HashMap<>();
+
+    /* Stats */
+    @GuardedBy("mLock")
+    private long mDeliveredDataPacketCount;
+
+    @GuardedBy("mLock")
+    private long mDroppedDataPacketCount;
+
+    @GuardedBy("mLock")
+    private long mDeliveredBytes;
+
+    @GuardedBy("mLock")
+    private long mDeliveredAdvertisementCount;
+
+    private LoopbackLink(
+            Looper looper,
+            int dataPacketSize,
+            long latencyMs,
+            long jitterMs,
+            double lossRate,
+            Random random) {
+        mHandler = new Handler(looper);
+        mDataPacketSize = dataPacketSize;
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+        mLossRate = lossRate;
+        mRandom = random;
+    }
+
+    /** Data packet size (MTU) of the link, including the data packet header. */
+    public int getDataPacketSize() {
+        return mDataPacketSize;
+    }
+
+    /** Number of data packets delivered in either direction. */
+    public long getDeliveredDataPacketCount() {
+        synchronized (mLock) {
+            return mDeliveredDataPacketCount;
+        }
+    }
+
+    /** Number of data packets dropped in either direction. */
+    public long getDroppedDataPacketCount() {
+        synchronized (mLock) {
+            return mDroppedDataPacketCount;
+        }
+    }
+
+    /** Number of data packet bytes delivered in either direction. */
+    public long getDeliveredBytes() {
+        synchronized (mLock) {
+            return mDeliveredBytes;
+        }
+    }
+
+    /** Number of advertisements delivered to scanners. */
+    public long getDeliveredAdvertisementCount() {
+        synchronized (mLock) {
+            return mDeliveredAdvertisementCount;
+        }
+    }
+
+    boolean connectServer(@NonNull LoopbackTransportServerProvider server) {
+        synchronized (mLock) {
+            if (mServer != null) {
+                Log.w(TAG, "connectServer failed due to a server is already connected.");
+                return false;
+            }
+            mServer = server;
+            if (mClient != null) {
+                connectLocked();
+            }
+            return true;
+        }
+    }
+
+    boolean connectClient(@NonNull LoopbackTransportClientProvider client) {
+        synchronized (mLock) {
+            if (mClient != null) {
+                Log.w(TAG, "connectClient failed due to a client is already connected.");
+                return false;
+            }
+            mClient = client;
+            if (mServer != null) {
+                connectLocked();
+            }
+            return true;
+        }
+    }
+
+    void disconnectServer(@NonNull LoopbackTransportServerProvider server) {
+        LoopbackTransportClientProvider client;
+        synchronized (mLock) {
+            if (mServer != server) {
+                return;
+            }
+            client = disconnectLocked() ? mClient : null;
+            mServer = null;
+        }
+        notifyDisconnected(server, client);
+    }
+
+    void disconnectClient(@NonNull LoopbackTransportClientProvider client) {
+        LoopbackTransportServerProvider server;
+        synchronized (mLock) {
+            if (mClient != client) {
+                return;
+            }
+            server = disconnectLocked() ? mServer : null;
+            mClient = null;
+        }
+        notifyDisconnected(server, client);
+    }
+
+    /**
+     * Connect the client to the server. Like the GATT client, the client writes its capabilities
+     * first and starts processing once they reached the server.
+     */
+    @GuardedBy("mLock")
+    private void connectLocked() {
+        mConnected = true;
+        final LoopbackTransportServerProvider server = mServer;
+        final LoopbackTransportClientProvider client = mClient;
+        sendCapabilitiesLocked(client.getCapabilities());
+        mHandler.postAtTime(
+                () -> {
+                    synchronized (mLock) {
+                        if (!mConnected || mClient != client || mServer != server) {
+                            return;
+                        }
+                    }
+                    client.onConnectionChanged(/*connected=*/ true);
+                },
+                /*token=*/ this,
+                scheduleDeliveryTimeLocked(/*toServer=*/ false));
+    }
+
+    /** Returns true if the link was connected, the caller notifies both sides outside the lock. */
+    @GuardedBy("mLock")
+    private boolean disconnectLocked() {
+        if (!mConnected) {
+            return false;
+        }
+        mConnected = false;
+        mHandler.removeCallbacksAndMessages(/*token=*/ this);
+        return true;
+    }
+
+    private static void notifyDisconnected(
+            @Nullable LoopbackTransportServerProvider server,
+            @Nullable LoopbackTransportClientProvider client) {
+        if (server == null || client == null) {
+            return;
+        }
+        server.onConnectionChanged(/*connected=*/ false);
+        client.onConnectionChanged(/*connected=*/ false);
+    }
+
+    /** Send the client capabilities to the server, the control path is never lossy. */
+    void sendCapabilities(@NonNull FiraConnectorCapabilities capabilities) {
+        synchronized (mLock) {
+            sendCapabilitiesLocked(capabilities);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void sendCapabilitiesLocked(@NonNull FiraConnectorCapabilities capabilities) {
+        if (!mConnected) {
+            return;
+        }
+        final LoopbackTransportServerProvider server = mServer;
+        mHandler.postAtTime(
+                () -> server.onCapabilitiesReceived(capabilities),
+                /*token=*/ this,
+                scheduleDeliveryTimeLocked(/*toServer=*/ true));
+    }
+
+    /**
+     * Fragment a FiRa Connector Message into data packets and send them to the other side. The
+     * data packets of a message are scheduled together, they are never interleaved with the ones
+     * of another message sent concurrently.
+     *
+     * @param toServer true if sent by the client to the server, false for the other direction.
+     * @param secid destination SECID.
+     * @param messageBytes FiRa Connector Message bytes.
+     * @param dataPacketSize size of the data packets, capped at the data packet size of the link.
+     * @return false if the link is not connected.
+     */
+    boolean sendMessage(
+            boolean toServer, int secid, @NonNull byte[] messageBytes, int dataPacketSize) {
+        int payloadSize =
+                Math.max(
+                        1,
+                        Math.min(dataPacketSize, mDataPacketSize)
+                                - FiraConnectorDataPacket.HEADER_SIZE);
+        synchronized (mLock) {
+            if (!mConnected) {
+                return false;
+            }
+            int offset = 0;
+            do {
+                int length = Math.min(payloadSize, messageBytes.length - offset);
+                boolean lastChainingPacket = offset + length == messageBytes.length;
+                byte[] dataPacket = new byte[FiraConnectorDataPacket.HEADER_SIZE + length];
+                dataPacket[0] = FiraConnectorDataPacket.encodeHeader(lastChainingPacket, secid);
+                System.arraycopy(
+                        messageBytes,
+                        offset,
+                        dataPacket,
+                        FiraConnectorDataPacket.HEADER_SIZE,
+                        length);
+                sendDataPacketLocked(toServer, dataPacket);
+                offset += length;
+            } while (offset < messageBytes.length);
+            return true;
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void sendDataPacketLocked(boolean toServer, byte[] dataPacket) {
+        long deliveryTimeMs = scheduleDeliveryTimeLocked(toServer);
+        if (mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+            mDroppedDataPacketCount++;
+            return;
+        }
+        final LoopbackTransportServerProvider server = mServer;
+        final LoopbackTransportClientProvider client = mClient;
+        mHandler.postAtTime(
+                () -> {
+                    synchronized (mLock) {
+                        mDeliveredDataPacketCount++;
+                        mDeliveredBytes += dataPacket.length;
+                    }
+                    if (toServer) {
+                        server.onDataPacketReceived(dataPacket);
+                    } else {
+                        client.onDataPacketReceived(dataPacket);
+                    }
+                },
+                /*token=*/ this,
+                deliveryTimeMs);
+    }
+
+    /** Latency plus jitter, but never before a data packet sent earlier in the same direction. */
+    @GuardedBy("mLock")
+    private long scheduleDeliveryTimeLocked(boolean toServer) {
+        long deliveryTimeMs = SystemClock.uptimeMillis() + nextDelayMsLocked();
+        if (toServer) {
+            deliveryTimeMs = Math.max(deliveryTimeMs, mLastToServerDeliveryTimeMs);
+            mLastToServerDeliveryTimeMs = deliveryTimeMs;
+        } else {
+            deliveryTimeMs = Math.max(deliveryTimeMs, mLastToClientDeliveryTimeMs);
+            mLastToClientDeliveryTimeMs = deliveryTimeMs;
+        }
+        return deliveryTimeMs;
+    }
+
+    @GuardedBy("mLock")
+    private long nextDelayMsLocked() {
+        if (mJitterMs <= 0) {
+            return mLatencyMs;
+        }
+        return mLatencyMs + (long) (mRandom.nextDouble() * mJitterMs);
+    }
+
+    void addScanner(@NonNull LoopbackDiscoveryScanProvider scanner) {
+        synchronized (mLock) {
+            mScanners.add(scanner);
+        }
+    }
+
+    void removeScanner(@NonNull LoopbackDiscoveryScanProvider scanner) {
+        synchronized (mLock) {
+            mScanners.remove(scanner);
+        }
+    }
+
+    /**
+     * Start injecting the advertisement into all scanners of the link.
+     *
+     * @param advertiser advertiser owning the advertisement.
+     * @param serviceData encoded advertisement.
+     * @param intervalMs advertising interval.
+     * @param burstSize number of advertisements delivered every interval.
+     */
+    void startAdvertising(
+            @NonNull LoopbackDiscoveryAdvertiseProvider advertiser,
+            @NonNull byte[] serviceData,
+            long intervalMs,
+            int burstSize) {
+        Runnable advertise =
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < burstSize; i++) {
+                            advertise(serviceData);
+                        }
+                        mHandler.postDelayed(this, Math.max(1, intervalMs));
+                    }
+                };
+        synchronized (mLock) {
+            stopAdvertisingLocked(advertiser);
+            mAdvertisers.put(advertiser, advertise);
+        }
+        mHandler.post(advertise);
+    }
+
+    void stopAdvertising(@NonNull LoopbackDiscoveryAdvertiseProvider advertiser) {
+        synchronized (mLock) {
+            stopAdvertisingLocked(advertiser);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void stopAdvertisingLocked(@NonNull LoopbackDiscoveryAdvertiseProvider advertiser) {
+        Runnable advertise = mAdvertisers.remove(advertiser);
+        if (advertise != null) {
+            mHandler.removeCallbacks(advertise);
+        }
+    }
+
+    private void advertise(byte[] serviceData) {
+        long delayMs;
+        List<LoopbackDiscoveryScanProvider> scanners;
+        synchronized (mLock) {
+            if (mLossRate > 0 && mRandom.nextDouble() < mLossRate) {
+                return;
+            }
+            delayMs = nextDelayMsLocked();
+            scanners = new ArrayList<>(mScanners);
+        }
+        for (LoopbackDiscoveryScanProvider scanner : scanners) {
+            Runnable deliver =
+                    () -> {
+                        synchronized (mLock) {
+                            // The scanner might have stopped while the advertisement was in
+                            // flight.
+                            if (!mScanners.contains(scanner)) {
+                                return;
+                            }
+                            mDeliveredAdvertisementCount++;
+                        }
+                        scanner.onAdvertisementReceived(serviceData);
+                    };
+            if (delayMs <= 0) {
+                deliver.run();
+            } else {
+                mHandler.postDelayed(deliver, delayMs);
+            }
+        }
+    }
+
+    /** Builder for {@link LoopbackLink}. */
+    public static final class Builder {
+        private final Looper mLooper;
+        private int mDataPacketSize = DEFAULT_DATA_PACKET_SIZE;
+        private long mLatencyMs = 0;
+        private long mJitterMs = 0;
+        private double mLossRate = 0;
+        @Nullable private Random mRandom;
+
+        /**
+         * @param looper looper of the link handler, all events of the link are delivered on it.
+         */
+        public Builder(@NonNull Looper looper) {
+            mLooper = looper;
+        }
+
+        /**
+         * Set the data packet size (MTU) of the link, including the data packet header.
+         *
+         * @throws IllegalArgumentException If the {@code dataPacketSize} cannot carry any payload.
+         */
+        public Builder setDataPacketSize(int dataPacketSize) {
+            if (dataPacketSize <= FiraConnectorDataPacket.HEADER_SIZE) {
+                throw new IllegalArgumentException(
+                        "dataPacketSize is below minimum value: " + dataPacketSize);
+            }
+            mDataPacketSize = dataPacketSize;
+            return this;
+        }
+
+        /** Set the fixed delivery latency of data packets and advertisements. */
+        public Builder setLatencyMs(long latencyMs) {
+            mLatencyMs = Math.max(0, latencyMs);
+            return this;
+        }
+
+        /** Set the max random delay added on top of the latency. */
+        public Builder setJitterMs(long jitterMs) {
+            mJitterMs = Math.max(0, jitterMs);
+            return this;
+        }
+
+        /**
+         * Set the probability of dropping a data packet or an advertisement.
+         *
+         * @throws IllegalArgumentException If the {@code lossRate} is not in [0, 1].
+         */
+        public Builder setLossRate(double lossRate) {
+            if (lossRate < 0 || lossRate > 1) {
+                throw new IllegalArgumentException("lossRate is out of range: " + lossRate);
+            }
+            mLossRate = lossRate;
+            return this;
+        }
+
+        /** Set the random generator for loss and jitter, to make a run reproducible. */
+        public Builder setRandom(@NonNull Random random) {
+            mRandom = random;
+            return this;
+        }
+
+        /** Build the {@link LoopbackLink}. */
+        public LoopbackLink build() {
+            return new LoopbackLink(
+                    mLooper,
+                    mDataPacketSize,
+                    mLatencyMs,
+                    mJitterMs,
+                    mLossRate,
+                    mRandom != null ? mRandom : new Random());
+        }
+    }
+}
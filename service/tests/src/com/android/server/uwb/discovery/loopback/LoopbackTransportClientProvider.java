@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.loopback;
+
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.discovery.FiraConnectorMessageReassembler;
+import com.android.server.uwb.discovery.TransportClientProvider;
+import com.android.server.uwb.discovery.TransportClientProvider.TransportClientCallback;
+import com.android.server.uwb.discovery.TransportProvider.TerminationReason;
+import com.android.server.uwb.discovery.info.AdminErrorMessage.ErrorType;
+import com.android.server.uwb.discovery.info.FiraConnectorCapabilities;
+import com.android.server.uwb.discovery.info.FiraConnectorMessage;
+import com.android.server.uwb.discovery.info.SecureComponentInfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class for FiRa CS UWB transport client provider using an in-memory {@link LoopbackLink}.
+ *
+ * <p>Mirrors {@link com.android.server.uwb.discovery.ble.GattTransportClientProvider}: once
+ * connected, the client sends its FiRa Connector Capabilities to the server, using the data packet
+ * size of the link, and starts processing when the capabilities reached the server. All events are
+ * delivered on the link handler.
+ */
+@WorkerThread
+public class LoopbackTransportClientProvider extends TransportClientProvider {
+    private static final String TAG = LoopbackTransportClientProvider.class.getSimpleName();
+
+    private final LoopbackLink mLink;
+    private final TransportClientCallback mTransportClientCallback;
+    private final FiraConnectorMessageReassembler mMessageReassembler;
+    private FiraConnectorCapabilities mCapabilities;
+    private boolean mIsProcessing;
+
+    public LoopbackTransportClientProvider(
+            int secid, LoopbackLink link, TransportClientCallback transportClientCallback) {
+        super(secid);
+        mLink = link;
+        mTransportClientCallback = transportClientCallback;
+        // Using FiRa defined default connector capabilities, with the data packet size of the link.
+        mCapabilities = withDataPacketSize(new FiraConnectorCapabilities.Builder().build());
+        mMessageReassembler =
+                new FiraConnectorMessageReassembler(mCapabilities, this::onMessageReassembled);
+    }
+
+    @Override
+    public boolean start() {
+        if (!super.start()) {
+            return false;
+        }
+        mStarted = mLink.connectClient(this);
+        return mStarted;
+    }
+
+    @Override
+    public boolean stop() {
+        if (!super.stop()) {
+            return false;
+        }
+        mLink.disconnectClient(this);
+        mMessageReassembler.reset();
+        mStarted = false;
+        return true;
+    }
+
+    @Override
+    public boolean sendMessage(int secid, FiraConnectorMessage message) {
+        if (!mIsProcessing) {
+            Log.w(TAG, "Sent request failed due to client not ready for processing.");
+            return false;
+        }
+        byte[] messageBytes = message.toBytes();
+        if (messageBytes.length > mCapabilities.maxMessageBufferSize) {
+            Log.w(TAG, "Sent request failed due to message size exceeded device capabilities.");
+            return false;
+        }
+        return mLink.sendMessage(
+                /*toServer=*/ true, secid, messageBytes, mCapabilities.optimizedDataPacketSize);
+    }
+
+    @Override
+    public boolean setCapabilites(FiraConnectorCapabilities capabilities) {
+        if (capabilities == null) {
+            Log.e(TAG, "setCapabilites failed null capabilities.");
+            return false;
+        }
+        mCapabilities = withDataPacketSize(capabilities);
+        mMessageReassembler.setCapabilities(mCapabilities);
+        if (!mIsProcessing) {
+            Log.w(TAG, "setCapabilites only updated locally since client isn't processing.");
+            return false;
+        }
+        mLink.sendCapabilities(mCapabilities);
+        return true;
+    }
+
+    FiraConnectorCapabilities getCapabilities() {
+        return mCapabilities;
+    }
+
+    /** Called by the link when the connection to the server changed. */
+    void onConnectionChanged(boolean connected) {
+        if (connected == mIsProcessing) {
+            return;
+        }
+        mIsProcessing = connected;
+        if (mIsProcessing) {
+            mTransportClientCallback.onProcessingStarted();
+        } else {
+            mMessageReassembler.reset();
+            mTransportClientCallback.onProcessingStopped();
+        }
+    }
+
+    /** Called by the link when a data packet from the server was delivered. */
+    void onDataPacketReceived(byte[] bytes) {
+        if (!mIsProcessing) {
+            Log.w(TAG, "onDataPacketReceived failed due to client not ready for processing.");
+            return;
+        }
+        if (bytes.length > mCapabilities.optimizedDataPacketSize) {
+            Log.w(TAG, "onDataPacketReceived failed due to data packet length overflow.");
+            sentAdminErrorMessage(ErrorType.DATA_PACKET_LENGTH_OVERFLOW);
+            return;
+        }
+        switch (mMessageReassembler.append(bytes)) {
+            case INVALID_DATA_PACKET:
+                Log.w(TAG, "onDataPacketReceived failed due to invalid data packet.");
+                break;
+            case TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS:
+                sentAdminErrorMessage(ErrorType.TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS);
+                break;
+            case MESSAGE_LENGTH_OVERFLOW:
+                sentAdminErrorMessage(ErrorType.MESSAGE_LENGTH_OVERFLOW);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onMessageReassembled(int secid, ByteBuffer messageBytes) {
+        FiraConnectorMessage message = FiraConnectorMessage.fromByteBuffer(messageBytes);
+        if (message == null) {
+            Log.w(TAG, "onMessageReassembled failed due to invalid FiraConnectorMessage.");
+            return;
+        }
+        onMessageReceived(secid, message);
+    }
+
+    private FiraConnectorCapabilities withDataPacketSize(FiraConnectorCapabilities capabilities) {
+        if (capabilities.optimizedDataPacketSize == mLink.getDataPacketSize()) {
+            return capabilities;
+        }
+        FiraConnectorCapabilities.Builder builder =
+                new FiraConnectorCapabilities.Builder()
+                        .setProtocolVersion(capabilities.protocolVersion)
+                        .setMaxMessageBufferSize(capabilities.maxMessageBufferSize)
+                        .setMaxConcurrentFragmentedMessageSessionSupported(
+                                capabilities.maxConcurrentFragmentedMessageSessionSupported)
+                        .setOptimizedDataPacketSize(mLink.getDataPacketSize());
+        for (SecureComponentInfo info : capabilities.secureComponentInfos) {
+            builder.addSecureComponentInfo(info);
+        }
+        return builder.build();
+    }
+
+    @Override
+    protected void terminateOnError(TerminationReason reason) {
+        Log.e(TAG, "LoopbackTransportClientProvider terminated with reason:" + reason);
+        stop();
+        mTransportClientCallback.onTerminated(reason);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.loopback;
+
+import android.util.Log;
+
+import androidx.annotation.WorkerThread;
+
+import com.android.server.uwb.discovery.FiraConnectorMessageReassembler;
+import com.android.server.uwb.discovery.TransportProvider.TerminationReason;
+import com.android.server.uwb.discovery.TransportServerProvider;
+import com.android.server.uwb.discovery.TransportServerProvider.TransportServerCallback;
+import com.android.server.uwb.discovery.info.FiraConnectorCapabilities;
+import com.android.server.uwb.discovery.info.FiraConnectorMessage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class for FiRa CS UWB transport server provider using an in-memory {@link LoopbackLink}.
+ *
+ * <p>Mirrors {@link com.android.server.uwb.discovery.ble.GattTransportServerProvider}: the server
+ * waits for a client to connect, and starts processing once it received the FiRa Connector
+ * Capabilities of the client. All events are delivered on the link handler.
+ */
+@WorkerThread
+public class LoopbackTransportServerProvider extends TransportServerProvider {
+    private static final String TAG = LoopbackTransportServerProvider.class.getSimpleName();
+
+    private final LoopbackLink mLink;
+    private final TransportServerCallback mTransportServerCallback;
+    private final FiraConnectorMessageReassembler mMessageReassembler;
+    private FiraConnectorCapabilities mRemoteCapabilities;
+
+    public LoopbackTransportServerProvider(
+            int secid, LoopbackLink link, TransportServerCallback transportServerCallback) {
+        super(secid);
+        mLink = link;
+        mTransportServerCallback = transportServerCallback;
+        mMessageReassembler =
+                new FiraConnectorMessageReassembler(
+                        new FiraConnectorCapabilities.Builder().build(),
+                        this::onMessageReassembled);
+    }
+
+    @Override
+    public boolean start() {
+        if (!super.start()) {
+            return false;
+        }
+        mStarted = mLink.connectServer(this);
+        return mStarted;
+    }
+
+    @Override
+    public boolean stop() {
+        if (!super.stop()) {
+            return false;
+        }
+        mLink.disconnectServer(this);
+        mMessageReassembler.reset();
+        mStarted = false;
+        return true;
+    }
+
+    @Override
+    public boolean sendMessage(int secid, FiraConnectorMessage message) {
+        if (!isProcessing()) {
+            Log.w(TAG, "Sent request failed due to server not ready for processing.");
+            return false;
+        }
+        byte[] messageBytes = message.toBytes();
+        if (messageBytes.length > mRemoteCapabilities.maxMessageBufferSize) {
+            Log.w(
+                    TAG,
+                    "Sent request failed due to message size exceeded remote device capabilities.");
+            return false;
+        }
+        return mLink.sendMessage(
+                /*toServer=*/ false,
+                secid,
+                messageBytes,
+                mRemoteCapabilities.optimizedDataPacketSize);
+    }
+
+    private boolean isProcessing() {
+        return mRemoteCapabilities != null;
+    }
+
+    /** Called by the link when the client capabilities were delivered. */
+    void onCapabilitiesReceived(FiraConnectorCapabilities capabilities) {
+        boolean starting = !isProcessing();
+        mRemoteCapabilities = capabilities;
+        mMessageReassembler.setCapabilities(capabilities);
+        mTransportServerCallback.onCapabilitesUpdated(capabilities);
+        if (starting) {
+            mTransportServerCallback.onProcessingStarted();
+        }
+    }
+
+    /** Called by the link when the connection to the client changed. */
+    void onConnectionChanged(boolean connected) {
+        if (connected || !isProcessing()) {
+            return;
+        }
+        mRemoteCapabilities = null;
+        mMessageReassembler.reset();
+        mTransportServerCallback.onProcessingStopped();
+    }
+
+    /** Called by the link when a data packet from the client was delivered. */
+    void onDataPacketReceived(byte[] bytes) {
+        if (!isProcessing()) {
+            Log.w(TAG, "onDataPacketReceived failed due to server not ready for processing.");
+            return;
+        }
+        FiraConnectorMessageReassembler.Result result = mMessageReassembler.append(bytes);
+        switch (result) {
+            case INVALID_DATA_PACKET:
+            case TOO_MANY_CONCURRENT_FRAGMENTED_MESSAGE_SESSIONS:
+            case MESSAGE_LENGTH_OVERFLOW:
+                Log.w(TAG, "onDataPacketReceived failed: " + result);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onMessageReassembled(int secid, ByteBuffer messageBytes) {
+        FiraConnectorMessage message = FiraConnectorMessage.fromByteBuffer(messageBytes);
+        if (message == null) {
+            Log.w(TAG, "onMessageReassembled failed due to invalid FiraConnectorMessage.");
+            return;
+        }
+        onMessageReceived(secid, message);
+    }
+
+    @Override
+    protected void terminateOnError(TerminationReason reason) {
+        Log.e(TAG, "LoopbackTransportServerProvider terminated with reason:" + reason);
+        stop();
+        mTransportServerCallback.onTerminated(reason);
+    }
+}
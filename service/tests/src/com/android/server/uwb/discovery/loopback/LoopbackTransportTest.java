@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.server.uwb.discovery.loopback;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.test.TestLooper;
+import android.util.Log;
+import android.uwb.UwbTestUtils;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.server.uwb.discovery.DiscoveryAdvertiseProvider.DiscoveryAdvertiseCallback;
+import com.android.server.uwb.discovery.DiscoveryScanProvider.DiscoveryResult;
+import com.android.server.uwb.discovery.DiscoveryScanProvider.DiscoveryScanCallback;
+import com.android.server.uwb.discovery.Transport.DataReceiver;
+import com.android.server.uwb.discovery.TransportClientProvider.TransportClientCallback;
+import com.android.server.uwb.discovery.TransportServerProvider.TransportServerCallback;
+import com.android.server.uwb.discovery.ble.DiscoveryAdvertisement;
+import com.android.server.uwb.discovery.info.FiraConnectorMessage;
+import com.android.server.uwb.discovery.info.FiraConnectorMessage.InstructionCode;
+import com.android.server.uwb.discovery.info.FiraConnectorMessage.MessageType;
+import com.android.server.uwb.discovery.info.SecureComponentInfo;
+import com.android.server.uwb.discovery.info.UwbIndicationData;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Unit test for the loopback transport and discovery providers, including a throughput benchmark
+ * of the FiRa OOB transport stack that runs without Bluetooth.
+ */
+@RunWith(AndroidJUnit4.class)
+@SmallTest
+public class LoopbackTransportTest {
+    private static final String TAG = LoopbackTransportTest.class.getSimpleName();
+
+    private static final int SECID = 2;
+    private static final int DATA_PACKET_SIZE = 20;
+    private static final DiscoveryAdvertisement ADVERTISEMENT =
+            new DiscoveryAdvertisement(
+                    new UwbIndicationData(
+                            /*firaUwbSupport=*/ true,
+                            /*iso14443Support=*/ true,
+                            /*uwbRegulartoryInfoAvailableInAd=*/ false,
+                            /*uwbRegulartoryInfoAvailableInOob=*/ false,
+                            /*firaProfileInfoAvailableInAd=*/ false,
+                            /*firaProfileInfoAvailableInOob=*/ false,
+                            /*dualGapRoleSupport=*/ true,
+                            /*bluetoothRssiThresholdDbm=*/ -100,
+                            new SecureComponentInfo[] {}),
+                    /*regulatoryInfo=*/ null,
+                    /*firaProfileSupportInfo=*/ null,
+                    /*vendorSpecificData=*/ null);
+
+    @Mock TransportServerCallback mMockTransportServerCallback;
+    @Mock TransportClientCallback mMockTransportClientCallback;
+    @Mock DataReceiver mMockServerDataReceiver;
+    @Mock DataReceiver mMockClientDataReceiver;
+    @Mock DiscoveryAdvertiseCallback mMockDiscoveryAdvertiseCallback;
+
+    private final TestLooper mTestLooper = new TestLooper();
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+    }
+
+    private LoopbackLink.Builder linkBuilder() {
+        return new LoopbackLink.Builder(mTestLooper.getLooper())
+                .setDataPacketSize(DATA_PACKET_SIZE)
+                .setRandom(new Random(/*seed=*/ 1));
+    }
+
+    private LoopbackTransportServerProvider startServer(LoopbackLink link) {
+        LoopbackTransportServerProvider server =
+                new LoopbackTransportServerProvider(SECID, link, mMockTransportServerCallback);
+        server.registerDataReceiver(mMockServerDataReceiver);
+        assertThat(server.start()).isTrue();
+        return server;
+    }
+
+    private LoopbackTransportClientProvider startClient(LoopbackLink link) {
+        LoopbackTransportClientProvider client =
+                new LoopbackTransportClientProvider(SECID, link, mMockTransportClientCallback);
+        client.registerDataReceiver(mMockClientDataReceiver);
+        assertThat(client.start()).isTrue();
+        return client;
+    }
+
+    private static FiraConnectorMessage message(int payloadSize, int value) {
+        byte[] payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) value);
+        return new FiraConnectorMessage(
+                MessageType.COMMAND, InstructionCode.DATA_EXCHANGE, payload);
+    }
+
+    @Test
+    public void testConnect_startsProcessing() {
+        LoopbackLink link = linkBuilder().build();
+        startServer(link);
+        startClient(link);
+        mTestLooper.dispatchAll();
+
+        verify(mMockTransportServerCallback, times(1)).onCapabilitesUpdated(any());
+        verify(mMockTransportServerCallback, times(1)).onProcessingStarted();
+        verify(mMockTransportClientCallback, times(1)).onProcessingStarted();
+    }
+
+    @Test
+    public void testSendMessage_fragmentedRoundTrip() {
+        LoopbackLink link = linkBuilder().build();
+        LoopbackTransportServerProvider server = startServer(link);
+        LoopbackTransportClientProvider client = startClient(link);
+        mTestLooper.dispatchAll();
+
+        FiraConnectorMessage request = message(/*payloadSize=*/ 100, /*value=*/ 1);
+        FiraConnectorMessage response = message(/*payloadSize=*/ 50, /*value=*/ 2);
+        assertThat(client.sendMessage(SECID, request)).isTrue();
+        mTestLooper.dispatchAll();
+        assertThat(server.sendMessage(SECID, response)).isTrue();
+        mTestLooper.dispatchAll();
+
+        ArgumentCaptor<byte[]> captor = ArgumentCaptor.forClass(byte[].class);
+        verify(mMockServerDataReceiver, times(1)).onDataReceived(captor.capture());
+        assertThat(captor.getValue()).isEqualTo(request.payload);
+        verify(mMockClientDataReceiver, times(1)).onDataReceived(captor.capture());
+        assertThat(captor.getValue()).isEqualTo(response.payload);
+        // 101 bytes in data packets of 19 bytes payload, plus 51 bytes.
+        assertThat(link.getDeliveredDataPacketCount()).isEqualTo(6 + 3);
+    }
+
+    @Test
+    public void testSendMessage_deliveredAfterLatency() {
+        LoopbackLink link = linkBuilder().setLatencyMs(10).setJitterMs(5).build();
+        LoopbackTransportServerProvider server = startServer(link);
+        LoopbackTransportClientProvider client = startClient(link);
+        mTestLooper.moveTimeForward(30);
+        mTestLooper.dispatchAll();
+        verify(mMockTransportClientCallback, times(1)).onProcessingStarted();
+
+        assertThat(client.sendMessage(SECID, message(/*payloadSize=*/ 100, /*value=*/ 1)))
+                .isTrue();
+        mTestLooper.dispatchAll();
+        verify(mMockServerDataReceiver, never()).onDataReceived(any());
+
+        mTestLooper.moveTimeForward(15);
+        mTestLooper.dispatchAll();
+        verify(mMockServerDataReceiver, times(1)).onDataReceived(any());
+    }
+
+    @Test
+    public void testSendMessage_lostDataPackets() {
+        LoopbackLink link = linkBuilder().setLossRate(1).build();
+        startServer(link);
+        LoopbackTransportClientProvider client = startClient(link);
+        mTestLooper.dispatchAll();
+
+        assertThat(client.sendMessage(SECID, message(/*payloadSize=*/ 10, /*value=*/ 1)))
+                .isTrue();
+        mTestLooper.dispatchAll();
+
+        verify(mMockServerDataReceiver, never()).onDataReceived(any());
+        assertThat(link.getDroppedDataPacketCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testStop_stopsProcessing() {
+        LoopbackLink link = linkBuilder().build();
+        LoopbackTransportServerProvider server = startServer(link);
+        LoopbackTransportClientProvider client = startClient(link);
+        mTestLooper.dispatchAll();
+
+        assertThat(client.stop()).isTrue();
+
+        verify(mMockTransportClientCallback, times(1)).onProcessingStopped();
+        verify(mMockTransportServerCallback, times(1)).onProcessingStopped();
+        assertThat(server.sendMessage(SECID, message(/*payloadSize=*/ 10, /*value=*/ 1)))
+                .isFalse();
+    }
+
+    @Test
+    public void testAdvertise_injectsBursts() {
+        LoopbackLink link = linkBuilder().build();
+        LoopbackInfo advertiseInfo =
+                new LoopbackInfo(
+                        link,
+                        ADVERTISEMENT,
+                        /*advertiseIntervalMs=*/ 5,
+                        /*advertiseBurstSize=*/ 10);
+        List<DiscoveryResult> results = new ArrayList<>();
+        DiscoveryScanCallback scanCallback =
+                new DiscoveryScanCallback() {
+                    @Override
+                    public void onDiscovered(DiscoveryResult result) {
+                        results.add(result);
+                    }
+
+                    @Override
+                    public void onDiscoveryFailed(int errorCode) {}
+                };
+        LoopbackDiscoveryScanProvider scanner =
+                new LoopbackDiscoveryScanProvider(
+                        UwbTestUtils.getExecutor(), new LoopbackInfo(link), scanCallback);
+        LoopbackDiscoveryAdvertiseProvider advertiser =
+                new LoopbackDiscoveryAdvertiseProvider(
+                        advertiseInfo, mMockDiscoveryAdvertiseCallback);
+
+        assertThat(scanner.start()).isTrue();
+        assertThat(advertiser.start()).isTrue();
+        mTestLooper.dispatchAll();
+        assertThat(results).hasSize(10);
+        assertThat(results.get(0).scanResult).isNull();
+        assertThat(results.get(0).discoveryAdvertisement.uwbIndicationData.firaUwbSupport)
+                .isTrue();
+
+        mTestLooper.moveTimeForward(5);
+        mTestLooper.dispatchAll();
+        assertThat(results).hasSize(20);
+
+        assertThat(advertiser.stop()).isTrue();
+        mTestLooper.moveTimeForward(5);
+        mTestLooper.dispatchAll();
+        assertThat(results).hasSize(20);
+        assertThat(link.getDeliveredAdvertisementCount()).isEqualTo(20);
+    }
+
+    /** Benchmark of the message throughput of the transport stack over an ideal link. */
+    @Test
+    public void testBenchmark_messageThroughput() {
+        final int messageCount = 1000;
+        final int payloadSize = 255;
+        LoopbackLink link = linkBuilder().build();
+        startServer(link);
+        LoopbackTransportClientProvider client = startClient(link);
+
+        long connectStartNs = System.nanoTime();
+        mTestLooper.dispatchAll();
+        long connectNs = System.nanoTime() - connectStartNs;
+        verify(mMockTransportClientCallback, times(1)).onProcessingStarted();
+
+        FiraConnectorMessage message = message(payloadSize, /*value=*/ 3);
+        long startNs = System.nanoTime();
+        for (int i = 0; i < messageCount; i++) {
+            assertThat(client.sendMessage(SECID, message)).isTrue();
+            mTestLooper.dispatchAll();
+        }
+        long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+
+        verify(mMockServerDataReceiver, times(messageCount)).onDataReceived(any());
+        Log.i(
+                TAG,
+                "Loopback transport: connected in "
+                        + connectNs / 1000
+                        + " us, "
+                        + messageCount
+                        + " messages ("
+                        + link.getDeliveredDataPacketCount()
+                        + " data packets, "
+                        + link.getDeliveredBytes()
+                        + " bytes) in "
+                        + elapsedNs / 1000
+                        + " us, "
+                        + (messageCount * 1_000_000_000L / elapsedNs)
+                        + " messages/s");
+    }
+}
@@ -19,6 +19,11 @@ package com.android.server.uwb.profile;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import android.content.AttributionSource;
@@ -45,7 +50,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -119,6 +127,47 @@ public class ProfileManagerTest {
         assertEquals(1, mProfileManager.mServiceProfileMap.size());
     }
 
+    @Test
+    public void testGetServiceProfilesReturnsSnapshot() {
+        Optional<UUID> uuid1 = mProfileManager.addServiceProfile(1);
+        List<ServiceProfileInfo> serviceProfiles = mProfileManager.getServiceProfiles();
+
+        mProfileManager.addServiceProfile(2);
+        assertEquals(1, serviceProfiles.size());
+        assertEquals(2, mProfileManager.getServiceProfiles().size());
+        assertThrows(UnsupportedOperationException.class,
+                () -> serviceProfiles.add(serviceProfiles.get(0)));
+
+        mProfileManager.removeServiceProfile(uuid1.get());
+        assertEquals(1, mProfileManager.getServiceProfiles().size());
+        assertEquals(1, mProfileManager.mAppServiceProfileMap.size());
+    }
+
+    @Test
+    public void testDump_sessionTableChangedDuringDump() {
+        RangingSessionController controller1 = mock(RangingSessionController.class);
+        RangingSessionController controller2 = mock(RangingSessionController.class);
+        SessionHandle sessionHandle2 = mock(SessionHandle.class);
+        mProfileManager.mRangingSessionTable.put(mSessionHandle, controller1);
+        mProfileManager.mRangingSessionTable.put(sessionHandle2, controller2);
+        // Sessions are opened and closed on the handler thread while dump runs on a binder one.
+        doAnswer(invocation -> {
+            mProfileManager.mRangingSessionTable.remove(sessionHandle2);
+            mProfileManager.mRangingSessionTable.put(mock(SessionHandle.class),
+                    mock(RangingSessionController.class));
+            return null;
+        }).when(controller1).dumpSecureSessionTimings(any());
+        doAnswer(invocation -> {
+            mProfileManager.mRangingSessionTable.remove(mSessionHandle);
+            return null;
+        }).when(controller2).dumpSecureSessionTimings(any());
+
+        StringWriter stringWriter = new StringWriter();
+        mProfileManager.dump(null, new PrintWriter(stringWriter), new String[0]);
+
+        assertTrue(stringWriter.toString().contains("Dump of ProfileManager"));
+    }
+
     @Test
     public void testActivateProfile() {
         Optional<UUID> uuid1 = mProfileManager.addServiceProfile(1);
@@ -24,6 +24,7 @@ import static com.android.server.uwb.secure.FiRaSecureChannel.CMD_SEND_OOB_DATA;
 import static com.google.common.truth.Truth.assertThat;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
@@ -64,6 +65,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 
 public class InitiatorSecureChannelTest {
@@ -213,6 +215,36 @@ public class InitiatorSecureChannelTest {
                 FiRaSecureChannel.Status.ADF_SELECTED);
     }
 
+    @Test
+    public void prepared_initiateTransactionWaitsForTransport() throws IOException {
+        RunningProfileSessionInfo runningProfileSessionInfo =
+                new RunningProfileSessionInfo.Builder(
+                        mock(UwbCapability.class), ObjectIdentifier.INVALID_OID)
+                        .build();
+        mInitiatorSecureChannel = new InitiatorSecureChannel(mSecureElementChannel,
+                mTransport,
+                mTestLooper.getLooper(),
+                runningProfileSessionInfo);
+        doNothing().when(mSecureElementChannel).init(mInitCompletionCallbackCaptor.capture());
+        when(mSecureElementChannel.openChannel()).thenReturn(true);
+        when(mSecureElementChannel.transmit(any(SelectAdfCommand.class)))
+                .thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+
+        mInitiatorSecureChannel.prepare(mSecureChannelCallback);
+        mTestLooper.dispatchNext(); // INIT
+        mInitCompletionCallbackCaptor.getValue().onInitCompletion();
+        mTestLooper.dispatchAll(); // OPEN_CHANNEL, SELECT_ADF
+
+        assertThat(mInitiatorSecureChannel.getStatus()).isEqualTo(
+                FiRaSecureChannel.Status.ADF_SELECTED);
+        assertThat(mTestLooper.nextMessage()).isNull();
+
+        mInitiatorSecureChannel.onTransportReady();
+        mTestLooper.dispatchNext();
+
+        assertThat(mTestLooper.nextMessage().what).isEqualTo(CMD_INITIATE_TRANSACTION);
+    }
+
     @Test
     public void selectAdfFailed() throws IOException {
         when(mSecureElementChannel.transmit(any(SelectAdfCommand.class)))
@@ -470,12 +502,22 @@ public class InitiatorSecureChannelTest {
         verify(mSecureChannelCallback).onSeChannelClosed(eq(/*withError=*/ true));
     }
 
+    private void mockTransmitAsync(ResponseApdu responseApdu) {
+        doAnswer(
+                        invocation -> {
+                            ((SecureElementChannel.TransmitCallback) invocation.getArgument(2))
+                                    .onResponses(List.of(responseApdu));
+                            return null;
+                        })
+                .when(mSecureElementChannel)
+                .transmitAsync(any(CommandApdu.class), any(), any());
+    }
+
     @Test
     public void sendLocalCommandApduSuccess() throws IOException {
         doInit(mock(RunningProfileSessionInfo.class));
         when(mSecureElementChannel.isOpened()).thenReturn(true);
-        when(mSecureElementChannel.transmit(any(CommandApdu.class)))
-                .thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        mockTransmitAsync(ResponseApdu.SW_SUCCESS_APDU);
         FiRaSecureChannel.ExternalRequestCallback externalRequestCallback =
                 mock(FiRaSecureChannel.ExternalRequestCallback.class);
         CommandApdu commandApdu =
@@ -491,8 +533,7 @@ public class InitiatorSecureChannelTest {
     public void sendLocalCommandApduFail() throws IOException {
         doInit(mock(RunningProfileSessionInfo.class));
         when(mSecureElementChannel.isOpened()).thenReturn(true);
-        when(mSecureElementChannel.transmit(any(CommandApdu.class)))
-                .thenReturn(ResponseApdu.SW_CLA_NOT_SUPPORTED_APDU);
+        mockTransmitAsync(ResponseApdu.SW_CLA_NOT_SUPPORTED_APDU);
         FiRaSecureChannel.ExternalRequestCallback externalRequestCallback =
                 mock(FiRaSecureChannel.ExternalRequestCallback.class);
         CommandApdu commandApdu =
@@ -523,8 +564,14 @@ public class InitiatorSecureChannelTest {
     public void sendLocalCommandApduFailAsException() throws IOException {
         doInit(mock(RunningProfileSessionInfo.class));
         when(mSecureElementChannel.isOpened()).thenReturn(true);
-        when(mSecureElementChannel.transmit(any(CommandApdu.class)))
-                .thenThrow(new IOException());
+        doAnswer(
+                        invocation -> {
+                            ((SecureElementChannel.TransmitCallback) invocation.getArgument(2))
+                                    .onFailure(new IOException());
+                            return null;
+                        })
+                .when(mSecureElementChannel)
+                .transmitAsync(any(CommandApdu.class), any(), any());
         FiRaSecureChannel.ExternalRequestCallback externalRequestCallback =
                 mock(FiRaSecureChannel.ExternalRequestCallback.class);
         CommandApdu commandApdu =
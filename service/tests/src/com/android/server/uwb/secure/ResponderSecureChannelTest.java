@@ -98,6 +98,41 @@ public class ResponderSecureChannelTest {
                 .isEqualTo(FiRaSecureChannel.Status.INITIALIZED);
     }
 
+    @Test
+    public void remoteDataBeforeSeInitialized_handledAfterInit() throws IOException {
+        RunningProfileSessionInfo runningProfileSessionInfo =
+                new RunningProfileSessionInfo.Builder(
+                        mock(UwbCapability.class), mock(ObjectIdentifier.class))
+                        .build();
+        mResponderSecureChannel = new ResponderSecureChannel(mSecureElementChannel,
+                mTransport,
+                mTestLooper.getLooper(),
+                runningProfileSessionInfo);
+        doNothing().when(mSecureElementChannel).init(mInitCompletionCallbackCaptor.capture());
+        ArgumentCaptor<Transport.DataReceiver> dataReceiverCaptor =
+                ArgumentCaptor.forClass(Transport.DataReceiver.class);
+        when(mSecureElementChannel.openChannelWithResponse())
+                .thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        CommandApdu selectCommand = CommandApdu.builder(0x00, 0xA4, 0x04, 0x00).build();
+
+        mResponderSecureChannel.init(mSecureChannelCallback);
+        mTestLooper.dispatchNext();
+        // The data receiver is registered while the OMAPI service is binding.
+        verify(mTransport).registerDataReceiver(dataReceiverCaptor.capture());
+        dataReceiverCaptor.getValue().onDataReceived(selectCommand.getEncoded());
+        mTestLooper.dispatchAll();
+
+        assertThat(mResponderSecureChannel.getStatus())
+                .isEqualTo(FiRaSecureChannel.Status.UNINITIALIZED);
+
+        mInitCompletionCallbackCaptor.getValue().onInitCompletion();
+        mTestLooper.dispatchAll();
+
+        assertThat(mResponderSecureChannel.getStatus()).isEqualTo(
+                FiRaSecureChannel.Status.CHANNEL_OPENED);
+        verify(mTransport).sendData(any(), any(), any());
+    }
+
     @Test
     public void openChannelSuccess() throws IOException {
         RunningProfileSessionInfo runningProfileSessionInfo =
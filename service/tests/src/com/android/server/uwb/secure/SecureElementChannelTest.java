@@ -22,13 +22,23 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import android.os.Handler;
+import android.os.test.TestLooper;
+import android.util.Log;
+
+import com.android.server.uwb.secure.csml.CsmlUtil;
+import com.android.server.uwb.secure.csml.GetDoCommand;
+import com.android.server.uwb.secure.csml.GetLocalDataCommand;
+import com.android.server.uwb.secure.csml.PutDoCommand;
 import com.android.server.uwb.secure.iso7816.CommandApdu;
 import com.android.server.uwb.secure.iso7816.ResponseApdu;
 import com.android.server.uwb.secure.iso7816.StatusWord;
+import com.android.server.uwb.secure.omapi.InMemoryOmapiConnection;
 import com.android.server.uwb.secure.omapi.OmapiConnection;
 
 import org.junit.Before;
@@ -39,12 +49,14 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.io.IOException;
+import java.util.List;
 
 public class SecureElementChannelTest {
     @Mock private OmapiConnection mMockOmapiConnection;
     @Mock private OmapiConnection.InitCompletionCallback mInitCompletionCallback;
     @Mock private CommandApdu mMockCommandApdu;
     @Mock private ResponseApdu mMockResponseApdu;
+    @Mock private SecureElementChannel.TransmitCallback mTransmitCallback;
 
     @Captor
     private ArgumentCaptor<OmapiConnection.InitCompletionCallback>
@@ -305,6 +317,204 @@ public class SecureElementChannelTest {
         assertThat(mSecureElementChannel.isOpened()).isFalse();
     }
 
+    @Test
+    public void transmit_cacheableCommand_responseCached() throws IOException {
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(any())).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        mSecureElementChannel.openChannel();
+
+        mSecureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+        ResponseApdu response =
+                mSecureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+
+        verify(mMockOmapiConnection, times(1)).transmit(any());
+        assertThat(response).isEqualTo(ResponseApdu.SW_SUCCESS_APDU);
+    }
+
+    @Test
+    public void transmit_cacheableCommandFailed_responseNotCached() throws IOException {
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(any())).thenReturn(ResponseApdu.SW_WRONG_DATA_APDU);
+        mSecureElementChannel.openChannel();
+
+        mSecureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+        mSecureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+
+        verify(mMockOmapiConnection, times(2)).transmit(any());
+    }
+
+    @Test
+    public void transmit_putDoCommand_invalidatesCache() throws IOException {
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(any())).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        mSecureElementChannel.openChannel();
+        GetDoCommand getControleeInfoCommand =
+                GetDoCommand.build(CsmlUtil.constructGetDoTlv(CsmlUtil.CONTROLEE_INFO_DO_TAG));
+
+        mSecureElementChannel.transmit(getControleeInfoCommand);
+        mSecureElementChannel.transmit(
+                PutDoCommand.build(CsmlUtil.constructGetSessionIdGetDoTlv()));
+        mSecureElementChannel.transmit(getControleeInfoCommand);
+
+        verify(mMockOmapiConnection, times(2))
+                .transmit(eq(getControleeInfoCommand.getCommandApdu()));
+    }
+
+    @Test
+    public void transmit_sessionDataGetDo_notCached() throws IOException {
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(any())).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        mSecureElementChannel.openChannel();
+
+        mSecureElementChannel.transmit(GetDoCommand.build(CsmlUtil.constructSessionDataGetDoTlv()));
+        mSecureElementChannel.transmit(GetDoCommand.build(CsmlUtil.constructSessionDataGetDoTlv()));
+        mSecureElementChannel.transmit(
+                GetDoCommand.build(CsmlUtil.constructGetSessionIdGetDoTlv()));
+        mSecureElementChannel.transmit(
+                GetDoCommand.build(CsmlUtil.constructGetSessionIdGetDoTlv()));
+
+        verify(mMockOmapiConnection, times(4)).transmit(any());
+    }
+
+    @Test
+    public void transmit_commandApdu_notServedFromCache() throws IOException {
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(any())).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        mSecureElementChannel.openChannel();
+        GetLocalDataCommand paListCommand = GetLocalDataCommand.getPaListCommand();
+
+        mSecureElementChannel.transmit(paListCommand);
+        mSecureElementChannel.transmit(paListCommand.getCommandApdu());
+
+        verify(mMockOmapiConnection, times(2)).transmit(eq(paListCommand.getCommandApdu()));
+    }
+
+    @Test
+    public void transmit_terminateSessionGetDo_notCached() throws IOException {
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(any())).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        mSecureElementChannel.openChannel();
+        GetDoCommand terminateCommand =
+                GetDoCommand.build(CsmlUtil.constructTerminateSessionGetDoTlv());
+
+        mSecureElementChannel.transmit(terminateCommand);
+        mSecureElementChannel.transmit(terminateCommand);
+
+        verify(mMockOmapiConnection, times(2)).transmit(any());
+    }
+
+    @Test
+    public void transmit_channelReopened_cacheCleared() throws IOException {
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(any())).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        mSecureElementChannel.openChannel();
+
+        mSecureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+        mSecureElementChannel.closeChannel();
+        mSecureElementChannel.openChannel();
+        mSecureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+
+        verify(mMockOmapiConnection, times(2)).transmit(any());
+    }
+
+    @Test
+    public void transmitAsync_swTemporarilyUnavailable_retriesWithoutBlocking()
+            throws IOException {
+        TestLooper testLooper = new TestLooper();
+        Handler handler = new Handler(testLooper.getLooper());
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(eq(mMockCommandApdu)))
+                .thenReturn(ResponseApdu.fromStatusWord(StatusWord.SW_CONDITIONS_NOT_SATISFIED))
+                .thenReturn(mMockResponseApdu);
+        mSecureElementChannel.openChannel();
+
+        mSecureElementChannel.transmitAsync(mMockCommandApdu, handler, mTransmitCallback);
+        testLooper.dispatchAll();
+
+        verify(mMockOmapiConnection, times(1)).transmit(eq(mMockCommandApdu));
+        verify(mTransmitCallback, never()).onResponses(any());
+
+        testLooper.moveTimeForward(10);
+        testLooper.dispatchAll();
+
+        verify(mMockOmapiConnection, times(2)).transmit(eq(mMockCommandApdu));
+        verify(mTransmitCallback).onResponses(eq(List.of(mMockResponseApdu)));
+    }
+
+    @Test
+    public void transmitAsync_batch_responsesInOrder() throws IOException {
+        TestLooper testLooper = new TestLooper();
+        Handler handler = new Handler(testLooper.getLooper());
+        GetLocalDataCommand paListCommand = GetLocalDataCommand.getPaListCommand();
+        GetLocalDataCommand certificatesCommand =
+                GetLocalDataCommand.getFiRaAppletCertificatesCommand();
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(eq(paListCommand.getCommandApdu())))
+                .thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        when(mMockOmapiConnection.transmit(eq(certificatesCommand.getCommandApdu())))
+                .thenReturn(mMockResponseApdu);
+        mSecureElementChannel.openChannel();
+
+        mSecureElementChannel.transmitAsync(
+                List.of(paListCommand, certificatesCommand), handler, mTransmitCallback);
+        testLooper.dispatchAll();
+
+        verify(mTransmitCallback)
+                .onResponses(eq(List.of(ResponseApdu.SW_SUCCESS_APDU, mMockResponseApdu)));
+    }
+
+    @Test
+    public void transmitAsync_exception_reportsFailure() throws IOException {
+        TestLooper testLooper = new TestLooper();
+        Handler handler = new Handler(testLooper.getLooper());
+        when(mMockOmapiConnection.openChannel()).thenReturn(ResponseApdu.SW_SUCCESS_APDU);
+        doThrow(new IOException()).when(mMockOmapiConnection).transmit(any());
+        mSecureElementChannel.openChannel();
+
+        mSecureElementChannel.transmitAsync(mMockCommandApdu, handler, mTransmitCallback);
+        testLooper.dispatchAll();
+
+        verify(mTransmitCallback).onFailure(any());
+        verify(mTransmitCallback, never()).onResponses(any());
+    }
+
+    /** Benchmark of secure sessions reading the applet data, against an in-memory SE. */
+    @Test
+    public void benchmark_inMemorySecureElement() throws IOException {
+        final int sessionCount = 100;
+        InMemoryOmapiConnection fakeSe =
+                new InMemoryOmapiConnection(
+                        new InMemoryOmapiConnection.Applet() {
+                            @Override
+                            public ResponseApdu select() {
+                                return ResponseApdu.SW_SUCCESS_APDU;
+                            }
+
+                            @Override
+                            public ResponseApdu process(CommandApdu command) {
+                                return ResponseApdu.SW_SUCCESS_APDU;
+                            }
+                        },
+                        /* openChannelDelayMs= */ 0,
+                        /* transmitDelayMs= */ 0);
+        SecureElementChannel secureElementChannel = new SecureElementChannel(fakeSe);
+
+        long startNs = System.nanoTime();
+        for (int i = 0; i < sessionCount; i++) {
+            assertThat(secureElementChannel.openChannel()).isTrue();
+            secureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+            secureElementChannel.transmit(GetLocalDataCommand.getPaListCommand());
+            assertThat(secureElementChannel.closeChannel()).isTrue();
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+
+        assertThat(fakeSe.getOpenChannelCount()).isEqualTo(sessionCount);
+        // The second read of each session is served from the cache.
+        assertThat(fakeSe.getTransmitCount()).isEqualTo(sessionCount);
+        Log.i("SecureElementChannelTest",
+                sessionCount + " sessions on the in-memory SE in " + elapsedNs / 1000 + " us");
+    }
+
     private void init() {
         mSecureElementChannel =
                 new SecureElementChannel(
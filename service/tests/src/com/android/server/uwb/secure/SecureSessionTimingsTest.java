@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.server.uwb.secure.SecureSessionTimings.Phase;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class SecureSessionTimingsTest {
+    private long mNowMs = 1000;
+    private final SecureSessionTimings mUnderTest = new SecureSessionTimings(() -> mNowMs);
+
+    @Test
+    public void phases_durationAndOverlap() {
+        mUnderTest.begin(Phase.TRANSPORT);
+        mUnderTest.begin(Phase.SE_INIT);
+        mNowMs = 1030;
+        mUnderTest.end(Phase.SE_INIT);
+        mUnderTest.begin(Phase.OPEN_SE_CHANNEL);
+        mNowMs = 1050;
+        mUnderTest.end(Phase.OPEN_SE_CHANNEL);
+        mNowMs = 1100;
+        mUnderTest.end(Phase.TRANSPORT);
+
+        assertThat(mUnderTest.getDurationMs(Phase.SE_INIT)).isEqualTo(30);
+        assertThat(mUnderTest.getDurationMs(Phase.TRANSPORT)).isEqualTo(100);
+        assertThat(mUnderTest.getOverlapMs(Phase.TRANSPORT, Phase.OPEN_SE_CHANNEL))
+                .isEqualTo(20);
+        assertThat(mUnderTest.getDurationMs(Phase.SELECT_ADF)).isEqualTo(-1);
+        assertThat(mUnderTest.getTotalMs()).isEqualTo(-1);
+    }
+
+    @Test
+    public void phase_onlyFirstBeginAndEndKept() {
+        mUnderTest.end(Phase.SESSION_DATA);
+        mUnderTest.begin(Phase.SESSION_DATA);
+        mNowMs = 1010;
+        mUnderTest.begin(Phase.SESSION_DATA);
+        mUnderTest.end(Phase.SESSION_DATA);
+        mNowMs = 1020;
+        mUnderTest.end(Phase.SESSION_DATA);
+
+        assertThat(mUnderTest.getDurationMs(Phase.SESSION_DATA)).isEqualTo(10);
+        assertThat(mUnderTest.getTotalMs()).isEqualTo(10);
+    }
+
+    @Test
+    public void dump_listsStartedPhases() {
+        mUnderTest.begin(Phase.SE_INIT);
+        mNowMs = 1005;
+        mUnderTest.end(Phase.SE_INIT);
+        StringWriter stringWriter = new StringWriter();
+
+        mUnderTest.dump(new PrintWriter(stringWriter, /* autoFlush= */ true));
+
+        assertThat(stringWriter.toString()).contains("SE_INIT: start=+0ms duration=5ms");
+        assertThat(stringWriter.toString()).doesNotContain("SELECT_ADF");
+    }
+}
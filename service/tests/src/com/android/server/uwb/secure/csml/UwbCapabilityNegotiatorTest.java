@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.csml;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.uwb.support.fira.FiraParams.MULTI_NODE_MODE_ONE_TO_MANY;
+import static com.google.uwb.support.fira.FiraParams.MULTI_NODE_MODE_UNICAST;
+import static com.google.uwb.support.fira.FiraParams.STS_CONFIG_DYNAMIC;
+import static com.google.uwb.support.fira.FiraParams.STS_CONFIG_DYNAMIC_FOR_CONTROLEE_INDIVIDUAL_KEY;
+
+import static org.junit.Assert.assertThrows;
+
+import android.platform.test.annotations.Presubmit;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.google.common.collect.ImmutableList;
+import com.google.uwb.support.fira.FiraParams;
+import com.google.uwb.support.fira.FiraProtocolVersion;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.EnumSet;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+@Presubmit
+public class UwbCapabilityNegotiatorTest {
+    private final UwbCapabilityNegotiator mUnderTest = new UwbCapabilityNegotiator();
+
+    private static UwbCapability newCapability(int... channels) {
+        ImmutableList.Builder<Integer> channelList = ImmutableList.builder();
+        for (int channel : channels) {
+            channelList.add(channel);
+        }
+        return new UwbCapability.Builder()
+                .setChannels(channelList.build())
+                .setStsConfig(EnumSet.of(FiraParams.StsCapabilityFlag
+                        .HAS_DYNAMIC_STS_INDIVIDUAL_CONTROLEE_KEY_SUPPORT))
+                .build();
+    }
+
+    @Test
+    public void negotiate_samePeer_resultReused() {
+        UwbCapability localCap = newCapability(9, 5);
+
+        ConfigurationParams params = mUnderTest.negotiate(
+                localCap, newCapability(5, 9), /* isMulticast= */ false);
+        ConfigurationParams params2 = mUnderTest.negotiate(
+                localCap, newCapability(5, 9), /* isMulticast= */ false);
+
+        assertThat(params.mChannel.get()).isEqualTo(9);
+        assertThat(params.mMultiNodeMode.get()).isEqualTo(MULTI_NODE_MODE_UNICAST);
+        assertThat(params.mStsConfig.get()).isEqualTo(STS_CONFIG_DYNAMIC);
+        assertThat(params2).isSameInstanceAs(params);
+        assertThat(mUnderTest.getCachedResultCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void negotiate_multicast_negotiatedSeparately() {
+        UwbCapability localCap = newCapability(9);
+        UwbCapability remoteCap = newCapability(9);
+
+        ConfigurationParams unicastParams =
+                mUnderTest.negotiate(localCap, remoteCap, /* isMulticast= */ false);
+        ConfigurationParams multicastParams =
+                mUnderTest.negotiate(localCap, remoteCap, /* isMulticast= */ true);
+
+        assertThat(multicastParams.mMultiNodeMode.get()).isEqualTo(MULTI_NODE_MODE_ONE_TO_MANY);
+        assertThat(multicastParams.mStsConfig.get())
+                .isEqualTo(STS_CONFIG_DYNAMIC_FOR_CONTROLEE_INDIVIDUAL_KEY);
+        assertThat(unicastParams.mMultiNodeMode.get()).isEqualTo(MULTI_NODE_MODE_UNICAST);
+        assertThat(mUnderTest.getCachedResultCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void negotiate_channelOrder_isPartOfTheKey() {
+        // Both lists have the same channel mask, the local order decides the channel.
+        ConfigurationParams params = mUnderTest.negotiate(
+                newCapability(5, 9), newCapability(5, 9), /* isMulticast= */ false);
+        ConfigurationParams params2 = mUnderTest.negotiate(
+                newCapability(9, 5), newCapability(5, 9), /* isMulticast= */ false);
+
+        assertThat(params.mChannel.get()).isEqualTo(5);
+        assertThat(params2.mChannel.get()).isEqualTo(9);
+    }
+
+    @Test
+    public void negotiate_incompatible_throwsEachTime() {
+        UwbCapability localCap = new UwbCapability.Builder()
+                .setMinPhyVersionSupported(new FiraProtocolVersion(1, 1))
+                .setMaxPhyVersionSupported(new FiraProtocolVersion(1, 1))
+                .build();
+        UwbCapability remoteCap = new UwbCapability.Builder()
+                .setMinPhyVersionSupported(new FiraProtocolVersion(2, 1))
+                .setMaxPhyVersionSupported(new FiraProtocolVersion(2, 1))
+                .build();
+
+        assertThrows(IllegalStateException.class,
+                () -> mUnderTest.negotiate(localCap, remoteCap, /* isMulticast= */ false));
+        assertThrows(IllegalStateException.class,
+                () -> mUnderTest.negotiate(localCap, remoteCap, /* isMulticast= */ false));
+        assertThrows(IllegalStateException.class,
+                () -> mUnderTest.negotiate(
+                        newCapability(5), newCapability(9), /* isMulticast= */ false));
+    }
+
+    @Test
+    public void negotiate_manyPeers_cacheIsBounded() {
+        UwbCapability localCap = newCapability(9);
+        for (int i = 0; i <= UwbCapabilityNegotiator.MAX_CACHED_RESULTS; i++) {
+            UwbCapability remoteCap = new UwbCapability.Builder()
+                    .setChannels(ImmutableList.of(9))
+                    .setRangingMethod((byte) i)
+                    .build();
+            mUnderTest.negotiate(localCap, remoteCap, /* isMulticast= */ false);
+        }
+
+        assertThat(mUnderTest.getCachedResultCount())
+                .isEqualTo(UwbCapabilityNegotiator.MAX_CACHED_RESULTS);
+    }
+}
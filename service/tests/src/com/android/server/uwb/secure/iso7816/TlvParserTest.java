@@ -96,6 +96,16 @@ public class TlvParserTest {
                         new TlvDatum(new Tag((byte) 0x5f, (byte) 0x5f), new byte[] {})));
     }
 
+    @Test
+    public void constructedTag_valueKeptInOriginalOrder() {
+        byte[] value = DataTypeConversionUtil.hexStringToByteArray("8201028101018001008301FF");
+        TlvDatum actual = TlvParser.parseOneTlv(
+                DataTypeConversionUtil.hexStringToByteArray("BF780C8201028101018001008301FF"));
+
+        assertThat(actual.value).isEqualTo(value);
+        assertThat(actual.subTlvData).hasSize(4);
+    }
+
     private static void assertTlvDatumListEquals(List<TlvDatum> expected, List<TlvDatum> actual) {
         assertThat(actual).hasSize(expected.size());
         for (int i = 0; i < expected.size(); i++) {
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.iso7816;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.server.uwb.secure.iso7816.TlvDatum.Tag;
+import com.android.server.uwb.util.DataTypeConversionUtil;
+
+import org.junit.Test;
+
+/** Unit tests for {@link TlvReader} */
+public class TlvReaderTest {
+    private static final byte[] SELECT_RESPONSE =
+            DataTypeConversionUtil.hexStringToByteArray("5A0201005C020100D40100");
+
+    @Test
+    public void next_iteratesDataObjects() {
+        TlvReader reader = new TlvReader(SELECT_RESPONSE);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getTag().literalValue).isEqualTo(new byte[] {0x5A});
+        assertThat(reader.getValueOffset()).isEqualTo(2);
+        assertThat(reader.getValueLength()).isEqualTo(2);
+        assertThat(reader.getValue()).isEqualTo(new byte[] {0x01, 0x00});
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.isTag(new Tag((byte) 0x5C))).isTrue();
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.isTag(new Tag((byte) 0xD4))).isTrue();
+        assertThat(reader.getValueAsByte()).isEqualTo((byte) 0x00);
+        assertThat(reader.next()).isFalse();
+    }
+
+    @Test
+    public void find_skipsOtherDataObjects() {
+        TlvReader reader = new TlvReader(SELECT_RESPONSE);
+
+        assertThat(reader.find(new Tag((byte) 0x5C))).isTrue();
+        assertThat(reader.getValueAsInt()).isEqualTo(0x0100);
+        assertThat(reader.find(new Tag((byte) 0x5A))).isFalse();
+    }
+
+    @Test
+    public void descend_readsConstructedValueInPlace() {
+        byte[] data = DataTypeConversionUtil.hexStringToByteArray(
+                "6F1AA50F870101500A4D6173746572436172648407A0000000041010");
+        TlvReader reader = new TlvReader(data);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.isConstructed()).isTrue();
+        TlvReader fciReader = reader.descend();
+        assertThat(fciReader.find(new Tag((byte) 0x84))).isTrue();
+        assertThat(fciReader.getData()).isSameInstanceAs(data);
+        assertThat(fciReader.valueEquals(
+                DataTypeConversionUtil.hexStringToByteArray("A0000000041010"))).isTrue();
+        assertThat(fciReader.next()).isFalse();
+
+        TlvReader proprietaryReader = reader.descend();
+        assertThat(proprietaryReader.next()).isTrue();
+        assertThat(proprietaryReader.isTag(new Tag((byte) 0xA5))).isTrue();
+        assertThat(proprietaryReader.descend().find(new Tag((byte) 0x50))).isTrue();
+        // The parent reader is not moved by the readers it created.
+        assertThat(reader.next()).isFalse();
+    }
+
+    @Test
+    public void twoBytesTagAndLongLength() {
+        byte[] value = new byte[0x100];
+        value[0xFF] = 0x42;
+        byte[] data = new byte[4 + 2 + value.length];
+        data[0] = (byte) 0xDF;
+        data[1] = 0x51;
+        data[2] = TlvDatum.THREE_BYTES_LEN_FIRST_BYTE;
+        data[3] = 0x01;
+        data[4] = 0x00;
+        System.arraycopy(value, 0, data, 5, value.length);
+        data[data.length - 1] = 0x00;
+        TlvReader reader = new TlvReader(data, 0, data.length - 1);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.isTag(new Tag((byte) 0xDF, (byte) 0x51))).isTrue();
+        assertThat(reader.isTag(new Tag((byte) 0xDF))).isFalse();
+        assertThat(reader.getValue()).isEqualTo(value);
+        assertThat(reader.next()).isFalse();
+    }
+
+    @Test
+    public void malformedDataObject_stopsParsing() {
+        // The length of the 2nd data object goes beyond the data.
+        TlvReader reader = new TlvReader(
+                DataTypeConversionUtil.hexStringToByteArray("8101018105010203"));
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.next()).isFalse();
+        assertThat(new TlvReader(new byte[] {0x00, (byte) 0x81}).next()).isFalse();
+        assertThat(new TlvReader(new byte[] {0x5F}).next()).isFalse();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getValue_beforeNext_throws() {
+        new TlvReader(SELECT_RESPONSE).getValue();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void getValueAsInt_tooLong_throws() {
+        TlvReader reader = new TlvReader(
+                DataTypeConversionUtil.hexStringToByteArray("81050102030405"));
+        reader.next();
+
+        reader.getValueAsInt();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.omapi;
+
+import static com.android.server.uwb.util.Constants.FIRA_APPLET_AID;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.os.test.TestLooper;
+import android.se.omapi.Channel;
+import android.se.omapi.Reader;
+import android.se.omapi.SEService;
+import android.se.omapi.Session;
+
+import com.android.server.uwb.secure.iso7816.ResponseApdu;
+import com.android.server.uwb.secure.iso7816.StatusWord;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+
+public class OmapiConnectionPoolTest {
+    @Mock Context mMockContext;
+    @Mock SEService mMockSeService;
+    @Mock Reader mMockReader;
+    @Mock Session mMockSeSession;
+    @Mock Channel mMockChannel;
+    @Mock Channel mMockChannel2;
+    @Mock OmapiConnection.InitCompletionCallback mInitCompletionCallback;
+
+    private final TestLooper mTestLooper = new TestLooper();
+    private OmapiConnectionPool mPool;
+
+    @Before
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+
+        mPool = new OmapiConnectionPool(mMockContext, mTestLooper.getLooper());
+        mPool.mSeService = mMockSeService;
+        when(mMockSeService.getReaders()).thenReturn(new Reader[] {mMockReader});
+        when(mMockSeService.isConnected()).thenReturn(true);
+        when(mMockReader.getName()).thenReturn("eSE");
+        when(mMockReader.isSecureElementPresent()).thenReturn(true);
+        when(mMockReader.openSession()).thenReturn(mMockSeSession);
+        byte[] selectResponse = ResponseApdu.fromStatusWord(StatusWord.SW_NO_ERROR).toByteArray();
+        when(mMockChannel.getSelectResponse()).thenReturn(selectResponse);
+        when(mMockChannel.isOpen()).thenReturn(true);
+        when(mMockChannel2.getSelectResponse()).thenReturn(selectResponse);
+        when(mMockChannel2.isOpen()).thenReturn(true);
+    }
+
+    @Test
+    public void init_seServiceConnected_completesImmediately() {
+        mPool.newConnection().init(mInitCompletionCallback);
+
+        verify(mInitCompletionCallback).onInitCompletion();
+    }
+
+    @Test
+    public void openChannel_sessionReusedAcrossConnections() throws IOException {
+        when(mMockSeSession.openLogicalChannel(eq(FIRA_APPLET_AID))).thenReturn(mMockChannel);
+
+        OmapiConnection connection1 = mPool.newConnection();
+        assertThat(connection1.openChannel())
+                .isEqualTo(ResponseApdu.fromStatusWord(StatusWord.SW_NO_ERROR));
+        connection1.closeChannel();
+        OmapiConnection connection2 = mPool.newConnection();
+        assertThat(connection2.openChannel())
+                .isEqualTo(ResponseApdu.fromStatusWord(StatusWord.SW_NO_ERROR));
+
+        // Reader lookup and session opening are done once.
+        verify(mMockSeService, times(1)).getReaders();
+        verify(mMockReader, times(1)).openSession();
+        verify(mMockSeSession, never()).closeChannels();
+    }
+
+    @Test
+    public void closeChannel_onlyClosesOwnChannel() throws IOException {
+        when(mMockSeSession.openLogicalChannel(eq(FIRA_APPLET_AID)))
+                .thenReturn(mMockChannel)
+                .thenReturn(mMockChannel)
+                .thenReturn(mMockChannel2);
+        OmapiConnection connection1 = mPool.newConnection();
+        OmapiConnection connection2 = mPool.newConnection();
+        connection1.openChannel();
+        connection2.openChannel();
+
+        connection1.closeChannel();
+
+        verify(mMockChannel2, never()).close();
+        assertThat(mPool.getLeasedChannelCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void idleTimeout_closesSession() throws IOException {
+        when(mMockSeSession.openLogicalChannel(eq(FIRA_APPLET_AID))).thenReturn(mMockChannel);
+        OmapiConnection connection = mPool.newConnection();
+        connection.openChannel();
+        connection.closeChannel();
+
+        mTestLooper.moveTimeForward(OmapiConnectionPool.SESSION_IDLE_TIMEOUT_MS - 1);
+        mTestLooper.dispatchAll();
+        verify(mMockSeSession, never()).close();
+
+        mTestLooper.moveTimeForward(1);
+        mTestLooper.dispatchAll();
+        verify(mMockSeSession).close();
+    }
+
+    @Test
+    public void idleTimeout_cancelledByNewLease() throws IOException {
+        when(mMockSeSession.openLogicalChannel(eq(FIRA_APPLET_AID))).thenReturn(mMockChannel);
+        OmapiConnection connection = mPool.newConnection();
+        connection.openChannel();
+        connection.closeChannel();
+        connection.openChannel();
+
+        mTestLooper.moveTimeForward(OmapiConnectionPool.SESSION_IDLE_TIMEOUT_MS);
+        mTestLooper.dispatchAll();
+
+        verify(mMockSeSession, never()).close();
+    }
+
+    @Test
+    public void openChannel_secureElementRemoved_readerLookedUpAgain() throws IOException {
+        when(mMockSeSession.openLogicalChannel(eq(FIRA_APPLET_AID))).thenReturn(mMockChannel);
+        OmapiConnection connection = mPool.newConnection();
+        connection.openChannel();
+        connection.closeChannel();
+
+        Session newSession = mock(Session.class);
+        when(newSession.openLogicalChannel(eq(FIRA_APPLET_AID))).thenReturn(mMockChannel2);
+        when(mMockReader.openSession()).thenReturn(newSession);
+        when(mMockReader.isSecureElementPresent()).thenReturn(false).thenReturn(true);
+        connection.openChannel();
+
+        verify(mMockSeSession).close();
+        verify(mMockSeService, times(2)).getReaders();
+    }
+
+    @Test(expected = IOException.class)
+    public void openChannel_appletNotFound_throws() throws IOException {
+        when(mMockSeSession.openLogicalChannel(eq(FIRA_APPLET_AID))).thenReturn(mMockChannel);
+        when(mMockChannel.getSelectResponse())
+                .thenReturn(ResponseApdu.SW_FILE_NOT_FOUND_APDU.toByteArray());
+
+        mPool.newConnection().openChannel();
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.secure.provisioning;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.android.server.uwb.secure.SecureElementChannel;
+import com.android.server.uwb.secure.iso7816.CommandApdu;
+import com.android.server.uwb.secure.iso7816.ResponseApdu;
+import com.android.server.uwb.secure.iso7816.StatusWord;
+import com.android.server.uwb.util.DataTypeConversionUtil;
+import com.android.server.uwb.util.ObjectIdentifier;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+public class ProvisioningJobSchedulerTest {
+    private static final CommandApdu SELECT_CMD =
+            CommandApdu.builder(0x00, 0xA4, 0x04, 0x00).build();
+    private static final CommandApdu CREATE_ADF_CMD =
+            CommandApdu.builder(0x84, 0xE0, 0x00, 0x00).build();
+    private static final CommandApdu MANAGE_ADF_NOT_LAST_CMD =
+            CommandApdu.builder(0xE0, 0xEA, 0x01, 0x00).build();
+    private static final CommandApdu MANAGE_ADF_LAST_CMD =
+            CommandApdu.builder(0xE0, 0xEA, 0x00, 0x00).build();
+    private static final CommandApdu NOT_ALLOWED_CMD =
+            CommandApdu.builder(0x00, 0xE4, 0x00, 0x00).build();
+    private static final ObjectIdentifier ADF_OID =
+            ObjectIdentifier.fromBytes(new byte[] {(byte) 1});
+    private static final UUID SERVICE_INSTANCE_ID_1 = UUID.fromString("1-2-3-4-5");
+    private static final UUID SERVICE_INSTANCE_ID_2 = UUID.fromString("1-2-3-4-6");
+    private static final ResponseApdu SUCCESS_RESPONSE =
+            ResponseApdu.fromDataAndStatusWord(
+                    DataTypeConversionUtil.hexStringToByteArray("060101"),
+                    StatusWord.SW_NO_ERROR.toInt());
+
+    @Mock
+    private SecureElementChannel mSecureElementChannel1;
+    @Mock
+    private SecureElementChannel mSecureElementChannel2;
+    @Mock
+    private ProvisioningManager.ProvisioningCallback mProvisioningCallback;
+
+    // Jobs are run when the test runs the tasks of the executor.
+    private final List<Runnable> mExecutorTasks = new ArrayList<>();
+    private long mNowMs = 0;
+    private ProvisioningJobScheduler mUnderTest;
+
+    @Before
+    public void setup() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        when(mSecureElementChannel1.openChannel()).thenReturn(true);
+        when(mSecureElementChannel1.transmit(any(CommandApdu.class)))
+                .thenReturn(SUCCESS_RESPONSE);
+        when(mSecureElementChannel2.openChannel()).thenReturn(true);
+        when(mSecureElementChannel2.transmit(any(CommandApdu.class)))
+                .thenReturn(SUCCESS_RESPONSE);
+        mUnderTest = new ProvisioningJobScheduler(
+                mExecutorTasks::add, /* maxConcurrentJobs= */ 2, () -> mNowMs);
+    }
+
+    private ProvisioningJob newJob(UUID serviceInstanceId, SecureElementChannel channel,
+            CommandApdu... commands) {
+        ImmutableList.Builder<byte[]> apdus = ImmutableList.builder();
+        for (CommandApdu command : commands) {
+            apdus.add(command.getEncoded());
+        }
+        return new ProvisioningJob(serviceInstanceId, channel,
+                new ScriptParser.ScriptContent(1, 1, apdus.build(), Optional.of(ADF_OID)),
+                mProvisioningCallback);
+    }
+
+    private void runExecutorTasks() {
+        while (!mExecutorTasks.isEmpty()) {
+            mExecutorTasks.remove(0).run();
+        }
+    }
+
+    @Test
+    public void jobsOfSameChannel_runInOrder() {
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1, CREATE_ADF_CMD));
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_2, mSecureElementChannel1, CREATE_ADF_CMD));
+
+        assertThat(mUnderTest.getRunningJobCount()).isEqualTo(1);
+        assertThat(mUnderTest.getPendingJobCount()).isEqualTo(1);
+
+        runExecutorTasks();
+
+        InOrder inOrder = inOrder(mProvisioningCallback);
+        inOrder.verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        inOrder.verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_2), eq(ADF_OID));
+        assertThat(mUnderTest.getRunningJobCount()).isEqualTo(0);
+        verify(mSecureElementChannel1, times(2)).closeChannel();
+    }
+
+    @Test
+    public void jobsOfDifferentChannels_runConcurrently() {
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1, CREATE_ADF_CMD));
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_2, mSecureElementChannel2, CREATE_ADF_CMD));
+
+        assertThat(mUnderTest.getRunningJobCount()).isEqualTo(2);
+        assertThat(mExecutorTasks).hasSize(2);
+
+        runExecutorTasks();
+
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_2), eq(ADF_OID));
+    }
+
+    @Test
+    public void maxConcurrentJobs_reached_jobIsQueued() {
+        mUnderTest = new ProvisioningJobScheduler(
+                mExecutorTasks::add, /* maxConcurrentJobs= */ 1, () -> mNowMs);
+
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1, CREATE_ADF_CMD));
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_2, mSecureElementChannel2, CREATE_ADF_CMD));
+
+        assertThat(mExecutorTasks).hasSize(1);
+        runExecutorTasks();
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_2), eq(ADF_OID));
+    }
+
+    @Test
+    public void transientFailure_runAgainFromStart() throws IOException {
+        when(mSecureElementChannel1.transmit(eq(MANAGE_ADF_LAST_CMD)))
+                .thenThrow(new IOException("SE error"))
+                .thenReturn(SUCCESS_RESPONSE);
+
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1,
+                SELECT_CMD, CREATE_ADF_CMD, MANAGE_ADF_NOT_LAST_CMD, MANAGE_ADF_LAST_CMD));
+        runExecutorTasks();
+
+        // The whole script is sent again, the callbacks already invoked are not.
+        verify(mSecureElementChannel1, times(2)).transmit(eq(SELECT_CMD));
+        verify(mSecureElementChannel1, times(2)).transmit(eq(CREATE_ADF_CMD));
+        verify(mSecureElementChannel1, times(2)).transmit(eq(MANAGE_ADF_NOT_LAST_CMD));
+        verify(mSecureElementChannel1, times(2)).transmit(eq(MANAGE_ADF_LAST_CMD));
+        verify(mSecureElementChannel1, times(2)).closeChannel();
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        verify(mProvisioningCallback)
+                .onAdfProvisioned(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        verify(mProvisioningCallback, never()).onFail(any());
+    }
+
+    @Test
+    public void transientFailure_adfCreatedByPreviousRun_rejectionTolerated() throws IOException {
+        when(mSecureElementChannel1.transmit(eq(CREATE_ADF_CMD)))
+                .thenReturn(SUCCESS_RESPONSE)
+                .thenReturn(ResponseApdu.fromStatusWord(StatusWord.SW_FILE_ALREADY_EXISTS));
+        when(mSecureElementChannel1.transmit(eq(MANAGE_ADF_LAST_CMD)))
+                .thenThrow(new IOException("SE error"))
+                .thenReturn(SUCCESS_RESPONSE);
+
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1,
+                SELECT_CMD, CREATE_ADF_CMD, MANAGE_ADF_LAST_CMD));
+        runExecutorTasks();
+
+        verify(mSecureElementChannel1, times(2)).transmit(eq(CREATE_ADF_CMD));
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        verify(mProvisioningCallback)
+                .onAdfProvisioned(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        verify(mProvisioningCallback, never()).onFail(any());
+    }
+
+    @Test
+    public void adfApduRejected_firstRun_fails() throws IOException {
+        when(mSecureElementChannel1.transmit(eq(CREATE_ADF_CMD)))
+                .thenReturn(ResponseApdu.fromStatusWord(StatusWord.SW_FILE_ALREADY_EXISTS));
+
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1,
+                CREATE_ADF_CMD, MANAGE_ADF_LAST_CMD));
+        runExecutorTasks();
+
+        verify(mSecureElementChannel1, times(1)).openChannel();
+        verify(mSecureElementChannel1, never()).transmit(eq(MANAGE_ADF_LAST_CMD));
+        verify(mProvisioningCallback).onFail(eq(SERVICE_INSTANCE_ID_1));
+    }
+
+    @Test
+    public void transientFailure_maxAttemptsReached_fails() throws IOException {
+        when(mSecureElementChannel1.transmit(eq(MANAGE_ADF_LAST_CMD)))
+                .thenThrow(new IOException("SE error"));
+
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1,
+                CREATE_ADF_CMD, MANAGE_ADF_LAST_CMD));
+        runExecutorTasks();
+
+        verify(mSecureElementChannel1, times(ProvisioningJobScheduler.MAX_ATTEMPTS))
+                .transmit(eq(CREATE_ADF_CMD));
+        verify(mSecureElementChannel1, times(ProvisioningJobScheduler.MAX_ATTEMPTS))
+                .transmit(eq(MANAGE_ADF_LAST_CMD));
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        verify(mProvisioningCallback).onFail(eq(SERVICE_INSTANCE_ID_1));
+    }
+
+    @Test
+    public void openChannelFailure_runAgain() {
+        when(mSecureElementChannel1.openChannel()).thenReturn(false).thenReturn(true);
+
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1,
+                CREATE_ADF_CMD));
+        runExecutorTasks();
+
+        verify(mSecureElementChannel1, times(2)).openChannel();
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        verify(mProvisioningCallback, never()).onFail(any());
+    }
+
+    @Test
+    public void taskOfSameChannel_runAfterJob() {
+        List<String> order = new ArrayList<>();
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1, CREATE_ADF_CMD));
+        mUnderTest.submit(mSecureElementChannel1, () -> order.add("task"));
+
+        assertThat(mExecutorTasks).hasSize(1);
+        assertThat(mUnderTest.getPendingJobCount()).isEqualTo(1);
+
+        runExecutorTasks();
+
+        verify(mProvisioningCallback).onAdfCreated(eq(SERVICE_INSTANCE_ID_1), eq(ADF_OID));
+        assertThat(order).containsExactly("task");
+        assertThat(mUnderTest.getRunningJobCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void permanentFailure_notRetried() throws IOException {
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1,
+                NOT_ALLOWED_CMD));
+        runExecutorTasks();
+
+        verify(mSecureElementChannel1, times(1)).openChannel();
+        verify(mProvisioningCallback).onFail(eq(SERVICE_INSTANCE_ID_1));
+    }
+
+    @Test
+    public void progress_reportedAfterEachStage() {
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_1, mSecureElementChannel1, CREATE_ADF_CMD));
+        mUnderTest.submit(newJob(SERVICE_INSTANCE_ID_2, mSecureElementChannel1,
+                SELECT_CMD, CREATE_ADF_CMD, MANAGE_ADF_LAST_CMD));
+        mNowMs = 100;
+        mExecutorTasks.remove(0).run();
+        mNowMs = 150;
+        runExecutorTasks();
+
+        ArgumentCaptor<ProvisioningManager.ProvisioningProgress> captor =
+                ArgumentCaptor.forClass(ProvisioningManager.ProvisioningProgress.class);
+        verify(mProvisioningCallback, times(2))
+                .onProgress(eq(SERVICE_INSTANCE_ID_2), captor.capture());
+        ProvisioningManager.ProvisioningProgress progress = captor.getAllValues().get(0);
+        assertThat(progress.completedApdus).isEqualTo(2);
+        assertThat(progress.totalApdus).isEqualTo(3);
+        assertThat(progress.attempts).isEqualTo(1);
+        assertThat(progress.queuedMs).isEqualTo(150);
+        assertThat(progress.runningMs).isEqualTo(0);
+        assertThat(captor.getAllValues().get(1).completedApdus).isEqualTo(3);
+    }
+}
@@ -78,6 +78,7 @@ public class ProvisioningManagerTest {
         mTestLooper.dispatchAll();
 
         verify(mDeleteAdfCallback).onSuccess(eq(SERVICE_INSTANCE_ID), eq(ADF_OID));
+        verify(mSecureElementChannel).closeChannel();
     }
 
     @Test
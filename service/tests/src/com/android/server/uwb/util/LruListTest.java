@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.uwb.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Test class for {@link LruList}.
+ */
+@RunWith(JUnit4.class)
+public class LruListTest {
+
+    @Test
+    public void testAdd_mostRecentFirstAndCapped() {
+        LruList<Integer> lruList = new LruList<>(3);
+        for (int i = 0; i < 5; i++) {
+            lruList.add(i);
+        }
+
+        assertThat(lruList.size()).isEqualTo(3);
+        assertThat(lruList.getEntries()).containsExactly(4, 3, 2).inOrder();
+        assertThat(lruList.indexOf(4)).isEqualTo(0);
+        assertThat(lruList.indexOf(2)).isEqualTo(2);
+        assertThat(lruList.indexOf(0)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testAdd_existingEntryMovesToFront() {
+        LruList<Integer> lruList = new LruList<>(3);
+        lruList.add(1);
+        lruList.add(2);
+        lruList.add(3);
+        lruList.add(1);
+        // 2 is now the least recently added entry.
+        lruList.add(4);
+
+        assertThat(lruList.getEntries()).containsExactly(4, 1, 3).inOrder();
+    }
+
+    @Test
+    public void testRemove() {
+        LruList<Integer> lruList = new LruList<>(3);
+        lruList.add(1);
+        lruList.add(2);
+        lruList.remove(1);
+        lruList.remove(5);
+        lruList.add(null);
+
+        assertThat(lruList.getEntries()).containsExactly(2);
+    }
+}
@@ -17,6 +17,7 @@
 package android.uwb.cts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -171,4 +172,44 @@ public class RangingMeasurementTest {
         RangingMeasurement fromParcel = RangingMeasurement.CREATOR.createFromParcel(parcel);
         assertEquals(measurement, fromParcel);
     }
+
+    @Test
+    public void testParcel_optionalSectionsAbsent() {
+        Parcel parcel = Parcel.obtain();
+        RangingMeasurement measurement = new RangingMeasurement.Builder()
+                .setRemoteDeviceAddress(UwbTestUtils.getUwbAddress(true))
+                .setStatus(RangingMeasurement.RANGING_STATUS_FAILURE_OUT_OF_RANGE)
+                .setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos())
+                .build();
+        measurement.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        RangingMeasurement fromParcel = RangingMeasurement.CREATOR.createFromParcel(parcel);
+        assertEquals(measurement, fromParcel);
+        assertNull(fromParcel.getDistanceMeasurement());
+        assertNull(fromParcel.getAngleOfArrivalMeasurement());
+        assertNull(fromParcel.getDestinationAngleOfArrivalMeasurement());
+        assertNull(fromParcel.getRangingMeasurementMetadata());
+    }
+
+    @Test
+    public void testParcel_aoaWithoutAltitudeAndEmptyMetadata() {
+        Parcel parcel = Parcel.obtain();
+        AngleOfArrivalMeasurement angleMeasurement =
+                new AngleOfArrivalMeasurement.Builder(UwbTestUtils.getAngleMeasurement()).build();
+        RangingMeasurement measurement = new RangingMeasurement.Builder()
+                .setRemoteDeviceAddress(UwbTestUtils.getUwbAddress(false))
+                .setStatus(RangingMeasurement.RANGING_STATUS_SUCCESS)
+                .setElapsedRealtimeNanos(SystemClock.elapsedRealtimeNanos())
+                .setAngleOfArrivalMeasurement(angleMeasurement)
+                .setRangingMeasurementMetadata(new PersistableBundle())
+                .build();
+        measurement.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        RangingMeasurement fromParcel = RangingMeasurement.CREATOR.createFromParcel(parcel);
+        assertEquals(measurement, fromParcel);
+        assertEquals(angleMeasurement, fromParcel.getAngleOfArrivalMeasurement());
+        assertNull(fromParcel.getAngleOfArrivalMeasurement().getAltitude());
+        assertNull(fromParcel.getDistanceMeasurement());
+        assertTrue(fromParcel.getRangingMeasurementMetadata().isEmpty());
+    }
 }
@@ -17,6 +17,7 @@
 package android.uwb.cts;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import android.os.Parcel;
@@ -40,7 +41,6 @@ import java.util.List;
 @SmallTest
 @RunWith(AndroidJUnit4.class)
 public class RangingReportTest {
-
     @Test
     public void testBuilder() {
         List<RangingMeasurement> measurements = UwbTestUtils.getRangingMeasurements(5);
@@ -102,4 +102,17 @@ public class RangingReportTest {
         RangingReport fromParcel = RangingReport.CREATOR.createFromParcel(parcel);
         assertEquals(report, fromParcel);
     }
+
+    @Test
+    public void testParcel_noMetadata() {
+        Parcel parcel = Parcel.obtain();
+        RangingReport report = new RangingReport.Builder()
+                .addMeasurement(UwbTestUtils.getRangingMeasurement())
+                .build();
+        report.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        RangingReport fromParcel = RangingReport.CREATOR.createFromParcel(parcel);
+        assertEquals(report, fromParcel);
+        assertTrue(fromParcel.getRangingReportMetadata().isEmpty());
+    }
 }